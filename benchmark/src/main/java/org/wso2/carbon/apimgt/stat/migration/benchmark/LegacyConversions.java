@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * The timestamp helpers of DBManagerImpl before the introduction of TimestampConverter, kept as the baseline of the
+ * timestamp benchmarks. Each call builds the date string and looks up the formatter, as the original code did.
+ */
+final class LegacyConversions {
+
+    private static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm";
+    private static final String TIMESTAMP_DAY_PATTERN = "yyyy-M-dd";
+    private static final String TIMESTAMP_HOUR_PATTERN = "yyyy-M-dd HH";
+    private static final String TIMESTAMP_MINUTE_PATTERN = "yyyy-M-dd HH:mm";
+
+    private LegacyConversions() {
+    }
+
+    static long getTimestamp(String date) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(TIMESTAMP_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(date);
+        return dateTime.getMillis();
+    }
+
+    static long getTimestampOfDay(int year, int month, int day) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(TIMESTAMP_DAY_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(year + "-" + month + "-" + day);
+        return dateTime.getMillis();
+    }
+
+    static long getTimestampOfHour(int year, int month, int day, int hour) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(TIMESTAMP_HOUR_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(year + "-" + month + "-" + day + " " + hour);
+        return dateTime.getMillis();
+    }
+
+    static long getTimestampOfMinute(int year, int month, int day, int hour, int minute) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(TIMESTAMP_MINUTE_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(year + "-" + month + "-" + day + " " + hour + ":" + minute);
+        return dateTime.getMillis();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.wso2.carbon.apimgt.stat.migration.util.APIMStatMigrationConstants;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMapping;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMappings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The summary tables of the previous stats database, with the columns read by the migrations of {@link TableMappings}.
+ * Tables read by more than one migration have the columns of all of them.
+ */
+final class LegacyStatsSchema {
+
+    static final List<TableMapping> MAPPINGS = Collections.unmodifiableList(Arrays.asList(
+            TableMappings.DESTINATION_SUMMARY, TableMappings.RESOURCE_USAGE_SUMMARY,
+            TableMappings.VERSION_USAGE_SUMMARY, TableMappings.LAST_ACCESS_TIME_SUMMARY,
+            TableMappings.FAULT_SUMMARY, TableMappings.USER_BROWSER_SUMMARY, TableMappings.GEO_LOCATION_SUMMARY,
+            TableMappings.EXECUTION_TIME_DAY_SUMMARY, TableMappings.EXECUTION_TIME_HOUR_SUMMARY,
+            TableMappings.EXECUTION_TIME_MINUTE_SUMMARY, TableMappings.THROTTLED_OUT_SUMMARY,
+            TableMappings.THROTTLED_OUT_REQUEST_COUNT_SUMMARY, TableMappings.REQUEST_SUMMARY));
+
+    //fields which are selected with an aggregate function, mapped to the column they aggregate
+    private static final Map<String, String> AGGREGATED_COLUMNS = new HashMap<>();
+    //columns which are only used to group the rows
+    private static final Map<String, List<String>> GROUPING_COLUMNS = new HashMap<>();
+    //share of the rows of each table, the tables with a finer granularity have more rows
+    private static final Map<String, Integer> WEIGHTS = new HashMap<>();
+
+    static {
+        AGGREGATED_COLUMNS.put("successCount", "success_request_count");
+        AGGREGATED_COLUMNS.put("throttledCount", "throttleout_count");
+        GROUPING_COLUMNS.put(APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY, Collections.singletonList("week"));
+        WEIGHTS.put(APIMStatMigrationConstants.API_EXE_TIME_MIN_SUMMARY, 8);
+        WEIGHTS.put(APIMStatMigrationConstants.API_EXE_TIME_HOUR_SUMMARY, 3);
+        WEIGHTS.put(APIMStatMigrationConstants.API_REQUEST_SUMMARY, 3);
+        WEIGHTS.put(APIMStatMigrationConstants.API_RESOURCE_USAGE_SUMMARY, 2);
+    }
+
+    private LegacyStatsSchema() {
+    }
+
+    /**
+     * @return the source tables of all the migrations
+     */
+    static List<SourceTable> getSourceTables() {
+        Map<String, SourceTable> tables = new LinkedHashMap<>();
+        for (TableMapping mapping : MAPPINGS) {
+            SourceTable table = tables.get(mapping.getSourceTable());
+            if (table == null) {
+                table = new SourceTable(mapping.getSourceTable());
+                tables.put(table.getName(), table);
+                List<String> groupingColumns = GROUPING_COLUMNS.get(table.getName());
+                if (groupingColumns != null) {
+                    table.addLongColumns(groupingColumns);
+                }
+            }
+            table.addStringColumns(mapping.getStringFields());
+            table.addLongColumns(mapping.getLongFields());
+        }
+        return new ArrayList<>(tables.values());
+    }
+
+    /**
+     * A table of the previous stats database
+     */
+    static final class SourceTable {
+
+        private final String name;
+        private final List<String> stringColumns = new ArrayList<>();
+        private final List<String> longColumns = new ArrayList<>();
+
+        private SourceTable(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        List<String> getStringColumns() {
+            return stringColumns;
+        }
+
+        List<String> getLongColumns() {
+            return longColumns;
+        }
+
+        int getWeight() {
+            Integer weight = WEIGHTS.get(name);
+            return weight != null ? weight : 1;
+        }
+
+        private void addStringColumns(List<String> columns) {
+            for (String column : columns) {
+                if (!stringColumns.contains(column)) {
+                    stringColumns.add(column);
+                }
+            }
+        }
+
+        private void addLongColumns(List<String> columns) {
+            for (String column : columns) {
+                String sourceColumn = AGGREGATED_COLUMNS.containsKey(column) ? AGGREGATED_COLUMNS.get(column) : column;
+                if (!longColumns.contains(sourceColumn)) {
+                    longColumns.add(sourceColumn);
+                }
+            }
+        }
+    }
+}
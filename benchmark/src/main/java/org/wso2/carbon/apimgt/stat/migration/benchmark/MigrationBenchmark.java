@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+import org.wso2.carbon.apimgt.stat.migration.client.APIMStatMigrationClient;
+import org.wso2.carbon.apimgt.stat.migration.util.DBManagerImpl;
+import org.wso2.carbon.apimgt.stat.migration.util.MigrationConfiguration;
+import org.wso2.carbon.apimgt.stat.migration.util.MigrationMetrics;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMapping;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the complete stat migration against embedded H2 databases filled with generated rows, and reports the wall
+ * time, the throughput of every table, the peak heap usage and the time spent in garbage collection.
+ * <p>
+ * Usage: {@code MigrationBenchmark [total source rows] [database directory]}. The source rows are spread over the
+ * summary tables of the previous stats database, the default is 1,000,000. The migration is configured with the
+ * usual {@code migrateStats.*} system properties. Generating the rows takes longer than migrating them, so with
+ * {@code -Dbenchmark.reuseData=true} the previous stats database of an earlier run with the same number of rows is
+ * migrated again.
+ */
+public final class MigrationBenchmark {
+
+    private static final long DEFAULT_ROW_COUNT = 1000000;
+    private static final String DEFAULT_DIRECTORY = "target/migration-benchmark";
+    private static final String REUSE_DATA = "benchmark.reuseData";
+    private static final long SEED = 42;
+
+    private MigrationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long rowCount = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_ROW_COUNT;
+        Path directory = Paths.get(args.length > 1 ? args[1] : DEFAULT_DIRECTORY).toAbsolutePath();
+        int maxConnections = MigrationConfiguration.getMaxConnections();
+        JdbcConnectionPool oldStatsPool = createPool("jdbc:h2:file:" + directory.resolve("WSO2AM_STATS_DB_" + rowCount),
+                maxConnections);
+        JdbcConnectionPool newStatsPool = createPool("jdbc:h2:file:" + directory.resolve("APIM_ANALYTICS_DB"),
+                maxConnections);
+        JdbcConnectionPool apimPool = createPool("jdbc:h2:mem:WSO2AM_DB;DB_CLOSE_DELAY=-1", maxConnections);
+        try {
+            prepareOldStatsDatabase(oldStatsPool, rowCount);
+            prepareNewStatsDatabase(newStatsPool);
+            try (Connection connection = apimPool.getConnection()) {
+                SyntheticData.execute(connection, "DROP ALL OBJECTS");
+                SyntheticData.createApplicationKeyMapping(connection);
+            }
+            DBManagerImpl.initialize(oldStatsPool, newStatsPool, apimPool);
+            run(rowCount, newStatsPool);
+        } finally {
+            oldStatsPool.dispose();
+            newStatsPool.dispose();
+            apimPool.dispose();
+        }
+    }
+
+    private static JdbcConnectionPool createPool(String url, int maxConnections) {
+        JdbcConnectionPool pool = JdbcConnectionPool.create(url, "sa", "");
+        pool.setMaxConnections(maxConnections);
+        return pool;
+    }
+
+    private static void prepareOldStatsDatabase(JdbcConnectionPool pool, long rowCount) throws SQLException {
+        List<LegacyStatsSchema.SourceTable> tables = LegacyStatsSchema.getSourceTables();
+        try (Connection connection = pool.getConnection()) {
+            if (Boolean.getBoolean(REUSE_DATA) && hasTable(connection, tables.get(tables.size() - 1).getName())) {
+                System.out.println("Reusing the generated rows of the previous stats database");
+                return;
+            }
+            SyntheticData.execute(connection, "DROP ALL OBJECTS");
+            int totalWeight = 0;
+            for (LegacyStatsSchema.SourceTable table : tables) {
+                totalWeight += table.getWeight();
+            }
+            long seed = SEED;
+            for (LegacyStatsSchema.SourceTable table : tables) {
+                long tableRowCount = rowCount * table.getWeight() / totalWeight;
+                System.out.println("Generating " + tableRowCount + " rows of " + table.getName());
+                SyntheticData.createSourceTable(connection, table.getName(), table.getStringColumns(),
+                        table.getLongColumns());
+                SyntheticData.fillSourceTable(connection, table.getName(), table.getStringColumns(),
+                        table.getLongColumns(), tableRowCount, seed++);
+            }
+        }
+    }
+
+    private static void prepareNewStatsDatabase(JdbcConnectionPool pool) throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            SyntheticData.execute(connection, "DROP ALL OBJECTS");
+            for (TableMapping mapping : LegacyStatsSchema.MAPPINGS) {
+                SyntheticData.createTargetTable(connection, mapping);
+            }
+        }
+    }
+
+    private static void run(long rowCount, JdbcConnectionPool newStatsPool)
+            throws APIMStatMigrationException, SQLException {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        long gcCount = getGcCount();
+        long gcMillis = getGcMillis();
+        long start = System.nanoTime();
+        new APIMStatMigrationClient(new DBManagerImpl()).statDbMigration();
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        gcCount = getGcCount() - gcCount;
+        gcMillis = getGcMillis() - gcMillis;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        MigrationMetrics metrics = MigrationMetrics.getInstance();
+        System.out.println();
+        System.out.println(String.format("Migrated %d source rows in %.1f s, %.0f rows/s", rowCount,
+                wallMillis / 1000.0, wallMillis == 0 ? 0 : rowCount * 1000.0 / wallMillis));
+        System.out.println(String.format("Peak heap %d MB of %d MB, %d garbage collections taking %.1f s",
+                peakHeap >> 20, Runtime.getRuntime().maxMemory() >> 20, gcCount, gcMillis / 1000.0));
+        System.out.println(String.format("%-32s %12s %12s %12s %12s", "Table", "Rows read", "Rows written",
+                "Target rows", "Rows/s"));
+        try (Connection connection = newStatsPool.getConnection()) {
+            for (TableMapping mapping : LegacyStatsSchema.MAPPINGS) {
+                String table = mapping.getTargetTable();
+                System.out.println(String.format("%-32s %12d %12d %12d %12.0f", table, metrics.getRowsRead(table),
+                        metrics.getRowsWritten(table), countRows(connection, table), metrics.getRowsPerSecond(table)));
+            }
+        }
+    }
+
+    private static boolean hasTable(Connection connection, String tableName) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getTables(null, null, tableName.toUpperCase(), null)) {
+            return resultSet.next();
+        }
+    }
+
+    private static long countRows(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName);
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
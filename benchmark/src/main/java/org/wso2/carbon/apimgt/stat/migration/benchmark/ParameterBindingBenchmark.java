@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+import org.wso2.carbon.apimgt.stat.migration.util.BatchInsertWriter;
+import org.wso2.carbon.apimgt.stat.migration.util.ConvertedBatch;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatch;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatchConverter;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatchReader;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatchWriter;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMapping;
+import org.wso2.carbon.apimgt.stat.migration.util.TablePartition;
+import org.wso2.carbon.apimgt.stat.migration.util.TimestampConverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting the source rows and binding them on the insert statement, per row. The rows are added to the
+ * JDBC batch but never executed, so the database does no work. The baseline converts the time columns with the
+ * legacy Joda helpers and binds every column separately.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@OperationsPerInvocation(TableFixture.ROW_COUNT)
+public class ParameterBindingBenchmark extends TableFixture {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final List<RowBatch> batches = new ArrayList<>();
+    private PreparedStatement insert;
+    private TimestampConverter converter;
+
+    @Setup
+    public void setUp() throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                mapping.getSourceQuery(TablePartition.all(mapping.getSourceTable())));
+             ResultSet resultSet = query.executeQuery()) {
+            RowBatchReader reader = new RowBatchReader(resultSet, mapping);
+            RowBatch batch = new RowBatch(mapping, BATCH_SIZE);
+            while (reader.read(batch)) {
+                batches.add(batch);
+                batch = new RowBatch(mapping, BATCH_SIZE);
+            }
+        }
+        insert = connection.prepareStatement(mapping.getInsertQuery());
+        converter = new TimestampConverter();
+    }
+
+    @Benchmark
+    public void legacyBinding() throws SQLException {
+        List<TableMapping.Column> columns = mapping.getColumns();
+        for (RowBatch batch : batches) {
+            for (int row = 0; row < batch.getSize(); row++) {
+                int parameter = 1;
+                for (TableMapping.Column column : columns) {
+                    if (!column.isConstant()) {
+                        bindLegacy(column, batch, row, parameter++);
+                    }
+                }
+                insert.addBatch();
+            }
+        }
+        insert.clearBatch();
+    }
+
+    @Benchmark
+    public void rowBatchWriter() throws SQLException, APIMStatMigrationException {
+        BatchInsertWriter writer = new BatchInsertWriter(mapping.getTargetTable(), connection, insert,
+                Integer.MAX_VALUE);
+        RowBatchConverter rowConverter = new RowBatchConverter(mapping, null, converter);
+        ConvertedBatch converted = rowConverter.newBatch(BATCH_SIZE);
+        RowBatchWriter batchWriter = new RowBatchWriter(mapping, insert, writer);
+        for (RowBatch batch : batches) {
+            rowConverter.convert(batch, converted);
+            batchWriter.write(converted);
+        }
+        insert.clearBatch();
+    }
+
+    private void bindLegacy(TableMapping.Column column, RowBatch batch, int row, int parameter)
+            throws SQLException {
+        int[] fields = column.getFieldIndexes();
+        switch (column.getConversion()) {
+            case TIME:
+                insert.setLong(parameter, LegacyConversions.getTimestamp(batch.getString(fields[0], row)));
+                break;
+            case DAY_TIMESTAMP:
+                insert.setLong(parameter, LegacyConversions.getTimestampOfDay(getInt(batch, fields[0], row),
+                        getInt(batch, fields[1], row), getInt(batch, fields[2], row)));
+                break;
+            case HOUR_TIMESTAMP:
+                insert.setLong(parameter, LegacyConversions.getTimestampOfHour(getInt(batch, fields[0], row),
+                        getInt(batch, fields[1], row), getInt(batch, fields[2], row), getInt(batch, fields[3], row)));
+                break;
+            case MINUTE_TIMESTAMP:
+                insert.setLong(parameter, LegacyConversions.getTimestampOfMinute(getInt(batch, fields[0], row),
+                        getInt(batch, fields[1], row), getInt(batch, fields[2], row), getInt(batch, fields[3], row),
+                        getInt(batch, fields[4], row)));
+                break;
+            case LONG:
+                insert.setLong(parameter, batch.getLong(fields[0], row));
+                break;
+            default:
+                insert.setString(parameter, batch.getString(fields[0], row));
+        }
+    }
+
+    private static int getInt(RowBatch batch, int field, int row) {
+        return (int) batch.getLong(field, row);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatch;
+import org.wso2.carbon.apimgt.stat.migration.util.RowBatchReader;
+import org.wso2.carbon.apimgt.stat.migration.util.TablePartition;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the columns of the source rows from a result set, per row. The baseline looks every column up by
+ * name as the hand-written migrations did, the engine resolves the column indexes once per result set.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@OperationsPerInvocation(TableFixture.ROW_COUNT)
+public class RowExtractionBenchmark extends TableFixture {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private PreparedStatement query;
+    private RowBatch batch;
+
+    @Setup
+    public void setUp() throws SQLException {
+        query = connection.prepareStatement(mapping.getSourceQuery(TablePartition.all(mapping.getSourceTable())));
+        batch = new RowBatch(mapping, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public void byColumnName(Blackhole blackhole) throws SQLException {
+        List<String> stringFields = mapping.getStringFields();
+        List<String> longFields = mapping.getLongFields();
+        try (ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next()) {
+                for (String field : stringFields) {
+                    blackhole.consume(resultSet.getString(field));
+                }
+                for (String field : longFields) {
+                    blackhole.consume(resultSet.getLong(field));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void rowBatchReader(Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = query.executeQuery()) {
+            RowBatchReader reader = new RowBatchReader(resultSet, mapping);
+            while (reader.read(batch)) {
+                blackhole.consume(batch.getKey(batch.getSize() - 1));
+            }
+        }
+    }
+}
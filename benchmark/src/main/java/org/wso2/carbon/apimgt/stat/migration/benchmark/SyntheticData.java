@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.wso2.carbon.apimgt.stat.migration.util.TableMapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Creates the tables of a {@link TableMapping} in an embedded database and fills the source table with generated
+ * rows. The column types are derived from the mapping and the values are drawn from fixed pools with the given seed,
+ * so the same seed always produces the same rows.
+ */
+public final class SyntheticData {
+
+    public static final int API_COUNT = 200;
+    public static final int VERSION_COUNT = 5;
+    public static final int PUBLISHER_COUNT = 20;
+    public static final int TENANT_COUNT = 10;
+    public static final int CONSUMER_KEY_COUNT = 2000;
+    public static final int DEFAULT_CARDINALITY = 50;
+    private static final int FIRST_YEAR = 2016;
+    private static final int YEAR_COUNT = 3;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * This method creates the source table of a mapping, with a column per field of the mapping
+     *
+     * @param connection connection to the embedded database
+     * @param mapping    mapping of the table
+     * @throws SQLException if the table cannot be created
+     */
+    public static void createSourceTable(Connection connection, TableMapping mapping) throws SQLException {
+        createSourceTable(connection, mapping.getSourceTable(), mapping.getStringFields(), mapping.getLongFields());
+    }
+
+    /**
+     * This method creates a source table with the given columns
+     *
+     * @param connection    connection to the embedded database
+     * @param tableName     name of the table
+     * @param stringColumns columns of the table holding strings
+     * @param longColumns   columns of the table holding numbers
+     * @throws SQLException if the table cannot be created
+     */
+    public static void createSourceTable(Connection connection, String tableName, List<String> stringColumns,
+            List<String> longColumns) throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(tableName).append(" (");
+        for (String column : stringColumns) {
+            ddl.append(column).append(" VARCHAR(254), ");
+        }
+        for (String column : longColumns) {
+            ddl.append(column).append(" BIGINT, ");
+        }
+        ddl.setLength(ddl.length() - 2);
+        execute(connection, ddl.append(')').toString());
+    }
+
+    /**
+     * This method creates the target table of a mapping, with a column per target column of the mapping
+     *
+     * @param connection connection to the embedded database
+     * @param mapping    mapping of the table
+     * @throws SQLException if the table cannot be created
+     */
+    public static void createTargetTable(Connection connection, TableMapping mapping) throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(mapping.getTargetTable()).append(" (");
+        for (TableMapping.Column column : mapping.getColumns()) {
+            boolean stringColumn = column.isConstant() || column.getConversion().isStringValue();
+            ddl.append(column.getTargetColumn()).append(stringColumn ? " VARCHAR(254), " : " BIGINT, ");
+        }
+        ddl.setLength(ddl.length() - 2);
+        execute(connection, ddl.append(')').toString());
+    }
+
+    /**
+     * This method inserts generated rows into the source table of a mapping
+     *
+     * @param connection connection to the embedded database
+     * @param mapping    mapping of the table
+     * @param rowCount   number of rows to insert
+     * @param seed       seed of the generated values
+     * @throws SQLException if the rows cannot be inserted
+     */
+    public static void fillSourceTable(Connection connection, TableMapping mapping, long rowCount, long seed)
+            throws SQLException {
+        fillSourceTable(connection, mapping.getSourceTable(), mapping.getStringFields(), mapping.getLongFields(),
+                rowCount, seed);
+    }
+
+    /**
+     * This method inserts generated rows into a source table with the given columns
+     *
+     * @param connection   connection to the embedded database
+     * @param tableName    name of the table
+     * @param stringFields columns of the table holding strings
+     * @param longFields   columns of the table holding numbers
+     * @param rowCount     number of rows to insert
+     * @param seed         seed of the generated values
+     * @throws SQLException if the rows cannot be inserted
+     */
+    public static void fillSourceTable(Connection connection, String tableName, List<String> stringFields,
+            List<String> longFields, long rowCount, long seed) throws SQLException {
+        List<String> columns = new ArrayList<>(stringFields);
+        columns.addAll(longFields);
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (String column : columns) {
+            insert.append(parameters.length() == 0 ? "" : ", ").append(column);
+            parameters.append(parameters.length() == 0 ? "?" : ", ?");
+        }
+        insert.append(") VALUES (").append(parameters).append(')');
+
+        Random random = new Random(seed);
+        SyntheticRow row = new SyntheticRow();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(insert.toString())) {
+            for (long i = 0; i < rowCount; i++) {
+                row.next(random);
+                for (int field = 0; field < stringFields.size(); field++) {
+                    statement.setString(field + 1, row.getString(stringFields.get(field)));
+                }
+                for (int field = 0; field < longFields.size(); field++) {
+                    statement.setLong(stringFields.size() + field + 1, row.getLong(longFields.get(field)));
+                }
+                statement.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * This method creates the AM_APPLICATION_KEY_MAPPING table of the API Manager database with an application per
+     * generated consumer key
+     *
+     * @param connection connection to the embedded database
+     * @throws SQLException if the table cannot be created
+     */
+    public static void createApplicationKeyMapping(Connection connection) throws SQLException {
+        execute(connection, "CREATE TABLE AM_APPLICATION_KEY_MAPPING (APPLICATION_ID INTEGER NOT NULL, "
+                + "CONSUMER_KEY VARCHAR(255), KEY_TYPE VARCHAR(512) NOT NULL, STATE VARCHAR(30) NOT NULL, "
+                + "PRIMARY KEY (APPLICATION_ID, KEY_TYPE))");
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO AM_APPLICATION_KEY_MAPPING "
+                + "(APPLICATION_ID, CONSUMER_KEY, KEY_TYPE, STATE) VALUES (?, ?, 'PRODUCTION', 'COMPLETED')")) {
+            for (int i = 0; i < CONSUMER_KEY_COUNT; i++) {
+                statement.setInt(1, i + 1);
+                statement.setString(2, getConsumerKey(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * The values of a generated row. The API related columns are derived from the same API so that they are
+     * consistent, e.g. the context contains the name and version of the API.
+     */
+    static final class SyntheticRow {
+
+        private final Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
+        private int api;
+        private int version;
+        private int publisher;
+        private int tenant;
+        private int consumerKey;
+        private int year;
+        private int month;
+        private int day;
+        private int hour;
+        private int minute;
+        private int other;
+        private long count;
+
+        void next(Random random) {
+            api = random.nextInt(API_COUNT);
+            version = random.nextInt(VERSION_COUNT);
+            publisher = api % PUBLISHER_COUNT;
+            tenant = publisher % TENANT_COUNT;
+            //a few applications make most of the calls
+            consumerKey = (int) (Math.pow(random.nextDouble(), 3) * CONSUMER_KEY_COUNT);
+            year = FIRST_YEAR + random.nextInt(YEAR_COUNT);
+            month = 1 + random.nextInt(12);
+            day = 1 + random.nextInt(28);
+            hour = random.nextInt(24);
+            minute = random.nextInt(60);
+            other = random.nextInt(DEFAULT_CARDINALITY);
+            count = 1 + random.nextInt(1000);
+        }
+
+        String getString(String field) {
+            switch (field) {
+                case "api":
+                    return getApiName();
+                case "version":
+                    return getVersion();
+                case "api_version":
+                    return getApiName() + ":v" + getVersion();
+                case "apiPublisher":
+                    return "publisher" + publisher + "@" + getTenantDomain();
+                case "tenantDomain":
+                    return getTenantDomain();
+                case "context":
+                    return "/t/" + getTenantDomain() + "/" + getApiName() + "/" + getVersion();
+                case "consumerKey":
+                    return getConsumerKey(consumerKey);
+                case "time":
+                    return String.format("%04d-%02d-%02d %02d:%02d", year, month, day, hour, minute);
+                case "hostName":
+                    return "gateway" + (other % 4) + ".example.com";
+                case "method":
+                    return new String[]{"GET", "POST", "PUT", "DELETE"}[other % 4];
+                case "resourcePath":
+                    return "/resource" + (other % 10);
+                default:
+                    return field + other;
+            }
+        }
+
+        long getLong(String field) {
+            switch (field) {
+                case "year":
+                    return year;
+                case "month":
+                    return month;
+                case "day":
+                    return day;
+                case "hour":
+                    return hour;
+                case "minutes":
+                    return minute;
+                case "week":
+                    return (day - 1) / 7 + 1;
+                case "time":
+                case "requestTime":
+                case "max_request_time":
+                    calendar.clear();
+                    calendar.set(year, month - 1, day, hour, minute);
+                    return calendar.getTimeInMillis();
+                default:
+                    return count;
+            }
+        }
+
+        private String getApiName() {
+            return "api" + api;
+        }
+
+        private String getVersion() {
+            return "1.0." + version;
+        }
+
+        private String getTenantDomain() {
+            return tenant == 0 ? "carbon.super" : "tenant" + tenant + ".com";
+        }
+    }
+
+    /**
+     * @param index index of the consumer key between 0 and {@link #CONSUMER_KEY_COUNT}
+     * @return the consumer key
+     */
+    public static String getConsumerKey(int index) {
+        return String.format("consumerKey%08d", index);
+    }
+}
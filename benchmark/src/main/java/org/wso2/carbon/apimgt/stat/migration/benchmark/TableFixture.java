@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMapping;
+import org.wso2.carbon.apimgt.stat.migration.util.TableMappings;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * An in-memory H2 database holding the source and target tables of a mapping, with {@link #ROW_COUNT} generated
+ * source rows. The mapping is one of the constants of {@link TableMappings}, a table with mostly strings and a table
+ * with mostly numbers by default.
+ */
+@State(Scope.Benchmark)
+public abstract class TableFixture {
+
+    public static final int ROW_COUNT = 10000;
+    private static final long SEED = 42;
+
+    @Param({"DESTINATION_SUMMARY", "EXECUTION_TIME_MINUTE_SUMMARY"})
+    public String mappingName;
+
+    protected TableMapping mapping;
+    protected Connection connection;
+
+    @Setup
+    public void setUpDatabase() throws Exception {
+        mapping = (TableMapping) TableMappings.class.getField(mappingName).get(null);
+        connection = DriverManager.getConnection("jdbc:h2:mem:" + getClass().getSimpleName() + mappingName
+                + ";DB_CLOSE_DELAY=-1");
+        SyntheticData.createSourceTable(connection, mapping);
+        SyntheticData.createTargetTable(connection, mapping);
+        SyntheticData.fillSourceTable(connection, mapping, ROW_COUNT, SEED);
+    }
+
+    @TearDown
+    public void tearDownDatabase() throws SQLException {
+        SyntheticData.execute(connection, "DROP ALL OBJECTS");
+        connection.close();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.apimgt.stat.migration.util.TimestampConverter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of the time columns of a single row, with the legacy Joda helpers as the baseline. The
+ * dates cycle through a fixed set of random values, which is larger than the memo of the converter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class TimestampConversionBenchmark {
+
+    private static final int DATE_COUNT = 4096;
+
+    private final int[] years = new int[DATE_COUNT];
+    private final int[] months = new int[DATE_COUNT];
+    private final int[] days = new int[DATE_COUNT];
+    private final int[] hours = new int[DATE_COUNT];
+    private final int[] minutes = new int[DATE_COUNT];
+    private final String[] times = new String[DATE_COUNT];
+    private TimestampConverter converter;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < DATE_COUNT; i++) {
+            years[i] = 2016 + random.nextInt(3);
+            months[i] = 1 + random.nextInt(12);
+            days[i] = 1 + random.nextInt(28);
+            hours[i] = random.nextInt(24);
+            minutes[i] = random.nextInt(60);
+            times[i] = String.format("%04d-%02d-%02d %02d:%02d", years[i], months[i], days[i], hours[i], minutes[i]);
+        }
+        converter = new TimestampConverter();
+    }
+
+    private int next() {
+        index = (index + 1) & (DATE_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public long legacyTime() {
+        return LegacyConversions.getTimestamp(times[next()]);
+    }
+
+    @Benchmark
+    public long parseTime() {
+        return converter.parseTime(times[next()]);
+    }
+
+    @Benchmark
+    public long legacyDayTimestamp() {
+        int i = next();
+        return LegacyConversions.getTimestampOfDay(years[i], months[i], days[i]);
+    }
+
+    @Benchmark
+    public long dayTimestamp() {
+        int i = next();
+        return converter.toDayTimestamp(years[i], months[i], days[i]);
+    }
+
+    @Benchmark
+    public long legacyHourTimestamp() {
+        int i = next();
+        return LegacyConversions.getTimestampOfHour(years[i], months[i], days[i], hours[i]);
+    }
+
+    @Benchmark
+    public long hourTimestamp() {
+        int i = next();
+        return converter.toHourTimestamp(years[i], months[i], days[i], hours[i]);
+    }
+
+    @Benchmark
+    public long legacyMinuteTimestamp() {
+        int i = next();
+        return LegacyConversions.getTimestampOfMinute(years[i], months[i], days[i], hours[i], minutes[i]);
+    }
+
+    @Benchmark
+    public long minuteTimestamp() {
+        int i = next();
+        return converter.toMinuteTimestamp(years[i], months[i], days[i], hours[i], minutes[i]);
+    }
+}
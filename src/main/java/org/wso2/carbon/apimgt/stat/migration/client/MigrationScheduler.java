@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+import org.wso2.carbon.apimgt.stat.migration.util.DBManager;
+import org.wso2.carbon.apimgt.stat.migration.util.MigrationMetrics;
+import org.wso2.carbon.apimgt.stat.migration.util.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the table migrations on a bounded pool of worker threads, starting with the largest tables. The number of
+ * database connections used is limited by the connection budget of the db manager. A failing table does not stop the
+ * other tables, all the failures are reported once every task has finished.
+ */
+public class MigrationScheduler {
+
+    private static final Log log = LogFactory.getLog(MigrationScheduler.class);
+
+    private final DBManager dbManager;
+    private final int threadCount;
+
+    /**
+     * @param dbManager   db manager used to run the migrations
+     * @param threadCount maximum number of tables migrated at the same time
+     */
+    public MigrationScheduler(DBManager dbManager, int threadCount) {
+        this.dbManager = dbManager;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * This method runs the given migration tasks and waits for all of them to finish
+     *
+     * @param tasks tasks to run
+     * @throws APIMStatMigrationException if any of the tasks failed
+     */
+    public void run(List<MigrationTask> tasks) throws APIMStatMigrationException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, tasks.size())),
+                new NamedThreadFactory("StatMigrationWorker"));
+        final Map<MigrationTask, Throwable> failures = Collections.synchronizedMap(
+                new LinkedHashMap<MigrationTask, Throwable>());
+        try {
+            List<MigrationTask> orderedTasks = orderBySourceRowCount(tasks, executor);
+            List<Future<?>> futures = new ArrayList<>();
+            for (final MigrationTask task : orderedTasks) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask(task, failures);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIMStatMigrationException("Stat migration was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new APIMStatMigrationException("Unexpected error occurred while running the stat migration",
+                    e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            StringBuilder failedTables = new StringBuilder();
+            for (Map.Entry<MigrationTask, Throwable> failure : failures.entrySet()) {
+                log.error("Migration of " + failure.getKey().getDisplayName() + " table failed",
+                        failure.getValue());
+                if (failedTables.length() > 0) {
+                    failedTables.append(", ");
+                }
+                failedTables.append(failure.getKey().getDisplayName());
+            }
+            throw new APIMStatMigrationException("Stat migration failed for " + failures.size() + " of "
+                    + tasks.size() + " tables: " + failedTables);
+        }
+    }
+
+    private void runTask(MigrationTask task, Map<MigrationTask, Throwable> failures) {
+        try {
+            log.info("----------------Started migrating " + task.getDisplayName() + " table------------------");
+            task.migrate(dbManager);
+            log.info("----------------Completed migrating " + task.getDisplayName() + " table------------------");
+        } catch (Exception e) {
+            failures.put(task, e);
+        }
+    }
+
+    /**
+     * This method orders the tasks so that the tables with the most rows are migrated first, which keeps the largest
+     * table from being started last and defining the total run time. The row counts are estimated from the
+     * statistics of the database instead of counted, and are read concurrently. The tables without an estimate are
+     * scheduled last.
+     */
+    private List<MigrationTask> orderBySourceRowCount(List<MigrationTask> tasks, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        Map<String, Future<Long>> countsByTable = new HashMap<>();
+        for (MigrationTask task : tasks) {
+            final String sourceTable = task.getSourceTable();
+            if (!countsByTable.containsKey(sourceTable)) {
+                countsByTable.put(sourceTable, executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return estimateRows(sourceTable);
+                    }
+                }));
+            }
+        }
+        final Map<MigrationTask, Long> rowCounts = new HashMap<>();
+        for (MigrationTask task : tasks) {
+            rowCounts.put(task, countsByTable.get(task.getSourceTable()).get());
+        }
+        for (Map.Entry<String, Future<Long>> count : countsByTable.entrySet()) {
+            if (count.getValue().get() >= 0) {
+                MigrationMetrics.getInstance().setSourceRowCount(count.getKey(), count.getValue().get());
+            }
+        }
+        List<MigrationTask> orderedTasks = new ArrayList<>(tasks);
+        Collections.sort(orderedTasks, new Comparator<MigrationTask>() {
+            @Override
+            public int compare(MigrationTask task1, MigrationTask task2) {
+                return Long.compare(rowCounts.get(task2), rowCounts.get(task1));
+            }
+        });
+        if (log.isDebugEnabled()) {
+            for (MigrationTask task : orderedTasks) {
+                log.debug(task.getDisplayName() + " table has an estimated " + rowCounts.get(task) + " rows");
+            }
+        }
+        return orderedTasks;
+    }
+
+    private long estimateRows(String sourceTable) {
+        try {
+            return dbManager.getEstimatedSourceRowCount(sourceTable);
+        } catch (APIMStatMigrationException e) {
+            //the ordering is only an optimization, so the table is scheduled last instead of failing the migration
+            log.warn("Could not estimate the rows of " + sourceTable + ", it will be scheduled last");
+            return -1L;
+        }
+    }
+}
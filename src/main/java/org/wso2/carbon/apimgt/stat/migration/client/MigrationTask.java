@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.client;
+
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+import org.wso2.carbon.apimgt.stat.migration.util.APIMStatMigrationConstants;
+import org.wso2.carbon.apimgt.stat.migration.util.DBManager;
+
+/**
+ * The table migrations run by the stat migration client. Each task reads a single table of the previous stats
+ * database.
+ */
+public enum MigrationTask {
+
+    DESTINATION_SUMMARY("Destination Summary", APIMStatMigrationConstants.API_DESTINATION_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateDestinationSummaryTable();
+        }
+    },
+    RESOURCE_USAGE_SUMMARY("Resource usage summary", APIMStatMigrationConstants.API_RESOURCE_USAGE_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateResourceUsageSummaryTable();
+        }
+    },
+    VERSION_USAGE_SUMMARY("Version usage summary", APIMStatMigrationConstants.API_VERSION_USAGE_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateVersionUsageSummaryTable();
+        }
+    },
+    LAST_ACCESS_TIME_SUMMARY("Last access time summary", APIMStatMigrationConstants.API_LAST_ACCESS_TIME_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateLastAccessTimeSummaryTable();
+        }
+    },
+    FAULT_SUMMARY("Fault summary", APIMStatMigrationConstants.API_FAULT_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateFaultSummaryTable();
+        }
+    },
+    USER_BROWSER_SUMMARY("User browser summary", APIMStatMigrationConstants.API_REQ_USR_BROW_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateUserBrowserSummaryTable();
+        }
+    },
+    GEO_LOCATION_SUMMARY("Geo location summary", APIMStatMigrationConstants.API_REQ_GEO_LOC_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateGeoLocationSummaryTable();
+        }
+    },
+    EXECUTION_TIME_DAY_SUMMARY("Execution time day summary", APIMStatMigrationConstants.API_EXE_TME_DAY_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateExecutionTimeDaySummaryTable();
+        }
+    },
+    EXECUTION_TIME_HOUR_SUMMARY("Execution time hour summary", APIMStatMigrationConstants.API_EXE_TIME_HOUR_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateExecutionTimeHourSummaryTable();
+        }
+    },
+    EXECUTION_TIME_MINUTE_SUMMARY("Execution time minute summary",
+            APIMStatMigrationConstants.API_EXE_TIME_MIN_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateExecutionTimeMinuteSummaryTable();
+        }
+    },
+    THROTTLED_OUT_SUMMARY("Throttled out summary", APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateThrottledOutSummaryTable();
+        }
+    },
+    THROTTLED_OUT_REQUEST_COUNT_SUMMARY("Throttled out request count summary",
+            APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateThrottledOutRequestCountSummaryTable();
+        }
+    },
+    REQUEST_SUMMARY("Request summary", APIMStatMigrationConstants.API_REQUEST_SUMMARY) {
+        @Override
+        public void migrate(DBManager dbManager) throws APIMStatMigrationException {
+            dbManager.migrateRequestSummaryTable();
+        }
+    };
+
+    private final String displayName;
+    private final String sourceTable;
+
+    MigrationTask(String displayName, String sourceTable) {
+        this.displayName = displayName;
+        this.sourceTable = sourceTable;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getSourceTable() {
+        return sourceTable;
+    }
+
+    /**
+     * This method migrates the table of the task
+     *
+     * @param dbManager db manager used to access the databases
+     * @throws APIMStatMigrationException on error
+     */
+    public abstract void migrate(DBManager dbManager) throws APIMStatMigrationException;
+}
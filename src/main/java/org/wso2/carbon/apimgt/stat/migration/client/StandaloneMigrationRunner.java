@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+import org.wso2.carbon.apimgt.stat.migration.util.APIMStatMigrationConstants;
+import org.wso2.carbon.apimgt.stat.migration.util.ConnectionPool;
+import org.wso2.carbon.apimgt.stat.migration.util.DBManagerImpl;
+import org.wso2.carbon.apimgt.stat.migration.util.MigrationMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the stat migration from the command line, without starting an API Manager node. The datasources are read
+ * from a properties file and connected to with a {@link ConnectionPool} instead of being looked up in JNDI, e.g.
+ * <pre>
+ * WSO2AM_STATS_DB.url=jdbc:mysql://localhost:3306/dasDatabase
+ * WSO2AM_STATS_DB.username=username
+ * WSO2AM_STATS_DB.password=password
+ * WSO2AM_STATS_DB.driverClassName=com.mysql.jdbc.Driver
+ * </pre>
+ * and likewise for APIM_ANALYTICS_DB and WSO2AM_DB. The migrateStats.* options can be given in the same file, unless
+ * they are passed as system properties, which take precedence.
+ * <p>
+ * Usage: {@code StandaloneMigrationRunner <properties file>}. The process exits with 0 once the migration completes
+ * and with 1 if it fails.
+ */
+public final class StandaloneMigrationRunner {
+
+    private static final Log log = LogFactory.getLog(StandaloneMigrationRunner.class);
+
+    private static final String OLD_STATS_DATA_SOURCE = "WSO2AM_STATS_DB";
+    private static final String NEW_STATS_DATA_SOURCE = "APIM_ANALYTICS_DB";
+    private static final String APIM_DATA_SOURCE = "WSO2AM_DB";
+    private static final String URL = ".url";
+    private static final String USERNAME = ".username";
+    private static final String PASSWORD = ".password";
+    private static final String DRIVER_CLASS_NAME = ".driverClassName";
+
+    private StandaloneMigrationRunner() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: " + StandaloneMigrationRunner.class.getName() + " <properties file>");
+            System.exit(2);
+        }
+        int status = 0;
+        try {
+            run(Paths.get(args[0]));
+        } catch (APIMStatMigrationException e) {
+            log.error("Stat migration failed", e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * This method migrates the stats databases configured in the given properties file
+     *
+     * @param propertiesFile properties file with the datasources and the options of the migration
+     * @throws APIMStatMigrationException if the file cannot be read or the migration fails
+     */
+    public static void run(Path propertiesFile) throws APIMStatMigrationException {
+        Properties properties = loadProperties(propertiesFile);
+        String optionPrefix = APIMStatMigrationConstants.ARG_MIGRATE_STATS + ".";
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(optionPrefix) && System.getProperty(name) == null) {
+                System.setProperty(name, properties.getProperty(name).trim());
+            }
+        }
+        List<ConnectionPool> pools = new ArrayList<>(3);
+        try {
+            ConnectionPool oldStatsPool = createPool(properties, OLD_STATS_DATA_SOURCE);
+            pools.add(oldStatsPool);
+            ConnectionPool newStatsPool = createPool(properties, NEW_STATS_DATA_SOURCE);
+            pools.add(newStatsPool);
+            ConnectionPool apimPool = createPool(properties, APIM_DATA_SOURCE);
+            pools.add(apimPool);
+            DBManagerImpl.initialize(oldStatsPool, newStatsPool, apimPool);
+            MigrationMetrics metrics = MigrationMetrics.getInstance();
+            metrics.register();
+            try {
+                new APIMStatMigrationClient(new DBManagerImpl()).statDbMigration();
+            } finally {
+                metrics.unregister();
+            }
+        } finally {
+            for (ConnectionPool pool : pools) {
+                pool.close();
+            }
+        }
+    }
+
+    private static Properties loadProperties(Path propertiesFile) throws APIMStatMigrationException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(propertiesFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            String msg = "Error occurred while reading the migration properties from " + propertiesFile;
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        }
+        return properties;
+    }
+
+    /**
+     * The driver class is loaded for the drivers which do not register themselves with the driver manager
+     */
+    private static ConnectionPool createPool(Properties properties, String dataSource)
+            throws APIMStatMigrationException {
+        String url = getProperty(properties, dataSource + URL);
+        if (url == null) {
+            String msg = "The JDBC URL of " + dataSource + " is not given as " + dataSource + URL;
+            log.error(msg);
+            throw new APIMStatMigrationException(msg);
+        }
+        String driverClassName = getProperty(properties, dataSource + DRIVER_CLASS_NAME);
+        if (driverClassName != null) {
+            try {
+                Class.forName(driverClassName);
+            } catch (ClassNotFoundException e) {
+                String msg = "The JDBC driver " + driverClassName + " of " + dataSource + " is not in the class path";
+                log.error(msg, e);
+                throw new APIMStatMigrationException(msg, e);
+            }
+        }
+        log.info("Connecting to " + dataSource + " at " + url);
+        return new ConnectionPool(dataSource, url, getProperty(properties, dataSource + USERNAME),
+                properties.getProperty(dataSource + PASSWORD));
+    }
+
+    private static String getProperty(Properties properties, String name) {
+        String value = properties.getProperty(name);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
@@ -29,6 +29,7 @@ import org.wso2.carbon.apimgt.stat.migration.client.MigrationClient;
 import org.wso2.carbon.apimgt.stat.migration.util.APIMStatMigrationConstants;
 import org.wso2.carbon.apimgt.stat.migration.util.DBManager;
 import org.wso2.carbon.apimgt.stat.migration.util.DBManagerImpl;
+import org.wso2.carbon.apimgt.stat.migration.util.MigrationMetrics;
 import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.registry.core.service.TenantRegistryLoader;
@@ -76,11 +77,11 @@ public class APIMStatMigrationServiceComponent {
 
             // Create a thread and wait till the APIManager DBUtils is initialized
 
-            MigrationClient migrateStatDB = new APIMStatMigrationClient();
-            DBManager dbManager = new DBManagerImpl();
-
             if (isStatMigration) {
+                MigrationMetrics.getInstance().register();
+                DBManager dbManager = new DBManagerImpl();
                 dbManager.initialize();
+                MigrationClient migrateStatDB = new APIMStatMigrationClient(dbManager);
                 migrateStatDB.statDbMigration();
                 log.info("Stat migration completed");
             }
@@ -102,6 +103,7 @@ public class APIMStatMigrationServiceComponent {
      * @param context OSGi component context.
      */
     protected void deactivate(ComponentContext context) {
+        MigrationMetrics.getInstance().unregister();
         log.info("WSO2 API Manager migration bundle is deactivated");
     }
 
@@ -57,7 +57,56 @@ public class APIMStatMigrationConstants {
     //Osgi constants
     public static final String ARG_MIGRATE_STATS = "migrateStats";
 
+    //Tuning options
+    public static final String ARG_BATCH_SIZE = "migrateStats.batchSize";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final String ARG_FETCH_SIZE = "migrateStats.fetchSize";
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final String ARG_THREAD_COUNT = "migrateStats.threads";
+    public static final String ARG_MAX_CONNECTIONS = "migrateStats.maxConnections";
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+    public static final String ARG_PARTITIONS = "migrateStats.partitions";
+    public static final int DEFAULT_PARTITIONS = 1;
+    public static final String ARG_APPLICATION_ID_CACHE = "migrateStats.applicationIdCache";
+    public static final String ARG_APPLICATION_ID_CACHE_SIZE = "migrateStats.applicationIdCacheSize";
+    public static final int DEFAULT_APPLICATION_ID_CACHE_SIZE = 100000;
+    public static final String ARG_CHECKPOINT = "migrateStats.checkpoint";
+    public static final String ARG_CHECKPOINT_FILE = "migrateStats.checkpointFile";
+    public static final String DEFAULT_CHECKPOINT_FILE = "stat-migration-progress.properties";
+    public static final String ARG_RESUME = "migrateStats.resume";
+    public static final String ARG_DELTA = "migrateStats.delta";
+    public static final String ARG_WRITE_MODE = "migrateStats.writeMode";
+    public static final String ARG_LOADER = "migrateStats.loader";
+    public static final String ARG_DEFER_INDEXES = "migrateStats.deferIndexes";
+    public static final String ARG_PRIMARY_KEY_ORDER = "migrateStats.primaryKeyOrder";
+    public static final String ARG_WRITER_THREADS = "migrateStats.writerThreads";
+    public static final int DEFAULT_WRITER_THREADS = 1;
+    public static final String ARG_QUEUE_SIZE = "migrateStats.queueSize";
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+    public static final String ARG_PRE_AGGREGATE = "migrateStats.preAggregate";
+    public static final String ARG_AGGREGATION_MEMORY = "migrateStats.aggregationMemory";
+    public static final int DEFAULT_AGGREGATION_MEMORY = 256;
+    public static final String ARG_SPILL_DIRECTORY = "migrateStats.spillDirectory";
+    public static final String ARG_AGGREGATION = "migrateStats.aggregation";
+    public static final String ARG_ROLLUPS = "migrateStats.rollups";
+    public static final String ARG_MAX_READ_RATE = "migrateStats.maxReadRate";
+    public static final String ARG_MAX_READERS = "migrateStats.maxReaders";
+    public static final String ARG_LOAD_GOVERNOR = "migrateStats.loadGovernor";
+    public static final String ARG_PROBE_QUERY = "migrateStats.probeQuery";
+    public static final String ARG_PROBE_LATENCY = "migrateStats.probeLatency";
+    public static final int DEFAULT_PROBE_LATENCY = 200;
+    public static final String ARG_GOVERNOR_INTERVAL = "migrateStats.governorInterval";
+    public static final int DEFAULT_GOVERNOR_INTERVAL = 5;
+    public static final String ARG_PROGRESS_INTERVAL = "migrateStats.progressInterval";
+    public static final String ARG_VERIFY = "migrateStats.verify";
+    public static final String ARG_VERIFY_REPORT = "migrateStats.verifyReport";
+    public static final String DEFAULT_VERIFY_REPORT = "stat-migration-verification.csv";
+    public static final int DEFAULT_PROGRESS_INTERVAL = 60;
+    public static final String METRICS_MBEAN_NAME = "org.wso2.carbon.apimgt.stat.migration:type=StatMigrationMetrics";
+
     //Other constants
+    public static final String MIGRATION_PROGRESS_TABLE = "STAT_MIGRATION_PROGRESS";
+    public static final String MIGRATION_WATERMARK_TABLE = "STAT_MIGRATION_WATERMARK";
     public static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm";
     public static final String TIMESTAMP_DAY_PATTERN = "yyyy-M-dd";
     public static final String TIMESTAMP_HOUR_PATTERN = "yyyy-M-dd HH";
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+/**
+ * Resolves the application id of a consumer key from the AM_APPLICATION_KEY_MAPPING table of the API Manager
+ * database. The resolver is shared by all the tables and partitions which need the mapping and works in one of two
+ * modes.
+ * <ul>
+ * <li>full: the complete mapping is loaded with a single query when the resolver is created</li>
+ * <li>lru: the most recently used mappings are cached and the misses are looked up in batches of IN (...) queries,
+ * for API Manager deployments whose mapping is too large to be held in the memory</li>
+ * </ul>
+ * This class is thread safe.
+ */
+public class ApplicationIdResolver {
+
+    private static final Log log = LogFactory.getLog(ApplicationIdResolver.class);
+
+    private static final String LOAD_ALL_QUERY = "SELECT CONSUMER_KEY, APPLICATION_ID FROM AM_APPLICATION_KEY_MAPPING";
+    private static final String LOOKUP_QUERY_PREFIX =
+            "SELECT CONSUMER_KEY, APPLICATION_ID FROM AM_APPLICATION_KEY_MAPPING WHERE CONSUMER_KEY IN (";
+    //Oracle does not accept more than 1000 expressions in an IN list
+    private static final int MAX_LOOKUP_BATCH_SIZE = 1000;
+
+    /**
+     * The caching modes of the resolver
+     */
+    public enum Mode {
+        FULL, LRU;
+
+        public static Mode fromString(String mode) {
+            return mode == null ? FULL : valueOf(mode.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private final DataSource apimDataSource;
+    private final Mode mode;
+    private final Map<String, Integer> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param apimDataSource datasource of the API Manager database
+     * @param mode           caching mode
+     * @param cacheSize      maximum number of mappings held in lru mode
+     * @throws SQLException if the mapping cannot be loaded in full mode
+     */
+    public ApplicationIdResolver(DataSource apimDataSource, Mode mode, final int cacheSize) throws SQLException {
+        this.apimDataSource = apimDataSource;
+        this.mode = mode;
+        if (mode == Mode.FULL) {
+            cache = new ConcurrentHashMap<>();
+            loadAll();
+        } else {
+            cache = new LruCache(cacheSize);
+        }
+    }
+
+    /**
+     * The most recently used mappings of the lru mode, in access order
+     */
+    private static final class LruCache extends LinkedHashMap<String, Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int cacheSize;
+
+        private LruCache(int cacheSize) {
+            super(16, 0.75f, true);
+            this.cacheSize = cacheSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > cacheSize;
+        }
+    }
+
+    /**
+     * In full mode a connection is only opened for consumer keys missing from the loaded mapping, which fails the
+     * migration of the row anyway, so no connection is reserved for it.
+     *
+     * @return the number of connections to the API Manager database the resolver may hold while resolving
+     */
+    public int getConnectionCount() {
+        return mode == Mode.FULL ? 0 : 1;
+    }
+
+    /**
+     * This method resolves the application ids of a set of consumer keys, looking up all the cache misses together
+     *
+     * @param consumerKeys consumer keys
+     * @param metrics      metrics of the table the cache hits and misses are counted for, or null
+     * @return the application ids of the consumer keys which are mapped
+     * @throws SQLException if the cache misses cannot be looked up
+     */
+    public Map<String, Integer> resolveAll(Collection<String> consumerKeys, TableMetrics metrics)
+            throws SQLException {
+        Map<String, Integer> applicationIds = new HashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+        int hits = 0;
+        int nullKeys = 0;
+        for (String consumerKey : consumerKeys) {
+            if (consumerKey == null) {
+                nullKeys++;
+                continue;
+            }
+            if (applicationIds.containsKey(consumerKey) || misses.contains(consumerKey)) {
+                continue;
+            }
+            Integer applicationId = getCached(consumerKey);
+            if (applicationId != null) {
+                hits++;
+                applicationIds.put(consumerKey, applicationId);
+            } else {
+                misses.add(consumerKey);
+            }
+        }
+        hitCount.addAndGet(hits);
+        missCount.addAndGet(nullKeys + misses.size());
+        if (metrics != null) {
+            metrics.recordApplicationIdLookups(hits, nullKeys + misses.size());
+        }
+        if (!misses.isEmpty()) {
+            applicationIds.putAll(lookup(misses));
+        }
+        return applicationIds;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private Integer getCached(String consumerKey) {
+        if (mode == Mode.FULL) {
+            return cache.get(consumerKey);
+        }
+        synchronized (cache) {
+            return cache.get(consumerKey);
+        }
+    }
+
+    private void putCached(Map<String, Integer> applicationIds) {
+        if (mode == Mode.FULL) {
+            cache.putAll(applicationIds);
+            return;
+        }
+        synchronized (cache) {
+            cache.putAll(applicationIds);
+        }
+    }
+
+    private void loadAll() throws SQLException {
+        long startTime = System.currentTimeMillis();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = apimDataSource.getConnection();
+            statement = connection.prepareStatement(LOAD_ALL_QUERY);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String consumerKey = resultSet.getString(1);
+                if (consumerKey != null) {
+                    cache.put(consumerKey, resultSet.getInt(2));
+                }
+            }
+        } finally {
+            close(resultSet, statement, connection);
+        }
+        log.info("Loaded " + cache.size() + " consumer key mappings in " + (System.currentTimeMillis() - startTime)
+                + " ms");
+    }
+
+    /**
+     * Keys which are still unknown in full mode are looked up as well, as they may belong to applications created
+     * after the mapping was loaded.
+     */
+    private Map<String, Integer> lookup(Collection<String> consumerKeys) throws SQLException {
+        Map<String, Integer> applicationIds = new HashMap<>();
+        List<String> keys = new ArrayList<>(consumerKeys);
+        Connection connection = null;
+        try {
+            connection = apimDataSource.getConnection();
+            for (int from = 0; from < keys.size(); from += MAX_LOOKUP_BATCH_SIZE) {
+                List<String> batch = keys.subList(from, Math.min(keys.size(), from + MAX_LOOKUP_BATCH_SIZE));
+                lookupBatch(connection, batch, applicationIds);
+            }
+        } finally {
+            close(null, null, connection);
+        }
+        putCached(applicationIds);
+        return applicationIds;
+    }
+
+    private static void lookupBatch(Connection connection, List<String> consumerKeys,
+            Map<String, Integer> applicationIds) throws SQLException {
+        StringBuilder query = new StringBuilder(LOOKUP_QUERY_PREFIX);
+        for (int i = 0; i < consumerKeys.size(); i++) {
+            query.append(i == 0 ? "?" : ",?");
+        }
+        query.append(')');
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement(query.toString());
+            for (int i = 0; i < consumerKeys.size(); i++) {
+                statement.setString(i + 1, consumerKeys.get(i));
+            }
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                applicationIds.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        } finally {
+            close(resultSet, statement, null);
+        }
+    }
+
+    private static void close(ResultSet resultSet, PreparedStatement statement, Connection connection) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the result set from JDBC database.", e);
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the prepared statement from JDBC database.", e);
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the JDBC database connection.", e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "consumer key cache (" + mode.name().toLowerCase(Locale.ENGLISH) + "): " + hitCount.get() + " hits, "
+                + missCount.get() + " misses";
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Writes the rows bound on an insert statement to the new stats database using JDBC batches, or the rows added to a
+ * {@link BulkLoader} with the bulk load statement of the database. Rows are sent to the database once the configured
+ * batch size is reached and every batch is committed in its own transaction.
+ * <p>
+ * When the progress of the partition is checkpointed, the rows must be added in key order. Batches are then only
+ * committed at the boundary between two keys, once at least a batch of rows is pending, and the progress is recorded
+ * along with every commit. All the rows up to the recorded key are therefore committed and none after it, so an
+ * interrupted migration can be continued after that key.
+ * <p>
+ * The rows written are counted as the rows sent to the database rather than the update counts of the batches, as the
+ * upsert statements of MySQL report two affected rows for every existing row they update.
+ */
+public class BatchInsertWriter {
+
+    private static final Log log = LogFactory.getLog(BatchInsertWriter.class);
+
+    private final String tableName;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final BulkLoader loader;
+    private final int batchSize;
+    private final PartitionCheckpoint checkpoint;
+    private final TableMetrics metrics;
+    private final boolean autoCommit;
+    private int pendingRows = 0;
+    private long uncommittedRows = 0;
+    private long lastKey;
+    private int batchCount = 0;
+    private long rowsWritten = 0;
+    private long writeNanos = 0;
+
+    /**
+     * @param tableName  name of the table the rows are written to, used for logging
+     * @param connection connection of the new stats database the statement is prepared on
+     * @param statement  insert statement the rows are bound on
+     * @param batchSize  number of rows sent to the database in a single batch
+     * @throws SQLException if the auto commit mode of the connection cannot be changed
+     */
+    public BatchInsertWriter(String tableName, Connection connection, PreparedStatement statement, int batchSize)
+            throws SQLException {
+        this(tableName, connection, statement, batchSize, null, null);
+    }
+
+    /**
+     * @param tableName  name of the table the rows are written to, used for logging
+     * @param connection connection of the new stats database the statement is prepared on
+     * @param statement  insert statement the rows are bound on
+     * @param batchSize  number of rows sent to the database in a single batch
+     * @param checkpoint checkpoint of the partition the rows belong to, or null if the progress is not recorded
+     * @param metrics    metrics the batches are recorded in, or null if they are not measured
+     * @throws SQLException if the auto commit mode of the connection cannot be changed
+     */
+    public BatchInsertWriter(String tableName, Connection connection, PreparedStatement statement, int batchSize,
+            PartitionCheckpoint checkpoint, TableMetrics metrics) throws SQLException {
+        this(tableName, connection, statement, null, batchSize, checkpoint, metrics);
+    }
+
+    /**
+     * @param tableName  name of the table the rows are written to, used for logging
+     * @param connection connection of the new stats database the loader is created on
+     * @param loader     bulk loader the rows are added to
+     * @param batchSize  number of rows sent to the database in a single load
+     * @param checkpoint checkpoint of the partition the rows belong to, or null if the progress is not recorded
+     * @param metrics    metrics the batches are recorded in, or null if they are not measured
+     * @throws SQLException if the auto commit mode of the connection cannot be changed
+     */
+    public BatchInsertWriter(String tableName, Connection connection, BulkLoader loader, int batchSize,
+            PartitionCheckpoint checkpoint, TableMetrics metrics) throws SQLException {
+        this(tableName, connection, null, loader, batchSize, checkpoint, metrics);
+    }
+
+    private BatchInsertWriter(String tableName, Connection connection, PreparedStatement statement, BulkLoader loader,
+            int batchSize, PartitionCheckpoint checkpoint, TableMetrics metrics) throws SQLException {
+        this.tableName = tableName;
+        this.connection = connection;
+        this.statement = statement;
+        this.loader = loader;
+        this.batchSize = batchSize;
+        this.checkpoint = checkpoint;
+        this.metrics = metrics;
+        this.lastKey = checkpoint != null ? checkpoint.getLastKey() : 0;
+        this.autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * This method adds the parameters currently bound on the statement to the batch, or counts the row last added to
+     * the bulk loader, and executes the batch once it is full. When the progress is checkpointed, rows added without
+     * a key are only committed by {@link #finish()}.
+     *
+     * @throws SQLException if the batch cannot be executed or committed
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void addRow() throws SQLException, APIMStatMigrationException {
+        if (loader == null) {
+            statement.addBatch();
+        }
+        pendingRows++;
+        uncommittedRows++;
+        if (pendingRows >= batchSize) {
+            if (checkpoint == null) {
+                flush();
+            } else {
+                long start = System.nanoTime();
+                recordWrite(executePendingRows(), start);
+            }
+        }
+    }
+
+    /**
+     * This method adds the parameters currently bound on the statement to the batch, committing the rows added so
+     * far first if the key of the row starts a new key and at least a batch of rows is uncommitted
+     *
+     * @param key key of the source row, rows must be added in key order
+     * @throws SQLException if the batch cannot be executed or committed
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void addRow(long key) throws SQLException, APIMStatMigrationException {
+        if (checkpoint != null && key != lastKey && uncommittedRows >= batchSize) {
+            commit(false);
+        }
+        lastKey = key;
+        addRow();
+    }
+
+    /**
+     * This method executes and commits the rows which are pending in the current batch. When the progress is
+     * checkpointed it must only be called at a key boundary.
+     *
+     * @throws SQLException if the batch cannot be executed or committed, in which case the batch is rolled back
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void flush() throws SQLException, APIMStatMigrationException {
+        if (uncommittedRows == 0) {
+            return;
+        }
+        commit(false);
+    }
+
+    /**
+     * This method commits the remaining rows once every row of the partition has been added, and records the
+     * partition as completed
+     *
+     * @throws SQLException if the batch cannot be executed or committed, in which case the batch is rolled back
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void finish() throws SQLException, APIMStatMigrationException {
+        if (checkpoint == null) {
+            flush();
+        } else {
+            commit(true);
+        }
+    }
+
+    private void commit(boolean completed) throws SQLException, APIMStatMigrationException {
+        long start = System.nanoTime();
+        int executedRows;
+        try {
+            executedRows = executePendingRows();
+            if (checkpoint != null) {
+                checkpoint.beforeCommit(connection, lastKey, rowsWritten + uncommittedRows, completed);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw e;
+        }
+        recordWrite(executedRows, start);
+        rowsWritten += uncommittedRows;
+        if (log.isDebugEnabled()) {
+            log.debug("Committed " + uncommittedRows + " rows of " + tableName + " in batch " + batchCount);
+        }
+        uncommittedRows = 0;
+        if (checkpoint != null) {
+            checkpoint.afterCommit();
+        }
+    }
+
+    /**
+     * @return number of rows executed
+     */
+    private int executePendingRows() throws SQLException {
+        if (pendingRows == 0) {
+            return 0;
+        }
+        if (loader != null) {
+            loader.execute();
+        } else {
+            statement.executeBatch();
+        }
+        batchCount++;
+        int executedRows = pendingRows;
+        pendingRows = 0;
+        return executedRows;
+    }
+
+    private void recordWrite(int executedRows, long start) {
+        long nanos = System.nanoTime() - start;
+        writeNanos += nanos;
+        if (metrics != null) {
+            metrics.recordWrite(executedRows, nanos);
+        }
+    }
+
+    /**
+     * This method rolls back the rows which were not committed and restores the auto commit mode of the connection.
+     * Errors are only logged as the connection is closed right after.
+     */
+    public void close() {
+        if (uncommittedRows > 0) {
+            if (loader != null) {
+                loader.clear();
+            } else {
+                try {
+                    statement.clearBatch();
+                } catch (SQLException e) {
+                    log.error("Error occurred while clearing the pending batch of " + tableName, e);
+                }
+            }
+            rollback();
+        }
+        if (autoCommit) {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.error("Error occurred while restoring the auto commit mode of the JDBC database connection.", e);
+            }
+        }
+        log.info("Migrated " + rowsWritten + " rows into " + tableName + " in " + batchCount + " batches");
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return time spent executing and committing batches in nanoseconds, which callers can subtract from the time
+     * taken to add rows
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    private void rollback() {
+        pendingRows = 0;
+        uncommittedRows = 0;
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.error("Error occurred while rolling back the batch of " + tableName, e);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Wrapper;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the rows of a {@link TableMapping} with the bulk load statement of the new stats database instead of a
+ * batch of insert statements:
+ * <ul>
+ * <li>MySQL: LOAD DATA LOCAL INFILE, reading the rows from an in-memory stream</li>
+ * <li>PostgreSQL: COPY FROM STDIN</li>
+ * </ul>
+ * The rows are encoded as UTF-8 CSV with the columns and constants of the insert statement of the mapping into a
+ * buffer which is reused by every load, and streamed from it by {@link #execute()} within the transaction of the
+ * connection, so they are committed like a JDBC batch. The driver APIs are called reflectively as the drivers are
+ * only available at runtime. Used by a single thread.
+ */
+public abstract class BulkLoader {
+
+    private static final Log log = LogFactory.getLog(BulkLoader.class);
+
+    /**
+     * How the rows are written to the new stats database
+     */
+    public enum Mode {
+        INSERT, BULK;
+
+        public static Mode fromString(String mode) {
+            return mode == null ? INSERT : valueOf(mode.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private static final String[] MYSQL_STATEMENT_CLASSES = {"com.mysql.cj.jdbc.JdbcStatement",
+            "com.mysql.jdbc.Statement"};
+    private static final String[] POSTGRESQL_CONNECTION_CLASSES = {"org.postgresql.PGConnection"};
+
+    private final String tableName;
+    private final TableMapping.Column[] columns;
+    private final StringBuilder line = new StringBuilder();
+    private final RowBuffer rows = new RowBuffer();
+    private int pendingRows = 0;
+
+    /**
+     * The encoded rows of the next load, which are streamed from the buffer without copying it
+     */
+    private static final class RowBuffer extends ByteArrayOutputStream {
+
+        InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    private BulkLoader(TableMapping mapping) {
+        this.tableName = mapping.getTargetTable();
+        List<TableMapping.Column> mappedColumns = mapping.getColumns();
+        this.columns = mappedColumns.toArray(new TableMapping.Column[mappedColumns.size()]);
+    }
+
+    /**
+     * This method creates the loader of the database the given connection points to
+     *
+     * @param connection connection to the new stats database
+     * @param mapping    mapping of the rows
+     * @return the loader, or null if bulk loading is not supported for the database or its driver
+     * @throws SQLException if the database metadata cannot be read
+     */
+    public static BulkLoader create(Connection connection, TableMapping mapping) throws SQLException {
+        return create(connection, mapping, MYSQL_STATEMENT_CLASSES, POSTGRESQL_CONNECTION_CLASSES);
+    }
+
+    /**
+     * This method creates the loader of the database the given connection points to, looking up the driver APIs
+     * with the given class names
+     *
+     * @param mySQLStatementClasses       names of the MySQL statement classes declaring setLocalInfileInputStream
+     * @param postgreSQLConnectionClasses names of the PostgreSQL connection classes declaring getCopyAPI
+     * @return the loader, or null if bulk loading is not supported for the database or its driver
+     * @throws SQLException if the database metadata cannot be read
+     */
+    static BulkLoader create(Connection connection, TableMapping mapping, String[] mySQLStatementClasses,
+            String[] postgreSQLConnectionClasses) throws SQLException {
+        switch (DatabaseDialect.fromConnection(connection)) {
+            case MYSQL:
+                return MySQLLoader.createLoader(connection, mapping, mySQLStatementClasses);
+            case POSTGRESQL:
+                return PostgreSQLLoader.createLoader(connection, mapping, postgreSQLConnectionClasses);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * This method adds a converted row to the rows which are loaded by the next call of {@link #execute()}
+     *
+     * @param batch converted batch
+     * @param row   row of the batch
+     */
+    public void addRow(ConvertedBatch batch, int row) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            TableMapping.Column column = columns[i];
+            if (column.isConstant()) {
+                appendString(line, column.getConstant());
+            } else if (column.getConversion().isStringValue()) {
+                String value = batch.getString(column.getValueIndex(), row);
+                if (value == null) {
+                    appendNull(line);
+                } else {
+                    appendString(line, value);
+                }
+            } else {
+                line.append(batch.getLong(column.getValueIndex(), row));
+            }
+        }
+        line.append('\n');
+        byte[] encodedLine = line.toString().getBytes(StandardCharsets.UTF_8);
+        rows.write(encodedLine, 0, encodedLine.length);
+        line.setLength(0);
+        pendingRows++;
+    }
+
+    /**
+     * This method loads the rows added since the last call, without committing them
+     *
+     * @return number of rows loaded
+     * @throws SQLException if the rows cannot be loaded
+     */
+    public long execute() throws SQLException {
+        if (pendingRows == 0) {
+            return 0;
+        }
+        try {
+            long loadedRows = load(rows.getInputStream());
+            if (loadedRows < pendingRows) {
+                throw new SQLException("Loaded " + loadedRows + " of " + pendingRows + " rows into " + tableName
+                        + ". Rows with the key of an existing row are not loaded");
+            }
+            return loadedRows;
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * This method discards the rows which were not loaded, keeping the buffer for the next rows
+     */
+    public void clear() {
+        rows.reset();
+        pendingRows = 0;
+    }
+
+    public int getPendingRows() {
+        return pendingRows;
+    }
+
+    /**
+     * This method releases the resources of the loader. Errors are only logged as the connection is closed right
+     * after.
+     */
+    public void close() {
+    }
+
+    protected String getColumnList() {
+        StringBuilder columnList = new StringBuilder();
+        for (TableMapping.Column column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(column.getTargetColumn());
+        }
+        return columnList.toString();
+    }
+
+    protected String getTableName() {
+        return tableName;
+    }
+
+    protected abstract void appendString(StringBuilder row, String value);
+
+    protected abstract void appendNull(StringBuilder row);
+
+    protected abstract long load(InputStream rows) throws SQLException;
+
+    /**
+     * Streams the rows into LOAD DATA LOCAL INFILE. The statement has to be able to raise an error on a duplicate key,
+     * which LOAD DATA LOCAL ignores, so {@link #execute()} fails when fewer rows are loaded than were added. The
+     * connection needs allowLoadLocalInfile=true in the URL of the datasource on recent Connector/J versions.
+     */
+    private static final class MySQLLoader extends BulkLoader {
+
+        private final Statement statement;
+        private final Object driverStatement;
+        private final Method setInputStream;
+        private final String query;
+
+        private MySQLLoader(TableMapping mapping, Statement statement, Object driverStatement, Method setInputStream) {
+            super(mapping);
+            this.statement = statement;
+            this.driverStatement = driverStatement;
+            this.setInputStream = setInputStream;
+            this.query = "LOAD DATA LOCAL INFILE 'stat-migration.csv' INTO TABLE " + getTableName()
+                    + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' ENCLOSED BY '\"' ESCAPED BY '\\\\'"
+                    + " LINES TERMINATED BY '\\n' (" + getColumnList() + ")";
+        }
+
+        static BulkLoader createLoader(Connection connection, TableMapping mapping, String[] statementClasses)
+                throws SQLException {
+            Statement statement = connection.createStatement();
+            BulkLoader loader = null;
+            try {
+                for (String className : statementClasses) {
+                    Class<?> type = loadDriverClass(connection, className);
+                    Object driverStatement = type != null ? unwrap(statement, type) : null;
+                    if (driverStatement != null) {
+                        try {
+                            loader = new MySQLLoader(mapping, statement, driverStatement,
+                                    type.getMethod("setLocalInfileInputStream", InputStream.class));
+                            return loader;
+                        } catch (NoSuchMethodException e) {
+                            log.warn("Could not find setLocalInfileInputStream on " + className, e);
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                if (loader == null) {
+                    statement.close();
+                }
+            }
+        }
+
+        @Override
+        protected void appendString(StringBuilder row, String value) {
+            row.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                        row.append("\\\\");
+                        break;
+                    case '"':
+                        row.append("\\\"");
+                        break;
+                    case '\n':
+                        row.append("\\n");
+                        break;
+                    case '\r':
+                        row.append("\\r");
+                        break;
+                    case '\0':
+                        row.append("\\0");
+                        break;
+                    default:
+                        row.append(c);
+                }
+            }
+            row.append('"');
+        }
+
+        @Override
+        protected void appendNull(StringBuilder row) {
+            row.append("\\N");
+        }
+
+        @Override
+        protected long load(InputStream rows) throws SQLException {
+            invoke(setInputStream, driverStatement, rows);
+            return statement.executeUpdate(query);
+        }
+
+        @Override
+        public void close() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                log.error("Error occurred while closing the bulk load statement of " + getTableName(), e);
+            }
+        }
+    }
+
+    /**
+     * Streams the rows into COPY FROM STDIN through the CopyManager of the PostgreSQL driver. An unquoted empty value
+     * is a null in the CSV format of COPY, so strings are always quoted.
+     */
+    private static final class PostgreSQLLoader extends BulkLoader {
+
+        private final Object copyManager;
+        private final Method copyIn;
+        private final String query;
+
+        private PostgreSQLLoader(TableMapping mapping, Object copyManager, Method copyIn) {
+            super(mapping);
+            this.copyManager = copyManager;
+            this.copyIn = copyIn;
+            this.query = "COPY " + getTableName() + " (" + getColumnList() + ") FROM STDIN WITH CSV";
+        }
+
+        static BulkLoader createLoader(Connection connection, TableMapping mapping, String[] connectionClasses)
+                throws SQLException {
+            for (String className : connectionClasses) {
+                Class<?> type = loadDriverClass(connection, className);
+                Object pgConnection = type != null ? unwrap(connection, type) : null;
+                if (pgConnection == null) {
+                    continue;
+                }
+                try {
+                    Object copyManager = invoke(type.getMethod("getCopyAPI"), pgConnection);
+                    return new PostgreSQLLoader(mapping, copyManager,
+                            copyManager.getClass().getMethod("copyIn", String.class, InputStream.class));
+                } catch (NoSuchMethodException e) {
+                    log.warn("Could not find the CopyManager of the PostgreSQL driver on " + className, e);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void appendString(StringBuilder row, String value) {
+            row.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+
+        @Override
+        protected void appendNull(StringBuilder row) {
+        }
+
+        @Override
+        protected long load(InputStream rows) throws SQLException {
+            return ((Number) invoke(copyIn, copyManager, query, rows)).longValue();
+        }
+    }
+
+    /**
+     * Connection pools load the driver with a different class loader than their own proxies, so the class is looked
+     * up with the class loader of the database metadata, which pools do not wrap, before the others.
+     */
+    private static Class<?> loadDriverClass(Connection connection, String className) throws SQLException {
+        ClassLoader[] classLoaders = {connection.getMetaData().getClass().getClassLoader(),
+                connection.getClass().getClassLoader(), Thread.currentThread().getContextClassLoader()};
+        for (ClassLoader classLoader : classLoaders) {
+            if (classLoader == null) {
+                continue;
+            }
+            try {
+                return Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException e) {
+                //the driver is not visible to this class loader
+            }
+        }
+        return null;
+    }
+
+    private static Object unwrap(Wrapper wrapper, Class<?> type) throws SQLException {
+        if (type.isInstance(wrapper)) {
+            return wrapper;
+        }
+        return wrapper.isWrapperFor(type) ? wrapper.unwrap(type) : null;
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) throws SQLException {
+        try {
+            return method.invoke(target, arguments);
+        } catch (IllegalAccessException e) {
+            throw new SQLException("Could not call " + method.getName() + " of the JDBC driver", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Error occurred while calling " + method.getName() + " of the JDBC driver", cause);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of database connections held by the migration at the same time, across all datasources. A unit
+ * of work reserves all the connections it needs at once before opening any of them, so units never wait on each
+ * other while holding connections.
+ */
+public class ConnectionBudget {
+
+    private final int maxConnections;
+    private final Semaphore permits;
+
+    public ConnectionBudget(int maxConnections) {
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * This method blocks until the given number of connections can be opened
+     *
+     * @param connections number of connections needed
+     * @return number of connections reserved, to be passed to {@link #release(int)}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int acquire(int connections) throws InterruptedException {
+        int reserved = Math.min(connections, maxConnections);
+        permits.acquire(reserved);
+        return reserved;
+    }
+
+    /**
+     * This method reserves the given number of connections if they are available without waiting
+     *
+     * @param connections number of connections needed
+     * @return number of connections reserved, to be passed to {@link #release(int)}, or 0 if they are not available
+     */
+    public int tryAcquire(int connections) {
+        int reserved = Math.min(connections, maxConnections);
+        return permits.tryAcquire(reserved) ? reserved : 0;
+    }
+
+    public void release(int reserved) {
+        permits.release(reserved);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+}
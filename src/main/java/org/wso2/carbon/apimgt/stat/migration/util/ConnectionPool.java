@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A minimal pool of the connections of a JDBC driver, used when the migration runs outside of the Carbon runtime and
+ * cannot look up its datasources. The pool does not limit the number of connections, which the
+ * {@link ConnectionBudget} of the migration does, but keeps the connections which are closed for reuse.
+ * <p>
+ * The connections handed out are proxies whose close returns the connection to the pool. An open transaction of the
+ * connection is then rolled back before it is reset to auto commit, so the work of a writer which failed before it
+ * committed is not committed by the pool. A connection which was idle for longer than the validation interval is
+ * validated before it is reused, and closed if it is no longer valid. Thread safe.
+ */
+public class ConnectionPool implements DataSource, Closeable {
+
+    private static final Log log = LogFactory.getLog(ConnectionPool.class);
+
+    private static final long VALIDATION_INTERVAL_MILLIS = 30000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final String name;
+    private final String url;
+    private final Properties connectionProperties = new Properties();
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private boolean closed = false;
+    private PrintWriter logWriter = null;
+    private int loginTimeout = 0;
+
+    /**
+     * @param name     name of the datasource, used for logging
+     * @param url      JDBC URL of the database
+     * @param username user name, or null if the URL or the driver provides it
+     * @param password password, or null if the URL or the driver provides it
+     */
+    public ConnectionPool(String name, String url, String username, String password) {
+        this.name = name;
+        this.url = url;
+        if (username != null) {
+            connectionProperties.setProperty("user", username);
+        }
+        if (password != null) {
+            connectionProperties.setProperty("password", password);
+        }
+    }
+
+    /**
+     * This method returns an idle connection of the pool, or opens a new one if none is idle
+     *
+     * @return a connection which is returned to the pool when it is closed
+     * @throws SQLException if the pool is closed or a connection cannot be opened
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        while (true) {
+            PooledConnection idleConnection;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("The connection pool of " + name + " is closed");
+                }
+                idleConnection = idleConnections.pollFirst();
+            }
+            if (idleConnection == null) {
+                break;
+            }
+            if (idleConnection.isUsable()) {
+                return idleConnection.lease();
+            }
+            closeQuietly(idleConnection.connection);
+        }
+        return new PooledConnection(DriverManager.getConnection(url, connectionProperties)).lease();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The connections of " + name + " are opened with the configured "
+                + "credentials");
+    }
+
+    /**
+     * This method closes the idle connections. The connections in use are closed once they are returned.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        while (true) {
+            PooledConnection idleConnection;
+            synchronized (this) {
+                idleConnection = idleConnections.pollFirst();
+            }
+            if (idleConnection == null) {
+                return;
+            }
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    @Override
+    public synchronized PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public synchronized void setLogWriter(PrintWriter logWriter) {
+        this.logWriter = logWriter;
+    }
+
+    @Override
+    public synchronized void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public synchronized int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("The connection pool does not log with java.util.logging");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) throws SQLException {
+        if (type.isInstance(this)) {
+            return type.cast(this);
+        }
+        throw new SQLException("The connection pool of " + name + " does not wrap a " + type.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> type) {
+        return type.isInstance(this);
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + url + ")";
+    }
+
+    /**
+     * A connection which is closed by the pool, or cannot be rolled back, is not returned to it
+     */
+    private void release(PooledConnection pooledConnection) {
+        try {
+            if (!pooledConnection.connection.getAutoCommit()) {
+                pooledConnection.connection.rollback();
+                pooledConnection.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.warn("Closing a connection of " + name + " which could not be reset", e);
+            closeQuietly(pooledConnection.connection);
+            return;
+        }
+        synchronized (this) {
+            if (!closed) {
+                pooledConnection.releasedMillis = System.currentTimeMillis();
+                idleConnections.addFirst(pooledConnection);
+                return;
+            }
+        }
+        closeQuietly(pooledConnection.connection);
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Could not close a connection of " + name, e);
+        }
+    }
+
+    /**
+     * A connection of the driver held by the pool
+     */
+    private final class PooledConnection {
+
+        private final Connection connection;
+        private long releasedMillis = System.currentTimeMillis();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        private boolean isUsable() {
+            try {
+                if (connection.isClosed()) {
+                    return false;
+                }
+                return System.currentTimeMillis() - releasedMillis < VALIDATION_INTERVAL_MILLIS
+                        || connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return a proxy of the connection, which can no longer be used once it is closed, even after the connection
+         * is leased again
+         */
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    /**
+     * Passes the calls on a leased connection to the connection of the driver until the lease is closed
+     */
+    private final class Lease implements InvocationHandler {
+
+        private final PooledConnection pooledConnection;
+        private volatile boolean leaseClosed = false;
+
+        private Lease(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!leaseClosed) {
+                        leaseClosed = true;
+                        release(pooledConnection);
+                    }
+                    return null;
+                case "isClosed":
+                    return leaseClosed || pooledConnection.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Connection of " + name + (leaseClosed ? " (closed)" : "");
+                default:
+                    break;
+            }
+            if (leaseClosed) {
+                throw new SQLException("The connection of " + name + " is closed");
+            }
+            try {
+                return method.invoke(pooledConnection.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of rows converted to the values of the target table of a {@link TableMapping}, held value by value like a
+ * {@link RowBatch}. The values are indexed by {@link TableMapping.Column#getValueIndex()} and the constant columns
+ * are not held. The values of the dimension columns, see {@link TableMapping.Column#isDimension()}, are held as their
+ * codes in a {@link DimensionDictionary}, which they are encoded with when they are set and decoded with when they
+ * are read. The other string values are held as they are.
+ */
+public class ConvertedBatch {
+
+    private final int capacity;
+    private final DimensionDictionary dictionary;
+    private final int[][] codes;
+    private final String[][] stringValues;
+    private final long[][] longValues;
+    private final long[] keys;
+    private int size = 0;
+    private long convertNanos = 0;
+
+    /**
+     * @param mapping    mapping the rows are converted for
+     * @param capacity   maximum number of rows of the batch
+     * @param dictionary dictionary of the string values
+     */
+    public ConvertedBatch(TableMapping mapping, int capacity, DimensionDictionary dictionary) {
+        List<TableMapping.Column> values = mapping.getValues();
+        this.capacity = capacity;
+        this.dictionary = dictionary;
+        this.codes = new int[values.size()][];
+        this.stringValues = new String[values.size()][];
+        this.longValues = new long[values.size()][];
+        for (TableMapping.Column value : values) {
+            if (value.isDimension()) {
+                codes[value.getValueIndex()] = new int[capacity];
+            } else if (value.getConversion().isStringValue()) {
+                stringValues[value.getValueIndex()] = new String[capacity];
+            } else {
+                longValues[value.getValueIndex()] = new long[capacity];
+            }
+        }
+        this.keys = new long[capacity];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public DimensionDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * This method empties the batch, dropping the string values it holds
+     */
+    public void clear() {
+        for (String[] strings : stringValues) {
+            if (strings != null) {
+                Arrays.fill(strings, 0, size, null);
+            }
+        }
+        size = 0;
+        convertNanos = 0;
+    }
+
+    /**
+     * @param key partition key of the source row the row is converted from
+     * @return index of the row added to the batch, whose values are then set
+     */
+    public int addRow(long key) {
+        keys[size] = key;
+        return size++;
+    }
+
+    public void setString(int valueIndex, int row, String value) {
+        if (codes[valueIndex] != null) {
+            codes[valueIndex][row] = dictionary.encode(value);
+        } else {
+            stringValues[valueIndex][row] = value;
+        }
+    }
+
+    /**
+     * @param code code of the value of a dimension column in the dictionary of the batch
+     */
+    public void setCode(int valueIndex, int row, int code) {
+        codes[valueIndex][row] = code;
+    }
+
+    public void setLong(int valueIndex, int row, long value) {
+        longValues[valueIndex][row] = value;
+    }
+
+    public String getString(int valueIndex, int row) {
+        return codes[valueIndex] != null ? dictionary.decode(codes[valueIndex][row]) : stringValues[valueIndex][row];
+    }
+
+    /**
+     * @return code of the value of a dimension column in the dictionary of the batch
+     */
+    public int getCode(int valueIndex, int row) {
+        return codes[valueIndex][row];
+    }
+
+    public long getLong(int valueIndex, int row) {
+        return longValues[valueIndex][row];
+    }
+
+    /**
+     * @return the partition key of a row, or 0 if the table is not partitioned
+     */
+    public long getKey(int row) {
+        return keys[row];
+    }
+
+    /**
+     * @return time taken to convert the rows in nanoseconds
+     */
+    public long getConvertNanos() {
+        return convertNanos;
+    }
+
+    public void setConvertNanos(long convertNanos) {
+        this.convertNanos = convertNanos;
+    }
+}
@@ -24,6 +24,8 @@ public interface DBManager {
 
     void initialize() throws APIMStatMigrationException;
 
+    long getEstimatedSourceRowCount(String tableName) throws APIMStatMigrationException;
+
     void migrateDestinationSummaryTable() throws APIMStatMigrationException;
 
     void migrateResourceUsageSummaryTable() throws APIMStatMigrationException;
@@ -49,5 +51,9 @@ public interface DBManager {
     void migrateThrottledOutRequestCountSummaryTable() throws APIMStatMigrationException;
 
     void migrateRequestSummaryTable() throws APIMStatMigrationException;
+
+    void rebuildIndexes() throws APIMStatMigrationException;
+
+    void verifyMigration() throws APIMStatMigrationException;
 }
 
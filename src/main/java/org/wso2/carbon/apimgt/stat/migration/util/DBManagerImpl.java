@@ -20,19 +20,36 @@ package org.wso2.carbon.apimgt.stat.migration.util;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 public class DBManagerImpl implements DBManager {
 
@@ -44,6 +61,40 @@ public class DBManagerImpl implements DBManager {
     private static final String OLD_STATS_DATA_SOURCE_NAME = "jdbc/WSO2AM_STATS_DB";
     private static final String NEW_STATS_DATA_SOURCE_NAME = "jdbc/APIM_ANALYTICS_DB";
     private static final String APIM_DATA_SOURCE_NAME = "jdbc/WSO2AM_DB";
+    private static final List<TableMapping> EXECUTION_TIME_SCAN = Arrays.asList(
+            TableMappings.EXECUTION_TIME_MINUTE_SUMMARY, TableMappings.EXECUTION_TIME_HOUR_ROLLUP,
+            TableMappings.EXECUTION_TIME_DAY_ROLLUP, TableMappings.EXECUTION_TIME_MONTH_ROLLUP,
+            TableMappings.EXECUTION_TIME_YEAR_ROLLUP);
+    private static final List<TableMapping> THROTTLED_OUT_SCAN = Arrays.asList(
+            TableMappings.THROTTLED_OUT_REQUEST_COUNT_UNGROUPED, TableMappings.THROTTLED_OUT_SUMMARY);
+
+    private final int batchSize = MigrationConfiguration.getBatchSize();
+    private final int fetchSize = MigrationConfiguration.getFetchSize();
+    private final int queueSize = MigrationConfiguration.getQueueSize();
+    private final boolean preAggregate = MigrationConfiguration.isPreAggregationEnabled();
+    private final RowAggregator.Mode aggregationMode = MigrationConfiguration.getAggregationMode();
+    private final boolean rollUp = MigrationConfiguration.isRollUpEnabled();
+    private final UpsertStatementBuilder.WriteMode writeMode = MigrationConfiguration.getWriteMode();
+    private final BulkLoader.Mode loaderMode = MigrationConfiguration.getLoaderMode();
+    private final boolean deferIndexes = MigrationConfiguration.isIndexDeferralEnabled();
+    private final boolean primaryKeyOrder = MigrationConfiguration.isPrimaryKeyOrderEnabled();
+    private final boolean delta = MigrationConfiguration.isDeltaEnabled();
+    private final boolean verify = MigrationConfiguration.isVerificationEnabled();
+    private final IndexManager indexManager = new IndexManager();
+    private final DimensionDictionary dimensionDictionary = new DimensionDictionary();
+    private final Map<String, String> writeQueries = new ConcurrentHashMap<>();
+    private final ConnectionBudget connectionBudget = new ConnectionBudget(MigrationConfiguration.getMaxConnections());
+    private final SourceLoadGovernor loadGovernor = createLoadGovernor();
+    private final ConcurrentMap<String, FutureTask<Void>> sharedScans = new ConcurrentHashMap<>();
+    private ApplicationIdResolver applicationIdResolver = null;
+    private ProgressStore progressStore = null;
+    private WatermarkStore watermarkStore = null;
+    private volatile boolean singleWriterWarningLogged = false;
+    private volatile boolean separateScanWarningLogged = false;
+    private volatile boolean bulkLoadWarningLogged = false;
+    private volatile boolean primaryKeyOrderWarningLogged = false;
+    private volatile boolean deltaWarningLogged = false;
+    private volatile boolean probeWarningLogged = false;
 
     /**
      * This method initializes the datasources required for the migration of the stats dbs
@@ -81,214 +132,435 @@ public class DBManagerImpl implements DBManager {
     }
 
     /**
-     * This method migrates the data related to the API_DESTINATION_SUMMARY table
+     * This method sets the datasources required for the migration of the stats dbs directly instead of looking them
+     * up, so that the migration can be run outside of the Carbon runtime, e.g. against embedded databases
+     *
+     * @param oldStatsDataSource datasource of the previous stats database
+     * @param newStatsDataSource datasource of the new stats database
+     * @param apimDataSource     datasource of the API Manager database
+     */
+    public static void initialize(DataSource oldStatsDataSource, DataSource newStatsDataSource,
+            DataSource apimDataSource) {
+        DBManagerImpl.oldStatsDataSource = oldStatsDataSource;
+        DBManagerImpl.newStatsDataSource = newStatsDataSource;
+        DBManagerImpl.apimDataSource = apimDataSource;
+    }
+
+    /**
+     * This method returns the number of rows of a table in the previous stats database as estimated by the statistics
+     * of the database, which are read from its catalog rather than by counting the rows of the table
      *
+     * @param tableName name of the table
+     * @return estimated row count of the table, or -1 if the database has no estimate for it
      * @throws APIMStatMigrationException on error
      */
     @Override
-    public void migrateDestinationSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    public long getEstimatedSourceRowCount(String tableName) throws APIMStatMigrationException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        int reservedConnections = acquireConnections(1);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_DESTINATION_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_PER_DESTINATION_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, apiContext, destination, AGG_COUNT, apiHostname, "
-                    + "AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, gatewayType, label, regionalID) "
-                    + "VALUES(?,?,?,?,?,?,?,?,?,?,'SYNAPSE','Synapse','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String context = resultSetRetrieved.getString("context");
-                String destination = resultSetRetrieved.getString("destination");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                String hostName = resultSetRetrieved.getString("hostName");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, context);
-                statement2.setString(5, destination);
-                statement2.setLong(6, total_request_count);
-                statement2.setString(7, hostName);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(8, getTimestampOfDay(dayInString));
-                statement2.setLong(9, getTimestamp(time));
-                statement2.setLong(10, getTimestamp(time)); //same as AGG_EVENT_TIMESTAMP
-                statement2.executeUpdate();
+            connection = oldStatsDataSource.getConnection();
+            String query = DatabaseDialect.fromConnection(connection).getRowEstimateQuery();
+            if (query == null) {
+                return getIndexStatisticRowCount(connection.getMetaData(), tableName);
             }
+            statement = connection.prepareStatement(query);
+            statement.setString(1, tableName);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return -1;
+            }
+            long estimate = resultSet.getLong(1);
+            return resultSet.wasNull() || estimate < 0 ? -1 : estimate;
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while reading the estimated row count of " + tableName;
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(resultSet, statement, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_RESOURCE_USAGE_SUMMARY table
+     * This method reads the estimated row count of a table from the table statistic row of the index information
+     * returned by the JDBC driver, for the databases without a known catalog query
      *
-     * @throws APIMStatMigrationException on error
+     * @param metaData  metadata of the previous stats database
+     * @param tableName name of the table
+     * @return estimated row count of the table, or -1 if the driver does not report it
+     * @throws SQLException if the index information cannot be read
      */
-    @Override
-    public void migrateResourceUsageSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        Connection con3 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        PreparedStatement statement3 = null;
-        ResultSet resultSetRetrieved = null;
-        ResultSet resultSetFromAMDB = null;
+    private long getIndexStatisticRowCount(DatabaseMetaData metaData, String tableName) throws SQLException {
+        String storedName = tableName;
+        if (metaData.storesUpperCaseIdentifiers()) {
+            storedName = tableName.toUpperCase(Locale.ENGLISH);
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            storedName = tableName.toLowerCase(Locale.ENGLISH);
+        }
+        ResultSet indexInfo = metaData.getIndexInfo(null, null, storedName, false, true);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            con3 = apimDataSource.getConnection();
-            String consumerKeyMappingQuery = "select APPLICATION_ID from AM_APPLICATION_KEY_MAPPING WHERE CONSUMER_KEY=?";
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_RESOURCE_USAGE_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_RESOURCE_PATH_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, apiResourceTemplate, apiContext, apiMethod, AGG_COUNT, "
-                    + "apiHostname, AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, applicationId, "
-                    + "gatewayType, label, regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,'SYNAPSE','Synapse','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            statement3 = con3.prepareStatement(consumerKeyMappingQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                //--------------------------
-                String consumerKey = resultSetRetrieved.getString("consumerKey");
-                statement3.setString(1, consumerKey);
-                resultSetFromAMDB = statement3.executeQuery();
-                int applicationId = -1;
-                while (resultSetFromAMDB.next()) {
-                    applicationId = resultSetFromAMDB.getInt("APPLICATION_ID");
+            while (indexInfo.next()) {
+                if (indexInfo.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    long cardinality = indexInfo.getLong("CARDINALITY");
+                    return cardinality < 0 ? -1 : cardinality;
                 }
-                //-------------------------------
-                String resourcePath = resultSetRetrieved.getString("resourcePath");
-                String context = resultSetRetrieved.getString("context");
-                String method = resultSetRetrieved.getString("method");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                String hostName = resultSetRetrieved.getString("hostName");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, resourcePath);
-                statement2.setString(5, context);
-                statement2.setString(6, method);
-                statement2.setLong(7, total_request_count);
-                statement2.setString(8, hostName);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(9, getTimestampOfDay(dayInString));
-                statement2.setLong(10, getTimestamp(time));
-                statement2.setLong(11, getTimestamp(time));
-                if (applicationId != -1) {
-                    statement2.setString(12, Integer.toString(applicationId));
-                } else {
-                    String errorMsg = "Error occurred while retrieving applicationId for consumer key : " + consumerKey;
-                    log.error(errorMsg);
-                    throw new APIMStatMigrationException(errorMsg);
+            }
+            return -1;
+        } finally {
+            indexInfo.close();
+        }
+    }
+
+    /**
+     * This method splits a table of the previous stats database into the configured number of ranges and migrates
+     * the ranges concurrently, each with its own connections. When the progress is recorded, the partitions which
+     * were completed by a previous run are skipped and the others are continued after their last committed key.
+     *
+     * @param tableName       name of the table in the previous stats database
+     * @param migrationName   name the progress of the migration is recorded under, the table it writes to
+     * @param level           time columns the table is split on
+     * @param keyOrdered      whether the rows are read in key order even if the progress is not recorded
+     * @param split           whether the table is split into the configured number of ranges, rather than read as a
+     *                        single range
+     * @param connectionCount number of connections used to migrate a single range
+     * @param migration       migration of a single range
+     * @throws APIMStatMigrationException if the migration of any of the ranges failed
+     */
+    private void migratePartitions(String tableName, String migrationName, PartitionLevel level, boolean keyOrdered,
+            boolean split, final int connectionCount, final PartitionMigration migration)
+            throws APIMStatMigrationException {
+        Map<TablePartition, PartitionCheckpoint> partitions = getPendingPartitions(tableName, migrationName, level,
+                keyOrdered, split);
+        if (partitions.isEmpty()) {
+            log.info("Skipping " + tableName + " as its migration to " + migrationName
+                    + " was completed by a previous run");
+            return;
+        }
+        if (partitions.size() == 1) {
+            Map.Entry<TablePartition, PartitionCheckpoint> partition = partitions.entrySet().iterator().next();
+            migratePartition(partition.getKey(), partition.getValue(), connectionCount, migration);
+            return;
+        }
+        log.info("Migrating " + tableName + " in " + partitions.size() + " partitions");
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size(),
+                new NamedThreadFactory(tableName + "-Partition"));
+        Map<TablePartition, Future<?>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<TablePartition, PartitionCheckpoint> partition : partitions.entrySet()) {
+            futures.put(partition.getKey(), executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws APIMStatMigrationException {
+                    migratePartition(partition.getKey(), partition.getValue(), connectionCount, migration);
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        Throwable firstFailure = null;
+        int failedPartitions = 0;
+        for (Map.Entry<TablePartition, Future<?>> future : futures.entrySet()) {
+            try {
+                future.getValue().get();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new APIMStatMigrationException("Interrupted while migrating " + tableName, e);
+            } catch (ExecutionException e) {
+                log.error("Error occurred while migrating " + future.getKey(), e.getCause());
+                failedPartitions++;
+                if (firstFailure == null) {
+                    firstFailure = e.getCause();
                 }
-                statement2.executeUpdate();
             }
-        } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
+        }
+        if (firstFailure != null) {
+            throw new APIMStatMigrationException("Migration of " + failedPartitions + " of " + partitions.size()
+                    + " partitions of " + tableName + " failed", firstFailure);
+        }
+    }
+
+    private void migratePartition(TablePartition partition, PartitionCheckpoint checkpoint, int connectionCount,
+            PartitionMigration migration) throws APIMStatMigrationException {
+        int reservedConnections = acquireConnections(connectionCount);
+        try {
+            if (partition.isRange()) {
+                log.info("Started migrating " + partition);
+            }
+            migration.migrate(partition, checkpoint);
+            if (partition.isRange()) {
+                log.info("Completed migrating " + partition);
+            }
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
-            closeDatabaseLinks(resultSetFromAMDB, statement3, con3);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_VERSION_USAGE_SUMMARY table
+     * This method returns the partitions of a table which are still to be migrated, along with their checkpoints
      *
-     * @throws APIMStatMigrationException on error
+     * @return the partitions mapped to their checkpoints, which are null if the progress is not recorded
      */
-    @Override
-    public void migrateVersionUsageSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private Map<TablePartition, PartitionCheckpoint> getPendingPartitions(String tableName, String migrationName,
+            PartitionLevel level, boolean keyOrdered, boolean split) throws APIMStatMigrationException {
+        Map<TablePartition, PartitionCheckpoint> pendingPartitions = new LinkedHashMap<>();
+        ProgressStore progressStore = getProgressStore();
+        if (progressStore == null) {
+            for (TablePartition partition : getPartitions(tableName, level, keyOrdered, split)) {
+                pendingPartitions.put(partition, null);
+            }
+            return pendingPartitions;
+        }
+
+        List<MigrationProgress> progress;
+        int reservedConnections = acquireConnections(1);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_VERSION_USAGE_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_VERSION_USAGE_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, apiContext, AGG_COUNT, apiHostname, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, applicationId, gatewayType, label, regionalID) "
-                    + "VALUES(?,?,?,?,?,?,?,?,?,'','SYNAPSE','Synapse','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String context = resultSetRetrieved.getString("context");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                String hostName = resultSetRetrieved.getString("hostName");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, context);
-                statement2.setLong(5, total_request_count);
-                statement2.setString(6, hostName);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(7, getTimestampOfDay(dayInString));
-                statement2.setLong(8, getTimestamp(time));
-                statement2.setLong(9, getTimestamp(time)); //same as AGG_EVENT_TIMESTAMP
-                statement2.executeUpdate();
+            progress = progressStore.load(migrationName);
+        } finally {
+            connectionBudget.release(reservedConnections);
+        }
+        if (!progress.isEmpty() && !MigrationConfiguration.isResumeEnabled()) {
+            log.warn("Discarding the recorded progress of " + migrationName + " as "
+                    + APIMStatMigrationConstants.ARG_RESUME + " is not set, the table is migrated from the start");
+            progress = new ArrayList<>();
+        }
+        if (progress.isEmpty()) {
+            for (TablePartition partition : getPartitions(tableName, level, true, split)) {
+                progress.add(MigrationProgress.notStarted(migrationName, partition));
+            }
+            reservedConnections = acquireConnections(1);
+            try {
+                progressStore.replace(migrationName, progress);
+            } finally {
+                connectionBudget.release(reservedConnections);
+            }
+        } else {
+            log.info("Resuming the migration of " + tableName + " to " + migrationName + " from the recorded progress");
+        }
+        long previouslyMigratedRows = 0;
+        for (MigrationProgress partitionProgress : progress) {
+            previouslyMigratedRows += partitionProgress.getRowsMigrated();
+            if (partitionProgress.isCompleted()) {
+                log.info("Skipping " + partitionProgress + " as it was completed by a previous run");
+                continue;
+            }
+            if (partitionProgress.isStarted()) {
+                log.info("Continuing " + partitionProgress);
+            }
+            pendingPartitions.put(partitionProgress.getRemainingPartition(tableName, level),
+                    new PartitionCheckpoint(progressStore, partitionProgress));
+        }
+        MigrationMetrics.getInstance().getTable(migrationName, tableName)
+                .setPreviouslyMigratedRows(previouslyMigratedRows);
+        return pendingPartitions;
+    }
+
+    /**
+     * A table which is checkpointed is read in key order as a single range even if it is not split, so that its
+     * progress can be recorded at key boundaries
+     */
+    private List<TablePartition> getPartitions(String tableName, PartitionLevel level, boolean keyOrdered,
+            boolean split) throws APIMStatMigrationException {
+        int partitionCount = split ? MigrationConfiguration.getPartitionCount(tableName) : 1;
+        if (level == PartitionLevel.NONE) {
+            return Collections.singletonList(TablePartition.all(tableName));
+        }
+        if (partitionCount == 1) {
+            if (keyOrdered) {
+                return Collections.singletonList(
+                        new TablePartition(tableName, level, 1, 1, 0, level.getMaxKey()).inKeyOrder());
+            }
+            return Collections.singletonList(TablePartition.all(tableName));
+        }
+        Connection connection = null;
+        int reservedConnections = acquireConnections(1);
+        try {
+            connection = oldStatsDataSource.getConnection();
+            List<TablePartition> partitions = TablePartitioner.split(connection, tableName, level, partitionCount);
+            if (!keyOrdered) {
+                return partitions;
+            }
+            List<TablePartition> orderedPartitions = new ArrayList<>(partitions.size());
+            for (TablePartition partition : partitions) {
+                orderedPartitions.add(partition.isRange() ? partition.inKeyOrder()
+                        : new TablePartition(tableName, level, 1, 1, 0, level.getMaxKey()).inKeyOrder());
             }
+            return orderedPartitions;
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while splitting " + tableName + " into partitions";
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(null, null, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
+    /**
+     * This method returns the store the progress of the migration is recorded in, creating it on first use
+     *
+     * @return the progress store, or null if the progress is not recorded
+     * @throws APIMStatMigrationException if the progress store cannot be initialized
+     */
+    private synchronized ProgressStore getProgressStore() throws APIMStatMigrationException {
+        if (progressStore == null) {
+            ProgressStore.Type type = MigrationConfiguration.getProgressStoreType();
+            if (type == ProgressStore.Type.NONE) {
+                return null;
+            }
+            ProgressStore store;
+            if (type == ProgressStore.Type.FILE) {
+                store = new FileProgressStore(MigrationConfiguration.getCheckpointFile());
+                store.initialize();
+            } else {
+                int reservedConnections = acquireConnections(1);
+                try {
+                    store = new DatabaseProgressStore(newStatsDataSource);
+                    store.initialize();
+                } finally {
+                    connectionBudget.release(reservedConnections);
+                }
+            }
+            progressStore = store;
+        }
+        return progressStore;
+    }
+
+    /**
+     * This method returns the store the watermarks of the migrated tables are recorded in, creating it on first use
+     *
+     * @return the watermark store
+     * @throws APIMStatMigrationException if the watermark store cannot be initialized
+     */
+    private synchronized WatermarkStore getWatermarkStore() throws APIMStatMigrationException {
+        if (watermarkStore == null) {
+            int reservedConnections = acquireConnections(1);
+            try {
+                WatermarkStore store = new WatermarkStore(newStatsDataSource);
+                store.initialize();
+                watermarkStore = store;
+            } finally {
+                connectionBudget.release(reservedConnections);
+            }
+        }
+        return watermarkStore;
+    }
+
+    /**
+     * This method returns the consumer key resolver shared by all the tables which map consumer keys to application
+     * ids, creating it on first use
+     *
+     * @return the consumer key resolver
+     * @throws APIMStatMigrationException if the consumer key mapping cannot be loaded
+     */
+    private synchronized ApplicationIdResolver getApplicationIdResolver() throws APIMStatMigrationException {
+        if (applicationIdResolver == null) {
+            try {
+                applicationIdResolver = new ApplicationIdResolver(apimDataSource,
+                        MigrationConfiguration.getApplicationIdCacheMode(),
+                        MigrationConfiguration.getApplicationIdCacheSize());
+            } catch (SQLException e) {
+                String msg = "Error occurred while loading the consumer key mapping from " + APIM_DATA_SOURCE_NAME;
+                log.error(msg, e);
+                throw new APIMStatMigrationException(msg, e);
+            }
+        }
+        return applicationIdResolver;
+    }
+
+    /**
+     * This method returns the statement the rows of a table are written with, which is the given insert statement or,
+     * in upsert mode, a statement which merges the rows into the existing rows. Upsert statements are built once per
+     * insert statement.
+     *
+     * @param connection  connection to the new stats database
+     * @param insertQuery insert statement of the table
+     * @param upsert      whether the rows are merged into the existing rows in any write mode, as the rows of a
+     *                    rollup bucket which spans several partitions are written by each of them
+     * @return the statement to write the rows with
+     * @throws SQLException if the upsert statement cannot be built
+     */
+    private String getWriteQuery(Connection connection, String insertQuery, boolean upsert) throws SQLException {
+        if (!upsert && writeMode == UpsertStatementBuilder.WriteMode.INSERT) {
+            return insertQuery;
+        }
+        String writeQuery = writeQueries.get(insertQuery);
+        if (writeQuery == null) {
+            writeQuery = UpsertStatementBuilder.build(connection, insertQuery);
+            writeQueries.put(insertQuery, writeQuery);
+            if (log.isDebugEnabled()) {
+                log.debug("Upserting with " + writeQuery);
+            }
+        }
+        return writeQuery;
+    }
+
+    /**
+     * The bulk load statements only insert rows, so the rows which are merged into the existing rows are always
+     * written with batched insert statements
+     *
+     * @param connection connection to the new stats database
+     * @param mapping    mapping of the rows
+     * @param merge      whether the rows are merged into the existing rows in any write mode
+     * @return the loader of the rows, or null if they are written with batched insert statements
+     * @throws SQLException if the loader cannot be created
+     */
+    private BulkLoader getBulkLoader(Connection connection, TableMapping mapping, boolean merge)
+            throws SQLException {
+        if (loaderMode != BulkLoader.Mode.BULK || writeMode == UpsertStatementBuilder.WriteMode.UPSERT
+                || mapping.isRollUp() || merge) {
+            return null;
+        }
+        BulkLoader loader = BulkLoader.create(connection, mapping);
+        if (loader == null && !bulkLoadWarningLogged) {
+            log.warn("Bulk loading is not supported for " + connection.getMetaData().getDatabaseProductName()
+                    + " or its JDBC driver. The rows are written with batched insert statements");
+            bulkLoadWarningLogged = true;
+        }
+        return loader;
+    }
+
+    private int acquireConnections(int connectionCount) throws APIMStatMigrationException {
+        try {
+            return connectionBudget.acquire(connectionCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIMStatMigrationException("Interrupted while waiting for database connections", e);
+        }
+    }
+
+    /**
+     * This method migrates the data related to the API_DESTINATION_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateDestinationSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.DESTINATION_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_RESOURCE_USAGE_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateResourceUsageSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.RESOURCE_USAGE_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_VERSION_USAGE_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateVersionUsageSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.VERSION_USAGE_SUMMARY);
+    }
+
     /**
      * This method migrates the data related to the API_LAST_ACCESS_TIME_SUMMARY table
      *
@@ -296,49 +568,7 @@ public class DBManagerImpl implements DBManager {
      */
     @Override
     public void migrateLastAccessTimeSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
-        try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_LAST_ACCESS_TIME_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_LAST_ACCESS_SUMMARY_AGG
-                    + "(apiCreatorTenantDomain, apiCreator, apiName, apiVersion, applicationOwner, apiContext, lastAccessTime) VALUES(?,?,?,?,?,?,?)";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String userId = resultSetRetrieved.getString("userId");
-                String context = resultSetRetrieved.getString("context");
-                long max_request_time = resultSetRetrieved.getLong("max_request_time");
-                statement2.setString(1, tenantDomain);
-                statement2.setString(2, apiPublisher);
-                statement2.setString(3, api);
-                statement2.setString(4, version);
-                statement2.setString(5, userId);
-                statement2.setString(6, context);
-                statement2.setLong(7, max_request_time);
-                statement2.executeUpdate();
-            }
-        } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
-        }
+        migrateTable(TableMappings.LAST_ACCESS_TIME_SUMMARY);
     }
 
     /**
@@ -348,628 +578,778 @@ public class DBManagerImpl implements DBManager {
      */
     @Override
     public void migrateFaultSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        Connection con3 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        PreparedStatement statement3 = null;
-        ResultSet resultSetRetrieved = null;
-        ResultSet resultSetFromAMDB = null;
+        migrateTable(TableMappings.FAULT_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_REQ_USER_BROW_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateUserBrowserSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.USER_BROWSER_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_REQ_GEO_LOC_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateGeoLocationSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.GEO_LOCATION_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_EXE_TME_DAY_SUMMARY table. When rollups are enabled, the day
+     * table is rolled up from API_EXE_TIME_MIN_SUMMARY instead.
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateExecutionTimeDaySummaryTable() throws APIMStatMigrationException {
+        migrateExecutionTimeTable(TableMappings.EXECUTION_TIME_DAY_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_EXE_TIME_HOUR_SUMMARY table. When rollups are enabled, the
+     * hour table is rolled up from API_EXE_TIME_MIN_SUMMARY instead.
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateExecutionTimeHourSummaryTable() throws APIMStatMigrationException {
+        migrateExecutionTimeTable(TableMappings.EXECUTION_TIME_HOUR_SUMMARY);
+    }
+
+    /**
+     * This method migrates the data related to the API_EXE_TIME_MIN_SUMMARY table. When rollups are enabled, the
+     * same scan rolls the rows up into the hour, day, month and year tables.
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateExecutionTimeMinuteSummaryTable() throws APIMStatMigrationException {
+        migrateExecutionTimeTable(TableMappings.EXECUTION_TIME_MINUTE_SUMMARY);
+    }
+
+    private void migrateExecutionTimeTable(TableMapping mapping) throws APIMStatMigrationException {
+        if (rollUp) {
+            migrateWithSharedScan(mapping, EXECUTION_TIME_SCAN);
+        } else {
+            migrateTable(mapping);
+        }
+    }
+
+    /**
+     * This method migrates the data related to the API_THROTTLED_OUT_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateThrottledOutSummaryTable() throws APIMStatMigrationException {
+        if (aggregationMode == RowAggregator.Mode.SOURCE) {
+            migrateTable(TableMappings.THROTTLED_OUT_SUMMARY);
+        } else {
+            migrateWithSharedScan(TableMappings.THROTTLED_OUT_SUMMARY, THROTTLED_OUT_SCAN);
+        }
+    }
+
+    /**
+     * This method migrates the request counts of the API_THROTTLED_OUT_SUMMARY table. Unless the aggregation mode is
+     * source, the rows are read without the GROUP BY and aggregated by the migration, which keeps the source database
+     * from building a temporary table of the groups.
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateThrottledOutRequestCountSummaryTable() throws APIMStatMigrationException {
+        if (aggregationMode == RowAggregator.Mode.SOURCE) {
+            migrateTable(TableMappings.THROTTLED_OUT_REQUEST_COUNT_SUMMARY);
+        } else {
+            migrateWithSharedScan(TableMappings.THROTTLED_OUT_REQUEST_COUNT_UNGROUPED, THROTTLED_OUT_SCAN);
+        }
+    }
+
+    /**
+     * This method migrates the data related to the API_REQUEST_SUMMARY table
+     *
+     * @throws APIMStatMigrationException on error
+     */
+    @Override
+    public void migrateRequestSummaryTable() throws APIMStatMigrationException {
+        migrateTable(TableMappings.REQUEST_SUMMARY);
+    }
+
+    /**
+     * This method migrates a table of the previous stats database as described by its mapping. The progress of the
+     * migration is recorded under the name of the target table, as a source table may be migrated to several tables.
+     *
+     * @param mapping mapping of the table
+     * @throws APIMStatMigrationException on error
+     */
+    private void migrateTable(TableMapping mapping) throws APIMStatMigrationException {
+        migrateTables(Collections.singletonList(mapping));
+    }
+
+    /**
+     * This method migrates a table together with the other tables migrated from the same source table, reading the
+     * source table once for all of them. The first of the migrations sharing the scan runs it and the others wait
+     * for it to finish. When the progress is recorded, the progress of each table is recorded and resumed on its
+     * own, so each table is read separately and the rollups which have no source table of their own are not written.
+     *
+     * @param mapping      mapping of the table
+     * @param scanMappings mappings of all the tables sharing the scan, the first of which reads the fields of the
+     *                     others
+     * @throws APIMStatMigrationException if the migration of any of the tables failed
+     */
+    private void migrateWithSharedScan(TableMapping mapping, final List<TableMapping> scanMappings)
+            throws APIMStatMigrationException {
+        if (getProgressStore() != null) {
+            if (!separateScanWarningLogged) {
+                log.warn("Migrating every table from its own source table without rollups, as the progress is "
+                        + "recorded");
+                separateScanWarningLogged = true;
+            }
+            migrateTable(mapping);
+            return;
+        }
+        String scanTable = scanMappings.get(0).getSourceTable();
+        FutureTask<Void> scan = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws APIMStatMigrationException {
+                migrateTables(scanMappings);
+                return null;
+            }
+        });
+        FutureTask<Void> existingScan = sharedScans.putIfAbsent(scanTable, scan);
+        if (existingScan == null) {
+            scan.run();
+        } else {
+            log.info(mapping.getTargetTable() + " is migrated by the shared scan of " + scanTable);
+            scan = existingScan;
+        }
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            con3 = apimDataSource.getConnection();
-            String consumerKeyMappingQuery = "SELECT APPLICATION_ID FROM AM_APPLICATION_KEY_MAPPING WHERE CONSUMER_KEY=?";
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_FAULT_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_FAULTY_INVOCATION_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, applicationId, apiContext, AGG_COUNT, hostname, "
-                    + "AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,'default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            statement3 = con3.prepareStatement(consumerKeyMappingQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                //--------------------------
-                String consumerKey = resultSetRetrieved.getString("consumerKey");
-                statement3.setString(1, consumerKey);
-                resultSetFromAMDB = statement3.executeQuery();
-                int applicationId = -1;
-                while (resultSetFromAMDB.next()) {
-                    applicationId = resultSetFromAMDB.getInt("APPLICATION_ID");
+            scan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIMStatMigrationException("Interrupted while migrating " + scanTable, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof APIMStatMigrationException) {
+                throw (APIMStatMigrationException) e.getCause();
+            }
+            throw new APIMStatMigrationException("Error occurred while migrating " + scanTable, e.getCause());
+        }
+    }
+
+    /**
+     * This method migrates a table of the previous stats database to one or more tables, reading it once. The rows
+     * are read for the first mapping, which reads the fields of the other mappings. The rows of the mappings which
+     * are aggregated by the migration are read in key order in the sorted aggregation mode, and so are the rows of
+     * rollups unless the aggregation mode is hash. When rollups are enabled, the month and year tables of the day
+     * tables are rolled up in the same scan, unless the progress is recorded. In delta mode only the rows from the
+     * watermark recorded by the previous run on are read and merged into the existing rows, in a single range, and
+     * the watermark is advanced once they are written.
+     *
+     * @param tableMappings mappings of the source table
+     * @throws APIMStatMigrationException on error
+     */
+    private void migrateTables(List<TableMapping> tableMappings) throws APIMStatMigrationException {
+        final List<TableMapping> mappings = new ArrayList<>(tableMappings);
+        if (rollUp && getProgressStore() == null) {
+            for (TableMapping mapping : tableMappings) {
+                mappings.addAll(TableMappings.getMonthAndYearRollUps(mapping));
+            }
+        }
+        final TableMapping readMapping = mappings.get(0);
+        final Watermark watermark = getWatermark(mappings);
+        if (watermark != null && watermark.isEmpty()) {
+            if (!watermark.isRecorded()) {
+                saveWatermark(mappings, watermark);
+            }
+            log.info("Skipping " + readMapping.getSourceTable() + " as it has no rows "
+                    + (watermark.isRecorded() ? "from the watermark of " : "to migrate to ")
+                    + readMapping.getTargetTable() + " below the newest " + watermark.getField());
+            return;
+        }
+        final boolean merge = watermark != null && watermark.isRecorded();
+        if (merge) {
+            log.info("Merging the rows of " + readMapping.getSourceTable() + " with " + watermark + " into "
+                    + readMapping.getTargetTable());
+        }
+        final int writerCount = getWriterCount();
+        boolean applicationIdMapped = false;
+        boolean keyOrdered = false;
+        StringBuilder migrationName = new StringBuilder();
+        final List<TableMetrics> metrics = new ArrayList<>(mappings.size());
+        for (TableMapping mapping : mappings) {
+            applicationIdMapped |= mapping.isApplicationIdMapped();
+            keyOrdered |= mapping.isAggregatedByMigration() && (aggregationMode == RowAggregator.Mode.SORTED
+                    || mapping.isRollUp() && aggregationMode == RowAggregator.Mode.SOURCE);
+            migrationName.append(migrationName.length() > 0 ? " and " : "").append(mapping.getTargetTable());
+            metrics.add(MigrationMetrics.getInstance().getTable(mapping.getTargetTable(), mapping.getSourceTable()));
+        }
+        int connectionCount = 1 + mappings.size() * writerCount
+                + (applicationIdMapped ? getApplicationIdResolver().getConnectionCount() : 0);
+        final List<List<TableMapping.Column>> sortColumns = getSortColumns(mappings);
+        String orderBy = null;
+        if (mappings.size() == 1 && !keyOrdered && !preAggregate && !readMapping.isAggregatedByMigration()
+                && !sortColumns.get(0).isEmpty()) {
+            orderBy = getSourceOrderBy(readMapping, sortColumns.get(0));
+            if (orderBy != null) {
+                sortColumns.set(0, Collections.<TableMapping.Column>emptyList());
+            }
+        }
+        final String sourceOrderBy = orderBy;
+        if (deferIndexes) {
+            dropIndexes(mappings);
+        }
+        for (TableMetrics tableMetrics : metrics) {
+            tableMetrics.start();
+        }
+        try {
+            migratePartitions(readMapping.getSourceTable(), migrationName.toString(), readMapping.getLevel(),
+                    keyOrdered, !merge, connectionCount, new PartitionMigration() {
+                        @Override
+                        public void migrate(TablePartition partition, PartitionCheckpoint checkpoint)
+                                throws APIMStatMigrationException {
+                            TablePartition readPartition = sourceOrderBy != null
+                                    ? partition.orderedBy(sourceOrderBy) : partition;
+                            migrateTables(mappings, watermark != null ? readPartition.since(watermark)
+                                    : readPartition, checkpoint, writerCount, metrics, sortColumns, merge);
+                        }
+                    });
+        } finally {
+            for (TableMetrics tableMetrics : metrics) {
+                tableMetrics.finish();
+            }
+        }
+        if (watermark != null) {
+            saveWatermark(mappings, watermark);
+        }
+        for (TableMetrics tableMetrics : metrics) {
+            log.info(tableMetrics.getProgress());
+        }
+        if (applicationIdMapped && log.isDebugEnabled()) {
+            log.debug("Application id resolution so far, " + getApplicationIdResolver());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("The dimension dictionary holds " + dimensionDictionary.size() + " distinct values so far");
+        }
+    }
+
+    /**
+     * This method returns the rows of the source table of the given mappings to migrate in delta mode, which are the
+     * rows from the watermark recorded by the previous run on, or all the rows if the tables were not migrated before,
+     * below the largest value of the watermark field when the migration of the table starts. The tables migrated by
+     * the same read must have the same watermark.
+     *
+     * @param mappings mappings of the source table
+     * @return the watermark of the tables, or null if the tables are migrated in full
+     * @throws APIMStatMigrationException if the watermarks cannot be read or differ between the tables
+     */
+    private Watermark getWatermark(List<TableMapping> mappings) throws APIMStatMigrationException {
+        if (!delta) {
+            return null;
+        }
+        if (getProgressStore() != null) {
+            if (!deltaWarningLogged) {
+                log.warn("Migrating every table in full without recording watermarks, as "
+                        + APIMStatMigrationConstants.ARG_DELTA + " is not supported when the progress is recorded");
+                deltaWarningLogged = true;
+            }
+            return null;
+        }
+        for (TableMapping mapping : mappings) {
+            if (mapping.getWatermarkField() == null) {
+                return null;
+            }
+        }
+        WatermarkStore store = getWatermarkStore();
+        Watermark watermark = null;
+        int reservedConnections = acquireConnections(1);
+        try {
+            for (TableMapping mapping : mappings) {
+                Watermark recorded = store.load(mapping);
+                if (recorded == null) {
+                    recorded = Watermark.initial(mapping);
                 }
-                //-------------------------------
-                String context = resultSetRetrieved.getString("context");
-                long total_fault_count = resultSetRetrieved.getLong("total_fault_count");
-                String hostName = resultSetRetrieved.getString("hostName");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                if (applicationId != -1) {
-                    statement2.setString(4, Integer.toString(applicationId));
-                } else {
-                    String errorMsg = "Error occurred while retrieving applicationId for consumer key : " + consumerKey;
-                    log.error(errorMsg);
-                    throw new APIMStatMigrationException(errorMsg);
+                if (watermark == null) {
+                    watermark = recorded;
+                } else if (watermark.isRecorded() != recorded.isRecorded()
+                        || !watermark.getField().equals(recorded.getField())
+                        || !equal(watermark.getLowerBound(), recorded.getLowerBound())) {
+                    String msg = mappings.get(0).getTargetTable() + " and " + mapping.getTargetTable()
+                            + " are migrated by the same read of " + mapping.getSourceTable() + " but have "
+                            + "different watermarks in " + APIMStatMigrationConstants.MIGRATION_WATERMARK_TABLE;
+                    log.error(msg);
+                    throw new APIMStatMigrationException(msg);
                 }
-                statement2.setString(5, context);
-                statement2.setLong(6, total_fault_count);
-                statement2.setString(7, hostName);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(8, getTimestampOfDay(dayInString));
-                statement2.setLong(9, getTimestamp(time));
-                statement2.setLong(10, getTimestamp(time));
-                statement2.executeUpdate();
             }
-        } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
-            closeDatabaseLinks(resultSetFromAMDB, statement3, con3);
+            connectionBudget.release(reservedConnections);
         }
+        return watermark.upTo(getWatermarkUpperBound(mappings.get(0).getSourceTable(), watermark));
+    }
+
+    private static boolean equal(String value, String otherValue) {
+        return value == null ? otherValue == null : value.equals(otherValue);
     }
 
     /**
-     * This method migrates the data related to the API_REQ_USR_BROW_SUMMARY table
+     * Rows with this value or larger values, which may be written while the source table is read, are left to the
+     * next run
      *
-     * @throws APIMStatMigrationException on error
+     * @return the largest value of the watermark field of the table, or null if the table is empty
      */
-    @Override
-    public void migrateUserBrowserSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private String getWatermarkUpperBound(String tableName, Watermark watermark) throws APIMStatMigrationException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        int reservedConnections = acquireConnections(1);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_REQ_USR_BROW_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_USER_BROWSER_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, apiCreatorTenantDomain, AGG_COUNT, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, operatingSystem, browser, apiContext, gatewayType,"
-                    + " label, regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,'','SYNAPSE','Synapse','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                long time = resultSetRetrieved.getLong("requestTime");
-                String os = resultSetRetrieved.getString("os");
-                String browser = resultSetRetrieved.getString("browser");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, tenantDomain);
-                statement2.setLong(5, total_request_count);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(6, getTimestampOfDay(dayInString));
-                statement2.setLong(7, time);
-                statement2.setLong(8, time);
-                statement2.setString(9, os);
-                statement2.setString(10, browser);
-                statement2.executeUpdate();
+            connection = oldStatsDataSource.getConnection();
+            statement = connection.prepareStatement("SELECT MAX(" + watermark.getField() + ") FROM " + tableName);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
             }
+            if (watermark.getType() == TableMapping.FieldType.LONG) {
+                long value = resultSet.getLong(1);
+                return resultSet.wasNull() ? null : Long.toString(value);
+            }
+            return resultSet.getString(1);
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while reading the watermark of " + tableName;
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(resultSet, statement, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_REQ_GEO_LOC_SUMMARY table
+     * This method records the watermark of the given tables once the rows within it have been written
      *
-     * @throws APIMStatMigrationException on error
+     * @param mappings  mappings of the tables
+     * @param watermark rows of the source table migrated to the tables
+     * @throws APIMStatMigrationException if the watermark cannot be recorded
      */
-    @Override
-    public void migrateGeoLocationSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private void saveWatermark(List<TableMapping> mappings, Watermark watermark) throws APIMStatMigrationException {
+        int reservedConnections = acquireConnections(1);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_REQ_GEO_LOC_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_GEO_LOCATION_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, apiCreatorTenantDomain, totalCount, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, country, city, apiContext, regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,'','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                long time = resultSetRetrieved.getLong("requestTime");
-                String country = resultSetRetrieved.getString("country");
-                String city = resultSetRetrieved.getString("city");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, tenantDomain);
-                statement2.setLong(5, total_request_count);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(6, getTimestampOfDay(dayInString));
-                statement2.setLong(7, time);
-                statement2.setLong(8, time);
-                statement2.setString(9, country);
-                statement2.setString(10, city); //check if ok to be null
-                statement2.executeUpdate();
+            getWatermarkStore().save(mappings, watermark);
+        } finally {
+            connectionBudget.release(reservedConnections);
+        }
+        log.info("Recorded the watermark " + watermark.getField() + " = " + watermark.getNextLowerBound() + " of "
+                + mappings.get(0).getSourceTable());
+    }
+
+    /**
+     * This method looks up the primary keys of the target tables of the given mappings, which the rows are sorted by
+     * before they are written. The rows are not sorted when the progress is recorded, as they are then committed in
+     * key order.
+     *
+     * @param mappings mappings of the tables
+     * @return the columns of each mapping the rows are sorted by, in the order of the mappings, which are empty if the
+     * rows of the mapping are not sorted
+     * @throws APIMStatMigrationException if the primary keys cannot be read
+     */
+    private List<List<TableMapping.Column>> getSortColumns(List<TableMapping> mappings)
+            throws APIMStatMigrationException {
+        List<List<TableMapping.Column>> sortColumns = new ArrayList<>(mappings.size());
+        if (!primaryKeyOrder || getProgressStore() != null) {
+            if (primaryKeyOrder && !primaryKeyOrderWarningLogged) {
+                log.warn("Writing the rows in the order they are read instead of the primary key order, as "
+                        + APIMStatMigrationConstants.ARG_PRIMARY_KEY_ORDER + " is not supported when the progress is "
+                        + "recorded");
+                primaryKeyOrderWarningLogged = true;
             }
+            for (int i = 0; i < mappings.size(); i++) {
+                sortColumns.add(Collections.<TableMapping.Column>emptyList());
+            }
+            return sortColumns;
+        }
+        int reservedConnections = acquireConnections(1);
+        Connection connection = null;
+        try {
+            connection = newStatsDataSource.getConnection();
+            for (TableMapping mapping : mappings) {
+                List<String> columns = new ArrayList<>();
+                for (TableMapping.Column column : mapping.getColumns()) {
+                    columns.add(column.getTargetColumn());
+                }
+                sortColumns.add(mapping.getValues(UpsertStatementBuilder.getPrimaryKeyColumns(
+                        connection.getMetaData(), mapping.getTargetTable(), columns)));
+            }
+            return sortColumns;
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while reading the primary keys of the new stats tables";
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(null, null, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_EXE_TME_DAY_SUMMARY table
+     * Ordering the source query only pays off when an index of the source table has the same order, otherwise the
+     * database sorts the rows on its own, so the rows are sorted by the migration instead
      *
-     * @throws APIMStatMigrationException on error
+     * @param mapping     mapping of the table
+     * @param sortColumns columns of the mapping the rows are sorted by
+     * @return the columns of the source table to order the source query by, or null if the rows are sorted by the
+     * migration
+     * @throws APIMStatMigrationException if the indexes of the source table cannot be read
      */
-    @Override
-    public void migrateExecutionTimeDaySummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private String getSourceOrderBy(TableMapping mapping, List<TableMapping.Column> sortColumns)
+            throws APIMStatMigrationException {
+        List<String> fields = mapping.getOrderingFields(sortColumns);
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        int reservedConnections = acquireConnections(1);
+        Connection connection = null;
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_EXE_TME_DAY_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_EXEC_TIME_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreatorTenantDomain, apiCreator, AGG_SUM_responseTime, apiContext, "
-                    + "AGG_SUM_securityLatency, AGG_SUM_throttlingLatency, AGG_SUM_requestMedLat, "
-                    + "AGG_SUM_responseMedLat, AGG_SUM_backendLatency, AGG_SUM_otherLatency, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, apiHostname, apiResourceTemplate, apiMethod, "
-                    + "regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,'','','','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                long apiResponseTime = resultSetRetrieved.getLong("apiResponseTime");
-                String context = resultSetRetrieved.getString("context");
-                long securityLatency = resultSetRetrieved.getLong("securityLatency");
-                long throttlingLatency = resultSetRetrieved.getLong("throttlingLatency");
-                long requestMediationLatency = resultSetRetrieved.getLong("requestMediationLatency");
-                long responseMediationLatency = resultSetRetrieved.getLong("responseMediationLatency");
-                long backendLatency = resultSetRetrieved.getLong("backendLatency");
-                long otherLatency = resultSetRetrieved.getLong("otherLatency");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                long time = resultSetRetrieved.getLong("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, tenantDomain);
-                statement2.setString(4, apiPublisher);
-                statement2.setLong(5, apiResponseTime);
-                statement2.setString(6, context);
-                statement2.setLong(7, securityLatency);
-                statement2.setLong(8, throttlingLatency);
-                statement2.setLong(9, requestMediationLatency);
-                statement2.setLong(10, responseMediationLatency);
-                statement2.setLong(11, backendLatency);
-                statement2.setLong(12, otherLatency);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(13, getTimestampOfDay(dayInString));
-                statement2.setLong(14, time);
-                statement2.setLong(15, time);
-                statement2.executeUpdate();
+            connection = oldStatsDataSource.getConnection();
+            if (!IndexManager.hasIndexStartingWith(connection.getMetaData(), mapping.getSourceTable(), fields)) {
+                return null;
             }
+            StringBuilder orderBy = new StringBuilder();
+            for (String field : fields) {
+                orderBy.append(orderBy.length() > 0 ? ", " : "").append(field);
+            }
+            log.info("Reading " + mapping.getSourceTable() + " in the primary key order of "
+                    + mapping.getTargetTable() + " with ORDER BY " + orderBy);
+            return orderBy.toString();
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while reading the indexes of " + mapping.getSourceTable();
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(null, null, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_EXE_TIME_HOUR_SUMMARY table
+     * This method drops the secondary indexes of the target tables of the given mappings before their rows are
+     * written, unless they were already dropped
      *
-     * @throws APIMStatMigrationException on error
+     * @param mappings mappings of the tables
+     * @throws APIMStatMigrationException if the indexes cannot be read
      */
-    @Override
-    public void migrateExecutionTimeHourSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private void dropIndexes(List<TableMapping> mappings) throws APIMStatMigrationException {
+        int reservedConnections = acquireConnections(1);
+        Connection connection = null;
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_EXE_TIME_HOUR_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_EXEC_TIME_AGG
-                    + "_HOURS(apiName, apiVersion, apiCreatorTenantDomain, apiCreator, AGG_SUM_responseTime, apiContext, "
-                    + "AGG_SUM_securityLatency, AGG_SUM_throttlingLatency, AGG_SUM_requestMedLat, "
-                    + "AGG_SUM_responseMedLat, AGG_SUM_backendLatency, AGG_SUM_otherLatency, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, apiHostname, apiResourceTemplate, apiMethod, "
-                    + "regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,'','','','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                long apiResponseTime = resultSetRetrieved.getLong("apiResponseTime");
-                String context = resultSetRetrieved.getString("context");
-                long securityLatency = resultSetRetrieved.getLong("securityLatency");
-                long throttlingLatency = resultSetRetrieved.getLong("throttlingLatency");
-                long requestMediationLatency = resultSetRetrieved.getLong("requestMediationLatency");
-                long responseMediationLatency = resultSetRetrieved.getLong("responseMediationLatency");
-                long backendLatency = resultSetRetrieved.getLong("backendLatency");
-                long otherLatency = resultSetRetrieved.getLong("otherLatency");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                int hour = resultSetRetrieved.getInt("hour");
-                long time = resultSetRetrieved.getLong("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, tenantDomain);
-                statement2.setString(4, apiPublisher);
-                statement2.setLong(5, apiResponseTime);
-                statement2.setString(6, context);
-                statement2.setLong(7, securityLatency);
-                statement2.setLong(8, throttlingLatency);
-                statement2.setLong(9, requestMediationLatency);
-                statement2.setLong(10, responseMediationLatency);
-                statement2.setLong(11, backendLatency);
-                statement2.setLong(12, otherLatency);
-                String hourInString = year + "-" + month + "-" + day + " " + hour;
-                statement2.setLong(13, getTimestampOfHour(hourInString));
-                statement2.setLong(14, time);
-                statement2.setLong(15, time);
-                statement2.executeUpdate();
+            connection = newStatsDataSource.getConnection();
+            for (TableMapping mapping : mappings) {
+                indexManager.dropIndexes(connection, mapping.getTargetTable());
             }
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while dropping the secondary indexes of the new stats tables";
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(null, null, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_EXE_TIME_MIN_SUMMARY table
+     * This method rebuilds the secondary indexes dropped while the tables were migrated, with as many threads as
+     * tables are migrated concurrently
      *
-     * @throws APIMStatMigrationException on error
+     * @throws APIMStatMigrationException if any of the indexes cannot be rebuilt
      */
     @Override
-    public void migrateExecutionTimeMinuteSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    public void rebuildIndexes() throws APIMStatMigrationException {
+        if (!deferIndexes) {
+            return;
+        }
+        int reservedConnections = acquireConnections(Math.max(1, Math.min(MigrationConfiguration.getThreadCount(),
+                indexManager.getDroppedIndexCount())));
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_EXE_TIME_MIN_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_EXEC_TIME_AGG
-                    + "_MINUTES(apiName, apiVersion, apiCreatorTenantDomain, apiCreator, AGG_SUM_responseTime, apiContext, "
-                    + "AGG_SUM_securityLatency, AGG_SUM_throttlingLatency, AGG_SUM_requestMedLat, "
-                    + "AGG_SUM_responseMedLat, AGG_SUM_backendLatency, AGG_SUM_otherLatency, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, apiHostname, apiResourceTemplate, apiMethod, "
-                    + "regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,'','','','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                long apiResponseTime = resultSetRetrieved.getLong("apiResponseTime");
-                String context = resultSetRetrieved.getString("context");
-                long securityLatency = resultSetRetrieved.getLong("securityLatency");
-                long throttlingLatency = resultSetRetrieved.getLong("throttlingLatency");
-                long requestMediationLatency = resultSetRetrieved.getLong("requestMediationLatency");
-                long responseMediationLatency = resultSetRetrieved.getLong("responseMediationLatency");
-                long backendLatency = resultSetRetrieved.getLong("backendLatency");
-                long otherLatency = resultSetRetrieved.getLong("otherLatency");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                int hour = resultSetRetrieved.getInt("hour");
-                int minute = resultSetRetrieved.getInt("minutes");
-                long time = resultSetRetrieved.getLong("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, tenantDomain);
-                statement2.setString(4, apiPublisher);
-                statement2.setLong(5, apiResponseTime);
-                statement2.setString(6, context);
-                statement2.setLong(7, securityLatency);
-                statement2.setLong(8, throttlingLatency);
-                statement2.setLong(9, requestMediationLatency);
-                statement2.setLong(10, responseMediationLatency);
-                statement2.setLong(11, backendLatency);
-                statement2.setLong(12, otherLatency);
-                String minuteInString = year + "-" + month + "-" + day + " " + hour + ":" + minute;
-                statement2.setLong(13, getTimestampOfMinute(minuteInString));
-                statement2.setLong(14, time);
-                statement2.setLong(15, time);
-                statement2.executeUpdate();
-            }
+            indexManager.rebuildIndexes(newStatsDataSource, reservedConnections);
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+            String msg = "Error occurred while rebuilding the secondary indexes of the new stats tables";
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_THROTTLED_OUT_SUMMARY table
+     * This method compares the tables written by the migration with the tables of the previous stats database, per
+     * tenant and day, with as many concurrent queries as tables are migrated concurrently. The row counts are only
+     * compared when every source row is written as a row of its own. In delta mode the source tables are compared up
+     * to their recorded watermarks.
      *
-     * @throws APIMStatMigrationException on error
+     * @throws APIMStatMigrationException if the tables cannot be read or any of them differ
      */
     @Override
-    public void migrateThrottledOutSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    public void verifyMigration() throws APIMStatMigrationException {
+        if (!verify) {
+            return;
+        }
+        List<TableMapping> mappings = getMigratedMappings();
+        boolean rowCountsCompared = !preAggregate && writeMode == UpsertStatementBuilder.WriteMode.INSERT && !delta;
+        Path reportFile = MigrationConfiguration.getVerificationReport();
+        long mismatchedBuckets;
+        int reservedConnections = acquireConnections(Math.max(1, Math.min(MigrationConfiguration.getThreadCount(),
+                2 * mappings.size())));
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_THROTTLED_OUT_AGG
-                    + "_DAYS(apiName, apiVersion, apiContext, apiCreator, applicationName, apiCreatorTenantDomain, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, AGG_COUNT, throttledOutReason, applicationId, hostname, "
-                    + "gatewayType) VALUES(?,?,?,?,?,?,?,?,?,?,?,'','','SYNAPSE')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String api_version = resultSetRetrieved.getString("api_version");
-                String context = resultSetRetrieved.getString("context");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String applicationName = resultSetRetrieved.getString("applicationName");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                long throttleout_count = resultSetRetrieved.getLong("throttleout_count");
-                String throttledOutReason = resultSetRetrieved.getString("throttledOutReason");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                String version = api_version.split(":v")[1];
-                statement2.setString(2, version);
-                statement2.setString(3, context);
-                statement2.setString(4, apiPublisher);
-                statement2.setString(5, applicationName);
-                statement2.setString(6, tenantDomain);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(7, getTimestampOfDay(dayInString));
-                statement2.setLong(8, getTimestamp(time));
-                statement2.setLong(9, getTimestamp(time));
-                statement2.setLong(10, throttleout_count);
-                statement2.setString(11, throttledOutReason);
-                statement2.executeUpdate();
-            }
+            mismatchedBuckets = new MigrationVerifier(oldStatsDataSource, newStatsDataSource, fetchSize, loadGovernor)
+                    .verify(mappings, getMigratedWatermarks(mappings), rowCountsCompared, reservedConnections,
+                            reportFile);
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
+            String msg = "Error occurred while verifying the migrated tables";
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
+        } catch (IOException e) {
+            String msg = "Error occurred while writing the verification report " + reportFile;
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            connectionBudget.release(reservedConnections);
+        }
+        if (mismatchedBuckets > 0) {
+            String msg = mismatchedBuckets + " buckets of the migrated tables differ from the previous stats "
+                    + "database, see " + reportFile;
+            log.error(msg);
+            throw new APIMStatMigrationException(msg);
         }
     }
 
     /**
-     * This method migrates the data related to the API_THROTTLED_OUT_SUMMARY table for success counts
+     * This method returns the rows of the source tables which have been migrated in delta mode, which are the rows
+     * below the watermarks recorded by the last run
      *
-     * @throws APIMStatMigrationException on error
+     * @param mappings mappings of the migrated tables
+     * @return the migrated rows of the tables with a recorded watermark, by the target table
+     * @throws APIMStatMigrationException if the watermarks cannot be read
      */
-    @Override
-    public void migrateThrottledOutRequestCountSummaryTable() throws APIMStatMigrationException {
-        Connection con1 = null;
-        Connection con2 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        ResultSet resultSetRetrieved = null;
+    private Map<String, Watermark> getMigratedWatermarks(List<TableMapping> mappings)
+            throws APIMStatMigrationException {
+        Map<String, Watermark> watermarks = new HashMap<>();
+        if (!delta || getProgressStore() != null) {
+            return watermarks;
+        }
+        WatermarkStore store = getWatermarkStore();
+        int reservedConnections = acquireConnections(1);
         try {
-            con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            String retrieveQuery = "SELECT api, api_version, apiPublisher, applicationName, tenantDomain, "
-                    + "sum(throttleout_count) as throttledCount, sum(success_request_count) as successCount, year, month, day, time FROM " +
-                    APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY + " group by api, api_version, apiPublisher, "
-                    + "tenantDomain, applicationName, year, month, day, week, time";
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.APIM_REQ_COUNT_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, applicationName, apiCreatorTenantDomain, AGG_TIMESTAMP, "
-                    + "AGG_EVENT_TIMESTAMP, AGG_SUM_successCount, AGG_SUM_throttleCount) VALUES(?,?,?,?,?,?,?,?,?)";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String api_version = resultSetRetrieved.getString("api_version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                String applicationName = resultSetRetrieved.getString("applicationName");
-                String tenantDomain = resultSetRetrieved.getString("tenantDomain");
-                long throttledCount = resultSetRetrieved.getLong("throttledCount");
-                long successCount = resultSetRetrieved.getLong("successCount");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                String version = api_version.split(":v")[1];
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, applicationName);
-                statement2.setString(5, tenantDomain);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(6, getTimestampOfDay(dayInString));
-                statement2.setLong(7, getTimestamp(time));
-                statement2.setLong(8, successCount);
-                statement2.setLong(9, throttledCount);
-                statement2.executeUpdate();
+            for (TableMapping mapping : mappings) {
+                Watermark recorded = mapping.getWatermarkField() != null ? store.load(mapping) : null;
+                if (recorded != null) {
+                    watermarks.put(mapping.getTargetTable(), recorded.migrated());
+                }
             }
+        } finally {
+            connectionBudget.release(reservedConnections);
+        }
+        return watermarks;
+    }
+
+    /**
+     * The request counts of API_THROTTLED_OUT_SUMMARY are verified from the ungrouped rows in every aggregation
+     * mode, as the sums of the grouped rows are expressions of the source query
+     *
+     * @return the mappings of the tables written by the migration with the current configuration
+     * @throws APIMStatMigrationException if the progress store cannot be initialized
+     */
+    private List<TableMapping> getMigratedMappings() throws APIMStatMigrationException {
+        List<TableMapping> mappings = new ArrayList<>(Arrays.asList(TableMappings.DESTINATION_SUMMARY,
+                TableMappings.RESOURCE_USAGE_SUMMARY, TableMappings.VERSION_USAGE_SUMMARY,
+                TableMappings.LAST_ACCESS_TIME_SUMMARY, TableMappings.FAULT_SUMMARY,
+                TableMappings.USER_BROWSER_SUMMARY, TableMappings.GEO_LOCATION_SUMMARY,
+                TableMappings.THROTTLED_OUT_SUMMARY, TableMappings.THROTTLED_OUT_REQUEST_COUNT_UNGROUPED,
+                TableMappings.REQUEST_SUMMARY));
+        boolean rolledUp = rollUp && getProgressStore() == null;
+        if (rolledUp) {
+            for (TableMapping mapping : new ArrayList<>(mappings)) {
+                mappings.addAll(TableMappings.getMonthAndYearRollUps(mapping));
+            }
+            mappings.addAll(EXECUTION_TIME_SCAN);
+        } else {
+            mappings.addAll(Arrays.asList(TableMappings.EXECUTION_TIME_DAY_SUMMARY,
+                    TableMappings.EXECUTION_TIME_HOUR_SUMMARY, TableMappings.EXECUTION_TIME_MINUTE_SUMMARY));
+        }
+        return mappings;
+    }
+
+    /**
+     * The rows of a checkpointed partition have to be committed in key order, which only a single writer does
+     *
+     * @return number of threads writing the rows of a partition
+     * @throws APIMStatMigrationException if the progress store cannot be initialized
+     */
+    private int getWriterCount() throws APIMStatMigrationException {
+        int writerCount = MigrationConfiguration.getWriterThreadCount();
+        if (writerCount > 1 && getProgressStore() != null) {
+            if (!singleWriterWarningLogged) {
+                log.warn("Using a single writer thread per partition instead of " + writerCount + " as "
+                        + APIMStatMigrationConstants.ARG_WRITER_THREADS + " is not supported when the progress is "
+                        + "recorded. Use " + APIMStatMigrationConstants.ARG_PARTITIONS + " to write concurrently");
+                singleWriterWarningLogged = true;
+            }
+            return 1;
+        }
+        return writerCount;
+    }
+
+    /**
+     * This method creates the governor of the reads from the previous stats database, when the read rate or the
+     * concurrent fetches are capped or adjusted to the load of the database
+     *
+     * @return the load governor, or null if the reads are not limited
+     */
+    private SourceLoadGovernor createLoadGovernor() {
+        int maxReadRate = MigrationConfiguration.getMaxReadRate();
+        int maxReaders = MigrationConfiguration.getMaxReaders();
+        boolean adaptive = MigrationConfiguration.isLoadGovernorEnabled();
+        if (maxReadRate == 0 && maxReaders == 0 && !adaptive) {
+            return null;
+        }
+        final String probeQuery = MigrationConfiguration.getProbeQuery();
+        SourceLoadGovernor.Probe probe = null;
+        if (adaptive && probeQuery != null) {
+            probe = new SourceLoadGovernor.Probe() {
+                @Override
+                public long measure() {
+                    return measureProbeQuery(probeQuery);
+                }
+            };
+        }
+        log.info("Limiting the reads from the previous stats database to "
+                + (maxReadRate > 0 ? maxReadRate + " rows per second" : "any number of rows per second") + " in "
+                + (maxReaders > 0 ? maxReaders + "" : "any number of") + " concurrent fetches"
+                + (adaptive ? ", adjusted to the load of the database" : ""));
+        return new SourceLoadGovernor(maxReadRate, maxReaders, adaptive, batchSize, probe,
+                MigrationConfiguration.getProbeLatency(),
+                TimeUnit.SECONDS.toMillis(MigrationConfiguration.getGovernorInterval()));
+    }
+
+    /**
+     * This method runs the probe query of the load governor on the previous stats database. The probe is skipped
+     * rather than waiting for a connection when the migration holds all the connections of the budget.
+     *
+     * @param probeQuery query to run
+     * @return time taken to run the query and read its rows in nanoseconds, or -1 if it could not be run
+     */
+    private long measureProbeQuery(String probeQuery) {
+        int reservedConnections = connectionBudget.tryAcquire(1);
+        if (reservedConnections == 0) {
+            return -1;
+        }
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = oldStatsDataSource.getConnection();
+            statement = connection.prepareStatement(probeQuery);
+            long start = System.nanoTime();
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                //the rows are read so that the time includes fetching them
+            }
+            return System.nanoTime() - start;
         } catch (SQLException e) {
-            String msg = "Error occurred while connecting to and querying from the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
-        } catch (Exception e) {
-            String msg = "Generic error occurred while connecting to the database";
-            log.error(msg, e);
-            throw new APIMStatMigrationException(msg, e);
+            if (!probeWarningLogged) {
+                log.warn("Could not run the probe query " + probeQuery + ". The load of the previous stats database "
+                        + "is measured by the fetch times only", e);
+                probeWarningLogged = true;
+            }
+            return -1;
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
+            closeDatabaseLinks(resultSet, statement, connection);
+            connectionBudget.release(reservedConnections);
         }
     }
 
     /**
-     * This method migrates the data related to the API_REQUEST_SUMMARY table
+     * This method migrates the data of a partition of a table to one or more tables. The rows are read, converted and
+     * written in batches by the stages of a {@link MigrationPipeline}, each writer with its own connection to the new
+     * stats database. When pre-aggregation is enabled, or the mapping requires it, the rows with the same aggregation
+     * key are merged before they are written. The rows of a mapping with sort columns are then sorted by them.
      *
+     * @param mappings    mappings of the source table, the first of which reads the fields of the others
+     * @param partition   range of the table to migrate
+     * @param checkpoint  checkpoint of the partition, or null if the progress is not recorded
+     * @param writerCount number of threads writing the rows of each table
+     * @param metrics     metrics of the tables, in the order of the mappings
+     * @param sortColumns columns the rows of each mapping are sorted by, in the order of the mappings
+     * @param merge       whether the rows are merged into the existing rows in any write mode
      * @throws APIMStatMigrationException on error
      */
-    @Override
-    public void migrateRequestSummaryTable() throws APIMStatMigrationException {
+    private void migrateTables(List<TableMapping> mappings, TablePartition partition, PartitionCheckpoint checkpoint,
+            int writerCount, List<TableMetrics> metrics, List<List<TableMapping.Column>> sortColumns,
+            boolean merge) throws APIMStatMigrationException {
         Connection con1 = null;
-        Connection con2 = null;
-        Connection con3 = null;
-        PreparedStatement statement1 = null;
-        PreparedStatement statement2 = null;
-        PreparedStatement statement3 = null;
-        ResultSet resultSetRetrieved = null;
-        ResultSet resultSetFromAMDB = null;
+        StreamingQuery sourceQuery = null;
+        List<Connection> writeConnections = new ArrayList<>();
+        List<PreparedStatement> writeStatements = new ArrayList<>();
+        List<BatchInsertWriter> insertWriters = new ArrayList<>();
+        List<BulkLoader> bulkLoaders = new ArrayList<>();
+        List<RowAggregator> aggregators = new ArrayList<>();
+        List<RowSorter> sorters = new ArrayList<>();
         try {
+            TableMapping readMapping = mappings.get(0);
             con1 = oldStatsDataSource.getConnection();
-            con2 = newStatsDataSource.getConnection();
-            con3 = apimDataSource.getConnection();
-            String consumerKeyMappingQuery = "SELECT APPLICATION_ID FROM AM_APPLICATION_KEY_MAPPING WHERE CONSUMER_KEY=?";
-            String retrieveQuery = "SELECT * FROM " + APIMStatMigrationConstants.API_REQUEST_SUMMARY;
-            String insertQuery = "INSERT INTO " + APIMStatMigrationConstants.API_USER_PER_APP_AGG
-                    + "_DAYS(apiName, apiVersion, apiCreator, username, apiContext, AGG_COUNT, apiHostname, "
-                    + "AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, applicationId, userTenantDomain, "
-                    + "gatewayType, label, regionalID) VALUES(?,?,?,?,?,?,?,?,?,?,?,'','SYNAPSE','Synapse','default')";
-            statement1 = con1.prepareStatement(retrieveQuery);
-            statement2 = con2.prepareStatement(insertQuery);
-            statement3 = con3.prepareStatement(consumerKeyMappingQuery);
-            resultSetRetrieved = statement1.executeQuery();
-            while (resultSetRetrieved.next()) {
-                String api = resultSetRetrieved.getString("api");
-                String version = resultSetRetrieved.getString("version");
-                String apiPublisher = resultSetRetrieved.getString("apiPublisher");
-                //--------------------------
-                String consumerKey = resultSetRetrieved.getString("consumerKey");
-                statement3.setString(1, consumerKey);
-                resultSetFromAMDB = statement3.executeQuery();
-                int applicationId = -1;
-                while (resultSetFromAMDB.next()) {
-                    applicationId = resultSetFromAMDB.getInt("APPLICATION_ID");
+            sourceQuery = new StreamingQuery(con1, readMapping.getSourceQuery(partition), fetchSize);
+            partition.bind(sourceQuery.getStatement(), 1);
+            List<MigrationPipeline.Target> targets = new ArrayList<>(mappings.size());
+            for (int m = 0; m < mappings.size(); m++) {
+                TableMapping mapping = mappings.get(m);
+                List<RowBatchWriter> batchWriters = new ArrayList<>(writerCount);
+                for (int i = 0; i < writerCount; i++) {
+                    Connection con2 = newStatsDataSource.getConnection();
+                    writeConnections.add(con2);
+                    BulkLoader loader = getBulkLoader(con2, mapping, merge);
+                    if (loader != null) {
+                        writeStatements.add(null);
+                        bulkLoaders.add(loader);
+                        BatchInsertWriter writer = new BatchInsertWriter(mapping.getTargetTable(), con2, loader,
+                                batchSize, checkpoint, metrics.get(m));
+                        insertWriters.add(writer);
+                        batchWriters.add(new RowBatchWriter(mapping, loader, writer));
+                    } else {
+                        PreparedStatement statement2 = con2.prepareStatement(getWriteQuery(con2,
+                                mapping.getInsertQuery(), mapping.isRollUp() || merge));
+                        writeStatements.add(statement2);
+                        BatchInsertWriter writer = new BatchInsertWriter(mapping.getTargetTable(), con2, statement2,
+                                batchSize, checkpoint, metrics.get(m));
+                        insertWriters.add(writer);
+                        batchWriters.add(new RowBatchWriter(mapping, statement2, writer));
+                    }
+                }
+                RowBatchConverter converter = new RowBatchConverter(mapping,
+                        mapping.isApplicationIdMapped() ? getApplicationIdResolver() : null, new TimestampConverter(),
+                        dimensionDictionary, metrics.get(m));
+                String targetName = mappings.size() > 1 ? partition + " for " + mapping.getTargetTable()
+                        : partition.toString();
+                RowAggregator aggregator = null;
+                if (preAggregate || mapping.isAggregatedByMigration()) {
+                    aggregator = new RowAggregator(targetName, mapping, partition.isKeyOrdered(),
+                            MigrationConfiguration.getAggregationMemory(), MigrationConfiguration.getSpillDirectory());
+                    aggregators.add(aggregator);
                 }
-                //-------------------------------
-                String userId = resultSetRetrieved.getString("userId");
-                String context = resultSetRetrieved.getString("context");
-                long total_request_count = resultSetRetrieved.getLong("total_request_count");
-                String hostName = resultSetRetrieved.getString("hostName");
-                int year = resultSetRetrieved.getInt("year");
-                int month = resultSetRetrieved.getInt("month");
-                int day = resultSetRetrieved.getInt("day");
-                String time = resultSetRetrieved.getString("time");
-                statement2.setString(1, api);
-                statement2.setString(2, version);
-                statement2.setString(3, apiPublisher);
-                statement2.setString(4, userId);
-                statement2.setString(5, context);
-                statement2.setLong(6, total_request_count);
-                statement2.setString(7, hostName);
-                String dayInString = year + "-" + month + "-" + day;
-                statement2.setLong(8, getTimestampOfDay(dayInString));
-                statement2.setLong(9, getTimestamp(time));
-                statement2.setLong(10, getTimestamp(time));
-                if (applicationId != -1) {
-                    statement2.setString(11, Integer.toString(applicationId));
-                } else {
-                    String errorMsg = "Error occurred while retrieving applicationId for consumer key : " + consumerKey;
-                    log.error(errorMsg);
-                    throw new APIMStatMigrationException(errorMsg);
+                RowSorter sorter = null;
+                if (!sortColumns.get(m).isEmpty()) {
+                    sorter = new RowSorter(targetName, mapping, sortColumns.get(m),
+                            MigrationConfiguration.getAggregationMemory(), MigrationConfiguration.getSpillDirectory());
+                    sorters.add(sorter);
                 }
-                statement2.executeUpdate();
+                targets.add(new MigrationPipeline.Target(mapping, converter, aggregator, sorter, batchWriters,
+                        metrics.get(m)));
             }
+            RowBatchReader reader = new RowBatchReader(sourceQuery.executeQuery(), readMapping);
+            new MigrationPipeline(partition.toString(), batchSize, queueSize, loadGovernor).run(reader, targets);
         } catch (SQLException e) {
             String msg = "Error occurred while connecting to and querying from the database";
             log.error(msg, e);
@@ -979,9 +1359,24 @@ public class DBManagerImpl implements DBManager {
             log.error(msg, e);
             throw new APIMStatMigrationException(msg, e);
         } finally {
-            closeDatabaseLinks(resultSetRetrieved, statement1, con1);
-            closeDatabaseLinks(null, statement2, con2);
-            closeDatabaseLinks(resultSetFromAMDB, statement3, con3);
+            for (RowAggregator aggregator : aggregators) {
+                aggregator.close();
+            }
+            for (RowSorter sorter : sorters) {
+                sorter.close();
+            }
+            for (BatchInsertWriter writer : insertWriters) {
+                closeBatchWriter(writer);
+            }
+            for (BulkLoader loader : bulkLoaders) {
+                loader.close();
+            }
+            closeStreamingQuery(sourceQuery);
+            closeDatabaseLinks(null, null, con1);
+            for (int i = 0; i < writeConnections.size(); i++) {
+                closeDatabaseLinks(null, i < writeStatements.size() ? writeStatements.get(i) : null,
+                        writeConnections.get(i));
+            }
         }
     }
 
@@ -1023,50 +1418,33 @@ public class DBManagerImpl implements DBManager {
     }
 
     /**
-     * This method returns the date of form yyyy-MM-dd HH:mm as a timestamp
+     * This method is used to close the result set and the statement of a streaming query on the previous stats
+     * database
      *
-     * @param date date as a string
-     * @return the date in milliseconds
+     * @param query streaming query used to read the rows of a table
      */
-    private static long getTimestamp(String date) {
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_PATTERN);
-        DateTime dateTime = formatter.parseDateTime(date);
-        return dateTime.getMillis();
+    private static void closeStreamingQuery(StreamingQuery query) {
+        if (query != null) {
+            query.close();
+        }
     }
 
     /**
-     * This method returns the date of form yyyy-M-dd as a timestamp
+     * This method is used to close the batch writer of a migration, rolling back any rows which were not committed
      *
-     * @param date date as a string
-     * @return the date in milliseconds
+     * @param writer batch writer used to insert the rows into the new stats database
      */
-    private static long getTimestampOfDay(String date) {
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_DAY_PATTERN);
-        DateTime dateTime = formatter.parseDateTime(date);
-        return dateTime.getMillis();
+    private static void closeBatchWriter(BatchInsertWriter writer) {
+        if (writer != null) {
+            writer.close();
+        }
     }
 
     /**
-     * This method returns the date of form yyyy-M-dd HH as a timestamp
-     *
-     * @param date date as a string
-     * @return the date in milliseconds
+     * Migration of a single range of a table
      */
-    private static long getTimestampOfHour(String date) {
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_HOUR_PATTERN);
-        DateTime dateTime = formatter.parseDateTime(date);
-        return dateTime.getMillis();
-    }
+    private interface PartitionMigration {
 
-    /**
-     * This method returns the date of form yyyy-MM-dd HH:mm as a timestamp
-     *
-     * @param date date as a string
-     * @return the date in milliseconds
-     */
-    private static long getTimestampOfMinute(String date) {
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_MINUTE_PATTERN);
-        DateTime dateTime = formatter.parseDateTime(date);
-        return dateTime.getMillis();
+        void migrate(TablePartition partition, PartitionCheckpoint checkpoint) throws APIMStatMigrationException;
     }
 }
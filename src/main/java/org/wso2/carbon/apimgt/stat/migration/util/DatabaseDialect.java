@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * The database types supported by the stat migration, along with the vendor specific behaviour needed when reading
+ * from and writing to them
+ */
+public enum DatabaseDialect {
+
+    MYSQL, POSTGRESQL, ORACLE, MSSQL, H2, DB2, OTHER;
+
+    /**
+     * This method resolves the dialect of the database the given connection points to
+     *
+     * @param connection connection to the database
+     * @return dialect of the database
+     * @throws SQLException if the database metadata cannot be read
+     */
+    public static DatabaseDialect fromConnection(Connection connection) throws SQLException {
+        String productName = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ENGLISH);
+        if (productName.contains("mysql") || productName.contains("mariadb")) {
+            return MYSQL;
+        } else if (productName.contains("postgresql")) {
+            return POSTGRESQL;
+        } else if (productName.contains("oracle")) {
+            return ORACLE;
+        } else if (productName.contains("microsoft sql server")) {
+            return MSSQL;
+        } else if (productName.contains("h2")) {
+            return H2;
+        } else if (productName.contains("db2")) {
+            return DB2;
+        }
+        return OTHER;
+    }
+
+    /**
+     * MySQL Connector/J only streams a result set row by row when the fetch size is Integer.MIN_VALUE. Any other
+     * value makes the driver read the complete result set into the memory.
+     *
+     * @param fetchSize configured number of rows to fetch per round trip
+     * @return fetch size to set on a forward only, read only statement to stream its result set
+     */
+    public int getStreamingFetchSize(int fetchSize) {
+        if (this == MYSQL) {
+            return Integer.MIN_VALUE;
+        }
+        return fetchSize;
+    }
+
+    /**
+     * The PostgreSQL driver ignores the fetch size and reads the complete result set unless the query runs inside a
+     * transaction.
+     *
+     * @return true if auto commit has to be disabled on the connection for the result set to be streamed
+     */
+    public boolean isTransactionRequiredForStreaming() {
+        return this == POSTGRESQL;
+    }
+
+    /**
+     * Every supported database keeps an estimate of the number of rows of a table in its catalog, maintained by its
+     * statistics, which is read in place of counting the rows of a table which may hold hundreds of millions of them.
+     * The estimate is null or negative when the statistics of the table were never gathered.
+     *
+     * @return query returning the estimated number of rows of the table named by its single parameter, or null if
+     * the estimate has to be read from the index statistics of the database metadata
+     */
+    public String getRowEstimateQuery() {
+        switch (this) {
+            case MYSQL:
+                return "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() "
+                        + "AND TABLE_NAME = ?";
+            case POSTGRESQL:
+                return "SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE oid = to_regclass(?)";
+            case ORACLE:
+                return "SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = UPPER(?)";
+            case MSSQL:
+                return "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)";
+            case H2:
+                return "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = SCHEMA() "
+                        + "AND TABLE_NAME = UPPER(?)";
+            case DB2:
+                return "SELECT CARD FROM SYSCAT.TABLES WHERE TABSCHEMA = CURRENT SCHEMA AND TABNAME = UPPER(?)";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the progress of the migration in a table of the new stats database. The progress of a partition is updated
+ * in the same transaction as the rows it describes, so the recorded progress always matches the migrated rows.
+ */
+public class DatabaseProgressStore implements ProgressStore {
+
+    private static final Log log = LogFactory.getLog(DatabaseProgressStore.class);
+
+    private static final String TABLE_NAME = APIMStatMigrationConstants.MIGRATION_PROGRESS_TABLE;
+    private static final String COLUMNS = "MIGRATION_NAME, PARTITION_NUMBER, PARTITION_COUNT, LOWER_KEY, UPPER_KEY, "
+            + "LAST_KEY, ROWS_MIGRATED, STATUS";
+    private static final String SELECT_QUERY = "SELECT " + COLUMNS + " FROM " + TABLE_NAME
+            + " WHERE MIGRATION_NAME = ? ORDER BY PARTITION_NUMBER";
+    private static final String DELETE_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE MIGRATION_NAME = ?";
+    private static final String INSERT_QUERY = "INSERT INTO " + TABLE_NAME + " (" + COLUMNS
+            + ") VALUES (?,?,?,?,?,?,?,?)";
+    private static final String UPDATE_QUERY = "UPDATE " + TABLE_NAME + " SET LAST_KEY = ?, ROWS_MIGRATED = ?, "
+            + "STATUS = ? WHERE MIGRATION_NAME = ? AND PARTITION_NUMBER = ?";
+    private static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+
+    private final DataSource dataSource;
+
+    /**
+     * @param dataSource datasource of the new stats database
+     */
+    public DatabaseProgressStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * This method creates the progress table in the new stats database if it does not exist
+     *
+     * @throws APIMStatMigrationException if the table cannot be created
+     */
+    @Override
+    public void initialize() throws APIMStatMigrationException {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            if (tableExists(connection.getMetaData(), TABLE_NAME)) {
+                return;
+            }
+            DatabaseDialect dialect = DatabaseDialect.fromConnection(connection);
+            String textType = dialect == DatabaseDialect.ORACLE ? "VARCHAR2(255)" : "VARCHAR(255)";
+            String longType = dialect == DatabaseDialect.ORACLE ? "NUMBER(19)" : "BIGINT";
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE " + TABLE_NAME + " (MIGRATION_NAME " + textType + " NOT NULL, "
+                    + "PARTITION_NUMBER INTEGER NOT NULL, PARTITION_COUNT INTEGER NOT NULL, LOWER_KEY " + longType
+                    + " NOT NULL, UPPER_KEY " + longType + " NOT NULL, LAST_KEY " + longType + " NOT NULL, "
+                    + "ROWS_MIGRATED " + longType + " NOT NULL, STATUS " + textType + " NOT NULL, "
+                    + "PRIMARY KEY (MIGRATION_NAME, PARTITION_NUMBER))");
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            log.info("Created the " + TABLE_NAME + " table to record the progress of the migration");
+        } catch (SQLException e) {
+            String msg = "Error occurred while creating the " + TABLE_NAME + " table";
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            close(null, statement, connection);
+        }
+    }
+
+    @Override
+    public List<MigrationProgress> load(String migrationName) throws APIMStatMigrationException {
+        List<MigrationProgress> progress = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement(SELECT_QUERY);
+            statement.setString(1, migrationName);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                progress.add(new MigrationProgress(resultSet.getString(1), resultSet.getInt(2), resultSet.getInt(3),
+                        resultSet.getLong(4), resultSet.getLong(5), resultSet.getLong(6), resultSet.getLong(7),
+                        STATUS_COMPLETED.equals(resultSet.getString(8))));
+            }
+        } catch (SQLException e) {
+            String msg = "Error occurred while reading the progress of " + migrationName;
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            close(resultSet, statement, connection);
+        }
+        return progress;
+    }
+
+    @Override
+    public void replace(String migrationName, List<MigrationProgress> progress) throws APIMStatMigrationException {
+        Connection connection = null;
+        PreparedStatement deleteStatement = null;
+        PreparedStatement insertStatement = null;
+        boolean autoCommit = true;
+        try {
+            connection = dataSource.getConnection();
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            deleteStatement = connection.prepareStatement(DELETE_QUERY);
+            deleteStatement.setString(1, migrationName);
+            deleteStatement.executeUpdate();
+            insertStatement = connection.prepareStatement(INSERT_QUERY);
+            for (MigrationProgress partitionProgress : progress) {
+                insertStatement.setString(1, migrationName);
+                insertStatement.setInt(2, partitionProgress.getPartitionNumber());
+                insertStatement.setInt(3, partitionProgress.getPartitionCount());
+                insertStatement.setLong(4, partitionProgress.getLowerKey());
+                insertStatement.setLong(5, partitionProgress.getUpperKey());
+                insertStatement.setLong(6, partitionProgress.getLastKey());
+                insertStatement.setLong(7, partitionProgress.getRowsMigrated());
+                insertStatement.setString(8, getStatus(partitionProgress));
+                insertStatement.addBatch();
+            }
+            insertStatement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection);
+            String msg = "Error occurred while recording the partitions of " + migrationName;
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            restoreAutoCommit(connection, autoCommit);
+            close(null, deleteStatement, null);
+            close(null, insertStatement, connection);
+        }
+    }
+
+    @Override
+    public void saveInTransaction(MigrationProgress progress, Connection connection) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(UPDATE_QUERY);
+            statement.setLong(1, progress.getLastKey());
+            statement.setLong(2, progress.getRowsMigrated());
+            statement.setString(3, getStatus(progress));
+            statement.setString(4, progress.getMigrationName());
+            statement.setInt(5, progress.getPartitionNumber());
+            if (statement.executeUpdate() != 1) {
+                throw new SQLException("The progress of " + progress + " is not recorded in " + TABLE_NAME);
+            }
+        } finally {
+            close(null, statement, null);
+        }
+    }
+
+    /**
+     * The progress is saved in the transaction of the rows, so nothing is left to do once they are committed
+     */
+    @Override
+    public void saveCommitted(MigrationProgress progress) {
+    }
+
+    private static String getStatus(MigrationProgress progress) {
+        return progress.isCompleted() ? STATUS_COMPLETED : STATUS_IN_PROGRESS;
+    }
+
+    /**
+     * Unquoted names are stored in upper case by some databases and in lower case by others
+     */
+    static boolean tableExists(DatabaseMetaData metaData, String tableName) throws SQLException {
+        String[] names = {tableName, tableName.toUpperCase(Locale.ENGLISH), tableName.toLowerCase(Locale.ENGLISH)};
+        for (String name : names) {
+            ResultSet resultSet = null;
+            try {
+                resultSet = metaData.getTables(null, null, name, new String[]{"TABLE"});
+                if (resultSet.next()) {
+                    return true;
+                }
+            } finally {
+                close(resultSet, null, null);
+            }
+        }
+        return false;
+    }
+
+    private static void rollback(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                log.error("Error occurred while rolling back the progress of the migration", e);
+            }
+        }
+    }
+
+    private static void restoreAutoCommit(Connection connection, boolean autoCommit) {
+        if (connection != null && autoCommit) {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.error("Error occurred while restoring the auto commit mode of the JDBC database connection.", e);
+            }
+        }
+    }
+
+    private static void close(ResultSet resultSet, Statement statement, Connection connection) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the result set from JDBC database.", e);
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the prepared statement from JDBC database.", e);
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the JDBC database connection.", e);
+            }
+        }
+    }
+}
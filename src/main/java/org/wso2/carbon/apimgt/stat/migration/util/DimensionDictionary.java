@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps the values of the dimension columns of the converted rows, i.e. the api names, versions, publishers, contexts,
+ * host names and tenant domains, to int codes for the run of the migration. These values repeat across millions of
+ * rows, so the converted batches, the aggregation groups and the sorted rows hold the codes rather than a copy of each
+ * string, and the strings are looked up again when the rows are bound. The values are held until the run ends, so
+ * only columns with few distinct values are encoded, see {@link TableMapping.Column#isDimension()}. Thread safe.
+ */
+public class DimensionDictionary {
+
+    /**
+     * code of a null value
+     */
+    public static final int NULL_CODE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param value string value, or null
+     * @return code of the value, which is added to the dictionary if it is not known yet
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /**
+     * @param code code returned by {@link #encode(String)}
+     * @return the value of the code
+     */
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    /**
+     * @return number of distinct values in the dictionary
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * The value is stored before its code is published, so a thread which gets the code from the map or from the
+     * thread which encoded it can decode it
+     */
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] currentValues = values;
+        if (size == currentValues.length) {
+            currentValues = Arrays.copyOf(currentValues, size * 2);
+        }
+        currentValues[size] = value;
+        values = currentValues;
+        codes.put(value, size);
+        return size++;
+    }
+}
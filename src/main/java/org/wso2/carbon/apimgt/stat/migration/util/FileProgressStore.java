@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Keeps the progress of the migration in a local properties file, for new stats databases in which the progress
+ * table cannot be created. The file is replaced atomically after every commit of the new stats database. As the file
+ * is written after the commit, an interruption between the two repeats the last batch of a partition when the
+ * migration is continued.
+ */
+public class FileProgressStore implements ProgressStore {
+
+    private static final Log log = LogFactory.getLog(FileProgressStore.class);
+
+    private static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    /**
+     * @param file file the progress is kept in
+     */
+    public FileProgressStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void initialize() throws APIMStatMigrationException {
+        if (!Files.exists(file)) {
+            log.info("Recording the progress of the migration in " + file.toAbsolutePath());
+            return;
+        }
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            String msg = "Error occurred while reading the progress of the migration from " + file;
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        }
+    }
+
+    @Override
+    public synchronized List<MigrationProgress> load(String migrationName) throws APIMStatMigrationException {
+        TreeMap<Integer, MigrationProgress> progress = new TreeMap<>();
+        String prefix = migrationName + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                int partitionNumber = Integer.parseInt(key.substring(prefix.length()));
+                String[] values = properties.getProperty(key).split(",");
+                progress.put(partitionNumber, new MigrationProgress(migrationName, partitionNumber,
+                        Integer.parseInt(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]),
+                        Long.parseLong(values[3]), Long.parseLong(values[4]), STATUS_COMPLETED.equals(values[5])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                String msg = "Invalid progress entry " + key + " in " + file;
+                log.error(msg, e);
+                throw new APIMStatMigrationException(msg, e);
+            }
+        }
+        return new ArrayList<>(progress.values());
+    }
+
+    @Override
+    public synchronized void replace(String migrationName, List<MigrationProgress> progress)
+            throws APIMStatMigrationException {
+        String prefix = migrationName + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                properties.remove(key);
+            }
+        }
+        for (MigrationProgress partitionProgress : progress) {
+            put(partitionProgress);
+        }
+        write();
+    }
+
+    /**
+     * A file cannot take part in the transaction of the new stats database, the progress is saved once the rows
+     * have been committed
+     */
+    @Override
+    public void saveInTransaction(MigrationProgress progress, Connection connection) {
+    }
+
+    @Override
+    public synchronized void saveCommitted(MigrationProgress progress) throws APIMStatMigrationException {
+        put(progress);
+        write();
+    }
+
+    private void put(MigrationProgress progress) {
+        properties.setProperty(progress.getMigrationName() + "." + progress.getPartitionNumber(),
+                progress.getPartitionCount() + "," + progress.getLowerKey() + "," + progress.getUpperKey() + ","
+                        + progress.getLastKey() + "," + progress.getRowsMigrated() + ","
+                        + (progress.isCompleted() ? STATUS_COMPLETED : STATUS_IN_PROGRESS));
+    }
+
+    /**
+     * The progress is written to a temporary file which then replaces the previous file, so that an interruption
+     * never leaves a partially written file behind
+     */
+    private void write() throws APIMStatMigrationException {
+        Path absoluteFile = file.toAbsolutePath();
+        Path temporaryFile = absoluteFile.resolveSibling(absoluteFile.getFileName() + ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                properties.store(outputStream, "Progress of the API Manager stat migration");
+            }
+            try {
+                Files.move(temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            String msg = "Error occurred while writing the progress of the migration to " + file;
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        }
+    }
+}
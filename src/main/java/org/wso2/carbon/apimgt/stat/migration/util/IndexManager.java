@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops the secondary indexes of the tables of the new stats database before their rows are loaded and rebuilds them
+ * once every table is loaded, so that the inserts do not maintain every index at random positions. The definitions
+ * of the indexes are read from the {@link DatabaseMetaData} of the database, and the prefix lengths of the columns
+ * of MySQL indexes from its information schema. Unique indexes, including the primary key, are kept, as upserts look
+ * up the existing rows with them and duplicate rows would only fail the rebuild of a unique index after the load.
+ * Indexes which cannot be dropped, e.g. those backing a constraint, are kept as well. The time spent loading the
+ * tables and rebuilding the indexes is logged.
+ */
+public class IndexManager {
+
+    private static final Log log = LogFactory.getLog(IndexManager.class);
+
+    private final Map<String, List<Index>> droppedIndexes = new LinkedHashMap<>();
+    private long loadStart = 0;
+
+    /**
+     * A secondary index of a table, which can be dropped and created again
+     */
+    public static final class Index {
+
+        private final String tableName;
+        private final String indexName;
+        private final boolean unique;
+        private final List<String> columns = new ArrayList<>();
+        private final List<String> columnNames = new ArrayList<>();
+
+        private Index(String tableName, String indexName, boolean unique) {
+            this.tableName = tableName;
+            this.indexName = indexName;
+            this.unique = unique;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getIndexName() {
+            return indexName;
+        }
+
+        /**
+         * @param dialect dialect of the database
+         * @return the statement dropping the index
+         */
+        public String getDropStatement(DatabaseDialect dialect) {
+            if (dialect == DatabaseDialect.MYSQL || dialect == DatabaseDialect.MSSQL) {
+                return "DROP INDEX " + indexName + " ON " + tableName;
+            }
+            return "DROP INDEX " + indexName;
+        }
+
+        /**
+         * @return the statement creating the index
+         */
+        public String getCreateStatement() {
+            StringBuilder columnList = new StringBuilder();
+            for (String column : columns) {
+                columnList.append(columnList.length() > 0 ? ", " : "").append(column);
+            }
+            return "CREATE INDEX " + indexName + " ON " + tableName + " (" + columnList + ")";
+        }
+    }
+
+    /**
+     * This method drops the secondary indexes of a table, unless they were already dropped. The indexes are dropped
+     * before the rows of the table are written by any thread, as the callers wait for each other.
+     *
+     * @param connection connection to the new stats database, in auto commit mode
+     * @param tableName  name of the table
+     * @throws SQLException if the indexes cannot be read
+     */
+    public synchronized void dropIndexes(Connection connection, String tableName) throws SQLException {
+        String key = tableName.toUpperCase(Locale.ENGLISH);
+        if (droppedIndexes.containsKey(key)) {
+            return;
+        }
+        if (loadStart == 0) {
+            loadStart = System.nanoTime();
+        }
+        DatabaseDialect dialect = DatabaseDialect.fromConnection(connection);
+        List<Index> dropped = new ArrayList<>();
+        for (Index index : getSecondaryIndexes(connection, dialect, tableName)) {
+            Statement statement = null;
+            try {
+                statement = connection.createStatement();
+                statement.execute(index.getDropStatement(dialect));
+                dropped.add(index);
+                log.info("Dropped index " + index.getIndexName() + " of " + index.getTableName()
+                        + " until the migration completes. It is rebuilt with: " + index.getCreateStatement());
+            } catch (SQLException e) {
+                log.warn("Could not drop index " + index.getIndexName() + " of " + index.getTableName()
+                        + ", it is kept during the migration", e);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        }
+        droppedIndexes.put(key, dropped);
+    }
+
+    /**
+     * @return number of indexes which have been dropped and not rebuilt yet
+     */
+    public synchronized int getDroppedIndexCount() {
+        int count = 0;
+        for (List<Index> indexes : droppedIndexes.values()) {
+            count += indexes.size();
+        }
+        return count;
+    }
+
+    /**
+     * This method creates the dropped indexes again, each thread with its own connection. Once this method returns,
+     * the indexes of the tables are dropped again if they are written to.
+     *
+     * @param dataSource  datasource of the new stats database
+     * @param threadCount number of indexes created at the same time
+     * @throws SQLException if any of the indexes cannot be created, after the others have been created
+     */
+    public synchronized void rebuildIndexes(final DataSource dataSource, int threadCount) throws SQLException {
+        if (droppedIndexes.isEmpty()) {
+            return;
+        }
+        List<Index> indexes = new ArrayList<>();
+        for (List<Index> tableIndexes : droppedIndexes.values()) {
+            indexes.addAll(tableIndexes);
+        }
+        long loadNanos = System.nanoTime() - loadStart;
+        log.info("Loaded " + droppedIndexes.size() + " tables with " + indexes.size() + " secondary indexes dropped in "
+                + TableMetrics.formatDuration(TimeUnit.NANOSECONDS.toSeconds(loadNanos)));
+        droppedIndexes.clear();
+        loadStart = 0;
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, indexes.size())),
+                new NamedThreadFactory("StatMigrationIndexBuilder"));
+        List<Future<Void>> futures = new ArrayList<>(indexes.size());
+        try {
+            for (final Index index : indexes) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws SQLException {
+                        createIndex(dataSource, index);
+                        return null;
+                    }
+                }));
+            }
+            List<String> failedIndexes = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                Index index = indexes.get(i);
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.error("Error occurred while rebuilding index " + index.getIndexName() + " of "
+                            + index.getTableName() + ". Create it with: " + index.getCreateStatement(), e.getCause());
+                    failedIndexes.add(index.getIndexName());
+                }
+            }
+            log.info("Rebuilt " + (indexes.size() - failedIndexes.size()) + " of " + indexes.size()
+                    + " secondary indexes in " + TableMetrics.formatDuration(
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)));
+            if (!failedIndexes.isEmpty()) {
+                throw new SQLException("Could not rebuild the indexes " + failedIndexes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while rebuilding the secondary indexes", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void createIndex(DataSource dataSource, Index index) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.createStatement();
+            statement.execute(index.getCreateStatement());
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Rebuilt index " + index.getIndexName() + " of " + index.getTableName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+
+    /**
+     * This method checks whether the rows of a table can be read in the order of the given columns using an index,
+     * i.e. whether an index of the table starts with the columns in the same order
+     *
+     * @param metaData  metadata of the database of the table
+     * @param tableName name of the table
+     * @param columns   columns the rows are ordered by
+     * @return true if an index of the table starts with the columns
+     * @throws SQLException if the indexes cannot be read
+     */
+    public static boolean hasIndexStartingWith(DatabaseMetaData metaData, String tableName, List<String> columns)
+            throws SQLException {
+        List<String> leadingColumns = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            leadingColumns.add(column.toUpperCase(Locale.ENGLISH));
+        }
+        for (String name : getTableNames(tableName)) {
+            Set<String> excluded = new HashSet<>();
+            for (Index index : getIndexes(metaData, name, excluded, Collections.<String, Integer>emptyMap())
+                    .values()) {
+                if (!excluded.contains(index.indexName) && index.columnNames.size() >= leadingColumns.size()
+                        && index.columnNames.subList(0, leadingColumns.size()).equals(leadingColumns)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Databases store unquoted names in upper or lower case, so the table is looked up with the given name and both
+     * cases
+     */
+    private static String[] getTableNames(String tableName) {
+        return new String[]{tableName, tableName.toUpperCase(Locale.ENGLISH), tableName.toLowerCase(Locale.ENGLISH)};
+    }
+
+    /**
+     * Indexes on expressions or with a filter condition cannot be created from the metadata, so they are added to the
+     * excluded indexes
+     *
+     * @param prefixLengths lengths of the indexed prefixes of the columns, by index and column name
+     */
+    private static Map<String, Index> getIndexes(DatabaseMetaData metaData, String name, Set<String> excluded,
+            Map<String, Integer> prefixLengths) throws SQLException {
+        Map<String, Index> indexes = new LinkedHashMap<>();
+        ResultSet resultSet = null;
+        try {
+            resultSet = metaData.getIndexInfo(null, null, name, false, true);
+            while (resultSet.next()) {
+                String indexName = resultSet.getString("INDEX_NAME");
+                if (indexName == null || resultSet.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    continue;
+                }
+                String column = resultSet.getString("COLUMN_NAME");
+                //H2 reports an empty filter condition for the indexes without one
+                String filterCondition = resultSet.getString("FILTER_CONDITION");
+                if (column == null || filterCondition != null && !filterCondition.isEmpty()) {
+                    excluded.add(indexName);
+                }
+                Index index = indexes.get(indexName);
+                if (index == null) {
+                    index = new Index(name, indexName, !resultSet.getBoolean("NON_UNIQUE"));
+                    indexes.put(indexName, index);
+                }
+                if (column != null) {
+                    Integer prefixLength = prefixLengths.get(getPrefixKey(indexName, column));
+                    String indexedColumn = prefixLength != null ? column + "(" + prefixLength + ")" : column;
+                    index.columns.add("D".equals(resultSet.getString("ASC_OR_DESC")) ? indexedColumn + " DESC"
+                            : indexedColumn);
+                    index.columnNames.add(column.toUpperCase(Locale.ENGLISH));
+                }
+            }
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * The JDBC metadata of MySQL does not report the prefix lengths of the columns of an index, so an index on the
+     * first characters of a column is read from the information schema, in order not to rebuild it on the full column
+     *
+     * @return the lengths of the indexed prefixes of the columns of the table, by index and column name
+     */
+    private static Map<String, Integer> getPrefixLengths(Connection connection, DatabaseDialect dialect,
+            String tableName) throws SQLException {
+        Map<String, Integer> prefixLengths = new HashMap<>();
+        if (dialect != DatabaseDialect.MYSQL) {
+            return prefixLengths;
+        }
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement("SELECT INDEX_NAME, COLUMN_NAME, SUB_PART FROM "
+                    + "information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? "
+                    + "AND SUB_PART IS NOT NULL");
+            statement.setString(1, tableName);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                prefixLengths.put(getPrefixKey(resultSet.getString(1), resultSet.getString(2)), resultSet.getInt(3));
+            }
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        return prefixLengths;
+    }
+
+    private static String getPrefixKey(String indexName, String column) {
+        return indexName.toUpperCase(Locale.ENGLISH) + "." + column.toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The unique indexes, which include the index of the primary key, the statistics of the table and the indexes
+     * which cannot be created from the metadata are kept
+     */
+    private static List<Index> getSecondaryIndexes(Connection connection, DatabaseDialect dialect, String tableName)
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : getTableNames(tableName)) {
+            Set<String> excluded = new HashSet<>();
+            Map<String, Index> indexes = getIndexes(metaData, name, excluded,
+                    getPrefixLengths(connection, dialect, name));
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            List<Index> secondaryIndexes = new ArrayList<>();
+            for (Index index : indexes.values()) {
+                if (!index.unique && !excluded.contains(index.indexName)) {
+                    secondaryIndexes.add(index);
+                }
+            }
+            return secondaryIndexes;
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Reads the tuning options of the stat migration, which are passed as system properties along with
+ * -DmigrateStats=true
+ */
+public class MigrationConfiguration {
+
+    private static final Log log = LogFactory.getLog(MigrationConfiguration.class);
+
+    private MigrationConfiguration() {
+    }
+
+    /**
+     * @return number of rows inserted into the new stats database in a single JDBC batch and transaction
+     */
+    public static int getBatchSize() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_BATCH_SIZE, APIMStatMigrationConstants.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * MySQL ignores this value, as its result sets are always streamed one row at a time.
+     *
+     * @return number of rows fetched from the previous stats database per round trip
+     */
+    public static int getFetchSize() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_FETCH_SIZE, APIMStatMigrationConstants.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @return number of tables migrated concurrently, defaults to the number of available processors
+     */
+    public static int getThreadCount() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_THREAD_COUNT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return maximum number of database connections held by the migration at any time, across all datasources
+     */
+    public static int getMaxConnections() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_MAX_CONNECTIONS,
+                APIMStatMigrationConstants.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @return number of threads writing the rows of a partition to the new stats database, each with its own
+     * connection
+     */
+    public static int getWriterThreadCount() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_WRITER_THREADS,
+                APIMStatMigrationConstants.DEFAULT_WRITER_THREADS);
+    }
+
+    /**
+     * @return number of batches queued between the reading, converting and writing of the rows of a partition
+     */
+    public static int getQueueSize() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_QUEUE_SIZE, APIMStatMigrationConstants.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @return true if the rows with the same aggregation key are merged before they are written
+     */
+    public static boolean isPreAggregationEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_PRE_AGGREGATE));
+    }
+
+    /**
+     * @return memory in bytes the aggregated or sorted rows of each target of a partition may take before they are
+     * spilled to a file, which is not shared between the partitions migrated at the same time
+     */
+    public static long getAggregationMemory() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_AGGREGATION_MEMORY,
+                APIMStatMigrationConstants.DEFAULT_AGGREGATION_MEMORY) * 1024L * 1024L;
+    }
+
+    /**
+     * @return directory the aggregated rows are spilled to, defaults to the temporary directory of the JVM
+     */
+    public static Path getSpillDirectory() {
+        String directory = System.getProperty(APIMStatMigrationConstants.ARG_SPILL_DIRECTORY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+        return Paths.get(directory.trim());
+    }
+
+    /**
+     * @return true if the coarser granularities of the aggregation tables are rolled up from the finest source table
+     */
+    public static boolean isRollUpEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_ROLLUPS));
+    }
+
+    /**
+     * @return where the rows of the tables which are aggregated by the source query are aggregated
+     */
+    public static RowAggregator.Mode getAggregationMode() {
+        String mode = System.getProperty(APIMStatMigrationConstants.ARG_AGGREGATION);
+        try {
+            return RowAggregator.Mode.fromString(mode);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + mode + "' given for " + APIMStatMigrationConstants.ARG_AGGREGATION
+                    + ". Using the default value source");
+            return RowAggregator.Mode.SOURCE;
+        }
+    }
+
+    /**
+     * The partition count of a table is read from migrateStats.partitions.&lt;TABLE_NAME&gt; and falls back to
+     * migrateStats.partitions.
+     *
+     * @param tableName name of the table in the previous stats database
+     * @return number of ranges the table is split into and migrated concurrently
+     */
+    public static int getPartitionCount(String tableName) {
+        int defaultCount = getPositiveInt(APIMStatMigrationConstants.ARG_PARTITIONS,
+                APIMStatMigrationConstants.DEFAULT_PARTITIONS);
+        return getPositiveInt(APIMStatMigrationConstants.ARG_PARTITIONS + "." + tableName, defaultCount);
+    }
+
+    /**
+     * @return caching mode of the consumer key to application id mapping
+     */
+    public static ApplicationIdResolver.Mode getApplicationIdCacheMode() {
+        String mode = System.getProperty(APIMStatMigrationConstants.ARG_APPLICATION_ID_CACHE);
+        try {
+            return ApplicationIdResolver.Mode.fromString(mode);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + mode + "' given for " + APIMStatMigrationConstants.ARG_APPLICATION_ID_CACHE
+                    + ". Using the default value full");
+            return ApplicationIdResolver.Mode.FULL;
+        }
+    }
+
+    /**
+     * @return maximum number of consumer key mappings cached in lru mode
+     */
+    public static int getApplicationIdCacheSize() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_APPLICATION_ID_CACHE_SIZE,
+                APIMStatMigrationConstants.DEFAULT_APPLICATION_ID_CACHE_SIZE);
+    }
+
+    /**
+     * @return seconds between two progress reports of the tables being migrated
+     */
+    public static int getProgressInterval() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_PROGRESS_INTERVAL,
+                APIMStatMigrationConstants.DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    /**
+     * @return whether the rows are inserted into the new stats database or merged into the existing rows
+     */
+    public static UpsertStatementBuilder.WriteMode getWriteMode() {
+        String mode = System.getProperty(APIMStatMigrationConstants.ARG_WRITE_MODE);
+        try {
+            return UpsertStatementBuilder.WriteMode.fromString(mode);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + mode + "' given for " + APIMStatMigrationConstants.ARG_WRITE_MODE
+                    + ". Using the default value insert");
+            return UpsertStatementBuilder.WriteMode.INSERT;
+        }
+    }
+
+    /**
+     * @return whether only the rows written to the previous stats tables since the last run are migrated, as
+     * recorded by their watermarks
+     */
+    public static boolean isDeltaEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_DELTA));
+    }
+
+    /**
+     * @return whether the rows are written in the order of the primary key of the target table
+     */
+    public static boolean isPrimaryKeyOrderEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_PRIMARY_KEY_ORDER));
+    }
+
+    /**
+     * @return whether the secondary indexes of the new stats tables are dropped while the rows are loaded and rebuilt
+     * afterwards
+     */
+    public static boolean isIndexDeferralEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_DEFER_INDEXES));
+    }
+
+    /**
+     * @return whether the rows are written with batched insert statements or the bulk load statement of the database
+     */
+    public static BulkLoader.Mode getLoaderMode() {
+        String mode = System.getProperty(APIMStatMigrationConstants.ARG_LOADER);
+        try {
+            return BulkLoader.Mode.fromString(mode);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + mode + "' given for " + APIMStatMigrationConstants.ARG_LOADER
+                    + ". Using the default value insert");
+            return BulkLoader.Mode.INSERT;
+        }
+    }
+
+    /**
+     * Resuming a migration requires its progress to be recorded, so the progress is kept in the new stats database
+     * when migrateStats.resume is set without migrateStats.checkpoint.
+     *
+     * @return where the progress of the migration is recorded
+     */
+    public static ProgressStore.Type getProgressStoreType() {
+        String type = System.getProperty(APIMStatMigrationConstants.ARG_CHECKPOINT);
+        ProgressStore.Type defaultType = isResumeEnabled() ? ProgressStore.Type.DATABASE : ProgressStore.Type.NONE;
+        if (type == null || type.trim().isEmpty()) {
+            return defaultType;
+        }
+        try {
+            ProgressStore.Type parsedType = ProgressStore.Type.fromString(type);
+            if (parsedType == ProgressStore.Type.NONE && isResumeEnabled()) {
+                log.warn(APIMStatMigrationConstants.ARG_RESUME + " requires the progress to be recorded. Recording "
+                        + "the progress in the new stats database");
+                return ProgressStore.Type.DATABASE;
+            }
+            return parsedType;
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + type + "' given for " + APIMStatMigrationConstants.ARG_CHECKPOINT
+                    + ". Using the default value " + defaultType.name().toLowerCase(Locale.ENGLISH));
+            return defaultType;
+        }
+    }
+
+    /**
+     * @return file the progress of the migration is recorded in when migrateStats.checkpoint is file
+     */
+    public static Path getCheckpointFile() {
+        String file = System.getProperty(APIMStatMigrationConstants.ARG_CHECKPOINT_FILE);
+        if (file == null || file.trim().isEmpty()) {
+            return Paths.get(APIMStatMigrationConstants.DEFAULT_CHECKPOINT_FILE);
+        }
+        return Paths.get(file.trim());
+    }
+
+    /**
+     * @return whether the migrated tables are compared with the previous stats tables once the migration completes
+     */
+    public static boolean isVerificationEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_VERIFY));
+    }
+
+    /**
+     * @return file the differences between the migrated tables and the previous stats tables are written to
+     */
+    public static Path getVerificationReport() {
+        String file = System.getProperty(APIMStatMigrationConstants.ARG_VERIFY_REPORT);
+        if (file == null || file.trim().isEmpty()) {
+            return Paths.get(APIMStatMigrationConstants.DEFAULT_VERIFY_REPORT);
+        }
+        return Paths.get(file.trim());
+    }
+
+    /**
+     * @return maximum number of rows read from the previous stats database per second, or 0 if the rate is not capped
+     */
+    public static int getMaxReadRate() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_MAX_READ_RATE, 0);
+    }
+
+    /**
+     * @return maximum number of batches fetched from the previous stats database at the same time, or 0 if they are
+     * not capped
+     */
+    public static int getMaxReaders() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_MAX_READERS, 0);
+    }
+
+    /**
+     * @return whether the read rate and the concurrent fetches are adjusted to the load of the previous stats database
+     */
+    public static boolean isLoadGovernorEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_LOAD_GOVERNOR));
+    }
+
+    /**
+     * @return query whose latency on the previous stats database measures its load, or null if only the fetch times
+     * are measured
+     */
+    public static String getProbeQuery() {
+        String query = System.getProperty(APIMStatMigrationConstants.ARG_PROBE_QUERY);
+        return query == null || query.trim().isEmpty() ? null : query.trim();
+    }
+
+    /**
+     * @return latency of the probe query in milliseconds above which the previous stats database is taken to be
+     * overloaded
+     */
+    public static int getProbeLatency() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_PROBE_LATENCY,
+                APIMStatMigrationConstants.DEFAULT_PROBE_LATENCY);
+    }
+
+    /**
+     * @return seconds between two adjustments of the read rate and the concurrent fetches
+     */
+    public static int getGovernorInterval() {
+        return getPositiveInt(APIMStatMigrationConstants.ARG_GOVERNOR_INTERVAL,
+                APIMStatMigrationConstants.DEFAULT_GOVERNOR_INTERVAL);
+    }
+
+    /**
+     * @return true if the tables completed by a previous run are skipped and the partially migrated tables are
+     * continued from their recorded progress
+     */
+    public static boolean isResumeEnabled() {
+        return Boolean.parseBoolean(System.getProperty(APIMStatMigrationConstants.ARG_RESUME));
+    }
+
+    private static int getPositiveInt(String property, int defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsedValue = Integer.parseInt(value.trim());
+            if (parsedValue > 0) {
+                return parsedValue;
+            }
+        } catch (NumberFormatException e) {
+            //invalid values are reported below and the default value is used
+        }
+        log.warn("Invalid value '" + value + "' given for " + property + ". Using the default value " + defaultValue);
+        return defaultValue;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the {@link TableMetrics} of all the tables of a migration run. The metrics are exposed as a JMX MBean and
+ * logged periodically while the migration runs.
+ */
+public class MigrationMetrics implements MigrationMetricsMBean {
+
+    private static final Log log = LogFactory.getLog(MigrationMetrics.class);
+
+    private static final MigrationMetrics INSTANCE = new MigrationMetrics();
+
+    private final ConcurrentMap<String, TableMetrics> tables = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> sourceRowCounts = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reporter = null;
+
+    private MigrationMetrics() {
+    }
+
+    public static MigrationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * This method returns the metrics of a table, creating them on first use
+     *
+     * @param migrationName name of the migration, the table it writes to
+     * @param sourceTable   table of the previous stats database the rows are read from
+     * @return the metrics of the table
+     */
+    public TableMetrics getTable(String migrationName, String sourceTable) {
+        TableMetrics metrics = tables.get(migrationName);
+        if (metrics == null) {
+            metrics = new TableMetrics(migrationName, sourceTable);
+            Long sourceRowCount = sourceRowCounts.get(sourceTable);
+            if (sourceRowCount != null) {
+                metrics.setSourceRowCount(sourceRowCount);
+            }
+            TableMetrics existing = tables.putIfAbsent(migrationName, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param sourceTable    table of the previous stats database
+     * @param sourceRowCount number of rows of the table
+     */
+    public void setSourceRowCount(String sourceTable, long sourceRowCount) {
+        sourceRowCounts.put(sourceTable, sourceRowCount);
+        for (TableMetrics metrics : tables.values()) {
+            if (metrics.getSourceTable().equals(sourceTable)) {
+                metrics.setSourceRowCount(sourceRowCount);
+            }
+        }
+    }
+
+    /**
+     * This method registers the metrics with the platform MBean server. The migration does not depend on the
+     * metrics, so a failure is only logged.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(APIMStatMigrationConstants.METRICS_MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the stat migration metrics MBean", e);
+        }
+    }
+
+    /**
+     * This method removes the metrics from the platform MBean server
+     */
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(APIMStatMigrationConstants.METRICS_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Could not unregister the stat migration metrics MBean", e);
+        }
+    }
+
+    /**
+     * This method starts logging the progress of the tables being migrated
+     *
+     * @param intervalSeconds time between two progress reports
+     */
+    public synchronized void startReporting(long intervalSeconds) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("StatMigrationProgress"));
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logProgress();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * This method stops the progress reports and logs the final metrics of every table
+     */
+    public synchronized void stopReporting() {
+        if (reporter == null) {
+            return;
+        }
+        reporter.shutdownNow();
+        reporter = null;
+        for (TableMetrics metrics : tables.values()) {
+            log.info(metrics.getProgress());
+            if (log.isDebugEnabled()) {
+                log.debug(metrics.getMigrationName() + " read latency per batch: " + metrics.getReadLatency()
+                        + ", transform: " + metrics.getTransformLatency() + ", write: " + metrics.getWriteLatency());
+            }
+        }
+    }
+
+    private void logProgress() {
+        for (TableMetrics metrics : tables.values()) {
+            if (metrics.isRunning()) {
+                log.info("Progress of " + metrics.getProgress());
+            }
+        }
+    }
+
+    @Override
+    public String[] getTableNames() {
+        return tables.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getTotalRowsRead() {
+        long rows = 0;
+        for (TableMetrics metrics : tables.values()) {
+            rows += metrics.getRowsRead();
+        }
+        return rows;
+    }
+
+    @Override
+    public long getTotalRowsWritten() {
+        long rows = 0;
+        for (TableMetrics metrics : tables.values()) {
+            rows += metrics.getRowsWritten();
+        }
+        return rows;
+    }
+
+    @Override
+    public String[] getProgress() {
+        List<String> progress = new ArrayList<>();
+        for (TableMetrics metrics : tables.values()) {
+            progress.add(metrics.getProgress());
+        }
+        return progress.toArray(new String[progress.size()]);
+    }
+
+    @Override
+    public long getRowsRead(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getRowsRead() : 0;
+    }
+
+    @Override
+    public long getRowsWritten(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getRowsWritten() : 0;
+    }
+
+    @Override
+    public long getBatches(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getBatches() : 0;
+    }
+
+    @Override
+    public long getApplicationIdCacheHits(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getApplicationIdHits() : 0;
+    }
+
+    @Override
+    public long getApplicationIdCacheMisses(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getApplicationIdMisses() : 0;
+    }
+
+    @Override
+    public double getRowsPerSecond(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getRowsPerSecond() : 0;
+    }
+
+    @Override
+    public long getEstimatedSecondsRemaining(String tableName) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getEstimatedSecondsRemaining() : -1;
+    }
+
+    @Override
+    public double getReadLatencyMillis(String tableName, double percentile) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getReadLatency().getPercentileMillis(percentile) : 0;
+    }
+
+    @Override
+    public double getTransformLatencyMillis(String tableName, double percentile) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getTransformLatency().getPercentileMillis(percentile) : 0;
+    }
+
+    @Override
+    public double getWriteLatencyMillis(String tableName, double percentile) {
+        TableMetrics metrics = tables.get(tableName);
+        return metrics != null ? metrics.getWriteLatency().getPercentileMillis(percentile) : 0;
+    }
+}
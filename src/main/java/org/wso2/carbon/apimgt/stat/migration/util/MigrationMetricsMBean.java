@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+/**
+ * The JMX interface of the stat migration metrics. Tables are identified by the name of the table they are migrated
+ * to, and the operations of an unknown table return 0.
+ */
+public interface MigrationMetricsMBean {
+
+    /**
+     * @return names of the tables which have been migrated or are being migrated
+     */
+    String[] getTableNames();
+
+    long getTotalRowsRead();
+
+    long getTotalRowsWritten();
+
+    /**
+     * @return a progress line per table
+     */
+    String[] getProgress();
+
+    long getRowsRead(String tableName);
+
+    long getRowsWritten(String tableName);
+
+    long getBatches(String tableName);
+
+    /**
+     * @return number of consumer keys of the table found in the cache of the application id resolver
+     */
+    long getApplicationIdCacheHits(String tableName);
+
+    /**
+     * @return number of consumer keys of the table looked up in the API Manager database, or without a value
+     */
+    long getApplicationIdCacheMisses(String tableName);
+
+    double getRowsPerSecond(String tableName);
+
+    /**
+     * @return estimated time until the table is read in seconds, or -1 if it is not known
+     */
+    long getEstimatedSecondsRemaining(String tableName);
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the percentile of the time taken to read a batch of rows in milliseconds
+     */
+    double getReadLatencyMillis(String tableName, double percentile);
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the percentile of the time taken to convert a batch of rows in milliseconds
+     */
+    double getTransformLatencyMillis(String tableName, double percentile);
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the percentile of the time taken to write a batch of rows in milliseconds
+     */
+    double getWriteLatencyMillis(String tableName, double percentile);
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Migrates the rows of a partition in stages running on their own threads: a reader reading the batches of rows from
+ * the previous stats database, a converter converting them, and one or more writers writing them to the new stats
+ * database. The stages are connected by bounded queues of batches, so reading, converting and writing overlap and a
+ * stage which falls behind blocks the stages feeding it once its queue is full. The batches are recycled, which bounds
+ * the memory used by the queue size. The converted rows can be merged by a {@link RowAggregator} and sorted by a
+ * {@link RowSorter} before they are written.
+ * <p>
+ * The rows read once can be migrated to several target tables, each with its own converter and writers. A batch which
+ * is read is then only reused once every converter has converted it.
+ * <p>
+ * The reads can be paced by a {@link SourceLoadGovernor} shared by the partitions, to limit the load on the source
+ * database.
+ * <p>
+ * The rows are only written in the order they are read when there is a single writer, which is therefore required
+ * when the progress of the partition is checkpointed. When a stage fails, the other stages are interrupted and the
+ * failure is thrown once they have stopped.
+ */
+public class MigrationPipeline {
+
+    private static final Log log = LogFactory.getLog(MigrationPipeline.class);
+
+    private static final long STOP_TIMEOUT_SECONDS = 60;
+
+    /**
+     * A target table the rows are migrated to
+     */
+    public static final class Target {
+
+        private final TableMapping mapping;
+        private final RowBatchConverter converter;
+        private final RowAggregator aggregator;
+        private final RowSorter sorter;
+        private final List<RowBatchWriter> writers;
+        private final TableMetrics metrics;
+
+        /**
+         * @param mapping    mapping of the rows to the target table
+         * @param converter  converter of the source rows
+         * @param aggregator aggregator of the converted rows, or null if the rows are written as they are read
+         * @param sorter     sorter of the converted or aggregated rows, or null if they are written in the order they
+         *                   are read or aggregated
+         * @param writers    writers of the converted rows, each with its own connection
+         * @param metrics    metrics of the target table
+         */
+        public Target(TableMapping mapping, RowBatchConverter converter, RowAggregator aggregator, RowSorter sorter,
+                List<RowBatchWriter> writers, TableMetrics metrics) {
+            this.mapping = mapping;
+            this.converter = converter;
+            this.aggregator = aggregator;
+            this.sorter = sorter;
+            this.writers = writers;
+            this.metrics = metrics;
+        }
+    }
+
+    private final String name;
+    private final int batchSize;
+    private final int queueSize;
+    private final SourceLoadGovernor loadGovernor;
+
+    /**
+     * @param name         name of the partition, used to name the threads of the stages
+     * @param batchSize    number of rows of a batch
+     * @param queueSize    number of batches which can be queued between two stages
+     * @param loadGovernor governor every batch is read through, or null if the reads are not limited
+     */
+    public MigrationPipeline(String name, int batchSize, int queueSize, SourceLoadGovernor loadGovernor) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+        this.loadGovernor = loadGovernor;
+    }
+
+    /**
+     * This method migrates every row of the reader to the target tables and waits until the writers have committed
+     * them
+     *
+     * @param reader  reader of the source rows, whose rows can be converted by the mapping of every target
+     * @param targets target tables of the rows
+     * @throws SQLException               if a stage fails to read or write the rows
+     * @throws APIMStatMigrationException if a stage fails to convert the rows or to record the progress, or the
+     *                                    migration is interrupted
+     */
+    public void run(final RowBatchReader reader, final List<Target> targets)
+            throws SQLException, APIMStatMigrationException {
+        TableMapping readMapping = reader.getMapping();
+        for (Target target : targets) {
+            if (!readMapping.hasFieldsOf(target.mapping)) {
+                throw new IllegalArgumentException("The rows read for " + readMapping + " cannot be converted for "
+                        + target.mapping);
+            }
+        }
+        final int batchCount = queueSize + 1 + targets.size();
+        final SharedBatch endOfRows = new SharedBatch(new RowBatch(readMapping, 0));
+        final BlockingQueue<SharedBatch> freeBatches = new ArrayBlockingQueue<>(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            freeBatches.add(new SharedBatch(new RowBatch(readMapping, batchSize)));
+        }
+        int stageCount = 1;
+        for (Target target : targets) {
+            stageCount += 1 + target.writers.size();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(stageCount, new NamedThreadFactory(name));
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        final List<BlockingQueue<SharedBatch>> readBatches = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            BlockingQueue<SharedBatch> targetReadBatches = new ArrayBlockingQueue<>(queueSize);
+            readBatches.add(targetReadBatches);
+            submitTarget(stages, target, targetReadBatches, freeBatches, endOfRows);
+        }
+        stages.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                while (true) {
+                    SharedBatch batch = freeBatches.take();
+                    if (loadGovernor != null) {
+                        loadGovernor.acquire();
+                    }
+                    long start = System.nanoTime();
+                    boolean read;
+                    long readNanos;
+                    try {
+                        read = reader.read(batch.rows);
+                    } finally {
+                        readNanos = System.nanoTime() - start;
+                        if (loadGovernor != null) {
+                            loadGovernor.release(batch.rows.getSize(), readNanos);
+                        }
+                    }
+                    for (Target target : targets) {
+                        target.metrics.recordRead(batch.rows.getSize(), readNanos);
+                    }
+                    if (!read) {
+                        for (BlockingQueue<SharedBatch> targetReadBatches : readBatches) {
+                            targetReadBatches.put(endOfRows);
+                        }
+                        return null;
+                    }
+                    batch.pendingConversions.set(targets.size());
+                    for (BlockingQueue<SharedBatch> targetReadBatches : readBatches) {
+                        targetReadBatches.put(batch);
+                    }
+                }
+            }
+        });
+        executor.shutdown();
+
+        try {
+            for (int i = 0; i < stageCount; i++) {
+                stages.take().get();
+            }
+        } catch (InterruptedException e) {
+            stop(executor);
+            Thread.currentThread().interrupt();
+            throw new APIMStatMigrationException("Interrupted while migrating " + name, e);
+        } catch (ExecutionException e) {
+            stop(executor);
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof APIMStatMigrationException) {
+                throw (APIMStatMigrationException) cause;
+            }
+            throw new APIMStatMigrationException("Error occurred while migrating " + name, cause);
+        }
+    }
+
+    /**
+     * This method submits the converter and the writers of a target table
+     */
+    private void submitTarget(CompletionService<Void> stages, final Target target,
+            final BlockingQueue<SharedBatch> readBatches, final BlockingQueue<SharedBatch> freeBatches,
+            final SharedBatch endOfRows) {
+        final int writerCount = target.writers.size();
+        final TableMetrics metrics = target.metrics;
+        final ConvertedBatch endOfConvertedRows = target.converter.newBatch(0);
+        final BlockingQueue<ConvertedBatch> freeConvertedBatches = new ArrayBlockingQueue<>(queueSize + writerCount);
+        final BlockingQueue<ConvertedBatch> convertedBatches = new ArrayBlockingQueue<>(queueSize);
+        for (int i = 0; i < queueSize + writerCount; i++) {
+            freeConvertedBatches.add(target.converter.newBatch(batchSize));
+        }
+        stages.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (target.aggregator != null || target.sorter != null) {
+                    aggregate();
+                    return null;
+                }
+                while (true) {
+                    SharedBatch batch = readBatches.take();
+                    if (batch == endOfRows) {
+                        endConvertedRows();
+                        return null;
+                    }
+                    ConvertedBatch converted = freeConvertedBatches.take();
+                    target.converter.convert(batch.rows, converted);
+                    release(batch);
+                    convertedBatches.put(converted);
+                }
+            }
+
+            /**
+             * The aggregated or sorted rows are written in new batches, so the time spent converting, aggregating and
+             * sorting the rows is recorded here rather than by the writers. The aggregated rows are passed on to the
+             * sorter, if any, through a single batch which the sorter copies.
+             */
+            private void aggregate() throws Exception {
+                final RowAggregator.Output output = new RowAggregator.Output() {
+                    @Override
+                    public ConvertedBatch newBatch() throws InterruptedException {
+                        return freeConvertedBatches.take();
+                    }
+
+                    @Override
+                    public void write(ConvertedBatch batch) throws InterruptedException {
+                        convertedBatches.put(batch);
+                    }
+                };
+                RowAggregator.Output aggregated = output;
+                if (target.sorter != null) {
+                    final ConvertedBatch unsorted = target.converter.newBatch(batchSize);
+                    aggregated = new RowAggregator.Output() {
+                        @Override
+                        public ConvertedBatch newBatch() {
+                            return unsorted;
+                        }
+
+                        @Override
+                        public void write(ConvertedBatch batch) throws IOException {
+                            target.sorter.add(batch);
+                        }
+                    };
+                }
+                ConvertedBatch converted = target.converter.newBatch(batchSize);
+                while (true) {
+                    SharedBatch batch = readBatches.take();
+                    long start = System.nanoTime();
+                    if (batch == endOfRows) {
+                        if (target.aggregator != null) {
+                            target.aggregator.finish(aggregated);
+                        }
+                        if (target.sorter != null) {
+                            target.sorter.finish(output);
+                        }
+                        metrics.recordTransform(System.nanoTime() - start);
+                        endConvertedRows();
+                        return;
+                    }
+                    target.converter.convert(batch.rows, converted);
+                    release(batch);
+                    if (target.aggregator != null) {
+                        target.aggregator.add(converted, aggregated);
+                    } else {
+                        target.sorter.add(converted);
+                    }
+                    metrics.recordTransform(System.nanoTime() - start);
+                }
+            }
+
+            private void release(SharedBatch batch) throws InterruptedException {
+                if (batch.pendingConversions.decrementAndGet() == 0) {
+                    freeBatches.put(batch);
+                }
+            }
+
+            private void endConvertedRows() throws InterruptedException {
+                for (int i = 0; i < writerCount; i++) {
+                    convertedBatches.put(endOfConvertedRows);
+                }
+            }
+        });
+        for (final RowBatchWriter writer : target.writers) {
+            stages.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (true) {
+                        ConvertedBatch batch = convertedBatches.take();
+                        if (batch == endOfConvertedRows) {
+                            writer.finish();
+                            return null;
+                        }
+                        long writeNanos = writer.getWriteNanos();
+                        long start = System.nanoTime();
+                        writer.write(batch);
+                        //the time spent binding the rows is counted as converting them
+                        metrics.recordTransform(batch.getConvertNanos() + System.nanoTime() - start
+                                - (writer.getWriteNanos() - writeNanos));
+                        freeConvertedBatches.put(batch);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The connections of the stages are closed once the pipeline returns, so the stages are waited for
+     */
+    private void stop(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("The stages of " + name + " did not stop within " + STOP_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A batch of source rows along with the number of target tables which still have to convert it
+     */
+    private static final class SharedBatch {
+
+        private final RowBatch rows;
+        private final AtomicInteger pendingConversions = new AtomicInteger();
+
+        private SharedBatch(RowBatch rows) {
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+/**
+ * The progress of a single partition of a table migration, as recorded in a {@link ProgressStore}. A migration is
+ * identified by the table it writes to, as more than one migration may read the same source table. The last key is
+ * the key of the last source row committed to the new stats database, rows are read in key order so that every row
+ * up to and including it has been migrated.
+ */
+public class MigrationProgress {
+
+    private final String migrationName;
+    private final int partitionNumber;
+    private final int partitionCount;
+    private final long lowerKey;
+    private final long upperKey;
+    private long lastKey;
+    private long rowsMigrated;
+    private boolean completed;
+
+    public MigrationProgress(String migrationName, int partitionNumber, int partitionCount, long lowerKey,
+            long upperKey, long lastKey, long rowsMigrated, boolean completed) {
+        this.migrationName = migrationName;
+        this.partitionNumber = partitionNumber;
+        this.partitionCount = partitionCount;
+        this.lowerKey = lowerKey;
+        this.upperKey = upperKey;
+        this.lastKey = lastKey;
+        this.rowsMigrated = rowsMigrated;
+        this.completed = completed;
+    }
+
+    /**
+     * @param migrationName name of the migration the partition belongs to
+     * @param partition     partition of the source table
+     * @return the progress of a partition which has not been started
+     */
+    public static MigrationProgress notStarted(String migrationName, TablePartition partition) {
+        return new MigrationProgress(migrationName, partition.getPartitionNumber(), partition.getPartitionCount(),
+                partition.getLowerKey(), partition.getUpperKey(), partition.getLowerKey() - 1, 0, false);
+    }
+
+    /**
+     * This method returns the part of the source table which is still to be migrated
+     *
+     * @param tableName name of the table in the previous stats database
+     * @param level     time columns the table is split on
+     * @return the rows after the last committed key, read in key order
+     */
+    public TablePartition getRemainingPartition(String tableName, PartitionLevel level) {
+        if (level == PartitionLevel.NONE) {
+            return TablePartition.all(tableName);
+        }
+        return new TablePartition(tableName, level, partitionNumber, partitionCount, lastKey + 1, upperKey)
+                .inKeyOrder();
+    }
+
+    public String getMigrationName() {
+        return migrationName;
+    }
+
+    public int getPartitionNumber() {
+        return partitionNumber;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public long getLowerKey() {
+        return lowerKey;
+    }
+
+    public long getUpperKey() {
+        return upperKey;
+    }
+
+    public long getLastKey() {
+        return lastKey;
+    }
+
+    public void setLastKey(long lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    public long getRowsMigrated() {
+        return rowsMigrated;
+    }
+
+    public void setRowsMigrated(long rowsMigrated) {
+        this.rowsMigrated = rowsMigrated;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    /**
+     * @return true if rows of the partition have been committed by a previous run
+     */
+    public boolean isStarted() {
+        return completed || rowsMigrated > 0 || lastKey >= lowerKey;
+    }
+
+    @Override
+    public String toString() {
+        return migrationName + " partition " + partitionNumber + "/" + partitionCount + " (last key " + lastKey + ", "
+                + rowsMigrated + " rows" + (completed ? ", completed" : "") + ")";
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Compares the migrated tables with their source tables. The rows of both sides are grouped into buckets of the
+ * tenant domain of the API creator and the day of the row, or the month or year of a rollup, by GROUP BY queries
+ * which are streamed and run concurrently. The row count and the sum of every aggregated column of a bucket, e.g.
+ * AGG_COUNT or the latency sums of the execution time tables, must be the same on both sides. Every value which
+ * differs is written to a report. In delta mode, the source tables are only compared up to the watermark recorded by
+ * the last run, as the rows past it are left to the next run. Each scan of a source table holds a reader slot of the
+ * {@link SourceLoadGovernor} of the migration, and the rows it groups are paced like the rows of a migrated batch.
+ */
+public class MigrationVerifier {
+
+    private static final Log log = LogFactory.getLog(MigrationVerifier.class);
+
+    private static final String SUPER_TENANT_DOMAIN = "carbon.super";
+    private static final String ROW_COUNT = "rows";
+    private static final int LOGGED_MISMATCHES = 20;
+
+    private final DataSource sourceDataSource;
+    private final DataSource targetDataSource;
+    private final int fetchSize;
+    private final SourceLoadGovernor loadGovernor;
+    private final DateTimeZone zone = DateTimeZone.getDefault();
+
+    /**
+     * @param sourceDataSource datasource of the previous stats database
+     * @param targetDataSource datasource of the new stats database
+     * @param fetchSize        number of grouped rows fetched per round trip
+     * @param loadGovernor     governor the scans of the source tables are made through, or null if they are not
+     *                         limited
+     */
+    public MigrationVerifier(DataSource sourceDataSource, DataSource targetDataSource, int fetchSize,
+            SourceLoadGovernor loadGovernor) {
+        this.sourceDataSource = sourceDataSource;
+        this.targetDataSource = targetDataSource;
+        this.fetchSize = fetchSize;
+        this.loadGovernor = loadGovernor;
+    }
+
+    /**
+     * This method compares the target tables of the given mappings with their source tables and writes the values
+     * which differ to a CSV report
+     *
+     * @param mappings          mappings of the migrated tables
+     * @param watermarks        rows of the source tables which have been migrated, by the target table, for the tables
+     *                          migrated in delta mode
+     * @param rowCountsCompared whether every source row was written as a row of its own, so that the row counts of
+     *                          the tables which are not aggregated by the migration are compared as well
+     * @param threadCount       number of queries run concurrently, each with its own connection
+     * @param reportFile        file the differences are written to
+     * @return the number of buckets which differ
+     * @throws SQLException if any of the tables cannot be read
+     * @throws IOException  if the report cannot be written
+     */
+    public long verify(List<TableMapping> mappings, Map<String, Watermark> watermarks, boolean rowCountsCompared,
+            int threadCount, Path reportFile) throws SQLException, IOException {
+        long start = System.nanoTime();
+        List<TableCheck> checks = new ArrayList<>(mappings.size());
+        for (TableMapping mapping : mappings) {
+            checks.add(new TableCheck(mapping, rowCountsCompared && !mapping.isAggregatedByMigration(),
+                    watermarks.get(mapping.getTargetTable())));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount,
+                2 * checks.size())), new NamedThreadFactory("StatMigrationVerifier"));
+        long mismatchedBuckets = 0;
+        List<String> failedTables = new ArrayList<>();
+        try (BufferedWriter report = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            List<Future<Map<Bucket, long[]>>> sourceFutures = new ArrayList<>(checks.size());
+            List<Future<Map<Bucket, long[]>>> targetFutures = new ArrayList<>(checks.size());
+            for (TableCheck check : checks) {
+                sourceFutures.add(executor.submit(bucketReader(sourceDataSource, check, true)));
+                targetFutures.add(executor.submit(bucketReader(targetDataSource, check, false)));
+            }
+            report.write("table,tenant,bucket,measure,source,target");
+            report.newLine();
+            for (int i = 0; i < checks.size(); i++) {
+                TableCheck check = checks.get(i);
+                try {
+                    mismatchedBuckets += compare(check, sourceFutures.get(i).get(), targetFutures.get(i).get(),
+                            report);
+                } catch (ExecutionException e) {
+                    log.error("Error occurred while verifying " + check.mapping, e.getCause());
+                    failedTables.add(check.mapping.getTargetTable());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while verifying the migrated tables", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Verified " + (checks.size() - failedTables.size()) + " of " + checks.size() + " tables in "
+                + TableMetrics.formatDuration(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)) + ", "
+                + mismatchedBuckets + " buckets differ. The differences are written to " + reportFile);
+        if (!failedTables.isEmpty()) {
+            throw new SQLException("Could not verify the tables " + failedTables);
+        }
+        return mismatchedBuckets;
+    }
+
+    private Callable<Map<Bucket, long[]>> bucketReader(final DataSource dataSource, final TableCheck check,
+            final boolean source) {
+        return new Callable<Map<Bucket, long[]>>() {
+            @Override
+            public Map<Bucket, long[]> call() throws SQLException {
+                return readBuckets(dataSource, check, source);
+            }
+        };
+    }
+
+    /**
+     * The grouped rows of the target tables are at the granularity of the table, e.g. a minute, and are added up
+     * into their day here, as a day depends on the time zone of the timestamp. The rows counted by the groups of a
+     * source table are reported to the load governor as the rows read by its scan.
+     */
+    private Map<Bucket, long[]> readBuckets(DataSource dataSource, TableCheck check, boolean source)
+            throws SQLException {
+        Map<Bucket, long[]> buckets = new HashMap<>();
+        if (source && check.watermark != null && check.watermark.isEmpty()) {
+            return buckets;
+        }
+        int timeColumns = source ? check.granularity : Math.min(check.granularity, 1);
+        int measureCount = check.measures.size();
+        boolean acquired = false;
+        long scannedRows = 0;
+        long scanStart = 0;
+        Connection connection = null;
+        StreamingQuery query = null;
+        try {
+            connection = dataSource.getConnection();
+            query = new StreamingQuery(connection, source ? check.getSourceQuery() : check.getTargetQuery(),
+                    fetchSize);
+            if (source && check.watermark != null) {
+                check.watermark.bind(query.getStatement(), 1);
+            }
+            if (source && loadGovernor != null) {
+                acquireReader();
+                acquired = true;
+                scanStart = System.nanoTime();
+            }
+            ResultSet resultSet = query.executeQuery();
+            while (resultSet.next()) {
+                long key = 0;
+                if (source) {
+                    for (int i = 0; i < timeColumns; i++) {
+                        key = key * 100 + resultSet.getLong(2 + i);
+                    }
+                } else if (timeColumns > 0) {
+                    key = check.truncate(getDayKey(resultSet.getLong(2)));
+                }
+                Bucket bucket = new Bucket(check.getTenant(resultSet.getString(1)), key);
+                long[] values = buckets.get(bucket);
+                if (values == null) {
+                    values = new long[measureCount];
+                    buckets.put(bucket, values);
+                }
+                for (int i = 0; i < measureCount; i++) {
+                    values[i] += resultSet.getLong(2 + timeColumns + i);
+                }
+                scannedRows += resultSet.getLong(2 + timeColumns);
+            }
+        } finally {
+            if (acquired) {
+                loadGovernor.release((int) Math.min(scannedRows, Integer.MAX_VALUE), System.nanoTime() - scanStart);
+            }
+            if (query != null) {
+                query.close();
+            }
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    //this is logged and the process is continued because the query has executed
+                    log.error("Error occurred while closing the JDBC database connection.", e);
+                }
+            }
+        }
+        return buckets;
+    }
+
+    private void acquireReader() throws SQLException {
+        try {
+            loadGovernor.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to read the previous stats database", e);
+        }
+    }
+
+    private long getDayKey(long timestamp) {
+        LocalDate day = new LocalDate(timestamp, zone);
+        return day.getYear() * 10000L + day.getMonthOfYear() * 100L + day.getDayOfMonth();
+    }
+
+    private static long compare(TableCheck check, Map<Bucket, long[]> sourceBuckets,
+            Map<Bucket, long[]> targetBuckets, BufferedWriter report) throws IOException {
+        TreeSet<Bucket> buckets = new TreeSet<>(sourceBuckets.keySet());
+        buckets.addAll(targetBuckets.keySet());
+        long[] noValues = new long[check.measures.size()];
+        long mismatchedBuckets = 0;
+        for (Bucket bucket : buckets) {
+            long[] sourceValues = sourceBuckets.containsKey(bucket) ? sourceBuckets.get(bucket) : noValues;
+            long[] targetValues = targetBuckets.containsKey(bucket) ? targetBuckets.get(bucket) : noValues;
+            boolean mismatched = false;
+            for (int i = check.rowCountCompared ? 0 : 1; i < noValues.length; i++) {
+                if (sourceValues[i] == targetValues[i]) {
+                    continue;
+                }
+                if (mismatchedBuckets < LOGGED_MISMATCHES) {
+                    log.warn(check.mapping.getTargetTable() + " differs from " + check.mapping.getSourceTable()
+                            + " for tenant " + bucket.tenant + " in " + bucket.key + ": " + check.measures.get(i)
+                            + " is " + targetValues[i] + " instead of " + sourceValues[i]);
+                }
+                report.write(check.mapping.getTargetTable() + "," + bucket.tenant + "," + bucket.key + ","
+                        + check.measures.get(i) + "," + sourceValues[i] + "," + targetValues[i]);
+                report.newLine();
+                mismatched = true;
+            }
+            if (mismatched) {
+                mismatchedBuckets++;
+            }
+        }
+        String result = "Verified " + check.mapping.getTargetTable() + " against " + check.mapping.getSourceTable()
+                + ": " + buckets.size() + " buckets, " + mismatchedBuckets + " differ";
+        if (mismatchedBuckets > 0) {
+            log.warn(result);
+        } else {
+            log.info(result);
+        }
+        return mismatchedBuckets;
+    }
+
+    /**
+     * The queries and measures of a single table. The first measure is the row count, followed by the sums of the
+     * aggregated columns of the mapping.
+     */
+    private static final class TableCheck {
+
+        private final TableMapping mapping;
+        private final boolean rowCountCompared;
+        private final Watermark watermark;
+        private final TableMapping.Column tenantColumn;
+        private final boolean tenantDomain;
+        private final TableMapping.Column timestampColumn;
+        private final int granularity;
+        private final List<String> measures = new ArrayList<>();
+        private final List<TableMapping.Column> sumColumns = new ArrayList<>();
+
+        private TableCheck(TableMapping mapping, boolean rowCountCompared, Watermark watermark) {
+            this.mapping = mapping;
+            this.rowCountCompared = rowCountCompared;
+            this.watermark = watermark;
+            TableMapping.Column tenantDomainColumn = mapping.getColumn("apiCreatorTenantDomain");
+            this.tenantDomain = tenantDomainColumn != null && !tenantDomainColumn.isConstant();
+            this.tenantColumn = tenantDomain ? tenantDomainColumn : mapping.getColumn("apiCreator");
+            this.timestampColumn = mapping.getColumn("AGG_TIMESTAMP");
+            this.granularity = getGranularity(timestampColumn);
+            measures.add(ROW_COUNT);
+            for (TableMapping.Column column : mapping.getColumns()) {
+                if (!column.isConstant() && column.getConversion() == TableMapping.Conversion.LONG
+                        && mapping.getMerge(column) == UpsertStatementBuilder.Merge.SUM
+                        && mapping.getFieldExpression(mapping.getSourceFields(column).get(0)) == null) {
+                    measures.add(column.getTargetColumn());
+                    sumColumns.add(column);
+                }
+            }
+        }
+
+        /**
+         * @return the number of leading year, month and day columns a bucket is made of
+         */
+        private static int getGranularity(TableMapping.Column timestampColumn) {
+            if (timestampColumn == null) {
+                return 0;
+            }
+            switch (timestampColumn.getConversion()) {
+                case YEAR_TIMESTAMP:
+                    return 1;
+                case MONTH_TIMESTAMP:
+                    return 2;
+                default:
+                    return 3;
+            }
+        }
+
+        private long truncate(long dayKey) {
+            return granularity == 1 ? dayKey / 10000 : granularity == 2 ? dayKey / 100 : dayKey;
+        }
+
+        /**
+         * The API creators of a tenant other than the super tenant are qualified with its domain
+         */
+        private String getTenant(String value) {
+            if (value == null || tenantDomain) {
+                return value == null ? "" : value;
+            }
+            int separator = value.lastIndexOf('@');
+            return separator >= 0 ? value.substring(separator + 1) : SUPER_TENANT_DOMAIN;
+        }
+
+        private String getSourceQuery() {
+            String tenantField = tenantColumn != null ? mapping.getSourceFields(tenantColumn).get(0) : "''";
+            StringBuilder groupBy = new StringBuilder(tenantField);
+            String[] timeFields = {"year", "month", "day"};
+            for (int i = 0; i < granularity; i++) {
+                groupBy.append(", ").append(timeFields[i]);
+            }
+            StringBuilder query = new StringBuilder("SELECT ").append(groupBy).append(", COUNT(*)");
+            for (TableMapping.Column column : sumColumns) {
+                query.append(", SUM(").append(mapping.getSourceFields(column).get(0)).append(')');
+            }
+            query.append(" FROM ").append(mapping.getSourceTable());
+            if (watermark != null) {
+                query.append(" WHERE ").append(watermark.getCondition());
+            }
+            return query.append(" GROUP BY ").append(groupBy).toString();
+        }
+
+        private String getTargetQuery() {
+            StringBuilder groupBy = new StringBuilder(tenantColumn != null ? tenantColumn.getTargetColumn() : "''");
+            if (granularity > 0) {
+                groupBy.append(", ").append(timestampColumn.getTargetColumn());
+            }
+            StringBuilder query = new StringBuilder("SELECT ").append(groupBy).append(", COUNT(*)");
+            for (TableMapping.Column column : sumColumns) {
+                query.append(", SUM(").append(column.getTargetColumn()).append(')');
+            }
+            return query.append(" FROM ").append(mapping.getTargetTable()).append(" GROUP BY ").append(groupBy)
+                    .toString();
+        }
+    }
+
+    /**
+     * The tenant domain and the day, month or year key of a group of rows, e.g. 20181231, 201812 or 2018
+     */
+    private static final class Bucket implements Comparable<Bucket> {
+
+        private final String tenant;
+        private final long key;
+
+        private Bucket(String tenant, long key) {
+            this.tenant = tenant;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(Bucket other) {
+            int tenantOrder = tenant.compareTo(other.tenant);
+            return tenantOrder != 0 ? tenantOrder : Long.compare(key, other.key);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Bucket)) {
+                return false;
+            }
+            Bucket bucket = (Bucket) other;
+            return key == bucket.key && tenant.equals(bucket.tenant);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tenant.hashCode() + (int) (key ^ (key >>> 32));
+        }
+    }
+}
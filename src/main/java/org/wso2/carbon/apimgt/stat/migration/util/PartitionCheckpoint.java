@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Records the progress of a single partition in a progress store each time the {@link BatchInsertWriter} of the
+ * partition commits. Used by a single thread.
+ */
+public class PartitionCheckpoint {
+
+    private final ProgressStore store;
+    private final MigrationProgress progress;
+    private final long previousRowsMigrated;
+
+    /**
+     * @param store    store the progress is recorded in
+     * @param progress progress of the partition, including the rows migrated by previous runs
+     */
+    public PartitionCheckpoint(ProgressStore store, MigrationProgress progress) {
+        this.store = store;
+        this.progress = progress;
+        this.previousRowsMigrated = progress.getRowsMigrated();
+    }
+
+    /**
+     * @return key of the last source row committed so far
+     */
+    public long getLastKey() {
+        return progress.getLastKey();
+    }
+
+    public MigrationProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * This method records the progress within the transaction which is about to be committed
+     *
+     * @param connection  connection of the new stats database which holds the transaction
+     * @param lastKey     key of the last source row in the transaction
+     * @param rowsWritten number of rows written by this run, including the rows of the transaction
+     * @param completed   true if the transaction holds the last rows of the partition
+     * @throws SQLException if the progress cannot be recorded
+     */
+    void beforeCommit(Connection connection, long lastKey, long rowsWritten, boolean completed) throws SQLException {
+        progress.setLastKey(lastKey);
+        progress.setRowsMigrated(previousRowsMigrated + rowsWritten);
+        progress.setCompleted(completed);
+        store.saveInTransaction(progress, connection);
+    }
+
+    /**
+     * This method records the progress once the transaction has been committed
+     *
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    void afterCommit() throws APIMStatMigrationException {
+        store.saveCommitted(progress);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+/**
+ * The time columns of a previous stats table used to split it into ranges. A row of the table is mapped to a single
+ * numeric key, e.g. 20181231 for a day or 2018123123 for an hour, so that a range of the table can be selected with a
+ * BETWEEN condition on that key. Minute tables are split by hour, as a minute key does not fit into an SQL integer.
+ */
+public enum PartitionLevel {
+
+    NONE(),
+    DAY("year", "month", "day"),
+    HOUR("year", "month", "day", "hour");
+
+    private final String[] columns;
+
+    PartitionLevel(String... columns) {
+        this.columns = columns;
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return comma separated list of the key columns, to be used in GROUP BY and ORDER BY clauses
+     */
+    public String getColumnList() {
+        StringBuilder columnList = new StringBuilder();
+        for (String column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(column);
+        }
+        return columnList.toString();
+    }
+
+    /**
+     * @return the SQL expression which computes the key of a row from its time columns
+     */
+    public String getKeyExpression() {
+        if (this == NONE) {
+            throw new IllegalStateException("A table which is not partitioned has no key expression");
+        }
+        StringBuilder expression = new StringBuilder("(year * 10000 + month * 100 + day)");
+        if (this == HOUR) {
+            expression.insert(0, "(").append(" * 100 + hour)");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * @param values values of the key columns of a row, in the order of {@link #getColumns()}
+     * @return the key of the row
+     */
+    public long getKey(int... values) {
+        long key = 0;
+        for (int value : values) {
+            key = key * 100 + value;
+        }
+        return key;
+    }
+
+    /**
+     * @param key key of a row
+     * @return the year of the row
+     */
+    public int getYear(long key) {
+        return (int) (this == HOUR ? key / 1000000 : key / 10000);
+    }
+
+    /**
+     * @return the largest key of the level, used as the upper bound of the last range of a table
+     */
+    public long getMaxKey() {
+        return this == HOUR ? 9999123123L : 99991231L;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Durable storage of the progress of the table migrations, used to continue an interrupted migration instead of
+ * starting it over. Implementations must be thread safe, as the partitions of the tables are migrated concurrently.
+ */
+public interface ProgressStore {
+
+    /**
+     * The places the progress can be stored in
+     */
+    enum Type {
+        NONE, DATABASE, FILE;
+
+        public static Type fromString(String type) {
+            return type == null ? NONE : valueOf(type.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * This method prepares the store, e.g. by creating the table the progress is kept in
+     *
+     * @throws APIMStatMigrationException if the store cannot be used
+     */
+    void initialize() throws APIMStatMigrationException;
+
+    /**
+     * This method returns the progress of the partitions of a migration
+     *
+     * @param migrationName name of the migration
+     * @return the progress of the partitions ordered by partition number, or an empty list if the migration was not
+     * started before
+     * @throws APIMStatMigrationException if the progress cannot be read
+     */
+    List<MigrationProgress> load(String migrationName) throws APIMStatMigrationException;
+
+    /**
+     * This method replaces the progress of all the partitions of a migration
+     *
+     * @param migrationName name of the migration
+     * @param progress      progress of the partitions of the migration
+     * @throws APIMStatMigrationException if the progress cannot be written
+     */
+    void replace(String migrationName, List<MigrationProgress> progress) throws APIMStatMigrationException;
+
+    /**
+     * This method saves the progress of a partition as part of the transaction which commits the rows. Stores which
+     * cannot take part in the transaction do nothing here and save the progress in {@link #saveCommitted}.
+     *
+     * @param progress   progress of the partition
+     * @param connection connection to the new stats database, committed by the caller after this method returns
+     * @throws SQLException if the progress cannot be written
+     */
+    void saveInTransaction(MigrationProgress progress, Connection connection) throws SQLException;
+
+    /**
+     * This method saves the progress of a partition once the rows have been committed, for stores which cannot take
+     * part in the transaction of the new stats database
+     *
+     * @param progress progress of the partition
+     * @throws APIMStatMigrationException if the progress cannot be written
+     */
+    void saveCommitted(MigrationProgress progress) throws APIMStatMigrationException;
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Merges the converted rows which have the same values in all the columns of the target table which are not
+ * aggregated, i.e. the group by columns of the aggregation and AGG_TIMESTAMP, so that the target table receives a
+ * single row per aggregation key. The counts and sums are added, the first event time keeps the earliest value and
+ * the last event and access times keep the latest value, as in {@link UpsertStatementBuilder.Merge}, unless the
+ * mapping makes them part of the aggregation key with {@link TableMapping#aggregateBy(String...)}.
+ * <p>
+ * When the rows are read in key order, every group is complete once the partition key changes, as the aggregation
+ * key includes the time columns the partition key is made of, or once the time bucket changes when the mapping rolls
+ * the rows up into coarser buckets. The groups are then written at every key or bucket boundary.
+ * Otherwise the groups are held until the last row is added.
+ * <p>
+ * Once the groups held take more than the memory limit, they are sorted and spilled to a file. The spilled runs are
+ * merged with the groups still held when the last row is added, or in key order when the key or bucket is complete,
+ * so that a large bucket, e.g. a year of a rollup, is not held in memory as a whole. The runs are merged by
+ * {@link SpilledRuns}, which reads a bounded number of them at a time, and the spill files of a bucket are deleted
+ * once it is written. The memory limit applies to each aggregator, i.e. to each table or partition being migrated.
+ * <p>
+ * The groups are keyed on the values of the columns which are not aggregated, with the values of the dimension
+ * columns as their codes in the {@link DimensionDictionary} of the batches, so the groups and the spill files hold no
+ * copies of these strings. The spilled runs are therefore ordered by the codes, which is only meaningful within the
+ * run of the migration. Used
+ * by a single thread.
+ */
+public class RowAggregator implements Closeable {
+
+    private static final Log log = LogFactory.getLog(RowAggregator.class);
+
+    private static final long GROUP_OVERHEAD_BYTES = 128;
+    private static final long STRING_OVERHEAD_BYTES = 48;
+
+    /**
+     * Where the rows of the tables which are aggregated by the source query are aggregated. Rollups, which no source
+     * query aggregates, are read in key order unless the mode is hash.
+     */
+    public enum Mode {
+        /**
+         * the source query groups the rows
+         */
+        SOURCE,
+        /**
+         * the rows are read in key order and the groups are written at every key boundary
+         */
+        SORTED,
+        /**
+         * the rows are read in any order and the groups are spilled to files when they exceed the memory limit
+         */
+        HASH;
+
+        public static Mode fromString(String mode) {
+            return mode == null ? SOURCE : valueOf(mode.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Where the aggregated rows are written to
+     */
+    public interface Output {
+
+        /**
+         * @return an empty batch to add aggregated rows to
+         * @throws InterruptedException if interrupted while waiting for a batch
+         */
+        ConvertedBatch newBatch() throws InterruptedException;
+
+        /**
+         * @param batch batch of aggregated rows
+         * @throws IOException          if the rows cannot be held for a later stage, e.g. spilled by a sorter
+         * @throws InterruptedException if interrupted while waiting for the batch to be accepted
+         */
+        void write(ConvertedBatch batch) throws IOException, InterruptedException;
+    }
+
+    private final String name;
+    private final TableMapping mapping;
+    private final TableMapping.Column[] values;
+    private final UpsertStatementBuilder.Merge[] merges;
+    private final int[] keyValues;
+    private final int[] keyStrings;
+    private final int[] stringSlots;
+    private final GroupKey probe;
+    private final boolean keyOrdered;
+    private final long memoryLimitBytes;
+    private final SpilledRuns<Group> spilledRuns;
+    private final Map<GroupKey, Group> groups = new HashMap<>();
+    private long groupBytes = 0;
+    private long currentBucket = 0;
+    private long rowsAdded = 0;
+    private long rowsWritten = 0;
+    private ConvertedBatch outputBatch = null;
+
+    /**
+     * @param name             name of the partition, used for logging
+     * @param mapping          mapping of the rows
+     * @param keyOrdered       whether the rows are added in key order
+     * @param memoryLimitBytes estimated size of the groups held in memory above which they are spilled to a file
+     * @param spillDirectory   directory the spill files are created in
+     */
+    public RowAggregator(String name, TableMapping mapping, boolean keyOrdered, long memoryLimitBytes,
+            Path spillDirectory) {
+        this.name = name;
+        this.mapping = mapping;
+        List<TableMapping.Column> valueColumns = mapping.getValues();
+        this.values = valueColumns.toArray(new TableMapping.Column[valueColumns.size()]);
+        this.merges = new UpsertStatementBuilder.Merge[values.length];
+        for (TableMapping.Column value : values) {
+            merges[value.getValueIndex()] = mapping.getMerge(value);
+        }
+        //strings which are not dimensions are not aggregated, so they are part of the key as they are
+        this.stringSlots = new int[values.length];
+        int keyValueCount = 0;
+        int keyStringCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            stringSlots[i] = isString(values[i]) ? keyStringCount++ : -1;
+            if (merges[i] == UpsertStatementBuilder.Merge.KEEP && !isString(values[i])) {
+                keyValueCount++;
+            }
+        }
+        this.keyValues = new int[keyValueCount];
+        this.keyStrings = new int[keyStringCount];
+        int keyValue = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (stringSlots[i] >= 0) {
+                keyStrings[stringSlots[i]] = i;
+            } else if (merges[i] == UpsertStatementBuilder.Merge.KEEP) {
+                keyValues[keyValue++] = i;
+            }
+        }
+        this.probe = new GroupKey(new long[keyValueCount], new String[keyStringCount]);
+        this.keyOrdered = keyOrdered;
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.spilledRuns = new SpilledRuns<>(name, new Comparator<Group>() {
+            @Override
+            public int compare(Group group1, Group group2) {
+                return group1.groupKey.compareTo(group2.groupKey);
+            }
+        }, new GroupCodec(), spillDirectory);
+    }
+
+    /**
+     * This method aggregates the rows of a batch, writing the groups which are complete
+     *
+     * @param batch  converted rows
+     * @param output output of the aggregated rows, whose batches share the dictionary of the converted rows
+     * @throws IOException          if the groups cannot be spilled to a file or written
+     * @throws InterruptedException if interrupted while writing the aggregated rows
+     */
+    public void add(ConvertedBatch batch, Output output) throws IOException, InterruptedException {
+        for (int row = 0; row < batch.getSize(); row++) {
+            long key = batch.getKey(row);
+            long bucket = mapping.getBucket(key);
+            if (keyOrdered && bucket != currentBucket && (!groups.isEmpty() || !spilledRuns.isEmpty())) {
+                writeBucket(output);
+            }
+            currentBucket = bucket;
+            rowsAdded++;
+            for (int k = 0; k < keyValues.length; k++) {
+                int i = keyValues[k];
+                probe.values[k] = values[i].isDimension() ? batch.getCode(i, row) : batch.getLong(i, row);
+            }
+            for (int k = 0; k < keyStrings.length; k++) {
+                probe.strings[k] = batch.getString(keyStrings[k], row);
+            }
+            probe.rehash();
+            Group group = groups.get(probe);
+            if (group == null) {
+                group = new Group(probe.copy(), key, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i].isDimension()) {
+                        group.codes[i] = batch.getCode(i, row);
+                    } else if (stringSlots[i] < 0) {
+                        group.longs[i] = batch.getLong(i, row);
+                    }
+                }
+                groups.put(group.groupKey, group);
+                groupBytes += estimateSize(group.groupKey);
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    if (merges[i] != UpsertStatementBuilder.Merge.KEEP) {
+                        group.merge(merges[i], i, batch.getLong(i, row));
+                    }
+                }
+            }
+        }
+        if (groupBytes > memoryLimitBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * This method writes the remaining groups once every row has been added
+     *
+     * @param output output of the aggregated rows
+     * @throws IOException          if the spilled groups cannot be read
+     * @throws InterruptedException if interrupted while writing the aggregated rows
+     */
+    public void finish(Output output) throws IOException, InterruptedException {
+        writeBucket(output);
+        if (outputBatch != null) {
+            output.write(outputBatch);
+            outputBatch = null;
+        }
+        log.info("Aggregated " + rowsAdded + " rows of " + name + " into " + rowsWritten + " rows"
+                + (spilledRuns.getSpillCount() == 0 ? "" : " using " + spilledRuns.getSpillCount() + " spill files"));
+    }
+
+    /**
+     * This method deletes the spill files
+     */
+    @Override
+    public void close() {
+        spilledRuns.close();
+    }
+
+    /**
+     * This method writes the groups held in memory and the spilled groups, which are complete
+     */
+    private void writeBucket(Output output) throws IOException, InterruptedException {
+        if (spilledRuns.isEmpty()) {
+            writeGroups(output);
+        } else {
+            List<Group> sortedGroups = sortGroups();
+            groups.clear();
+            groupBytes = 0;
+            GroupMerger merger = new GroupMerger(output);
+            spilledRuns.merge(sortedGroups, merger);
+            merger.finish();
+        }
+    }
+
+    private void writeGroups(Output output) throws IOException, InterruptedException {
+        for (Group group : groups.values()) {
+            writeGroup(group, output);
+        }
+        groups.clear();
+        groupBytes = 0;
+    }
+
+    private void writeGroup(Group group, Output output) throws IOException, InterruptedException {
+        if (outputBatch == null) {
+            outputBatch = output.newBatch();
+            outputBatch.clear();
+        }
+        int row = outputBatch.addRow(group.key);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].isDimension()) {
+                outputBatch.setCode(i, row, group.codes[i]);
+            } else if (stringSlots[i] >= 0) {
+                outputBatch.setString(i, row, group.groupKey.strings[stringSlots[i]]);
+            } else {
+                outputBatch.setLong(i, row, group.longs[i]);
+            }
+        }
+        rowsWritten++;
+        if (outputBatch.isFull()) {
+            output.write(outputBatch);
+            outputBatch = null;
+        }
+    }
+
+    /**
+     * This method writes the groups held in memory to a file sorted by their aggregation key
+     */
+    private void spill() throws IOException {
+        spilledRuns.spill(sortGroups());
+        groups.clear();
+        groupBytes = 0;
+    }
+
+    private List<Group> sortGroups() {
+        List<Group> sortedGroups = new ArrayList<>(groups.values());
+        Collections.sort(sortedGroups, new Comparator<Group>() {
+            @Override
+            public int compare(Group group1, Group group2) {
+                return group1.groupKey.compareTo(group2.groupKey);
+            }
+        });
+        return sortedGroups;
+    }
+
+    /**
+     * The dimension strings of the groups are held by the dictionary, only the other strings add to the size of a
+     * group
+     */
+    private long estimateSize(GroupKey groupKey) {
+        long size = GROUP_OVERHEAD_BYTES + 8L * keyValues.length + 12L * values.length;
+        for (String value : groupKey.strings) {
+            size += 8 + (value == null ? 0 : STRING_OVERHEAD_BYTES + 2L * value.length());
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the string values of the column are held as they are rather than as codes
+     */
+    private static boolean isString(TableMapping.Column value) {
+        return value.getConversion().isStringValue() && !value.isDimension();
+    }
+
+    /**
+     * The values of the columns of a group which are not aggregated, with the values of the dimension columns as
+     * their codes and the other strings as they are
+     */
+    private static final class GroupKey implements Comparable<GroupKey> {
+
+        private final long[] values;
+        private final String[] strings;
+        private int hash;
+
+        private GroupKey(long[] values, String[] strings) {
+            this.values = values;
+            this.strings = strings;
+            rehash();
+        }
+
+        private void rehash() {
+            hash = 31 * Arrays.hashCode(values) + Arrays.hashCode(strings);
+        }
+
+        private GroupKey copy() {
+            return new GroupKey(values.clone(), strings.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GroupKey && hash == ((GroupKey) other).hash
+                    && Arrays.equals(values, ((GroupKey) other).values)
+                    && Arrays.equals(strings, ((GroupKey) other).strings);
+        }
+
+        /**
+         * Null strings are ordered first
+         */
+        @Override
+        public int compareTo(GroupKey other) {
+            for (int i = 0; i < values.length; i++) {
+                int result = Long.compare(values[i], other.values[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            for (int i = 0; i < strings.length; i++) {
+                String value = strings[i];
+                String otherValue = other.strings[i];
+                if (value == null || otherValue == null) {
+                    if (value != otherValue) {
+                        return value == null ? -1 : 1;
+                    }
+                } else {
+                    int result = value.compareTo(otherValue);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The aggregated values of the rows with the same aggregation key
+     */
+    private static final class Group {
+
+        private final GroupKey groupKey;
+        private final long key;
+        private final int[] codes;
+        private final long[] longs;
+
+        private Group(GroupKey groupKey, long key, int valueCount) {
+            this(groupKey, key, new int[valueCount], new long[valueCount]);
+        }
+
+        private Group(GroupKey groupKey, long key, int[] codes, long[] longs) {
+            this.groupKey = groupKey;
+            this.key = key;
+            this.codes = codes;
+            this.longs = longs;
+        }
+
+        private void merge(UpsertStatementBuilder.Merge merge, int valueIndex, long value) {
+            switch (merge) {
+                case SUM:
+                    longs[valueIndex] += value;
+                    break;
+                case MAX:
+                    longs[valueIndex] = Math.max(longs[valueIndex], value);
+                    break;
+                case MIN:
+                    longs[valueIndex] = Math.min(longs[valueIndex], value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Merges the groups with the same aggregation key, which the merged runs pass one after the other, and writes
+     * the merged groups
+     */
+    private final class GroupMerger implements SpilledRuns.Sink<Group> {
+
+        private final Output output;
+        private Group pending = null;
+
+        private GroupMerger(Output output) {
+            this.output = output;
+        }
+
+        @Override
+        public void accept(Group group) throws IOException, InterruptedException {
+            if (pending != null && pending.groupKey.equals(group.groupKey)) {
+                for (int i = 0; i < values.length; i++) {
+                    if (merges[i] != UpsertStatementBuilder.Merge.KEEP) {
+                        pending.merge(merges[i], i, group.longs[i]);
+                    }
+                }
+                return;
+            }
+            if (pending != null) {
+                writeGroup(pending, output);
+            }
+            pending = group;
+        }
+
+        private void finish() throws IOException, InterruptedException {
+            if (pending != null) {
+                writeGroup(pending, output);
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the groups to the spill files with the codes of their dimension values
+     */
+    private final class GroupCodec implements SpilledRuns.Codec<Group> {
+
+        @Override
+        public void write(Group group, DataOutputStream out) throws IOException {
+            out.writeLong(group.key);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isDimension()) {
+                    out.writeInt(group.codes[i]);
+                } else if (stringSlots[i] >= 0) {
+                    SpilledRuns.writeString(group.groupKey.strings[stringSlots[i]], out);
+                } else {
+                    out.writeLong(group.longs[i]);
+                }
+            }
+        }
+
+        @Override
+        public Group read(DataInputStream in) throws IOException {
+            long key;
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            int[] codes = new int[values.length];
+            long[] longs = new long[values.length];
+            String[] strings = new String[keyStrings.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isDimension()) {
+                    codes[i] = in.readInt();
+                } else if (stringSlots[i] >= 0) {
+                    strings[stringSlots[i]] = SpilledRuns.readString(in);
+                } else {
+                    longs[i] = in.readLong();
+                }
+            }
+            long[] groupKeyValues = new long[keyValues.length];
+            for (int k = 0; k < keyValues.length; k++) {
+                int i = keyValues[k];
+                groupKeyValues[k] = values[i].isDimension() ? codes[i] : longs[i];
+            }
+            return new Group(new GroupKey(groupKeyValues, strings), key, codes, longs);
+        }
+    }
+}
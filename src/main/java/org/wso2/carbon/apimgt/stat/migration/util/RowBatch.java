@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.Arrays;
+
+/**
+ * A batch of source rows held column by column, with an array per field of the {@link TableMapping}. Numeric fields
+ * are kept as primitives, so a batch allocates no objects per row beyond the strings read from the driver, and is
+ * reused for all the batches of a partition.
+ */
+public class RowBatch {
+
+    private final int capacity;
+    private final String[][] stringValues;
+    private final long[][] longValues;
+    private final long[] keys;
+    private int size = 0;
+
+    /**
+     * @param mapping  mapping the rows are read for
+     * @param capacity maximum number of rows of the batch
+     */
+    public RowBatch(TableMapping mapping, int capacity) {
+        this.capacity = capacity;
+        this.stringValues = new String[mapping.getStringFields().size()][capacity];
+        this.longValues = new long[mapping.getLongFields().size()][capacity];
+        this.keys = new long[capacity];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * This method empties the batch, releasing the strings of the previous rows
+     */
+    public void clear() {
+        for (String[] values : stringValues) {
+            Arrays.fill(values, 0, size, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * @return index of the row added to the batch, whose fields are then set
+     */
+    int addRow() {
+        return size++;
+    }
+
+    void setString(int field, int row, String value) {
+        stringValues[field][row] = value;
+    }
+
+    void setLong(int field, int row, long value) {
+        longValues[field][row] = value;
+    }
+
+    void setKey(int row, long key) {
+        keys[row] = key;
+    }
+
+    public String getString(int field, int row) {
+        return stringValues[field][row];
+    }
+
+    public long getLong(int field, int row) {
+        return longValues[field][row];
+    }
+
+    /**
+     * @return the values of a string field, of which the first {@link #getSize()} belong to the batch
+     */
+    public String[] getStrings(int field) {
+        return stringValues[field];
+    }
+
+    /**
+     * @return the partition key of a row, or 0 if the table is not partitioned
+     */
+    public long getKey(int row) {
+        return keys[row];
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the rows of a {@link RowBatch} to the values of the target table of a {@link TableMapping}. The consumer
+ * keys of a batch are resolved to application ids together, and the values of the dimension columns are encoded
+ * with a {@link DimensionDictionary}. Used by a single thread, as the timestamp converter is not thread safe.
+ */
+public class RowBatchConverter {
+
+    private static final Log log = LogFactory.getLog(RowBatchConverter.class);
+
+    private final TableMapping mapping;
+    private final ApplicationIdResolver applicationIdResolver;
+    private final TimestampConverter timestampConverter;
+    private final DimensionDictionary dictionary;
+    private final TableMetrics metrics;
+    private final TableMapping.Column[] values;
+    private final int[][] valueFields;
+
+    /**
+     * @param mapping               mapping of the rows
+     * @param applicationIdResolver resolver of the consumer keys, or null if the mapping has no application id
+     * @param timestampConverter    converter of the time columns
+     */
+    public RowBatchConverter(TableMapping mapping, ApplicationIdResolver applicationIdResolver,
+            TimestampConverter timestampConverter) {
+        this(mapping, applicationIdResolver, timestampConverter, new DimensionDictionary(), null);
+    }
+
+    /**
+     * @param mapping               mapping of the rows
+     * @param applicationIdResolver resolver of the consumer keys, or null if the mapping has no application id
+     * @param timestampConverter    converter of the time columns
+     * @param dictionary            dictionary the dimension values are encoded with, shared by the run
+     * @param metrics               metrics of the table the consumer key lookups are counted for, or null
+     */
+    public RowBatchConverter(TableMapping mapping, ApplicationIdResolver applicationIdResolver,
+            TimestampConverter timestampConverter, DimensionDictionary dictionary, TableMetrics metrics) {
+        this.mapping = mapping;
+        this.applicationIdResolver = applicationIdResolver;
+        this.timestampConverter = timestampConverter;
+        this.dictionary = dictionary;
+        this.metrics = metrics;
+        List<TableMapping.Column> valueColumns = mapping.getValues();
+        this.values = valueColumns.toArray(new TableMapping.Column[valueColumns.size()]);
+        this.valueFields = new int[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            valueFields[i] = values[i].getFieldIndexes();
+        }
+    }
+
+    /**
+     * @param capacity maximum number of rows of the batch
+     * @return an empty batch for the converted rows, whose dimension values are encoded with the dictionary of the
+     *         converter
+     */
+    public ConvertedBatch newBatch(int capacity) {
+        return new ConvertedBatch(mapping, capacity, dictionary);
+    }
+
+    /**
+     * This method replaces the rows of the converted batch with the converted rows of a batch
+     *
+     * @param batch     batch read from the source table
+     * @param converted batch the converted rows are added to, with at least the capacity of the source batch, created
+     *                  by {@link #newBatch(int)}
+     * @throws SQLException               if the consumer keys cannot be looked up
+     * @throws APIMStatMigrationException if a consumer key is not mapped to an application
+     */
+    public void convert(RowBatch batch, ConvertedBatch converted) throws SQLException, APIMStatMigrationException {
+        long start = System.nanoTime();
+        converted.clear();
+        Map<String, Integer> applicationIds = resolveApplicationIds(batch);
+        for (int row = 0; row < batch.getSize(); row++) {
+            int convertedRow = converted.addRow(batch.getKey(row));
+            for (TableMapping.Column value : values) {
+                convert(value, batch, row, converted, convertedRow, applicationIds);
+            }
+        }
+        converted.setConvertNanos(System.nanoTime() - start);
+    }
+
+    private void convert(TableMapping.Column value, RowBatch batch, int row, ConvertedBatch converted,
+            int convertedRow, Map<String, Integer> applicationIds) throws APIMStatMigrationException {
+        int valueIndex = value.getValueIndex();
+        int[] fields = valueFields[valueIndex];
+        switch (value.getConversion()) {
+            case STRING:
+                converted.setString(valueIndex, convertedRow, batch.getString(fields[0], row));
+                break;
+            case LONG:
+                converted.setLong(valueIndex, convertedRow, batch.getLong(fields[0], row));
+                break;
+            case TIME:
+                converted.setLong(valueIndex, convertedRow,
+                        timestampConverter.parseTime(batch.getString(fields[0], row)));
+                break;
+            case DAY_TIMESTAMP:
+                converted.setLong(valueIndex, convertedRow, timestampConverter.toDayTimestamp(
+                        getInt(batch, fields[0], row), getInt(batch, fields[1], row), getInt(batch, fields[2], row)));
+                break;
+            case HOUR_TIMESTAMP:
+                converted.setLong(valueIndex, convertedRow, timestampConverter.toHourTimestamp(
+                        getInt(batch, fields[0], row), getInt(batch, fields[1], row), getInt(batch, fields[2], row),
+                        getInt(batch, fields[3], row)));
+                break;
+            case MINUTE_TIMESTAMP:
+                converted.setLong(valueIndex, convertedRow, timestampConverter.toMinuteTimestamp(
+                        getInt(batch, fields[0], row), getInt(batch, fields[1], row), getInt(batch, fields[2], row),
+                        getInt(batch, fields[3], row), getInt(batch, fields[4], row)));
+                break;
+            case MONTH_TIMESTAMP:
+                converted.setLong(valueIndex, convertedRow, timestampConverter.toDayTimestamp(
+                        getInt(batch, fields[0], row), getInt(batch, fields[1], row), 1));
+                break;
+            case YEAR_TIMESTAMP:
+                converted.setLong(valueIndex, convertedRow,
+                        timestampConverter.toDayTimestamp(getInt(batch, fields[0], row), 1, 1));
+                break;
+            case APPLICATION_ID:
+                String consumerKey = batch.getString(fields[0], row);
+                Integer applicationId = consumerKey != null ? applicationIds.get(consumerKey) : null;
+                if (applicationId == null) {
+                    String errorMsg = "Error occurred while retrieving applicationId for consumer key : " + consumerKey;
+                    log.error(errorMsg);
+                    throw new APIMStatMigrationException(errorMsg);
+                }
+                converted.setString(valueIndex, convertedRow, Integer.toString(applicationId));
+                break;
+            case API_VERSION:
+                converted.setString(valueIndex, convertedRow, batch.getString(fields[0], row).split(":v")[1]);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported conversion " + value.getConversion() + " in " + mapping);
+        }
+    }
+
+    private Map<String, Integer> resolveApplicationIds(RowBatch batch) throws SQLException {
+        if (applicationIdResolver == null) {
+            return Collections.emptyMap();
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getConversion() == TableMapping.Conversion.APPLICATION_ID) {
+                String[] consumerKeys = batch.getStrings(valueFields[i][0]);
+                return applicationIdResolver.resolveAll(Arrays.asList(consumerKeys).subList(0, batch.getSize()),
+                        metrics);
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    private static int getInt(RowBatch batch, int field, int row) {
+        return (int) batch.getLong(field, row);
+    }
+}
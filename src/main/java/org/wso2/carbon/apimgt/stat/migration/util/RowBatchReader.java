@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Reads the fields of a {@link TableMapping} from a result set of the source table into row batches. The indexes of
+ * the fields in the result set are resolved once, rather than looking every value up by its column name.
+ */
+public class RowBatchReader {
+
+    private final ResultSet resultSet;
+    private final TableMapping mapping;
+    private final int[] stringColumnIndexes;
+    private final int[] longColumnIndexes;
+    private final int[] keyFieldIndexes;
+    private boolean exhausted = false;
+
+    /**
+     * @param resultSet result set of the source query of the mapping
+     * @param mapping   mapping the fields are read for
+     * @throws SQLException if a field of the mapping is not part of the result set
+     */
+    public RowBatchReader(ResultSet resultSet, TableMapping mapping) throws SQLException {
+        this.resultSet = resultSet;
+        this.mapping = mapping;
+        this.stringColumnIndexes = findColumns(resultSet, mapping.getStringFields());
+        this.longColumnIndexes = findColumns(resultSet, mapping.getLongFields());
+        this.keyFieldIndexes = mapping.getKeyFieldIndexes();
+    }
+
+    public TableMapping getMapping() {
+        return mapping;
+    }
+
+    /**
+     * This method replaces the rows of the batch with the next rows of the result set
+     *
+     * @param batch batch to fill
+     * @return false if the result set has no more rows, in which case the batch is empty
+     * @throws SQLException if the rows cannot be read
+     */
+    public boolean read(RowBatch batch) throws SQLException {
+        batch.clear();
+        while (!exhausted && !batch.isFull()) {
+            if (!resultSet.next()) {
+                exhausted = true;
+                break;
+            }
+            int row = batch.addRow();
+            for (int field = 0; field < stringColumnIndexes.length; field++) {
+                batch.setString(field, row, resultSet.getString(stringColumnIndexes[field]));
+            }
+            for (int field = 0; field < longColumnIndexes.length; field++) {
+                batch.setLong(field, row, resultSet.getLong(longColumnIndexes[field]));
+            }
+            long key = 0;
+            for (int keyField : keyFieldIndexes) {
+                key = key * 100 + batch.getLong(keyField, row);
+            }
+            batch.setKey(row, key);
+        }
+        return !batch.isEmpty();
+    }
+
+    private static int[] findColumns(ResultSet resultSet, List<String> fields) throws SQLException {
+        int[] columnIndexes = new int[fields.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = resultSet.findColumn(fields.get(i));
+        }
+        return columnIndexes;
+    }
+}
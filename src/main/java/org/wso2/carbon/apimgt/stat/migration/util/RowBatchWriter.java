@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds the converted rows of a {@link ConvertedBatch} on the insert statement of a {@link TableMapping}, or adds them
+ * to a {@link BulkLoader}, and adds them to a {@link BatchInsertWriter}. Used by a single thread.
+ */
+public class RowBatchWriter {
+
+    private final PreparedStatement statement;
+    private final BulkLoader loader;
+    private final BatchInsertWriter writer;
+    private final boolean keyed;
+    private final TableMapping.Column[] parameters;
+
+    /**
+     * @param mapping   mapping of the rows
+     * @param statement statement writing a row of the target table, with the parameters of the insert statement of
+     *                  the mapping
+     * @param writer    writer executing the statement
+     */
+    public RowBatchWriter(TableMapping mapping, PreparedStatement statement, BatchInsertWriter writer) {
+        this(mapping, statement, null, writer);
+    }
+
+    /**
+     * @param mapping mapping of the rows
+     * @param loader  bulk loader of the target table, which the writer was created with
+     * @param writer  writer loading the rows
+     */
+    public RowBatchWriter(TableMapping mapping, BulkLoader loader, BatchInsertWriter writer) {
+        this(mapping, null, loader, writer);
+    }
+
+    private RowBatchWriter(TableMapping mapping, PreparedStatement statement, BulkLoader loader,
+            BatchInsertWriter writer) {
+        this.statement = statement;
+        this.loader = loader;
+        this.writer = writer;
+        this.keyed = mapping.getLevel() != PartitionLevel.NONE;
+        int parameterCount = 0;
+        for (TableMapping.Column column : mapping.getColumns()) {
+            if (!column.isConstant()) {
+                parameterCount++;
+            }
+        }
+        this.parameters = new TableMapping.Column[parameterCount];
+        int parameter = 0;
+        for (TableMapping.Column column : mapping.getColumns()) {
+            if (!column.isConstant()) {
+                parameters[parameter++] = column;
+            }
+        }
+    }
+
+    /**
+     * This method writes the rows of a converted batch
+     *
+     * @param batch converted batch
+     * @throws SQLException               if the rows cannot be written
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void write(ConvertedBatch batch) throws SQLException, APIMStatMigrationException {
+        for (int row = 0; row < batch.getSize(); row++) {
+            if (loader != null) {
+                loader.addRow(batch, row);
+            } else {
+                bind(batch, row);
+            }
+            if (keyed) {
+                writer.addRow(batch.getKey(row));
+            } else {
+                writer.addRow();
+            }
+        }
+    }
+
+    private void bind(ConvertedBatch batch, int row) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            TableMapping.Column column = parameters[i];
+            if (column.getConversion().isStringValue()) {
+                statement.setString(i + 1, batch.getString(column.getValueIndex(), row));
+            } else {
+                statement.setLong(i + 1, batch.getLong(column.getValueIndex(), row));
+            }
+        }
+    }
+
+    /**
+     * This method commits the remaining rows once every row has been written
+     *
+     * @throws SQLException               if the rows cannot be committed
+     * @throws APIMStatMigrationException if the progress cannot be recorded
+     */
+    public void finish() throws SQLException, APIMStatMigrationException {
+        writer.finish();
+    }
+
+    /**
+     * @return time spent executing and committing batches in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writer.getWriteNanos();
+    }
+}
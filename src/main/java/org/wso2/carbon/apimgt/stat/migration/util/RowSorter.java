@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorts the converted rows of a table or partition by the primary key of the target table, so that the rows are
+ * appended to the end of the primary key index instead of being inserted at random positions. The rows are held until
+ * the last row is added, and once they take more than the memory limit they are sorted and spilled to a file. The
+ * spilled runs are merged by {@link SpilledRuns} when the last row is added. Strings are compared by their
+ * characters, which matches the binary collations and is close to the others. The rows and the spill files hold the
+ * values of the dimension columns as their codes in the {@link DimensionDictionary} of the added batches, which the
+ * strings are looked up in to compare them, and the other strings as they are. Used by a single thread.
+ */
+public class RowSorter implements Closeable {
+
+    private static final Log log = LogFactory.getLog(RowSorter.class);
+
+    private static final long ROW_OVERHEAD_BYTES = 96;
+    private static final long STRING_OVERHEAD_BYTES = 48;
+
+    private final String name;
+    private final TableMapping.Column[] values;
+    private final int[] sortValues;
+    private final boolean hasStrings;
+    private final long memoryLimitBytes;
+    private final List<SortedRow> rows = new ArrayList<>();
+    private final Comparator<SortedRow> rowOrder = new Comparator<SortedRow>() {
+        @Override
+        public int compare(SortedRow row1, SortedRow row2) {
+            return compareRows(row1, row2);
+        }
+    };
+    private final SpilledRuns<SortedRow> spilledRuns;
+    private DimensionDictionary dictionary = null;
+    private long rowBytes = 0;
+    private long rowsAdded = 0;
+    private ConvertedBatch outputBatch = null;
+
+    /**
+     * @param name             name of the partition, used for logging
+     * @param mapping          mapping of the rows
+     * @param sortColumns      columns of the mapping the rows are sorted by, e.g. those of the primary key of the
+     *                         target table
+     * @param memoryLimitBytes estimated size of the rows held in memory above which they are spilled to a file
+     * @param spillDirectory   directory the spill files are created in
+     */
+    public RowSorter(String name, TableMapping mapping, List<TableMapping.Column> sortColumns, long memoryLimitBytes,
+            Path spillDirectory) {
+        this.name = name;
+        List<TableMapping.Column> valueColumns = mapping.getValues();
+        this.values = valueColumns.toArray(new TableMapping.Column[valueColumns.size()]);
+        this.sortValues = new int[sortColumns.size()];
+        for (int i = 0; i < sortValues.length; i++) {
+            sortValues[i] = sortColumns.get(i).getValueIndex();
+        }
+        boolean strings = false;
+        for (TableMapping.Column value : values) {
+            strings |= isString(value);
+        }
+        this.hasStrings = strings;
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.spilledRuns = new SpilledRuns<>(name, rowOrder, new SortedRowCodec(), spillDirectory);
+    }
+
+    /**
+     * This method adds the rows of a batch, spilling the rows held in memory to a file once they exceed the memory
+     * limit
+     *
+     * @param batch converted rows, whose batches share a dictionary
+     * @throws IOException if the rows cannot be spilled to a file
+     */
+    public void add(ConvertedBatch batch) throws IOException {
+        dictionary = batch.getDictionary();
+        for (int row = 0; row < batch.getSize(); row++) {
+            SortedRow sortedRow = new SortedRow(batch.getKey(row), values.length, hasStrings);
+            rowBytes += ROW_OVERHEAD_BYTES + 12L * values.length;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isDimension()) {
+                    sortedRow.codes[i] = batch.getCode(i, row);
+                } else if (isString(values[i])) {
+                    String value = batch.getString(i, row);
+                    sortedRow.strings[i] = value;
+                    rowBytes += 8 + (value == null ? 0 : STRING_OVERHEAD_BYTES + 2L * value.length());
+                } else {
+                    sortedRow.longs[i] = batch.getLong(i, row);
+                }
+            }
+            rows.add(sortedRow);
+            rowsAdded++;
+        }
+        if (rowBytes > memoryLimitBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * This method writes the rows in sorted order once every row has been added
+     *
+     * @param output output of the sorted rows, whose batches share the dictionary of the added rows
+     * @throws IOException          if the spilled rows cannot be read
+     * @throws InterruptedException if interrupted while writing the sorted rows
+     */
+    public void finish(final RowAggregator.Output output) throws IOException, InterruptedException {
+        Collections.sort(rows, rowOrder);
+        List<SortedRow> sortedRows = new ArrayList<>(rows);
+        rows.clear();
+        rowBytes = 0;
+        spilledRuns.merge(sortedRows, new SpilledRuns.Sink<SortedRow>() {
+            @Override
+            public void accept(SortedRow row) throws IOException, InterruptedException {
+                writeRow(row, output);
+            }
+        });
+        if (outputBatch != null) {
+            output.write(outputBatch);
+            outputBatch = null;
+        }
+        log.info("Sorted " + rowsAdded + " rows of " + name + " by primary key"
+                + (spilledRuns.getSpillCount() == 0 ? "" : " using " + spilledRuns.getSpillCount() + " spill files"));
+    }
+
+    /**
+     * This method deletes the spill files
+     */
+    @Override
+    public void close() {
+        spilledRuns.close();
+    }
+
+    /**
+     * Null strings are ordered first, as by most databases in ascending order
+     */
+    private int compareRows(SortedRow row1, SortedRow row2) {
+        for (int valueIndex : sortValues) {
+            int result;
+            if (values[valueIndex].isDimension()) {
+                int code1 = row1.codes[valueIndex];
+                int code2 = row2.codes[valueIndex];
+                result = code1 == code2 ? 0 : compareStrings(dictionary.decode(code1), dictionary.decode(code2));
+            } else if (isString(values[valueIndex])) {
+                result = compareStrings(row1.strings[valueIndex], row2.strings[valueIndex]);
+            } else {
+                result = Long.compare(row1.longs[valueIndex], row2.longs[valueIndex]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareStrings(String value1, String value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        }
+        return value1.compareTo(value2);
+    }
+
+    /**
+     * @return true if the string values of the column are held as they are rather than as codes
+     */
+    private static boolean isString(TableMapping.Column value) {
+        return value.getConversion().isStringValue() && !value.isDimension();
+    }
+
+    private void writeRow(SortedRow sortedRow, RowAggregator.Output output) throws IOException,
+            InterruptedException {
+        if (outputBatch == null) {
+            outputBatch = output.newBatch();
+            outputBatch.clear();
+        }
+        int row = outputBatch.addRow(sortedRow.key);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].isDimension()) {
+                outputBatch.setCode(i, row, sortedRow.codes[i]);
+            } else if (isString(values[i])) {
+                outputBatch.setString(i, row, sortedRow.strings[i]);
+            } else {
+                outputBatch.setLong(i, row, sortedRow.longs[i]);
+            }
+        }
+        if (outputBatch.isFull()) {
+            output.write(outputBatch);
+            outputBatch = null;
+        }
+    }
+
+    /**
+     * This method writes the rows held in memory to a file in sorted order
+     */
+    private void spill() throws IOException {
+        Collections.sort(rows, rowOrder);
+        spilledRuns.spill(rows);
+        rows.clear();
+        rowBytes = 0;
+    }
+
+    /**
+     * The values of a converted row
+     */
+    private static final class SortedRow {
+
+        private final long key;
+        private final int[] codes;
+        private final long[] longs;
+        private final String[] strings;
+
+        private SortedRow(long key, int valueCount, boolean hasStrings) {
+            this.key = key;
+            this.codes = new int[valueCount];
+            this.longs = new long[valueCount];
+            this.strings = hasStrings ? new String[valueCount] : null;
+        }
+    }
+
+    /**
+     * Writes the rows to the spill files with the codes of their dimension values
+     */
+    private final class SortedRowCodec implements SpilledRuns.Codec<SortedRow> {
+
+        @Override
+        public void write(SortedRow row, DataOutputStream out) throws IOException {
+            out.writeLong(row.key);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isDimension()) {
+                    out.writeInt(row.codes[i]);
+                } else if (isString(values[i])) {
+                    SpilledRuns.writeString(row.strings[i], out);
+                } else {
+                    out.writeLong(row.longs[i]);
+                }
+            }
+        }
+
+        @Override
+        public SortedRow read(DataInputStream in) throws IOException {
+            long key;
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            SortedRow row = new SortedRow(key, values.length, hasStrings);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isDimension()) {
+                    row.codes[i] = in.readInt();
+                } else if (isString(values[i])) {
+                    row.strings[i] = SpilledRuns.readString(in);
+                } else {
+                    row.longs[i] = in.readLong();
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the load the migration puts on the previous stats database, which may still serve the dashboards while it
+ * is migrated. Every batch read from the source tables is paced to a number of rows per second, and only a limited
+ * number of batches are fetched at the same time across all the tables and partitions being read.
+ * <p>
+ * The limits are fixed at the configured maximums, unless the governor is adaptive. An adaptive governor starts low
+ * and adjusts the limits once per interval, like an additive increase, multiplicative decrease congestion control.
+ * The source is taken to be overloaded when the time taken to fetch a row over the interval is more than twice the
+ * lowest such time of the recent intervals, or when the probe query, if any, takes longer than its target latency.
+ * Both limits are then halved. Otherwise each limit which held the reads back during the interval is raised by a
+ * step, up to its maximum. As the fetch times are only compared with the recent ones, e.g. so that a table with wider
+ * rows is not taken for an overload, a lasting overload is only detected by the probe query. The adjustments are made
+ * by the reader which completes the interval, so the governor needs no thread of its own. Thread safe.
+ */
+public class SourceLoadGovernor {
+
+    private static final Log log = LogFactory.getLog(SourceLoadGovernor.class);
+
+    private static final double FETCH_LATENCY_FACTOR = 2.0;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final int INITIAL_BATCHES_PER_SECOND = 10;
+    private static final int RECENT_INTERVALS = 12;
+
+    /**
+     * Measures how long the previous stats database takes to answer a query typical of the dashboards
+     */
+    public interface Probe {
+
+        /**
+         * @return time taken by the probe query in nanoseconds, or a negative value if it could not be run
+         */
+        long measure();
+    }
+
+    private final double maxRate;
+    private final int maxReaders;
+    private final boolean adaptive;
+    private final Probe probe;
+    private final long probeLatencyNanos;
+    private final long intervalNanos;
+    private final double minRate;
+    private final double rateStep;
+
+    private double rate;
+    private int readerLimit;
+    private int activeReaders = 0;
+    private long nextReadNanos;
+    private long intervalStartNanos;
+    private long intervalRows = 0;
+    private long intervalFetchNanos = 0;
+    private final double[] recentFetchNanosPerRow = new double[RECENT_INTERVALS];
+    private int recentIntervals = 0;
+    private boolean rateLimited = false;
+    private boolean readersLimited = false;
+    private boolean adjusting = false;
+
+    /**
+     * @param maxRate        maximum number of rows read per second, or 0 if the rate is not capped
+     * @param maxReaders     maximum number of batches fetched at the same time, or 0 if they are not capped
+     * @param adaptive       whether the limits are adjusted to the load of the source database
+     * @param batchSize      number of rows of a batch, which the rate is started at and stepped by
+     * @param probe          probe of the source database, or null if only the fetch times are measured
+     * @param probeLatencyMs latency of the probe query above which the source database is taken to be overloaded
+     * @param intervalMs     time between two adjustments of the limits
+     */
+    public SourceLoadGovernor(double maxRate, int maxReaders, boolean adaptive, int batchSize, Probe probe,
+            long probeLatencyMs, long intervalMs) {
+        this.maxRate = maxRate > 0 ? maxRate : Double.MAX_VALUE;
+        this.maxReaders = maxReaders > 0 ? maxReaders : Integer.MAX_VALUE;
+        this.adaptive = adaptive;
+        this.probe = probe;
+        this.probeLatencyNanos = TimeUnit.MILLISECONDS.toNanos(probeLatencyMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.minRate = Math.min(this.maxRate, batchSize / 10.0);
+        this.rateStep = batchSize;
+        this.rate = adaptive ? Math.min(this.maxRate, (double) INITIAL_BATCHES_PER_SECOND * batchSize) : this.maxRate;
+        this.readerLimit = adaptive ? 1 : this.maxReaders;
+        this.nextReadNanos = System.nanoTime();
+        this.intervalStartNanos = nextReadNanos;
+    }
+
+    /**
+     * This method blocks until a batch may be fetched from the source database, which is once fewer batches than
+     * the limit are being fetched and the rows read before have been paced out
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (activeReaders >= readerLimit) {
+                readersLimited = true;
+                while (activeReaders >= readerLimit) {
+                    wait();
+                }
+            }
+            activeReaders++;
+            waitNanos = nextReadNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                rateLimited = true;
+            }
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                releaseReader();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * This method records a fetched batch, paces the next reads by its rows counted from the start of the fetch, and
+     * adjusts the limits once the interval has passed
+     *
+     * @param rows       number of rows fetched
+     * @param fetchNanos time taken to fetch the rows in nanoseconds
+     */
+    public void release(int rows, long fetchNanos) {
+        boolean adjust = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (rate < Double.MAX_VALUE) {
+                nextReadNanos = Math.max(nextReadNanos, now - fetchNanos) + (long) (rows * 1e9 / rate);
+            }
+            intervalRows += rows;
+            intervalFetchNanos += fetchNanos;
+            if (adaptive && !adjusting && now - intervalStartNanos >= intervalNanos) {
+                adjusting = true;
+                adjust = true;
+            }
+            releaseReader();
+        }
+        if (adjust) {
+            adjust();
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized int getReaderLimit() {
+        return readerLimit;
+    }
+
+    private synchronized void releaseReader() {
+        activeReaders--;
+        notifyAll();
+    }
+
+    /**
+     * The probe query runs outside the lock, so that the other readers are not held back while it runs
+     */
+    private void adjust() {
+        long probeNanos = probe != null ? probe.measure() : -1;
+        synchronized (this) {
+            try {
+                boolean overloaded = probeNanos > probeLatencyNanos;
+                if (intervalRows > 0) {
+                    double fetchNanosPerRow = (double) intervalFetchNanos / intervalRows;
+                    double lowestFetchNanosPerRow = Double.MAX_VALUE;
+                    for (int i = 0; i < Math.min(recentIntervals, RECENT_INTERVALS); i++) {
+                        lowestFetchNanosPerRow = Math.min(lowestFetchNanosPerRow, recentFetchNanosPerRow[i]);
+                    }
+                    overloaded |= fetchNanosPerRow > FETCH_LATENCY_FACTOR * lowestFetchNanosPerRow;
+                    recentFetchNanosPerRow[recentIntervals++ % RECENT_INTERVALS] = fetchNanosPerRow;
+                }
+                if (overloaded) {
+                    rate = Math.max(minRate, rate * DECREASE_FACTOR);
+                    readerLimit = Math.max(1, (int) (readerLimit * DECREASE_FACTOR));
+                    log.info("The previous stats database is under load, reading at most " + describeLimits()
+                            + (probeNanos >= 0 ? ", the probe query took "
+                            + TimeUnit.NANOSECONDS.toMillis(probeNanos) + " ms" : ""));
+                } else if (rateLimited || readersLimited) {
+                    if (rateLimited) {
+                        rate = Math.min(maxRate, rate + rateStep);
+                    }
+                    if (readersLimited) {
+                        readerLimit = Math.min(maxReaders, readerLimit + 1);
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Reading at most " + describeLimits() + " from the previous stats database");
+                    }
+                }
+                notifyAll();
+            } finally {
+                intervalStartNanos = System.nanoTime();
+                intervalRows = 0;
+                intervalFetchNanos = 0;
+                rateLimited = false;
+                readersLimited = false;
+                adjusting = false;
+            }
+        }
+    }
+
+    private String describeLimits() {
+        return (rate < Double.MAX_VALUE ? (long) rate + " rows per second" : "any number of rows per second")
+                + " in " + (readerLimit < Integer.MAX_VALUE ? readerLimit : "any number of") + " concurrent fetches";
+    }
+}
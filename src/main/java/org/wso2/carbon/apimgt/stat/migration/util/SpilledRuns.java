@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The sorted runs which a {@link RowAggregator} or a {@link RowSorter} spills to files once the rows it holds take
+ * more than its memory limit, and the k-way merge of these runs with the rows still held in memory. At most
+ * {@link #MAX_FAN_IN} runs are read at a time. When more runs were spilled, the oldest runs are first merged into a
+ * new run, so that a large table spilled under a small memory limit does not keep a file and a read buffer open for
+ * every run. Used by a single thread.
+ *
+ * @param <T> type of the spilled records
+ */
+public class SpilledRuns<T> implements Closeable {
+
+    private static final Log log = LogFactory.getLog(SpilledRuns.class);
+
+    /**
+     * maximum number of runs which are read at the same time
+     */
+    public static final int MAX_FAN_IN = 64;
+
+    /**
+     * Writes the records to and reads them from the spill files
+     *
+     * @param <T> type of the records
+     */
+    public interface Codec<T> {
+
+        void write(T record, DataOutputStream out) throws IOException;
+
+        /**
+         * @return the next record of the run, or null at the end of the run
+         */
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Receives the merged records in order
+     *
+     * @param <T> type of the records
+     */
+    public interface Sink<T> {
+
+        void accept(T record) throws IOException, InterruptedException;
+    }
+
+    private final String name;
+    private final Comparator<T> order;
+    private final Codec<T> codec;
+    private final Path spillDirectory;
+    private final int maxFanIn;
+    private final List<Path> spillFiles = new ArrayList<>();
+    private int spillCount = 0;
+
+    /**
+     * @param name           name of the partition, used for logging
+     * @param order          order of the records within a run
+     * @param codec          codec of the records
+     * @param spillDirectory directory the spill files are created in
+     */
+    public SpilledRuns(String name, Comparator<T> order, Codec<T> codec, Path spillDirectory) {
+        this(name, order, codec, spillDirectory, MAX_FAN_IN);
+    }
+
+    SpilledRuns(String name, Comparator<T> order, Codec<T> codec, Path spillDirectory, int maxFanIn) {
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("At least 2 runs have to be merged at a time, not " + maxFanIn);
+        }
+        this.name = name;
+        this.order = order;
+        this.codec = codec;
+        this.spillDirectory = spillDirectory;
+        this.maxFanIn = maxFanIn;
+    }
+
+    /**
+     * This method writes a run to a new spill file
+     *
+     * @param records records sorted in the order of the runs
+     * @throws IOException if the spill file cannot be written
+     */
+    public void spill(List<T> records) throws IOException {
+        spillFiles.add(write(records.iterator()));
+        spillCount++;
+        if (log.isDebugEnabled()) {
+            log.debug("Spilled " + records.size() + " records of " + name + " to "
+                    + spillFiles.get(spillFiles.size() - 1));
+        }
+    }
+
+    /**
+     * @return true if no run is waiting to be merged
+     */
+    public boolean isEmpty() {
+        return spillFiles.isEmpty();
+    }
+
+    /**
+     * @return number of runs spilled since the runs were created, including those which are already merged
+     */
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    /**
+     * This method merges the spilled runs with the records held in memory and deletes the spill files. Records
+     * which compare equal are passed to the sink one after the other, in no particular order.
+     *
+     * @param memoryRecords records held in memory, sorted in the order of the runs
+     * @param sink          sink of the merged records
+     * @throws IOException          if the spill files cannot be read or the intermediate runs cannot be written
+     * @throws InterruptedException if interrupted while the sink accepts a record
+     */
+    public void merge(List<T> memoryRecords, Sink<T> sink) throws IOException, InterruptedException {
+        try {
+            //the records held in memory take one of the runs of the last pass
+            while (spillFiles.size() >= maxFanIn) {
+                List<Path> mergedFiles = new ArrayList<>(spillFiles.subList(0, maxFanIn));
+                Path spillFile = mergeToFile(mergedFiles);
+                spillFiles.subList(0, maxFanIn).clear();
+                spillFiles.add(spillFile);
+                delete(mergedFiles);
+            }
+            merge(spillFiles, memoryRecords.iterator(), sink);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * This method deletes the spill files
+     */
+    @Override
+    public void close() {
+        delete(spillFiles);
+        spillFiles.clear();
+    }
+
+    /**
+     * This method writes a string of a record, which may be null, for {@link #readString(DataInputStream)}
+     *
+     * @param value string value
+     * @param out   stream of the spill file
+     * @throws IOException if the value cannot be written
+     */
+    public static void writeString(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param in stream of the spill file
+     * @return the string written by {@link #writeString(String, DataOutputStream)}
+     * @throws IOException if the value cannot be read
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path mergeToFile(List<Path> files) throws IOException, InterruptedException {
+        Path spillFile = Files.createTempFile(spillDirectory, "stat-migration-", ".spill");
+        DataOutputStream out = null;
+        boolean merged = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+            final DataOutputStream runOut = out;
+            merge(files, Collections.<T>emptyIterator(), new Sink<T>() {
+                @Override
+                public void accept(T record) throws IOException {
+                    codec.write(record, runOut);
+                }
+            });
+            merged = true;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (!merged) {
+                delete(Collections.singletonList(spillFile));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Merged " + files.size() + " runs of " + name + " into " + spillFile);
+        }
+        return spillFile;
+    }
+
+    private void merge(List<Path> files, Iterator<T> memoryRecords, Sink<T> sink) throws IOException,
+            InterruptedException {
+        PriorityQueue<Run> runs = new PriorityQueue<>(files.size() + 1, new Comparator<Run>() {
+            @Override
+            public int compare(Run run1, Run run2) {
+                return order.compare(run1.current, run2.current);
+            }
+        });
+        List<Run> openRuns = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                Run run = new Run(file);
+                openRuns.add(run);
+                if (run.next()) {
+                    runs.add(run);
+                }
+            }
+            Run memoryRun = new Run(memoryRecords);
+            if (memoryRun.next()) {
+                runs.add(memoryRun);
+            }
+            while (!runs.isEmpty()) {
+                Run run = runs.poll();
+                sink.accept(run.current);
+                if (run.next()) {
+                    runs.add(run);
+                }
+            }
+        } finally {
+            for (Run run : openRuns) {
+                run.close();
+            }
+        }
+    }
+
+    private Path write(Iterator<T> records) throws IOException {
+        Path spillFile = Files.createTempFile(spillDirectory, "stat-migration-", ".spill");
+        DataOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+            while (records.hasNext()) {
+                codec.write(records.next(), out);
+            }
+            written = true;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (!written) {
+                delete(Collections.singletonList(spillFile));
+            }
+        }
+        return spillFile;
+    }
+
+    private static void delete(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete the spill file " + file, e);
+            }
+        }
+    }
+
+    /**
+     * A run read from a spill file or from the records held in memory
+     */
+    private final class Run {
+
+        private final Path spillFile;
+        private final DataInputStream in;
+        private final Iterator<T> records;
+        private T current = null;
+
+        private Run(Path spillFile) throws IOException {
+            this.spillFile = spillFile;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+            this.records = null;
+        }
+
+        private Run(Iterator<T> records) {
+            this.spillFile = null;
+            this.in = null;
+            this.records = records;
+        }
+
+        /**
+         * @return false if the run has no more records
+         */
+        private boolean next() throws IOException {
+            if (in != null) {
+                current = codec.read(in);
+            } else {
+                current = records.hasNext() ? records.next() : null;
+            }
+            return current != null;
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Could not close the spill file " + spillFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A query on the previous stats database whose result set is streamed from the database using a forward only, read
+ * only cursor, so that the memory used while reading a table does not depend on the size of the table
+ */
+public class StreamingQuery {
+
+    private static final Log log = LogFactory.getLog(StreamingQuery.class);
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final boolean autoCommitChanged;
+    private ResultSet resultSet;
+
+    /**
+     * @param connection connection of the database the query is executed on
+     * @param query      the select query
+     * @param fetchSize  number of rows fetched per round trip, for databases which support it
+     * @throws SQLException if the statement cannot be prepared, in which case the auto commit mode of the connection
+     *                      is restored
+     */
+    public StreamingQuery(Connection connection, String query, int fetchSize) throws SQLException {
+        this.connection = connection;
+        DatabaseDialect dialect = DatabaseDialect.fromConnection(connection);
+        autoCommitChanged = dialect.isTransactionRequiredForStreaming() && connection.getAutoCommit();
+        if (autoCommitChanged) {
+            connection.setAutoCommit(false);
+        }
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(dialect.getStreamingFetchSize(fetchSize));
+        } catch (SQLException e) {
+            if (preparedStatement != null) {
+                closeStatement(preparedStatement);
+            }
+            restoreAutoCommit();
+            throw e;
+        }
+        statement = preparedStatement;
+    }
+
+    /**
+     * @return the statement, to bind any parameters of the query
+     */
+    public PreparedStatement getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return the streamed result set of the query
+     * @throws SQLException if the query fails
+     */
+    public ResultSet executeQuery() throws SQLException {
+        resultSet = statement.executeQuery();
+        return resultSet;
+    }
+
+    /**
+     * This method closes the result set and the statement of the query and restores the auto commit mode of the
+     * connection. The connection itself is not closed.
+     */
+    public void close() {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the result set from JDBC database.", e);
+            }
+        }
+        closeStatement(statement);
+        restoreAutoCommit();
+    }
+
+    private static void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            //this is logged and the process is continued because the query has executed
+            log.error("Error occurred while closing the prepared statement from JDBC database.", e);
+        }
+    }
+
+    private void restoreAutoCommit() {
+        if (autoCommitChanged) {
+            try {
+                //nothing is written through this connection, so the read only transaction is simply ended
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.error("Error occurred while restoring the auto commit mode of the JDBC database connection.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,660 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes how the rows of a table of the previous stats database are migrated to a table of the new stats database.
+ * Each column of the target table is either computed from source columns with a {@link Conversion}, or set to a
+ * constant. The source columns read by the conversions are the fields of the mapping, which are read from the source
+ * table as strings or as numbers depending on the conversions using them.
+ * <p>
+ * Mappings are defined once in {@link TableMappings} and are not modified afterwards, so they can be shared by the
+ * threads migrating the partitions of a table.
+ */
+public class TableMapping {
+
+    /**
+     * The source fields whose string values repeat across the rows of every table, so that they are held as codes in
+     * a {@link DimensionDictionary}. Strings of the other fields, e.g. user names, cities or resource paths, can take
+     * as many values as there are rows and are held as they are.
+     */
+    private static final Set<String> DIMENSION_FIELDS = new HashSet<>(Arrays.asList("api", "version",
+            "api_version", "apiPublisher", "context", "hostName", "tenantDomain"));
+
+    /**
+     * The conversions from the source columns to the value of a target column
+     */
+    public enum Conversion {
+        /**
+         * the string value of a source column
+         */
+        STRING(FieldType.STRING),
+        /**
+         * the numeric value of a source column
+         */
+        LONG(FieldType.LONG),
+        /**
+         * a time of the form yyyy-MM-dd HH:mm in milliseconds
+         */
+        TIME(FieldType.STRING),
+        /**
+         * the start of the day of the year, month and day columns in milliseconds
+         */
+        DAY_TIMESTAMP(FieldType.LONG),
+        /**
+         * the start of the hour of the year, month, day and hour columns in milliseconds
+         */
+        HOUR_TIMESTAMP(FieldType.LONG),
+        /**
+         * the start of the minute of the year, month, day, hour and minute columns in milliseconds
+         */
+        MINUTE_TIMESTAMP(FieldType.LONG),
+        /**
+         * the start of the month of the year and month columns in milliseconds
+         */
+        MONTH_TIMESTAMP(FieldType.LONG),
+        /**
+         * the start of the year of the year column in milliseconds
+         */
+        YEAR_TIMESTAMP(FieldType.LONG),
+        /**
+         * the application id a consumer key is mapped to, which fails the migration if the key is unknown
+         */
+        APPLICATION_ID(FieldType.STRING),
+        /**
+         * the version part of an api_version value of the form name:vversion
+         */
+        API_VERSION(FieldType.STRING);
+
+        private final FieldType fieldType;
+
+        Conversion(FieldType fieldType) {
+            this.fieldType = fieldType;
+        }
+
+        public FieldType getFieldType() {
+            return fieldType;
+        }
+
+        /**
+         * @return true if the converted value is bound as a string
+         */
+        public boolean isStringValue() {
+            return this == STRING || this == APPLICATION_ID || this == API_VERSION;
+        }
+
+        /**
+         * @return true if ordering the rows by the source columns orders them by the converted value as well, which
+         * holds for the times as the source columns are zero padded or numeric
+         */
+        public boolean isOrderPreserving() {
+            return this != APPLICATION_ID && this != API_VERSION;
+        }
+    }
+
+    /**
+     * How the value of a field is read from the source table
+     */
+    public enum FieldType {
+        STRING, LONG
+    }
+
+    /**
+     * A column of the target table
+     */
+    public static final class Column {
+
+        private final String targetColumn;
+        private final Conversion conversion;
+        private final int[] fieldIndexes;
+        private final String constant;
+        private final int valueIndex;
+        private final boolean dimension;
+
+        private Column(String targetColumn, Conversion conversion, int[] fieldIndexes, String constant,
+                int valueIndex, boolean dimension) {
+            this.targetColumn = targetColumn;
+            this.conversion = conversion;
+            this.fieldIndexes = fieldIndexes;
+            this.constant = constant;
+            this.valueIndex = valueIndex;
+            this.dimension = dimension;
+        }
+
+        public String getTargetColumn() {
+            return targetColumn;
+        }
+
+        /**
+         * @return conversion of the column, or null if the column is a constant
+         */
+        public Conversion getConversion() {
+            return conversion;
+        }
+
+        /**
+         * @return indexes of the source fields the column is converted from, within the fields of their type
+         */
+        public int[] getFieldIndexes() {
+            return fieldIndexes.clone();
+        }
+
+        public String getConstant() {
+            return constant;
+        }
+
+        public boolean isConstant() {
+            return conversion == null;
+        }
+
+        /**
+         * Columns with the same conversion of the same fields share a value, which is converted once per row. Columns
+         * whose values are merged differently when rows are aggregated, e.g. the first and the last event time, do not
+         * share a value.
+         *
+         * @return index of the converted value of the column
+         */
+        public int getValueIndex() {
+            return valueIndex;
+        }
+
+        /**
+         * @return true if the column is a string converted from dimension fields only, e.g. the api name or the tenant
+         * domain, whose values are held as codes in a {@link DimensionDictionary}
+         */
+        public boolean isDimension() {
+            return dimension;
+        }
+    }
+
+    private final String sourceTable;
+    private final String targetTable;
+    private final PartitionLevel level;
+    private final Map<String, FieldType> fields = new LinkedHashMap<>();
+    private final List<String> stringFields = new ArrayList<>();
+    private final List<String> longFields = new ArrayList<>();
+    private final Map<String, String> fieldExpressions = new LinkedHashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+    private final List<Column> values = new ArrayList<>();
+    private final int[] keyFieldIndexes;
+    private final Set<String> aggregationKeyColumns = new HashSet<>();
+    private String groupBy = null;
+    private boolean aggregatedByMigration = false;
+    private boolean rollUp = false;
+    private long bucketDivisor = 1;
+    private String watermarkField = null;
+
+    /**
+     * @param sourceTable name of the table in the previous stats database
+     * @param targetTable name of the table in the new stats database
+     * @param level       time columns the source table is split and checkpointed on
+     */
+    public TableMapping(String sourceTable, String targetTable, PartitionLevel level) {
+        this.sourceTable = sourceTable;
+        this.targetTable = targetTable;
+        this.level = level;
+        String[] keyColumns = level.getColumns();
+        keyFieldIndexes = new int[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyFieldIndexes[i] = addField(keyColumns[i], FieldType.LONG);
+        }
+    }
+
+    /**
+     * This method maps a column of the target table to a conversion of source columns
+     *
+     * @param targetColumn  column of the target table
+     * @param conversion    conversion of the source columns
+     * @param sourceColumns source columns the conversion reads
+     * @return this mapping
+     */
+    public TableMapping map(String targetColumn, Conversion conversion, String... sourceColumns) {
+        int[] fieldIndexes = new int[sourceColumns.length];
+        for (int i = 0; i < sourceColumns.length; i++) {
+            fieldIndexes[i] = addField(sourceColumns[i], conversion.getFieldType());
+        }
+        Column value = null;
+        for (Column existingValue : values) {
+            if (existingValue.conversion == conversion && Arrays.equals(existingValue.fieldIndexes, fieldIndexes)
+                    && UpsertStatementBuilder.Merge.forColumn(existingValue.targetColumn)
+                    == UpsertStatementBuilder.Merge.forColumn(targetColumn)) {
+                value = existingValue;
+            }
+        }
+        boolean dimension = conversion.isStringValue();
+        for (String sourceColumn : sourceColumns) {
+            dimension &= DIMENSION_FIELDS.contains(sourceColumn);
+        }
+        Column column = new Column(targetColumn, conversion, fieldIndexes, null,
+                value != null ? value.valueIndex : values.size(), dimension);
+        if (value == null) {
+            values.add(column);
+        }
+        columns.add(column);
+        return this;
+    }
+
+    /**
+     * This method sets a column of the target table to the same value for every row
+     *
+     * @param targetColumn column of the target table
+     * @param constant     value of the column
+     * @return this mapping
+     */
+    public TableMapping constant(String targetColumn, String constant) {
+        columns.add(new Column(targetColumn, null, new int[0], constant, -1, false));
+        return this;
+    }
+
+    /**
+     * This method reads a source field from an SQL expression instead of a column, e.g. an aggregate function
+     *
+     * @param field      name the expression is selected as
+     * @param expression SQL expression of the field
+     * @return this mapping
+     */
+    public TableMapping select(String field, String expression) {
+        fieldExpressions.put(field, expression);
+        return this;
+    }
+
+    /**
+     * @param groupByColumns columns the source rows are grouped by, when the fields are selected with aggregate
+     *                       functions
+     * @return this mapping
+     */
+    public TableMapping groupBy(String groupByColumns) {
+        this.groupBy = groupByColumns;
+        return this;
+    }
+
+    /**
+     * This method sets the field whose largest value marks how far the source table has been migrated, so that a
+     * later run can migrate only the rows written after it. The field has to grow with the time the row is written.
+     *
+     * @param field source field read by the mapping
+     * @return this mapping
+     */
+    public TableMapping watermarkBy(String field) {
+        if (!fields.containsKey(field)) {
+            throw new IllegalArgumentException("Watermark " + field + " of " + sourceTable + " is not read by "
+                    + targetTable);
+        }
+        this.watermarkField = field;
+        return this;
+    }
+
+    /**
+     * This method marks the rows of the mapping to be aggregated by the migration with a {@link RowAggregator}
+     * rather than by the source query. The rows are grouped by the columns which are not aggregated and by the given
+     * columns, which would otherwise be merged, e.g. an event time which is a group by column of the source query.
+     *
+     * @param keyColumns aggregated columns of the target table which are part of the aggregation key
+     * @return this mapping
+     */
+    public TableMapping aggregateBy(String... keyColumns) {
+        aggregationKeyColumns.addAll(Arrays.asList(keyColumns));
+        aggregatedByMigration = true;
+        return this;
+    }
+
+    /**
+     * This method marks the mapping as a rollup of the rows into coarser time buckets, e.g. the months of a day
+     * level table. The rows are aggregated by the migration, and a bucket is complete once the given number of key
+     * columns of the level change.
+     *
+     * @param bucketKeyColumns number of leading key columns of the level which make up a bucket
+     * @return this mapping
+     */
+    public TableMapping rollUp(int bucketKeyColumns) {
+        int keyColumnCount = level.getColumns().length;
+        if (bucketKeyColumns < 1 || bucketKeyColumns > keyColumnCount) {
+            throw new IllegalArgumentException("A rollup of " + sourceTable + " is bucketed on 1 to "
+                    + keyColumnCount + " key columns, not " + bucketKeyColumns);
+        }
+        bucketDivisor = 1;
+        for (int i = bucketKeyColumns; i < keyColumnCount; i++) {
+            bucketDivisor *= 100;
+        }
+        rollUp = true;
+        return aggregateBy();
+    }
+
+    /**
+     * This method derives a rollup of this mapping into coarser time buckets. The rollup reads the same fields and
+     * computes the same columns, apart from the timestamp column, which is computed from the key columns of a bucket.
+     * The aggregation key columns of this mapping are not carried over, the rows of a bucket are merged on the
+     * columns which are not aggregated.
+     *
+     * @param targetTable         table the rollup is written to
+     * @param bucketKeyColumns    number of leading key columns of the level which make up a bucket
+     * @param timestampColumn     column holding the start of the bucket
+     * @param timestampConversion conversion of the key columns of a bucket to its start
+     * @return the rollup
+     */
+    public TableMapping rollUp(String targetTable, int bucketKeyColumns, String timestampColumn,
+            Conversion timestampConversion) {
+        TableMapping rollUp = new TableMapping(sourceTable, targetTable, level).withFieldsOf(this);
+        rollUp.fieldExpressions.putAll(fieldExpressions);
+        rollUp.groupBy = groupBy;
+        rollUp.watermarkField = watermarkField;
+        for (Column column : columns) {
+            if (column.isConstant()) {
+                rollUp.constant(column.targetColumn, column.constant);
+            } else if (column.targetColumn.equals(timestampColumn)) {
+                rollUp.map(timestampColumn, timestampConversion,
+                        Arrays.copyOf(level.getColumns(), bucketKeyColumns));
+            } else {
+                List<String> typedFields = column.conversion.getFieldType() == FieldType.STRING ? stringFields
+                        : longFields;
+                String[] sourceColumns = new String[column.fieldIndexes.length];
+                for (int i = 0; i < sourceColumns.length; i++) {
+                    sourceColumns[i] = typedFields.get(column.fieldIndexes[i]);
+                }
+                rollUp.map(column.targetColumn, column.conversion, sourceColumns);
+            }
+        }
+        return rollUp.rollUp(bucketKeyColumns);
+    }
+
+    /**
+     * This method reads the fields of another mapping of the same source table, in the same order, before the fields
+     * of this mapping, so that the rows read for this mapping can also be converted by the other mapping
+     *
+     * @param mapping mapping whose fields are read
+     * @return this mapping
+     */
+    public TableMapping withFieldsOf(TableMapping mapping) {
+        for (Map.Entry<String, FieldType> field : mapping.fields.entrySet()) {
+            addField(field.getKey(), field.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * @param mapping mapping of the same source table
+     * @return true if the rows read for this mapping can be converted by the given mapping, i.e. its fields are read
+     * as the first fields of this mapping by the same query
+     */
+    public boolean hasFieldsOf(TableMapping mapping) {
+        return sourceTable.equals(mapping.sourceTable) && level == mapping.level
+                && (groupBy == null ? mapping.groupBy == null : groupBy.equals(mapping.groupBy))
+                && fieldExpressions.equals(mapping.fieldExpressions)
+                && stringFields.size() >= mapping.stringFields.size() && longFields.size() >= mapping.longFields.size()
+                && stringFields.subList(0, mapping.stringFields.size()).equals(mapping.stringFields)
+                && longFields.subList(0, mapping.longFields.size()).equals(mapping.longFields);
+    }
+
+    public String getSourceTable() {
+        return sourceTable;
+    }
+
+    public String getTargetTable() {
+        return targetTable;
+    }
+
+    public PartitionLevel getLevel() {
+        return level;
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @return the columns computing the distinct values of a row, in the order of their value indexes
+     */
+    public List<Column> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @param targetColumns columns of the target table, e.g. its primary key
+     * @return the columns of the mapping computing the given columns in the same order, up to the first column which
+     * is not mapped. Constants are skipped as they are the same for every row.
+     */
+    public List<Column> getValues(List<String> targetColumns) {
+        List<Column> targetValues = new ArrayList<>();
+        for (String targetColumn : targetColumns) {
+            Column value = getColumn(targetColumn);
+            if (value == null) {
+                break;
+            }
+            if (!value.isConstant()) {
+                targetValues.add(value);
+            }
+        }
+        return targetValues;
+    }
+
+    /**
+     * @param targetColumn column of the target table
+     * @return the column of the mapping computing it, or null if it is not mapped
+     */
+    public Column getColumn(String targetColumn) {
+        for (Column column : columns) {
+            if (column.targetColumn.equalsIgnoreCase(targetColumn)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param value column of the mapping
+     * @return the source fields the column is computed from, in the order the conversion reads them
+     */
+    public List<String> getSourceFields(Column value) {
+        List<String> sourceFields = new ArrayList<>(value.fieldIndexes.length);
+        if (value.isConstant()) {
+            return sourceFields;
+        }
+        List<String> typedFields = value.conversion.getFieldType() == FieldType.STRING ? stringFields : longFields;
+        for (int fieldIndex : value.fieldIndexes) {
+            sourceFields.add(typedFields.get(fieldIndex));
+        }
+        return sourceFields;
+    }
+
+    /**
+     * @param field source field of the mapping
+     * @return the SQL expression the field is selected from, or null if it is a column of the source table
+     */
+    public String getFieldExpression(String field) {
+        return fieldExpressions.get(field);
+    }
+
+    /**
+     * @param orderValues columns of the mapping the rows are ordered by
+     * @return the source columns which order the rows of the source table in the same order, or null if a value is
+     * converted in a way which does not preserve the order or reads an expression of the source query
+     */
+    public List<String> getOrderingFields(List<Column> orderValues) {
+        List<String> orderingFields = new ArrayList<>();
+        for (Column value : orderValues) {
+            if (!value.conversion.isOrderPreserving()) {
+                return null;
+            }
+            List<String> typedFields = value.conversion.getFieldType() == FieldType.STRING ? stringFields : longFields;
+            for (int fieldIndex : value.fieldIndexes) {
+                String field = typedFields.get(fieldIndex);
+                if (fieldExpressions.containsKey(field)) {
+                    return null;
+                }
+                if (!orderingFields.contains(field)) {
+                    orderingFields.add(field);
+                }
+            }
+        }
+        return orderingFields;
+    }
+
+    public List<String> getStringFields() {
+        return Collections.unmodifiableList(stringFields);
+    }
+
+    public List<String> getLongFields() {
+        return Collections.unmodifiableList(longFields);
+    }
+
+    /**
+     * @return the field marking how far the source table has been migrated, or null if the table is always migrated
+     * in full
+     */
+    public String getWatermarkField() {
+        return watermarkField;
+    }
+
+    /**
+     * @return the type of the watermark field, or null if the mapping has no watermark
+     */
+    public FieldType getWatermarkType() {
+        return watermarkField != null ? fields.get(watermarkField) : null;
+    }
+
+    /**
+     * @return indexes of the numeric fields holding the key columns of the level, in key order
+     */
+    public int[] getKeyFieldIndexes() {
+        return keyFieldIndexes.clone();
+    }
+
+    /**
+     * @return true if the rows have to be aggregated by the migration before they are written
+     */
+    public boolean isAggregatedByMigration() {
+        return aggregatedByMigration;
+    }
+
+    /**
+     * @return true if the rows are rolled up into coarser time buckets than the rows of the source table
+     */
+    public boolean isRollUp() {
+        return rollUp;
+    }
+
+    /**
+     * @param key key of a row
+     * @return the time bucket the row is aggregated into, which is the key itself unless the mapping is a rollup
+     */
+    public long getBucket(long key) {
+        return key / bucketDivisor;
+    }
+
+    /**
+     * Only numbers are aggregated, any other value is part of the aggregation key
+     *
+     * @param value column computing a value of the rows
+     * @return how the values of rows with the same aggregation key are merged
+     */
+    public UpsertStatementBuilder.Merge getMerge(Column value) {
+        if (value.isConstant() || value.conversion.isStringValue()) {
+            return UpsertStatementBuilder.Merge.KEEP;
+        }
+        for (Column column : columns) {
+            if (column.valueIndex == value.valueIndex && aggregationKeyColumns.contains(column.targetColumn)) {
+                return UpsertStatementBuilder.Merge.KEEP;
+            }
+        }
+        return UpsertStatementBuilder.Merge.forColumn(value.targetColumn);
+    }
+
+    /**
+     * @return true if a column of the target table is converted from a consumer key
+     */
+    public boolean isApplicationIdMapped() {
+        for (Column value : values) {
+            if (value.conversion == Conversion.APPLICATION_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method returns the query reading the fields of a partition of the source table. Only the fields used by
+     * the mapping are selected.
+     *
+     * @param partition partition of the source table
+     * @return the query, whose parameters are the bounds of the partition
+     */
+    public String getSourceQuery(TablePartition partition) {
+        StringBuilder query = new StringBuilder("SELECT ");
+        boolean first = true;
+        for (String field : fields.keySet()) {
+            if (!first) {
+                query.append(", ");
+            }
+            first = false;
+            String expression = fieldExpressions.get(field);
+            query.append(expression != null ? expression + " AS " + field : field);
+        }
+        query.append(" FROM ").append(sourceTable).append(partition.getWhereClause());
+        if (groupBy != null) {
+            query.append(" GROUP BY ").append(groupBy);
+        }
+        return query.append(partition.getOrderByClause()).toString();
+    }
+
+    /**
+     * @return the statement inserting a row into the target table, with a parameter for every column which is not a
+     * constant
+     */
+    public String getInsertQuery() {
+        StringBuilder columnList = new StringBuilder();
+        StringBuilder valueList = new StringBuilder();
+        for (Column column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+                valueList.append(',');
+            }
+            columnList.append(column.targetColumn);
+            valueList.append(column.isConstant() ? "'" + column.constant.replace("'", "''") + "'" : "?");
+        }
+        return "INSERT INTO " + targetTable + "(" + columnList + ") VALUES(" + valueList + ")";
+    }
+
+    private int addField(String field, FieldType type) {
+        FieldType existingType = fields.get(field);
+        if (existingType != null && existingType != type) {
+            throw new IllegalArgumentException("Field " + field + " of " + sourceTable + " is read both as "
+                    + existingType + " and as " + type);
+        }
+        List<String> typedFields = type == FieldType.STRING ? stringFields : longFields;
+        if (existingType == null) {
+            fields.put(field, type);
+            typedFields.add(field);
+        }
+        return typedFields.indexOf(field);
+    }
+
+    @Override
+    public String toString() {
+        return sourceTable + " to " + targetTable;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.API_VERSION;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.APPLICATION_ID;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.DAY_TIMESTAMP;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.HOUR_TIMESTAMP;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.LONG;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.MINUTE_TIMESTAMP;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.MONTH_TIMESTAMP;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.STRING;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.TIME;
+import static org.wso2.carbon.apimgt.stat.migration.util.TableMapping.Conversion.YEAR_TIMESTAMP;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The mappings of the tables of the previous stats database to the aggregation tables of the new stats database.
+ * The target columns are listed in the order of the insert statements.
+ */
+public final class TableMappings {
+
+    private static final String DAYS = "_DAYS";
+
+    public static final TableMapping DESTINATION_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_DESTINATION_SUMMARY,
+            APIMStatMigrationConstants.API_PER_DESTINATION_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiContext", STRING, "context")
+            .map("destination", STRING, "destination")
+            .map("AGG_COUNT", LONG, "total_request_count")
+            .map("apiHostname", STRING, "hostName")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .constant("gatewayType", "SYNAPSE")
+            .constant("label", "Synapse")
+            .constant("regionalID", "default")
+            .watermarkBy("time");
+
+    public static final TableMapping RESOURCE_USAGE_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_RESOURCE_USAGE_SUMMARY,
+            APIMStatMigrationConstants.API_RESOURCE_PATH_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiResourceTemplate", STRING, "resourcePath")
+            .map("apiContext", STRING, "context")
+            .map("apiMethod", STRING, "method")
+            .map("AGG_COUNT", LONG, "total_request_count")
+            .map("apiHostname", STRING, "hostName")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .map("applicationId", APPLICATION_ID, "consumerKey")
+            .constant("gatewayType", "SYNAPSE")
+            .constant("label", "Synapse")
+            .constant("regionalID", "default")
+            .watermarkBy("time");
+
+    public static final TableMapping VERSION_USAGE_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_VERSION_USAGE_SUMMARY,
+            APIMStatMigrationConstants.API_VERSION_USAGE_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiContext", STRING, "context")
+            .map("AGG_COUNT", LONG, "total_request_count")
+            .map("apiHostname", STRING, "hostName")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .constant("applicationId", "")
+            .constant("gatewayType", "SYNAPSE")
+            .constant("label", "Synapse")
+            .constant("regionalID", "default")
+            .watermarkBy("time");
+
+    public static final TableMapping LAST_ACCESS_TIME_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_LAST_ACCESS_TIME_SUMMARY,
+            APIMStatMigrationConstants.API_LAST_ACCESS_SUMMARY_AGG, PartitionLevel.NONE)
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("applicationOwner", STRING, "userId")
+            .map("apiContext", STRING, "context")
+            .map("lastAccessTime", LONG, "max_request_time")
+            .watermarkBy("max_request_time");
+
+    public static final TableMapping FAULT_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_FAULT_SUMMARY,
+            APIMStatMigrationConstants.API_FAULTY_INVOCATION_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("applicationId", APPLICATION_ID, "consumerKey")
+            .map("apiContext", STRING, "context")
+            .map("AGG_COUNT", LONG, "total_fault_count")
+            .map("hostname", STRING, "hostName")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .constant("regionalID", "default")
+            .watermarkBy("time");
+
+    public static final TableMapping USER_BROWSER_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_REQ_USR_BROW_SUMMARY,
+            APIMStatMigrationConstants.API_USER_BROWSER_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("AGG_COUNT", LONG, "total_request_count")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", LONG, "requestTime")
+            .map("AGG_LAST_EVENT_TIMESTAMP", LONG, "requestTime")
+            .map("operatingSystem", STRING, "os")
+            .map("browser", STRING, "browser")
+            .constant("apiContext", "")
+            .constant("gatewayType", "SYNAPSE")
+            .constant("label", "Synapse")
+            .constant("regionalID", "default")
+            .watermarkBy("requestTime");
+
+    public static final TableMapping GEO_LOCATION_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_REQ_GEO_LOC_SUMMARY,
+            APIMStatMigrationConstants.API_GEO_LOCATION_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("totalCount", LONG, "total_request_count")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", LONG, "requestTime")
+            .map("AGG_LAST_EVENT_TIMESTAMP", LONG, "requestTime")
+            .map("country", STRING, "country")
+            .map("city", STRING, "city")
+            .constant("apiContext", "")
+            .constant("regionalID", "default")
+            .watermarkBy("requestTime");
+
+    public static final TableMapping EXECUTION_TIME_DAY_SUMMARY = executionTime(
+            APIMStatMigrationConstants.API_EXE_TME_DAY_SUMMARY, "_DAYS", PartitionLevel.DAY, DAY_TIMESTAMP,
+            "year", "month", "day");
+
+    public static final TableMapping EXECUTION_TIME_HOUR_SUMMARY = executionTime(
+            APIMStatMigrationConstants.API_EXE_TIME_HOUR_SUMMARY, "_HOURS", PartitionLevel.HOUR, HOUR_TIMESTAMP,
+            "year", "month", "day", "hour");
+
+    public static final TableMapping EXECUTION_TIME_MINUTE_SUMMARY = executionTime(
+            APIMStatMigrationConstants.API_EXE_TIME_MIN_SUMMARY, "_MINUTES", PartitionLevel.HOUR, MINUTE_TIMESTAMP,
+            "year", "month", "day", "hour", "minutes");
+
+    public static final TableMapping EXECUTION_TIME_HOUR_ROLLUP = executionTimeRollUp("_HOURS", 4, HOUR_TIMESTAMP,
+            "year", "month", "day", "hour");
+
+    public static final TableMapping EXECUTION_TIME_DAY_ROLLUP = executionTimeRollUp("_DAYS", 3, DAY_TIMESTAMP,
+            "year", "month", "day");
+
+    public static final TableMapping EXECUTION_TIME_MONTH_ROLLUP = executionTimeRollUp("_MONTHS", 2, MONTH_TIMESTAMP,
+            "year", "month");
+
+    public static final TableMapping EXECUTION_TIME_YEAR_ROLLUP = executionTimeRollUp("_YEARS", 1, YEAR_TIMESTAMP,
+            "year");
+
+    public static final TableMapping THROTTLED_OUT_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY,
+            APIMStatMigrationConstants.API_THROTTLED_OUT_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", API_VERSION, "api_version")
+            .map("apiContext", STRING, "context")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("applicationName", STRING, "applicationName")
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_COUNT", LONG, "throttleout_count")
+            .map("throttledOutReason", STRING, "throttledOutReason")
+            .constant("applicationId", "")
+            .constant("hostname", "")
+            .constant("gatewayType", "SYNAPSE")
+            .watermarkBy("time");
+
+    public static final TableMapping THROTTLED_OUT_REQUEST_COUNT_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY,
+            APIMStatMigrationConstants.APIM_REQ_COUNT_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", API_VERSION, "api_version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("applicationName", STRING, "applicationName")
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_SUM_successCount", LONG, "successCount")
+            .map("AGG_SUM_throttleCount", LONG, "throttledCount")
+            .select("successCount", "sum(success_request_count)")
+            .select("throttledCount", "sum(throttleout_count)")
+            .groupBy("api, api_version, apiPublisher, tenantDomain, applicationName, year, month, day, week, time")
+            .watermarkBy("time");
+
+    /**
+     * The rows of {@link #THROTTLED_OUT_REQUEST_COUNT_SUMMARY} read without the GROUP BY and aggregated by the
+     * migration instead. The week is not part of the aggregation key as it follows from the day. The fields of
+     * {@link #THROTTLED_OUT_SUMMARY} are read as well, so that a single scan of the source table migrates both.
+     */
+    public static final TableMapping THROTTLED_OUT_REQUEST_COUNT_UNGROUPED = new TableMapping(
+            APIMStatMigrationConstants.API_THROTTLED_OUT_SUMMARY,
+            APIMStatMigrationConstants.APIM_REQ_COUNT_AGG + "_DAYS", PartitionLevel.DAY)
+            .withFieldsOf(THROTTLED_OUT_SUMMARY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", API_VERSION, "api_version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("applicationName", STRING, "applicationName")
+            .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_SUM_successCount", LONG, "success_request_count")
+            .map("AGG_SUM_throttleCount", LONG, "throttleout_count")
+            .aggregateBy("AGG_EVENT_TIMESTAMP")
+            .watermarkBy("time");
+
+    public static final TableMapping REQUEST_SUMMARY = new TableMapping(
+            APIMStatMigrationConstants.API_REQUEST_SUMMARY,
+            APIMStatMigrationConstants.API_USER_PER_APP_AGG + "_DAYS", PartitionLevel.DAY)
+            .map("apiName", STRING, "api")
+            .map("apiVersion", STRING, "version")
+            .map("apiCreator", STRING, "apiPublisher")
+            .map("username", STRING, "userId")
+            .map("apiContext", STRING, "context")
+            .map("AGG_COUNT", LONG, "total_request_count")
+            .map("apiHostname", STRING, "hostName")
+            .map("AGG_TIMESTAMP", DAY_TIMESTAMP, "year", "month", "day")
+            .map("AGG_EVENT_TIMESTAMP", TIME, "time")
+            .map("AGG_LAST_EVENT_TIMESTAMP", TIME, "time")
+            .map("applicationId", APPLICATION_ID, "consumerKey")
+            .constant("userTenantDomain", "")
+            .constant("gatewayType", "SYNAPSE")
+            .constant("label", "Synapse")
+            .constant("regionalID", "default")
+            .watermarkBy("time");
+
+    private TableMappings() {
+    }
+
+    /**
+     * The tables of the new stats database which are migrated at the granularity of a day also have a month and a
+     * year granularity, which can be rolled up from the day rows as they are read
+     *
+     * @param mapping mapping of a table
+     * @return the month and year rollups of the table, or an empty list if the table is not a day table
+     */
+    public static List<TableMapping> getMonthAndYearRollUps(TableMapping mapping) {
+        String targetTable = mapping.getTargetTable();
+        if (mapping.isRollUp() || mapping.getLevel() != PartitionLevel.DAY || !targetTable.endsWith(DAYS)) {
+            return Collections.emptyList();
+        }
+        String aggregation = targetTable.substring(0, targetTable.length() - DAYS.length());
+        return Arrays.asList(
+                mapping.rollUp(aggregation + "_MONTHS", 2, "AGG_TIMESTAMP", MONTH_TIMESTAMP),
+                mapping.rollUp(aggregation + "_YEARS", 1, "AGG_TIMESTAMP", YEAR_TIMESTAMP));
+    }
+
+    /**
+     * The execution time tables of all granularities have the same columns, apart from the time columns which make
+     * up AGG_TIMESTAMP
+     */
+    private static TableMapping executionTime(String sourceTable, String targetSuffix, PartitionLevel level,
+            TableMapping.Conversion timestampConversion, String... timeColumns) {
+        return executionTimeColumns(
+                new TableMapping(sourceTable, APIMStatMigrationConstants.API_EXEC_TIME_AGG + targetSuffix, level),
+                timestampConversion, timeColumns);
+    }
+
+    /**
+     * The coarser execution time tables can be rolled up from the rows of the minute table, whose fields are read by
+     * every rollup so that a single scan of the minute table migrates all of them
+     */
+    private static TableMapping executionTimeRollUp(String targetSuffix, int bucketKeyColumns,
+            TableMapping.Conversion timestampConversion, String... timeColumns) {
+        return executionTimeColumns(new TableMapping(APIMStatMigrationConstants.API_EXE_TIME_MIN_SUMMARY,
+                APIMStatMigrationConstants.API_EXEC_TIME_AGG + targetSuffix, PartitionLevel.HOUR)
+                .withFieldsOf(EXECUTION_TIME_MINUTE_SUMMARY), timestampConversion, timeColumns)
+                .rollUp(bucketKeyColumns);
+    }
+
+    private static TableMapping executionTimeColumns(TableMapping mapping,
+            TableMapping.Conversion timestampConversion, String... timeColumns) {
+        return mapping
+                .map("apiName", STRING, "api")
+                .map("apiVersion", STRING, "version")
+                .map("apiCreatorTenantDomain", STRING, "tenantDomain")
+                .map("apiCreator", STRING, "apiPublisher")
+                .map("AGG_SUM_responseTime", LONG, "apiResponseTime")
+                .map("apiContext", STRING, "context")
+                .map("AGG_SUM_securityLatency", LONG, "securityLatency")
+                .map("AGG_SUM_throttlingLatency", LONG, "throttlingLatency")
+                .map("AGG_SUM_requestMedLat", LONG, "requestMediationLatency")
+                .map("AGG_SUM_responseMedLat", LONG, "responseMediationLatency")
+                .map("AGG_SUM_backendLatency", LONG, "backendLatency")
+                .map("AGG_SUM_otherLatency", LONG, "otherLatency")
+                .map("AGG_TIMESTAMP", timestampConversion, timeColumns)
+                .map("AGG_EVENT_TIMESTAMP", LONG, "time")
+                .map("AGG_LAST_EVENT_TIMESTAMP", LONG, "time")
+                .constant("apiHostname", "")
+                .constant("apiResourceTemplate", "")
+                .constant("apiMethod", "")
+                .constant("regionalID", "default")
+                .watermarkBy("time");
+    }
+}
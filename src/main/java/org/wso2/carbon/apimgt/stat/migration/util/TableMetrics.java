@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The throughput of the migration of a single table, shared by the threads migrating its partitions. The time spent
+ * on each batch is split into reading the rows from the previous stats database, converting them, and writing them
+ * to the new stats database.
+ */
+public class TableMetrics {
+
+    private final String migrationName;
+    private final String sourceTable;
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong applicationIdHits = new AtomicLong();
+    private final AtomicLong applicationIdMisses = new AtomicLong();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram transformLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private volatile long sourceRowCount = -1;
+    private volatile long previouslyMigratedRows = 0;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+
+    /**
+     * @param migrationName name of the migration, the table it writes to
+     * @param sourceTable   table of the previous stats database the rows are read from
+     */
+    public TableMetrics(String migrationName, String sourceTable) {
+        this.migrationName = migrationName;
+        this.sourceTable = sourceTable;
+    }
+
+    public String getMigrationName() {
+        return migrationName;
+    }
+
+    public String getSourceTable() {
+        return sourceTable;
+    }
+
+    /**
+     * This method marks the migration of the table as started, the throughput is measured from this point
+     */
+    public synchronized void start() {
+        if (startTime == 0) {
+            startTime = System.nanoTime();
+        }
+        endTime = 0;
+    }
+
+    /**
+     * This method marks the migration of the table as finished, whether it succeeded or not
+     */
+    public void finish() {
+        endTime = System.nanoTime();
+    }
+
+    public boolean isRunning() {
+        return startTime != 0 && endTime == 0;
+    }
+
+    /**
+     * @param rows  number of rows read
+     * @param nanos time taken to read them
+     */
+    public void recordRead(int rows, long nanos) {
+        rowsRead.addAndGet(rows);
+        readLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos time taken to convert and bind a batch of rows, excluding the time spent writing
+     */
+    public void recordTransform(long nanos) {
+        transformLatency.record(nanos);
+    }
+
+    /**
+     * @param rows  number of rows sent to the database
+     * @param nanos time taken to execute, and if it was committed, commit the batch
+     */
+    public void recordWrite(int rows, long nanos) {
+        rowsWritten.addAndGet(rows);
+        batches.incrementAndGet();
+        writeLatency.record(nanos);
+    }
+
+    /**
+     * @param hits   number of consumer keys of a batch found in the cache of the application id resolver
+     * @param misses number of consumer keys of a batch looked up in the API Manager database, or without a value
+     */
+    public void recordApplicationIdLookups(int hits, int misses) {
+        applicationIdHits.addAndGet(hits);
+        applicationIdMisses.addAndGet(misses);
+    }
+
+    /**
+     * @param sourceRowCount number of rows in the source table, which the estimate of the remaining time is based on
+     */
+    public void setSourceRowCount(long sourceRowCount) {
+        this.sourceRowCount = sourceRowCount;
+    }
+
+    /**
+     * @param previouslyMigratedRows rows migrated by a previous run, which are not read again when resuming
+     */
+    public void setPreviouslyMigratedRows(long previouslyMigratedRows) {
+        this.previouslyMigratedRows = previouslyMigratedRows;
+    }
+
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getApplicationIdHits() {
+        return applicationIdHits.get();
+    }
+
+    public long getApplicationIdMisses() {
+        return applicationIdMisses.get();
+    }
+
+    public long getSourceRowCount() {
+        return sourceRowCount;
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getTransformLatency() {
+        return transformLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * @return time the table has been migrating for, or was migrated in, in milliseconds
+     */
+    public long getElapsedMillis() {
+        long start = startTime;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endTime;
+        return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start);
+    }
+
+    public double getRowsPerSecond() {
+        long elapsedMillis = getElapsedMillis();
+        return elapsedMillis == 0 ? 0 : rowsRead.get() * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * The estimate assumes every source row is read once, so for tables whose rows are grouped while reading it is
+     * an upper bound
+     *
+     * @return estimated time until every row of the source table is read in seconds, or -1 if it is not known
+     */
+    public long getEstimatedSecondsRemaining() {
+        double rowsPerSecond = getRowsPerSecond();
+        if (sourceRowCount < 0 || rowsPerSecond == 0) {
+            return -1;
+        }
+        long remainingRows = Math.max(0, sourceRowCount - previouslyMigratedRows - rowsRead.get());
+        return (long) Math.ceil(remainingRows / rowsPerSecond);
+    }
+
+    /**
+     * @return a single line with the throughput, the progress and the split of the time between the phases
+     */
+    public String getProgress() {
+        StringBuilder progress = new StringBuilder(migrationName).append(": ").append(rowsRead.get())
+                .append(" rows read");
+        if (sourceRowCount > 0) {
+            long readRows = Math.min(sourceRowCount, previouslyMigratedRows + rowsRead.get());
+            progress.append(" of ").append(sourceRowCount).append(String.format(" (%.1f%%)",
+                    readRows * 100.0 / sourceRowCount));
+        }
+        progress.append(", ").append(rowsWritten.get()).append(" written in ").append(batches.get())
+                .append(" batches, ").append(String.format("%.0f rows/s", getRowsPerSecond()));
+        long secondsRemaining = getEstimatedSecondsRemaining();
+        if (isRunning() && secondsRemaining >= 0) {
+            progress.append(", ETA ").append(formatDuration(secondsRemaining));
+        } else if (!isRunning()) {
+            progress.append(", took ").append(formatDuration(getElapsedMillis() / 1000));
+        }
+        long lookups = applicationIdHits.get() + applicationIdMisses.get();
+        if (lookups > 0) {
+            progress.append(String.format(", consumer key cache hit ratio %.1f%%",
+                    applicationIdHits.get() * 100.0 / lookups));
+        }
+        long totalNanos = readLatency.getTotalNanos() + transformLatency.getTotalNanos()
+                + writeLatency.getTotalNanos();
+        if (totalNanos > 0) {
+            progress.append(String.format("; time spent reading %.0f%%, transforming %.0f%%, writing %.0f%%",
+                    readLatency.getTotalNanos() * 100.0 / totalNanos,
+                    transformLatency.getTotalNanos() * 100.0 / totalNanos,
+                    writeLatency.getTotalNanos() * 100.0 / totalNanos));
+        }
+        return progress.toString();
+    }
+
+    static String formatDuration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    @Override
+    public String toString() {
+        return getProgress();
+    }
+}
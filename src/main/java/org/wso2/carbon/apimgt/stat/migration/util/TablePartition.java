@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A range of a previous stats table, selected by the keys of its rows between a lower and an upper bound, both
+ * inclusive. The condition of the range also bounds the year column on its own so that an index on the time columns
+ * can be used by the database. The rows of a range can further be limited to a {@link Watermark}.
+ */
+public class TablePartition {
+
+    private final String tableName;
+    private final PartitionLevel level;
+    private final int partitionNumber;
+    private final int partitionCount;
+    private final long lowerKey;
+    private final long upperKey;
+    private final boolean keyOrdered;
+    private final String orderBy;
+    private final Watermark watermark;
+
+    public TablePartition(String tableName, PartitionLevel level, int partitionNumber, int partitionCount,
+            long lowerKey, long upperKey) {
+        this(tableName, level, partitionNumber, partitionCount, lowerKey, upperKey, false, null, null);
+    }
+
+    private TablePartition(String tableName, PartitionLevel level, int partitionNumber, int partitionCount,
+            long lowerKey, long upperKey, boolean keyOrdered, String orderBy, Watermark watermark) {
+        this.tableName = tableName;
+        this.level = level;
+        this.partitionNumber = partitionNumber;
+        this.partitionCount = partitionCount;
+        this.lowerKey = lowerKey;
+        this.upperKey = upperKey;
+        this.keyOrdered = keyOrdered;
+        this.orderBy = orderBy;
+        this.watermark = watermark;
+    }
+
+    /**
+     * @param tableName name of the table
+     * @return a partition which selects all the rows of the table
+     */
+    public static TablePartition all(String tableName) {
+        return new TablePartition(tableName, PartitionLevel.NONE, 1, 1, 0, 0);
+    }
+
+    /**
+     * Rows read in key order can be committed at key boundaries, so that a migration which is interrupted can be
+     * continued after the last committed key.
+     *
+     * @return a copy of the partition which reads its rows in key order
+     */
+    public TablePartition inKeyOrder() {
+        return new TablePartition(tableName, level, partitionNumber, partitionCount, lowerKey, upperKey, isRange(),
+                null, watermark);
+    }
+
+    /**
+     * Rows read in the order of the primary key of the target table fill its index from left to right, which the
+     * database can only do cheaply when an index of the source table has the same order.
+     *
+     * @param orderByColumns columns of the source table the rows are ordered by
+     * @return a copy of the partition which reads its rows in the order of the given columns
+     */
+    public TablePartition orderedBy(String orderByColumns) {
+        return new TablePartition(tableName, level, partitionNumber, partitionCount, lowerKey, upperKey, false,
+                orderByColumns, watermark);
+    }
+
+    /**
+     * @param watermark range of the watermark field of the rows to read
+     * @return a copy of the partition which only reads the rows within the watermark
+     */
+    public TablePartition since(Watermark watermark) {
+        return new TablePartition(tableName, level, partitionNumber, partitionCount, lowerKey, upperKey, keyOrdered,
+                orderBy, watermark);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public PartitionLevel getLevel() {
+        return level;
+    }
+
+    public int getPartitionNumber() {
+        return partitionNumber;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public long getLowerKey() {
+        return lowerKey;
+    }
+
+    public long getUpperKey() {
+        return upperKey;
+    }
+
+    /**
+     * @return true if the rows of the partition are read in key order
+     */
+    public boolean isKeyOrdered() {
+        return keyOrdered;
+    }
+
+    /**
+     * @return true if the partition selects a range of the table rather than the whole table
+     */
+    public boolean isRange() {
+        return level != PartitionLevel.NONE;
+    }
+
+    /**
+     * @return the condition selecting the rows of the partition without the WHERE keyword, or null if the partition
+     * selects all rows
+     */
+    public String getCondition() {
+        String rangeCondition = isRange()
+                ? "year BETWEEN ? AND ? AND " + level.getKeyExpression() + " BETWEEN ? AND ?" : null;
+        if (watermark == null) {
+            return rangeCondition;
+        }
+        return rangeCondition != null ? rangeCondition + " AND " + watermark.getCondition()
+                : watermark.getCondition();
+    }
+
+    /**
+     * @return a WHERE clause selecting the rows of the partition, or an empty string if the partition selects all
+     * rows
+     */
+    public String getWhereClause() {
+        String condition = getCondition();
+        return condition != null ? " WHERE " + condition : "";
+    }
+
+    /**
+     * @return an ORDER BY clause on the key columns if the partition is read in key order, on the columns the
+     * partition is ordered by if any, or an empty string
+     */
+    public String getOrderByClause() {
+        if (keyOrdered) {
+            return " ORDER BY " + level.getColumnList();
+        }
+        return orderBy != null ? " ORDER BY " + orderBy : "";
+    }
+
+    /**
+     * This method binds the bounds of the partition to the parameters of its condition
+     *
+     * @param statement      statement the condition is part of
+     * @param parameterIndex index of the first parameter of the condition
+     * @return index of the parameter after the condition
+     * @throws SQLException if the parameters cannot be set
+     */
+    public int bind(PreparedStatement statement, int parameterIndex) throws SQLException {
+        if (isRange()) {
+            statement.setInt(parameterIndex++, level.getYear(lowerKey));
+            statement.setInt(parameterIndex++, level.getYear(upperKey));
+            statement.setLong(parameterIndex++, lowerKey);
+            statement.setLong(parameterIndex++, upperKey);
+        }
+        return watermark != null ? watermark.bind(statement, parameterIndex) : parameterIndex;
+    }
+
+    @Override
+    public String toString() {
+        if (!isRange()) {
+            return tableName;
+        }
+        return tableName + " partition " + partitionNumber + "/" + partitionCount + " [" + lowerKey + ", "
+                + upperKey + "]";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits a previous stats table into contiguous key ranges holding roughly the same number of rows. The distribution
+ * of the rows is read with a single GROUP BY query on the time columns of the table.
+ */
+public class TablePartitioner {
+
+    private TablePartitioner() {
+    }
+
+    /**
+     * This method splits the given table into ranges. Together the ranges cover every possible key, so rows written
+     * to the table after the distribution was read are still migrated.
+     *
+     * @param connection     connection to the previous stats database
+     * @param tableName      name of the table
+     * @param level          time columns the table is split on
+     * @param partitionCount requested number of ranges
+     * @return the ranges of the table, fewer than requested if the table does not have enough distinct keys
+     * @throws SQLException if the distribution of the rows cannot be read
+     */
+    public static List<TablePartition> split(Connection connection, String tableName, PartitionLevel level,
+            int partitionCount) throws SQLException {
+        if (level == PartitionLevel.NONE || partitionCount <= 1) {
+            return Collections.singletonList(TablePartition.all(tableName));
+        }
+        TreeMap<Long, Long> rowCounts = getRowCountsByKey(connection, tableName, level);
+        long totalRows = 0;
+        for (long rowCount : rowCounts.values()) {
+            totalRows += rowCount;
+        }
+
+        List<Long> upperKeys = new ArrayList<>();
+        long rowsSoFar = 0;
+        for (Map.Entry<Long, Long> entry : rowCounts.entrySet()) {
+            rowsSoFar += entry.getValue();
+            //close a range once it reaches its share of the rows seen so far
+            if (rowsSoFar * partitionCount >= totalRows * (upperKeys.size() + 1)
+                    && upperKeys.size() < partitionCount - 1 && !entry.getKey().equals(rowCounts.lastKey())) {
+                upperKeys.add(entry.getKey());
+            }
+        }
+        upperKeys.add(level.getMaxKey());
+
+        List<TablePartition> partitions = new ArrayList<>(upperKeys.size());
+        long lowerKey = 0;
+        for (int i = 0; i < upperKeys.size(); i++) {
+            partitions.add(new TablePartition(tableName, level, i + 1, upperKeys.size(), lowerKey,
+                    upperKeys.get(i)));
+            lowerKey = upperKeys.get(i) + 1;
+        }
+        return partitions;
+    }
+
+    private static TreeMap<Long, Long> getRowCountsByKey(Connection connection, String tableName,
+            PartitionLevel level) throws SQLException {
+        String columns = level.getColumnList();
+        String query = "SELECT " + columns + ", COUNT(*) FROM " + tableName + " GROUP BY " + columns;
+        String[] keyColumns = level.getColumns();
+        TreeMap<Long, Long> rowCounts = new TreeMap<>();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement(query);
+            resultSet = statement.executeQuery();
+            int[] values = new int[keyColumns.length];
+            while (resultSet.next()) {
+                for (int i = 0; i < keyColumns.length; i++) {
+                    values[i] = resultSet.getInt(i + 1);
+                }
+                rowCounts.put(level.getKey(values), resultSet.getLong(keyColumns.length + 1));
+            }
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        return rowCounts;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Converts the time columns of the previous stats tables to epoch milliseconds in the default time zone, without
+ * creating any objects per row. The results are identical to parsing the values with the Joda patterns in
+ * {@link APIMStatMigrationConstants}:
+ * <ul>
+ * <li>the integer year, month, day, hour and minute columns are converted with calendar arithmetic instead of being
+ * concatenated into a string and parsed</li>
+ * <li>the yyyy-MM-dd HH:mm time strings are parsed character by character</li>
+ * <li>the conversion from local time to UTC, the only part which depends on the time zone rules, is memoized for
+ * the recently converted values</li>
+ * </ul>
+ * Values which are not valid dates, as well as local times which fall into a daylight saving gap, are handed to the
+ * Joda formatter so that they fail with the same error as before. Instances are not thread safe.
+ */
+public class TimestampConverter {
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    private static final int MEMO_SIZE = 1024;
+    private static final int MEMO_MASK = MEMO_SIZE - 1;
+
+    private final DateTimeZone zone;
+    private final DateTimeFormatter timeFormatter;
+    private final DateTimeFormatter dayFormatter;
+    private final DateTimeFormatter hourFormatter;
+    private final DateTimeFormatter minuteFormatter;
+    private final long[] memoLocalMillis = new long[MEMO_SIZE];
+    private final long[] memoUtcMillis = new long[MEMO_SIZE];
+    private final boolean[] memoUsed = new boolean[MEMO_SIZE];
+
+    /**
+     * Creates a converter for the default time zone, which is the zone used by the Joda formatters
+     */
+    public TimestampConverter() {
+        this(DateTimeZone.getDefault());
+    }
+
+    public TimestampConverter(DateTimeZone zone) {
+        this.zone = zone;
+        this.timeFormatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_PATTERN).withZone(zone);
+        this.dayFormatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_DAY_PATTERN)
+                .withZone(zone);
+        this.hourFormatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_HOUR_PATTERN)
+                .withZone(zone);
+        this.minuteFormatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_MINUTE_PATTERN)
+                .withZone(zone);
+    }
+
+    /**
+     * This method returns the start of a day as a timestamp, same as parsing year-month-day with the pattern
+     * yyyy-M-dd
+     *
+     * @return the day in milliseconds
+     */
+    public long toDayTimestamp(int year, int month, int day) {
+        if (!isValidDate(year, month, day)) {
+            return dayFormatter.parseDateTime(year + "-" + month + "-" + day).getMillis();
+        }
+        long utcMillis = toUtc(toLocalMillis(year, month, day, 0, 0));
+        if (utcMillis == Long.MIN_VALUE) {
+            return dayFormatter.parseDateTime(year + "-" + month + "-" + day).getMillis();
+        }
+        return utcMillis;
+    }
+
+    /**
+     * This method returns the start of an hour as a timestamp, same as parsing year-month-day hour with the pattern
+     * yyyy-M-dd HH
+     *
+     * @return the hour in milliseconds
+     */
+    public long toHourTimestamp(int year, int month, int day, int hour) {
+        if (!isValidDate(year, month, day) || hour < 0 || hour > 23) {
+            return hourFormatter.parseDateTime(year + "-" + month + "-" + day + " " + hour).getMillis();
+        }
+        long utcMillis = toUtc(toLocalMillis(year, month, day, hour, 0));
+        if (utcMillis == Long.MIN_VALUE) {
+            return hourFormatter.parseDateTime(year + "-" + month + "-" + day + " " + hour).getMillis();
+        }
+        return utcMillis;
+    }
+
+    /**
+     * This method returns the start of a minute as a timestamp, same as parsing year-month-day hour:minute with the
+     * pattern yyyy-M-dd HH:mm
+     *
+     * @return the minute in milliseconds
+     */
+    public long toMinuteTimestamp(int year, int month, int day, int hour, int minute) {
+        if (!isValidDate(year, month, day) || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return minuteFormatter.parseDateTime(year + "-" + month + "-" + day + " " + hour + ":" + minute)
+                    .getMillis();
+        }
+        long utcMillis = toUtc(toLocalMillis(year, month, day, hour, minute));
+        if (utcMillis == Long.MIN_VALUE) {
+            return minuteFormatter.parseDateTime(year + "-" + month + "-" + day + " " + hour + ":" + minute)
+                    .getMillis();
+        }
+        return utcMillis;
+    }
+
+    /**
+     * This method returns a time of the form yyyy-MM-dd HH:mm as a timestamp
+     *
+     * @param time time as a string
+     * @return the time in milliseconds
+     */
+    public long parseTime(String time) {
+        long utcMillis = Long.MIN_VALUE;
+        if (time != null) {
+            utcMillis = parseTimeFields(time);
+        }
+        if (utcMillis == Long.MIN_VALUE) {
+            //anything the fast path does not understand, including null, fails or succeeds exactly as before
+            return timeFormatter.parseDateTime(time).getMillis();
+        }
+        return utcMillis;
+    }
+
+    /**
+     * Parses 4 digit years and 1 or 2 digit months, days, hours and minutes, which is what the Joda pattern accepts
+     * for the values stored by DAS.
+     *
+     * @return the time in milliseconds, or Long.MIN_VALUE if the value has to be parsed by the Joda formatter
+     */
+    private long parseTimeFields(String time) {
+        if (time.length() < 4) {
+            return Long.MIN_VALUE;
+        }
+        int year = 0;
+        for (int position = 0; position < 4; position++) {
+            char character = time.charAt(position);
+            if (!isDigit(character)) {
+                return Long.MIN_VALUE;
+            }
+            year = year * 10 + (character - '0');
+        }
+        long month = parseField(time, 4, '-');
+        long day = month < 0 ? -1 : parseField(time, getPosition(month), '-');
+        long hour = day < 0 ? -1 : parseField(time, getPosition(day), ' ');
+        long minute = hour < 0 ? -1 : parseField(time, getPosition(hour), ':');
+        if (minute < 0 || getPosition(minute) != time.length()) {
+            return Long.MIN_VALUE;
+        }
+        int monthValue = getValue(month);
+        int dayValue = getValue(day);
+        int hourValue = getValue(hour);
+        int minuteValue = getValue(minute);
+        if (!isValidDate(year, monthValue, dayValue) || hourValue > 23 || minuteValue > 59) {
+            return Long.MIN_VALUE;
+        }
+        return toUtc(toLocalMillis(year, monthValue, dayValue, hourValue, minuteValue));
+    }
+
+    /**
+     * Parses a separator followed by a 1 or 2 digit number. The value and the position after the number are packed
+     * into a single long so that no object is needed to return both.
+     *
+     * @return the packed value and position, or -1 if the field is malformed
+     */
+    private static long parseField(String time, int position, char separator) {
+        int length = time.length();
+        if (position >= length || time.charAt(position) != separator) {
+            return -1;
+        }
+        position++;
+        int value = 0;
+        int digits = 0;
+        while (position < length && digits < 2 && isDigit(time.charAt(position))) {
+            value = value * 10 + (time.charAt(position) - '0');
+            position++;
+            digits++;
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        return ((long) value << 32) | position;
+    }
+
+    private static int getValue(long packedField) {
+        return (int) (packedField >>> 32);
+    }
+
+    private static int getPosition(long packedField) {
+        return (int) packedField;
+    }
+
+    /**
+     * Converts a local time to UTC the same way Joda resolves a parsed local time: the offset is taken from
+     * getOffsetFromLocal, which picks the earlier offset in an overlap, and a local time in a gap is rejected.
+     *
+     * @return the time in UTC, or Long.MIN_VALUE if the local time does not exist in the zone
+     */
+    private long toUtc(long localMillis) {
+        int slot = (int) (localMillis / MILLIS_PER_MINUTE ^ localMillis / MILLIS_PER_DAY) & MEMO_MASK;
+        if (memoUsed[slot] && memoLocalMillis[slot] == localMillis) {
+            return memoUtcMillis[slot];
+        }
+        int offset = zone.getOffsetFromLocal(localMillis);
+        long utcMillis = localMillis - offset;
+        if (offset != zone.getOffset(utcMillis)) {
+            return Long.MIN_VALUE;
+        }
+        memoUsed[slot] = true;
+        memoLocalMillis[slot] = localMillis;
+        memoUtcMillis[slot] = utcMillis;
+        return utcMillis;
+    }
+
+    private static long toLocalMillis(int year, int month, int day, int hour, int minute) {
+        return toEpochDay(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * @return number of days from 1970-01-01 in the proleptic Gregorian calendar used by the ISO chronology
+     */
+    private static long toEpochDay(long year, int month, int day) {
+        long adjustedYear = month <= 2 ? year - 1 : year;
+        long era = (adjustedYear >= 0 ? adjustedYear : adjustedYear - 399) / 400;
+        long yearOfEra = adjustedYear - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static boolean isValidDate(int year, int month, int day) {
+        if (year < 1 || year > 9999 || month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        return day <= getDaysInMonth(year, month);
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the insert statements of the migration into upsert statements which merge a row into an existing row with
+ * the same key of the new stats aggregation tables, in a single statement per row:
+ * <ul>
+ * <li>MySQL: INSERT ... ON DUPLICATE KEY UPDATE</li>
+ * <li>PostgreSQL: INSERT ... ON CONFLICT (key) DO UPDATE</li>
+ * <li>Oracle, H2 and DB2: MERGE</li>
+ * <li>Microsoft SQL Server: MERGE WITH (HOLDLOCK), as partitions of a table may merge the same key concurrently</li>
+ * </ul>
+ * The counts and sums are added to the existing values, the last event and access times keep the latest value and
+ * the first event time keeps the earliest value. Other columns are left as they are.
+ */
+public class UpsertStatementBuilder {
+
+    private static final Pattern INSERT_PATTERN = Pattern.compile(
+            "\\s*INSERT\\s+INTO\\s+(\\w+)\\s*\\((.*?)\\)\\s*VALUES\\s*\\((.*)\\)\\s*", Pattern.CASE_INSENSITIVE
+                    | Pattern.DOTALL);
+
+    /**
+     * How the value of a column is merged into the value of an existing row
+     */
+    public enum Merge {
+        KEEP, SUM, MAX, MIN;
+
+        /**
+         * @param column column of a new stats aggregation table
+         * @return how the values of the column are merged
+         */
+        public static Merge forColumn(String column) {
+            String name = column.toUpperCase(Locale.ENGLISH);
+            if (name.startsWith("AGG_SUM_") || "AGG_COUNT".equals(name) || "TOTALCOUNT".equals(name)) {
+                return SUM;
+            } else if ("AGG_LAST_EVENT_TIMESTAMP".equals(name) || "LASTACCESSTIME".equals(name)) {
+                return MAX;
+            } else if ("AGG_EVENT_TIMESTAMP".equals(name)) {
+                return MIN;
+            }
+            return KEEP;
+        }
+    }
+
+    /**
+     * The write modes of the migration
+     */
+    public enum WriteMode {
+        INSERT, UPSERT;
+
+        public static WriteMode fromString(String mode) {
+            return mode == null ? INSERT : valueOf(mode.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private UpsertStatementBuilder() {
+    }
+
+    /**
+     * This method builds the upsert statement of an insert statement, using the primary key of the target table to
+     * find the existing rows. Tables without a primary key are matched on all the columns which are not merged.
+     *
+     * @param connection  connection to the new stats database
+     * @param insertQuery insert statement of the form INSERT INTO table(columns) VALUES(values), where the values are
+     *                    parameters or literals
+     * @return the upsert statement, with the same parameters as the insert statement
+     * @throws SQLException if the statement cannot be built for the database
+     */
+    public static String build(Connection connection, String insertQuery) throws SQLException {
+        Matcher matcher = INSERT_PATTERN.matcher(insertQuery);
+        if (!matcher.matches()) {
+            throw new SQLException("Cannot build an upsert statement for " + insertQuery);
+        }
+        String tableName = matcher.group(1);
+        List<String> columns = split(matcher.group(2));
+        List<String> values = split(matcher.group(3));
+        if (columns.size() != values.size()) {
+            throw new SQLException("The number of columns and values does not match in " + insertQuery);
+        }
+        List<String> keyColumns = getPrimaryKeyColumns(connection.getMetaData(), tableName, columns);
+        if (keyColumns.isEmpty()) {
+            for (String column : columns) {
+                if (Merge.forColumn(column) == Merge.KEEP) {
+                    keyColumns.add(column);
+                }
+            }
+        }
+        DatabaseDialect dialect = DatabaseDialect.fromConnection(connection);
+        switch (dialect) {
+            case MYSQL:
+                return buildMySQLUpsert(insertQuery, columns, keyColumns);
+            case POSTGRESQL:
+                return buildPostgreSQLUpsert(insertQuery, tableName, columns, keyColumns);
+            case ORACLE:
+            case MSSQL:
+            case H2:
+            case DB2:
+                return buildMerge(dialect, tableName, columns, values, keyColumns);
+            default:
+                throw new SQLException("Upserts are not supported for " + connection.getMetaData()
+                        .getDatabaseProductName());
+        }
+    }
+
+    private static String buildMySQLUpsert(String insertQuery, List<String> columns, List<String> keyColumns) {
+        StringBuilder query = new StringBuilder(insertQuery.trim()).append(" ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for (String column : columns) {
+            Merge merge = Merge.forColumn(column);
+            if (merge == Merge.KEEP || keyColumns.contains(column)) {
+                continue;
+            }
+            if (!first) {
+                query.append(", ");
+            }
+            first = false;
+            String newValue = "VALUES(" + column + ")";
+            query.append(column).append(" = ");
+            if (merge == Merge.SUM) {
+                query.append(column).append(" + ").append(newValue);
+            } else {
+                query.append(merge == Merge.MAX ? "GREATEST(" : "LEAST(").append(column).append(", ").append(newValue)
+                        .append(')');
+            }
+        }
+        if (first) {
+            //a table without merged columns only has to keep the existing row
+            query.append(columns.get(0)).append(" = ").append(columns.get(0));
+        }
+        return query.toString();
+    }
+
+    private static String buildPostgreSQLUpsert(String insertQuery, String tableName, List<String> columns,
+            List<String> keyColumns) {
+        StringBuilder query = new StringBuilder(insertQuery.trim()).append(" ON CONFLICT (").append(join(keyColumns))
+                .append(") DO ");
+        List<String> assignments = new ArrayList<>();
+        for (String column : columns) {
+            Merge merge = Merge.forColumn(column);
+            if (merge == Merge.KEEP || keyColumns.contains(column)) {
+                continue;
+            }
+            String existingValue = tableName + "." + column;
+            String newValue = "EXCLUDED." + column;
+            if (merge == Merge.SUM) {
+                assignments.add(column + " = " + existingValue + " + " + newValue);
+            } else {
+                assignments.add(column + " = " + (merge == Merge.MAX ? "GREATEST(" : "LEAST(") + existingValue + ", "
+                        + newValue + ")");
+            }
+        }
+        if (assignments.isEmpty()) {
+            return query.append("NOTHING").toString();
+        }
+        return query.append("UPDATE SET ").append(join(assignments)).toString();
+    }
+
+    /**
+     * GREATEST and LEAST are not available on all the databases supporting MERGE, so the latest and earliest values
+     * are picked with CASE expressions
+     */
+    private static String buildMerge(DatabaseDialect dialect, String tableName, List<String> columns,
+            List<String> values, List<String> keyColumns) {
+        StringBuilder query = new StringBuilder("MERGE INTO ").append(tableName);
+        if (dialect == DatabaseDialect.MSSQL) {
+            //without a key range lock, concurrent merges of the same new key could all insert it and fail on the key
+            query.append(" WITH (HOLDLOCK)");
+        }
+        query.append(" t USING (");
+        if (dialect == DatabaseDialect.MSSQL || dialect == DatabaseDialect.DB2) {
+            query.append("VALUES (").append(join(values)).append(")) s (").append(join(columns)).append(')');
+        } else {
+            query.append("SELECT ");
+            for (int i = 0; i < columns.size(); i++) {
+                query.append(i == 0 ? "" : ", ").append(values.get(i)).append(" AS ").append(columns.get(i));
+            }
+            query.append(dialect == DatabaseDialect.ORACLE ? " FROM DUAL) s" : ") s");
+        }
+
+        //key columns which are not written are filled with their defaults, so they cannot tell rows apart
+        query.append(" ON (");
+        boolean firstKey = true;
+        for (String column : keyColumns) {
+            if (columns.contains(column)) {
+                query.append(firstKey ? "" : " AND ").append("t.").append(column).append(" = s.").append(column);
+                firstKey = false;
+            }
+        }
+        query.append(')');
+
+        List<String> assignments = new ArrayList<>();
+        for (String column : columns) {
+            Merge merge = Merge.forColumn(column);
+            if (merge == Merge.KEEP || keyColumns.contains(column)) {
+                continue;
+            }
+            String existingValue = "t." + column;
+            String newValue = "s." + column;
+            if (merge == Merge.SUM) {
+                assignments.add(existingValue + " = " + existingValue + " + " + newValue);
+            } else {
+                assignments.add(existingValue + " = CASE WHEN " + newValue + (merge == Merge.MAX ? " > " : " < ")
+                        + existingValue + " THEN " + newValue + " ELSE " + existingValue + " END");
+            }
+        }
+        if (!assignments.isEmpty()) {
+            query.append(" WHEN MATCHED THEN UPDATE SET ").append(join(assignments));
+        }
+
+        List<String> sourceColumns = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            sourceColumns.add("s." + column);
+        }
+        query.append(" WHEN NOT MATCHED THEN INSERT (").append(join(columns)).append(") VALUES (")
+                .append(join(sourceColumns)).append(')');
+        if (dialect == DatabaseDialect.MSSQL) {
+            //SQL Server requires a MERGE statement to be terminated
+            query.append(';');
+        }
+        return query.toString();
+    }
+
+    /**
+     * Unquoted names are stored in upper case by some databases and in lower case by others, the key columns are
+     * returned with the names used in the insert statement
+     */
+    static List<String> getPrimaryKeyColumns(DatabaseMetaData metaData, String tableName,
+            List<String> columns) throws SQLException {
+        String[] names = {tableName, tableName.toUpperCase(Locale.ENGLISH), tableName.toLowerCase(Locale.ENGLISH)};
+        for (String name : names) {
+            TreeMap<Short, String> keyColumns = new TreeMap<>();
+            ResultSet resultSet = null;
+            try {
+                resultSet = metaData.getPrimaryKeys(null, null, name);
+                while (resultSet.next()) {
+                    keyColumns.put(resultSet.getShort("KEY_SEQ"), resultSet.getString("COLUMN_NAME"));
+                }
+            } finally {
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+            }
+            if (!keyColumns.isEmpty()) {
+                List<String> keys = new ArrayList<>(keyColumns.size());
+                for (String keyColumn : keyColumns.values()) {
+                    keys.add(getColumnName(keyColumn, columns));
+                }
+                return keys;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private static String getColumnName(String keyColumn, List<String> columns) {
+        for (String column : columns) {
+            if (column.equalsIgnoreCase(keyColumn)) {
+                return column;
+            }
+        }
+        return keyColumn;
+    }
+
+    private static List<String> split(String list) {
+        List<String> items = new ArrayList<>();
+        for (String item : list.split(",")) {
+            items.add(item.trim());
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    private static String join(List<String> items) {
+        StringBuilder joined = new StringBuilder();
+        for (String item : items) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(item);
+        }
+        return joined.toString();
+    }
+}
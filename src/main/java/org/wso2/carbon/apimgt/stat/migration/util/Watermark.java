@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The range of a watermark field of a previous stats table which a run migrates, selecting the rows with
+ * {@code lowerBound <= field < upperBound}. The upper bound is the largest value of the field when the run starts and
+ * is excluded, as rows with that value may still be written while the table is read, or after it. It is recorded as
+ * the included lower bound of the next run, so rows which arrive with the recorded value between two runs are
+ * migrated by the next run, and the two runs never read the same row. The rows with the newest value of a table are
+ * therefore only migrated once a larger value has been written. Rows without a value are migrated by the first run.
+ * Values are kept as strings and bound as numbers if the field is numeric.
+ */
+public class Watermark {
+
+    private final String field;
+    private final TableMapping.FieldType type;
+    private final boolean recorded;
+    private final String lowerBound;
+    private final String upperBound;
+
+    private Watermark(String field, TableMapping.FieldType type, boolean recorded, String lowerBound,
+            String upperBound) {
+        this.field = field;
+        this.type = type;
+        this.recorded = recorded;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    /**
+     * @param mapping mapping of a table which was not migrated before
+     * @return a watermark selecting every row of the table
+     */
+    public static Watermark initial(TableMapping mapping) {
+        return new Watermark(mapping.getWatermarkField(), mapping.getWatermarkType(), false, null, null);
+    }
+
+    /**
+     * @param mapping    mapping of a table migrated by a previous run
+     * @param lowerBound upper bound of the previous run, or null if the table was empty
+     * @return a watermark selecting the rows from the given value on
+     */
+    public static Watermark recorded(TableMapping mapping, String lowerBound) {
+        return new Watermark(mapping.getWatermarkField(), mapping.getWatermarkType(), true, lowerBound, null);
+    }
+
+    /**
+     * @param upperBound largest value of the field when the run started, or null if the table is empty
+     * @return a copy of the watermark which selects the rows below the given value
+     */
+    public Watermark upTo(String upperBound) {
+        return new Watermark(field, type, recorded, lowerBound, upperBound);
+    }
+
+    /**
+     * @return a watermark selecting the rows migrated by the runs up to the one which recorded this watermark, i.e. the
+     * rows below its lower bound, which is empty if no rows were migrated
+     */
+    public Watermark migrated() {
+        return new Watermark(field, type, false, null, lowerBound);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public TableMapping.FieldType getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the table was migrated by a previous run, so the selected rows are merged into the existing
+     * rows
+     */
+    public boolean isRecorded() {
+        return recorded;
+    }
+
+    public String getLowerBound() {
+        return lowerBound;
+    }
+
+    public String getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * @return true if no rows below the newest value were written to the table since the previous run
+     */
+    public boolean isEmpty() {
+        return upperBound == null || upperBound.equals(lowerBound);
+    }
+
+    /**
+     * @return the lower bound of the next run once the selected rows are migrated
+     */
+    public String getNextLowerBound() {
+        return upperBound != null ? upperBound : lowerBound;
+    }
+
+    /**
+     * Rows without a value can only be told apart from the rows of later runs on the first run, which migrates them
+     *
+     * @return the condition selecting the rows of the watermark without the WHERE keyword
+     */
+    public String getCondition() {
+        if (lowerBound == null) {
+            return "(" + field + " IS NULL OR " + field + " < ?)";
+        }
+        return field + " >= ? AND " + field + " < ?";
+    }
+
+    /**
+     * This method binds the bounds of the watermark to the parameters of its condition
+     *
+     * @param statement      statement the condition is part of
+     * @param parameterIndex index of the first parameter of the condition
+     * @return index of the parameter after the condition
+     * @throws SQLException if the parameters cannot be set
+     */
+    public int bind(PreparedStatement statement, int parameterIndex) throws SQLException {
+        if (lowerBound != null) {
+            bind(statement, parameterIndex++, lowerBound);
+        }
+        bind(statement, parameterIndex++, upperBound);
+        return parameterIndex;
+    }
+
+    private void bind(PreparedStatement statement, int parameterIndex, String value) throws SQLException {
+        if (type == TableMapping.FieldType.LONG) {
+            statement.setLong(parameterIndex, Long.parseLong(value));
+        } else {
+            statement.setString(parameterIndex, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return field + (lowerBound != null ? " >= " + lowerBound + " and" : "") + " < " + upperBound;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.stat.migration.APIMStatMigrationException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the watermarks of the migrated tables in a table of the new stats database, one row per table of the new
+ * stats database. The watermark of a table is the first value of the watermark field of its source table which has
+ * not been migrated, recorded once every row below it has been written.
+ */
+public class WatermarkStore {
+
+    private static final Log log = LogFactory.getLog(WatermarkStore.class);
+
+    private static final String TABLE_NAME = APIMStatMigrationConstants.MIGRATION_WATERMARK_TABLE;
+    private static final String SELECT_QUERY = "SELECT SOURCE_TABLE, WATERMARK_FIELD, WATERMARK FROM " + TABLE_NAME
+            + " WHERE TARGET_TABLE = ?";
+    private static final String DELETE_QUERY = "DELETE FROM " + TABLE_NAME + " WHERE TARGET_TABLE = ?";
+    private static final String INSERT_QUERY = "INSERT INTO " + TABLE_NAME
+            + " (TARGET_TABLE, SOURCE_TABLE, WATERMARK_FIELD, WATERMARK) VALUES (?,?,?,?)";
+
+    private final DataSource dataSource;
+
+    /**
+     * @param dataSource datasource of the new stats database
+     */
+    public WatermarkStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * This method creates the watermark table in the new stats database if it does not exist
+     *
+     * @throws APIMStatMigrationException if the table cannot be created
+     */
+    public void initialize() throws APIMStatMigrationException {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            if (DatabaseProgressStore.tableExists(connection.getMetaData(), TABLE_NAME)) {
+                return;
+            }
+            String textType = DatabaseDialect.fromConnection(connection) == DatabaseDialect.ORACLE ? "VARCHAR2(255)"
+                    : "VARCHAR(255)";
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE " + TABLE_NAME + " (TARGET_TABLE " + textType + " NOT NULL, "
+                    + "SOURCE_TABLE " + textType + " NOT NULL, WATERMARK_FIELD " + textType + " NOT NULL, "
+                    + "WATERMARK " + textType + ", PRIMARY KEY (TARGET_TABLE))");
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            log.info("Created the " + TABLE_NAME + " table to record the watermarks of the migrated tables");
+        } catch (SQLException e) {
+            String msg = "Error occurred while creating the " + TABLE_NAME + " table";
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            close(null, statement, connection);
+        }
+    }
+
+    /**
+     * This method returns the watermark recorded for the target table of a mapping
+     *
+     * @param mapping mapping of the table
+     * @return the rows from the recorded watermark on, or null if the table was not migrated with a watermark before
+     * @throws APIMStatMigrationException if the watermark cannot be read or was recorded for another source field
+     */
+    public Watermark load(TableMapping mapping) throws APIMStatMigrationException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement(SELECT_QUERY);
+            statement.setString(1, mapping.getTargetTable());
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            String sourceTable = resultSet.getString(1);
+            String field = resultSet.getString(2);
+            if (!mapping.getSourceTable().equalsIgnoreCase(sourceTable)
+                    || !mapping.getWatermarkField().equalsIgnoreCase(field)) {
+                String msg = "The watermark of " + mapping.getTargetTable() + " was recorded on " + sourceTable + "."
+                        + field + " rather than " + mapping.getSourceTable() + "." + mapping.getWatermarkField();
+                log.error(msg);
+                throw new APIMStatMigrationException(msg);
+            }
+            return Watermark.recorded(mapping, resultSet.getString(3));
+        } catch (SQLException e) {
+            String msg = "Error occurred while reading the watermark of " + mapping.getTargetTable();
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            close(resultSet, statement, connection);
+        }
+    }
+
+    /**
+     * This method records the watermark of the target tables of the given mappings in a single transaction
+     *
+     * @param mappings  mappings of the tables, which read the same source table
+     * @param watermark rows of the source table which have been migrated to all of the tables
+     * @throws APIMStatMigrationException if the watermark cannot be written
+     */
+    public void save(List<TableMapping> mappings, Watermark watermark) throws APIMStatMigrationException {
+        Connection connection = null;
+        PreparedStatement deleteStatement = null;
+        PreparedStatement insertStatement = null;
+        boolean autoCommit = true;
+        try {
+            connection = dataSource.getConnection();
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            deleteStatement = connection.prepareStatement(DELETE_QUERY);
+            insertStatement = connection.prepareStatement(INSERT_QUERY);
+            for (TableMapping mapping : mappings) {
+                deleteStatement.setString(1, mapping.getTargetTable());
+                deleteStatement.addBatch();
+                insertStatement.setString(1, mapping.getTargetTable());
+                insertStatement.setString(2, mapping.getSourceTable());
+                insertStatement.setString(3, watermark.getField());
+                insertStatement.setString(4, watermark.getNextLowerBound());
+                insertStatement.addBatch();
+            }
+            deleteStatement.executeBatch();
+            insertStatement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection);
+            String msg = "Error occurred while recording the watermark of " + mappings.get(0).getSourceTable();
+            log.error(msg, e);
+            throw new APIMStatMigrationException(msg, e);
+        } finally {
+            restoreAutoCommit(connection, autoCommit);
+            close(null, deleteStatement, null);
+            close(null, insertStatement, connection);
+        }
+    }
+
+    private static void rollback(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                log.error("Error occurred while rolling back the watermark of the migration", e);
+            }
+        }
+    }
+
+    private static void restoreAutoCommit(Connection connection, boolean autoCommit) {
+        if (connection != null && autoCommit) {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.error("Error occurred while restoring the auto commit mode of the JDBC database connection.", e);
+            }
+        }
+    }
+
+    private static void close(ResultSet resultSet, Statement statement, Connection connection) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the result set from JDBC database.", e);
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the prepared statement from JDBC database.", e);
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //this is logged and the process is continued because the query has executed
+                log.error("Error occurred while closing the JDBC database connection.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the rows written by the {@link BulkLoader} of MySQL and PostgreSQL, and the fallback to batched inserts on
+ * other databases. The JDBC drivers are replaced by test doubles of the driver APIs, whose names are passed to the
+ * loaders in place of the driver class names, so the reflective calls are made as with the real drivers.
+ */
+public class BulkLoaderTest {
+
+    private static final TableMapping MAPPING = new TableMapping("SOURCE_SUMMARY", "TARGET_AGG", PartitionLevel.NONE)
+            .map("apiName", TableMapping.Conversion.STRING, "api")
+            .map("AGG_COUNT", TableMapping.Conversion.LONG, "total")
+            .map("apiHostname", TableMapping.Conversion.STRING, "hostName")
+            .constant("label", "Synapse");
+
+    /**
+     * Values of apiName, AGG_COUNT and apiHostname
+     */
+    private static final Object[][] ROWS = {
+            {"plain", 1L, "localhost"},
+            {"no host", 2L, null},
+            {"", 0L, ""},
+            {"C:\\path\\N", -5L, "\\N"},
+            {"tab\tnew line\ncarriage return\rend", Long.MAX_VALUE, "host"},
+            {"say \"hi\", then leave", 3L, "\"quoted\""},
+            {"\u00fcber \u65e5\u672c\u8a9e \ud83d\ude00", 4L, "\u0645\u062b\u0627\u0644.example"}};
+
+    private static final String MYSQL_ROWS = "\"plain\",1,\"localhost\",\"Synapse\"\n"
+            + "\"no host\",2,\\N,\"Synapse\"\n"
+            + "\"\",0,\"\",\"Synapse\"\n"
+            + "\"C:\\\\path\\\\N\",-5,\"\\\\N\",\"Synapse\"\n"
+            + "\"tab\tnew line\\ncarriage return\\rend\",9223372036854775807,\"host\",\"Synapse\"\n"
+            + "\"say \\\"hi\\\", then leave\",3,\"\\\"quoted\\\"\",\"Synapse\"\n"
+            + "\"\u00fcber \u65e5\u672c\u8a9e \ud83d\ude00\",4,\"\u0645\u062b\u0627\u0644.example\",\"Synapse\"\n";
+
+    private static final String POSTGRESQL_ROWS = "\"plain\",1,\"localhost\",\"Synapse\"\n"
+            + "\"no host\",2,,\"Synapse\"\n"
+            + "\"\",0,\"\",\"Synapse\"\n"
+            + "\"C:\\path\\N\",-5,\"\\N\",\"Synapse\"\n"
+            + "\"tab\tnew line\ncarriage return\rend\",9223372036854775807,\"host\",\"Synapse\"\n"
+            + "\"say \"\"hi\"\", then leave\",3,\"\"\"quoted\"\"\",\"Synapse\"\n"
+            + "\"\u00fcber \u65e5\u672c\u8a9e \ud83d\ude00\",4,\"\u0645\u062b\u0627\u0644.example\",\"Synapse\"\n";
+
+    private static final String[] MYSQL_STATEMENT_CLASSES = {MySQLStatement.class.getName()};
+    private static final String[] POSTGRESQL_CONNECTION_CLASSES = {PGConnection.class.getName()};
+
+    private static int databaseCount = 0;
+
+    /**
+     * The statement API of MySQL Connector/J the bulk loader calls
+     */
+    public interface MySQLStatement extends Statement {
+
+        void setLocalInfileInputStream(InputStream stream);
+    }
+
+    /**
+     * The connection API of the PostgreSQL JDBC driver the bulk loader calls
+     */
+    public interface PGConnection {
+
+        CopyManager getCopyAPI() throws SQLException;
+    }
+
+    /**
+     * The CopyManager API of the PostgreSQL JDBC driver. It records the statement and the data of the last COPY and
+     * reports the given number of rows as copied.
+     */
+    public static final class CopyManager {
+
+        private final long copiedRows;
+        private String sql;
+        private String data;
+
+        /**
+         * @param copiedRows number of rows every COPY reports as copied
+         */
+        CopyManager(long copiedRows) {
+            this.copiedRows = copiedRows;
+        }
+
+        public long copyIn(String sql, InputStream from) throws IOException {
+            this.sql = sql;
+            this.data = read(from);
+            return copiedRows;
+        }
+    }
+
+    @After
+    public void clearLoaderMode() {
+        System.clearProperty(APIMStatMigrationConstants.ARG_LOADER);
+    }
+
+    @Test
+    public void testMySQLRows() throws SQLException {
+        DriverStandIn driver = new DriverStandIn("MySQL", null);
+        driver.loadedRows = ROWS.length;
+        BulkLoader loader = createLoader(driver.connect());
+        Assert.assertNotNull(loader);
+        addRows(loader);
+        Assert.assertEquals(ROWS.length, loader.getPendingRows());
+        Assert.assertEquals(ROWS.length, loader.execute());
+        Assert.assertEquals("LOAD DATA LOCAL INFILE 'stat-migration.csv' INTO TABLE TARGET_AGG CHARACTER SET utf8mb4 "
+                + "FIELDS TERMINATED BY ',' ENCLOSED BY '\"' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' "
+                + "(apiName, AGG_COUNT, apiHostname, label)", driver.sql);
+        Assert.assertEquals(MYSQL_ROWS, driver.data);
+        Assert.assertEquals(0, loader.getPendingRows());
+
+        //the rows of a load are not sent again by the next one
+        addRows(loader);
+        Assert.assertEquals(ROWS.length, loader.execute());
+        Assert.assertEquals(MYSQL_ROWS, driver.data);
+    }
+
+    @Test
+    public void testMySQLEscapesNullCharacters() throws SQLException {
+        DriverStandIn driver = new DriverStandIn("MySQL", null);
+        driver.loadedRows = 1;
+        BulkLoader loader = createLoader(driver.connect());
+        ConvertedBatch batch = new ConvertedBatch(MAPPING, 1, new DimensionDictionary());
+        setRow(batch, "a\0b", 1L, null);
+        loader.addRow(batch, 0);
+        loader.execute();
+        Assert.assertEquals("\"a\\0b\",1,\\N,\"Synapse\"\n", driver.data);
+    }
+
+    @Test
+    public void testPostgreSQLRows() throws SQLException {
+        CopyManager copyManager = new CopyManager(ROWS.length);
+        DriverStandIn driver = new DriverStandIn("PostgreSQL", copyManager);
+        BulkLoader loader = createLoader(driver.connect());
+        Assert.assertNotNull(loader);
+        addRows(loader);
+        Assert.assertEquals(ROWS.length, loader.execute());
+        Assert.assertEquals("COPY TARGET_AGG (apiName, AGG_COUNT, apiHostname, label) FROM STDIN WITH CSV",
+                copyManager.sql);
+        Assert.assertEquals(POSTGRESQL_ROWS, copyManager.data);
+    }
+
+    @Test
+    public void testMySQLRollsBackRowsWhichAreNotLoaded() throws SQLException {
+        DriverStandIn driver = new DriverStandIn("MySQL", null);
+        //a row with the key of an existing row is skipped by LOAD DATA LOCAL INFILE instead of failing it
+        driver.loadedRows = ROWS.length - 1;
+        assertRolledBack(driver);
+    }
+
+    @Test
+    public void testPostgreSQLRollsBackRowsWhichAreNotCopied() throws SQLException {
+        assertRolledBack(new DriverStandIn("PostgreSQL", new CopyManager(ROWS.length - 1)));
+    }
+
+    @Test
+    public void testUnsupportedDatabase() throws SQLException {
+        Assert.assertNull(createLoader(new DriverStandIn("Microsoft SQL Server", null).connect()));
+        try (Connection connection = createDatabase().getConnection()) {
+            Assert.assertNull(createLoader(connection));
+        }
+    }
+
+    @Test
+    public void testBulkLoadFallsBackToInsertsOnH2() throws Exception {
+        JdbcDataSource oldStatsDataSource = createDatabase();
+        try (Connection connection = oldStatsDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE API_DESTINATION_SUMMARY (api VARCHAR(254), version VARCHAR(254), "
+                    + "apiPublisher VARCHAR(254), context VARCHAR(254), destination VARCHAR(254), "
+                    + "total_request_count BIGINT, hostName VARCHAR(254), year SMALLINT, month SMALLINT, "
+                    + "day SMALLINT, time VARCHAR(30))");
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO API_DESTINATION_SUMMARY VALUES (?, '1.0.0', 'admin', ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < ROWS.length; i++) {
+                    insert.setString(1, (String) ROWS[i][0]);
+                    insert.setString(2, "/api" + i);
+                    insert.setString(3, "http://backend/" + i);
+                    insert.setLong(4, (Long) ROWS[i][1]);
+                    insert.setString(5, (String) ROWS[i][2]);
+                    insert.setInt(6, 2018);
+                    insert.setInt(7, 12);
+                    insert.setInt(8, 31 - i);
+                    insert.setString(9, "2018-12-" + (31 - i) + " 23:59");
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+        JdbcDataSource apimDataSource = createDatabase();
+
+        JdbcDataSource insertedDataSource = createTargetDatabase();
+        System.setProperty(APIMStatMigrationConstants.ARG_LOADER, "insert");
+        DBManagerImpl.initialize(oldStatsDataSource, insertedDataSource, apimDataSource);
+        new DBManagerImpl().migrateDestinationSummaryTable();
+
+        JdbcDataSource loadedDataSource = createTargetDatabase();
+        System.setProperty(APIMStatMigrationConstants.ARG_LOADER, "bulk");
+        DBManagerImpl.initialize(oldStatsDataSource, loadedDataSource, apimDataSource);
+        new DBManagerImpl().migrateDestinationSummaryTable();
+
+        List<String> insertedRows = readRows(insertedDataSource);
+        Assert.assertEquals(ROWS.length, insertedRows.size());
+        Assert.assertEquals(insertedRows, readRows(loadedDataSource));
+    }
+
+    private static void assertRolledBack(DriverStandIn driver) throws SQLException {
+        Connection connection = driver.connect();
+        BulkLoader loader = createLoader(connection);
+        BatchInsertWriter writer = new BatchInsertWriter(MAPPING.getTargetTable(), connection, loader, 100, null,
+                null);
+        Assert.assertFalse(driver.autoCommit);
+        ConvertedBatch batch = new ConvertedBatch(MAPPING, ROWS.length, new DimensionDictionary());
+        for (Object[] row : ROWS) {
+            setRow(batch, (String) row[0], (Long) row[1], (String) row[2]);
+        }
+        RowBatchWriter rowWriter = new RowBatchWriter(MAPPING, loader, writer);
+        try {
+            rowWriter.write(batch);
+            rowWriter.finish();
+            Assert.fail("The rows were committed although only " + (ROWS.length - 1) + " were loaded");
+        } catch (SQLException e) {
+            Assert.assertEquals("Loaded " + (ROWS.length - 1) + " of " + ROWS.length + " rows into TARGET_AGG. Rows "
+                    + "with the key of an existing row are not loaded", e.getMessage());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        Assert.assertEquals(0, driver.commits);
+        Assert.assertEquals(1, driver.rollbacks);
+        Assert.assertEquals(0, loader.getPendingRows());
+        Assert.assertEquals(0, writer.getRowsWritten());
+        writer.close();
+        Assert.assertTrue(driver.autoCommit);
+        Assert.assertEquals(1, driver.rollbacks);
+    }
+
+    private static BulkLoader createLoader(Connection connection) throws SQLException {
+        return BulkLoader.create(connection, MAPPING, MYSQL_STATEMENT_CLASSES, POSTGRESQL_CONNECTION_CLASSES);
+    }
+
+    private static void addRows(BulkLoader loader) {
+        ConvertedBatch batch = new ConvertedBatch(MAPPING, ROWS.length, new DimensionDictionary());
+        for (Object[] row : ROWS) {
+            setRow(batch, (String) row[0], (Long) row[1], (String) row[2]);
+        }
+        for (int row = 0; row < batch.getSize(); row++) {
+            loader.addRow(batch, row);
+        }
+    }
+
+    private static void setRow(ConvertedBatch batch, String apiName, long count, String hostName) {
+        int row = batch.addRow(0);
+        batch.setString(getValueIndex("apiName"), row, apiName);
+        batch.setLong(getValueIndex("AGG_COUNT"), row, count);
+        batch.setString(getValueIndex("apiHostname"), row, hostName);
+    }
+
+    private static int getValueIndex(String targetColumn) {
+        for (TableMapping.Column value : MAPPING.getValues()) {
+            if (value.getTargetColumn().equals(targetColumn)) {
+                return value.getValueIndex();
+            }
+        }
+        throw new IllegalArgumentException(targetColumn + " is not a value of the mapping");
+    }
+
+    private static JdbcDataSource createDatabase() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:BulkLoaderTest" + databaseCount++ + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+
+    private static JdbcDataSource createTargetDatabase() throws SQLException {
+        JdbcDataSource dataSource = createDatabase();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE ApiPerDestinationAgg_DAYS (apiName VARCHAR(254), apiVersion VARCHAR(254), "
+                    + "apiCreator VARCHAR(254), apiContext VARCHAR(254), destination VARCHAR(254), AGG_COUNT BIGINT, "
+                    + "apiHostname VARCHAR(254), AGG_TIMESTAMP BIGINT, AGG_EVENT_TIMESTAMP BIGINT, "
+                    + "AGG_LAST_EVENT_TIMESTAMP BIGINT, gatewayType VARCHAR(254), label VARCHAR(254), "
+                    + "regionalID VARCHAR(254))");
+        }
+        return dataSource;
+    }
+
+    /**
+     * @return every column of every row of the migrated table, in the order of the source rows
+     */
+    private static List<String> readRows(JdbcDataSource dataSource) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM ApiPerDestinationAgg_DAYS "
+                     + "ORDER BY AGG_TIMESTAMP DESC")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            while (resultSet.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                    row.append(metaData.getColumnName(column)).append('=').append(resultSet.getString(column))
+                            .append(';');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Answers the calls the bulk loaders and the batch writer make on the connection, its metadata and the MySQL
+     * statement, and records the loaded data and the transactions
+     */
+    private static final class DriverStandIn implements InvocationHandler {
+
+        private final String productName;
+        private final CopyManager copyManager;
+        private int loadedRows;
+        private InputStream infileStream;
+        private String sql;
+        private String data;
+        private boolean autoCommit = true;
+        private int commits = 0;
+        private int rollbacks = 0;
+
+        /**
+         * @param productName database product name reported by the metadata
+         * @param copyManager CopyManager of the connection, or null if it is not a PostgreSQL connection
+         */
+        DriverStandIn(String productName, CopyManager copyManager) {
+            this.productName = productName;
+            this.copyManager = copyManager;
+        }
+
+        Connection connect() {
+            return copyManager != null ? (Connection) newProxy(Connection.class, PGConnection.class)
+                    : (Connection) newProxy(Connection.class);
+        }
+
+        private Object newProxy(Class<?>... interfaces) {
+            return Proxy.newProxyInstance(BulkLoaderTest.class.getClassLoader(), interfaces, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getMetaData":
+                    return newProxy(DatabaseMetaData.class);
+                case "getDatabaseProductName":
+                    return productName;
+                case "createStatement":
+                    return newProxy(MySQLStatement.class);
+                case "setLocalInfileInputStream":
+                    infileStream = (InputStream) args[0];
+                    return null;
+                case "executeUpdate":
+                    sql = (String) args[0];
+                    data = read(infileStream);
+                    return loadedRows;
+                case "getCopyAPI":
+                    return copyManager;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "commit":
+                    commits++;
+                    return null;
+                case "rollback":
+                    rollbacks++;
+                    return null;
+                case "isWrapperFor":
+                    return false;
+                case "close":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return productName + " stand-in";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, length);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that the year rollup of a day table, whose rows are read in key order, keeps the groups of a year within the
+ * memory limit and writes the same rows as when the whole year is held in memory
+ */
+public class RowAggregatorTest {
+
+    private static final TableMapping YEAR_ROLLUP =
+            TableMappings.getMonthAndYearRollUps(TableMappings.DESTINATION_SUMMARY).get(1);
+    private static final int API_COUNT = 1500;
+    private static final int BATCH_SIZE = 100;
+    private static final long MEMORY_LIMIT_BYTES = 64 * 1024;
+
+    private Path spillDirectory;
+
+    @Before
+    public void createSpillDirectory() throws IOException {
+        spillDirectory = Files.createTempDirectory("stat-migration-test-");
+    }
+
+    @After
+    public void deleteSpillDirectory() throws IOException {
+        for (File file : spillDirectory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(spillDirectory);
+    }
+
+    @Test
+    public void testKeyOrderedBucketsAreSpilled() throws Exception {
+        DimensionDictionary dictionary = new DimensionDictionary();
+        CollectingOutput unlimitedOutput = new CollectingOutput(dictionary);
+        CollectingOutput limitedOutput = new CollectingOutput(dictionary);
+        try (RowAggregator unlimited = new RowAggregator("unlimited", YEAR_ROLLUP, true, Long.MAX_VALUE,
+                spillDirectory);
+             RowAggregator limited = new RowAggregator("limited", YEAR_ROLLUP, true, MEMORY_LIMIT_BYTES,
+                     spillDirectory)) {
+            for (ConvertedBatch batch : createBatches(2017, dictionary)) {
+                unlimited.add(batch, unlimitedOutput);
+                limited.add(batch, limitedOutput);
+            }
+            Assert.assertTrue("The groups of the year were not spilled", countSpillFiles() > 1);
+            Assert.assertTrue(limitedOutput.rows.isEmpty());
+
+            boolean first = true;
+            for (ConvertedBatch batch : createBatches(2018, dictionary)) {
+                unlimited.add(batch, unlimitedOutput);
+                limited.add(batch, limitedOutput);
+                if (first) {
+                    //the first row of 2018 completes 2017, whose spill files are merged and deleted
+                    Assert.assertEquals(API_COUNT, limitedOutput.rows.size());
+                    first = false;
+                }
+            }
+            Assert.assertTrue("The groups of the year were not spilled", countSpillFiles() > 1);
+            unlimited.finish(unlimitedOutput);
+            limited.finish(limitedOutput);
+            Assert.assertEquals(0, countSpillFiles());
+        }
+
+        Assert.assertEquals(2 * API_COUNT, limitedOutput.rows.size());
+        Assert.assertEquals(sort(unlimitedOutput.rows), sort(limitedOutput.rows));
+        long previousBucket = 0;
+        for (long key : limitedOutput.keys) {
+            long bucket = YEAR_ROLLUP.getBucket(key);
+            Assert.assertTrue("The rows of the years were not written in order", bucket >= previousBucket);
+            previousBucket = bucket;
+        }
+    }
+
+    /**
+     * @return the rows of every API on 48 days of the year, in key order
+     */
+    private static List<ConvertedBatch> createBatches(int year, DimensionDictionary dictionary) {
+        List<ConvertedBatch> batches = new ArrayList<>();
+        ConvertedBatch batch = null;
+        for (int month = 1; month <= 12; month++) {
+            for (int day = 1; day <= 28; day += 7) {
+                long key = PartitionLevel.DAY.getKey(year, month, day);
+                for (int api = 0; api < API_COUNT; api++) {
+                    if (batch == null || batch.isFull()) {
+                        batch = new ConvertedBatch(YEAR_ROLLUP, BATCH_SIZE, dictionary);
+                        batches.add(batch);
+                    }
+                    int row = batch.addRow(key);
+                    for (TableMapping.Column value : YEAR_ROLLUP.getValues()) {
+                        if (value.getConversion().isStringValue()) {
+                            batch.setString(value.getValueIndex(), row, value.getTargetColumn() + api);
+                        } else if (YEAR_ROLLUP.getMerge(value) == UpsertStatementBuilder.Merge.KEEP) {
+                            //the start of the year
+                            batch.setLong(value.getValueIndex(), row, YEAR_ROLLUP.getBucket(key));
+                        } else {
+                            batch.setLong(value.getValueIndex(), row, key * 10 + api % 7);
+                        }
+                    }
+                }
+            }
+        }
+        return batches;
+    }
+
+    private static List<String> sort(List<String> rows) {
+        List<String> sortedRows = new ArrayList<>(rows);
+        Collections.sort(sortedRows);
+        return sortedRows;
+    }
+
+    private int countSpillFiles() {
+        return spillDirectory.toFile().listFiles().length;
+    }
+
+    /**
+     * Collects the aggregated rows as the values of their columns
+     */
+    private static final class CollectingOutput implements RowAggregator.Output {
+
+        private final DimensionDictionary dictionary;
+        private final List<String> rows = new ArrayList<>();
+        private final List<Long> keys = new ArrayList<>();
+
+        private CollectingOutput(DimensionDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public ConvertedBatch newBatch() {
+            return new ConvertedBatch(YEAR_ROLLUP, BATCH_SIZE, dictionary);
+        }
+
+        @Override
+        public void write(ConvertedBatch batch) {
+            for (int row = 0; row < batch.getSize(); row++) {
+                StringBuilder values = new StringBuilder();
+                for (TableMapping.Column value : YEAR_ROLLUP.getValues()) {
+                    values.append(value.getTargetColumn()).append('=')
+                            .append(value.getConversion().isStringValue() ? batch.getString(value.getValueIndex(), row)
+                                    : String.valueOf(batch.getLong(value.getValueIndex(), row)))
+                            .append(';');
+                }
+                rows.add(values.toString());
+                keys.add(batch.getKey(row));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the rows sorted under a small memory limit, whose spilled runs are merged in several passes, come out
+ * in the order of a dimension column and a string column which is not a dimension
+ */
+public class RowSorterTest {
+
+    private static final TableMapping MAPPING = TableMappings.DESTINATION_SUMMARY;
+    private static final int BATCH_SIZE = 50;
+    private static final int BATCH_COUNT = 2 * SpilledRuns.MAX_FAN_IN;
+
+    private Path spillDirectory;
+
+    @Before
+    public void createSpillDirectory() throws IOException {
+        spillDirectory = Files.createTempDirectory("stat-migration-test-");
+    }
+
+    @After
+    public void deleteSpillDirectory() throws IOException {
+        for (File file : spillDirectory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(spillDirectory);
+    }
+
+    @Test
+    public void testSpilledRowsAreSorted() throws Exception {
+        final int apiName = MAPPING.getColumn("apiName").getValueIndex();
+        final int destination = MAPPING.getColumn("destination").getValueIndex();
+        DimensionDictionary dictionary = new DimensionDictionary();
+        List<Object[]> expected = new ArrayList<>();
+        CollectingOutput output = new CollectingOutput(dictionary, apiName, destination);
+        try (RowSorter sorter = new RowSorter("test", MAPPING, Arrays.asList(MAPPING.getColumn("apiName"),
+                MAPPING.getColumn("destination")), 1024, spillDirectory)) {
+            Random random = new Random(3);
+            for (int b = 0; b < BATCH_COUNT; b++) {
+                ConvertedBatch batch = new ConvertedBatch(MAPPING, BATCH_SIZE, dictionary);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    int row = batch.addRow(0);
+                    int api = random.nextInt(20);
+                    String name = api == 0 ? null : "api" + api;
+                    String url = "https://backend" + (b * BATCH_SIZE + i) + ".example.com";
+                    batch.setString(apiName, row, name);
+                    batch.setString(destination, row, url);
+                    expected.add(new Object[]{name, url});
+                }
+                sorter.add(batch);
+                Assert.assertEquals(b + 1, countSpillFiles());
+            }
+            sorter.finish(output);
+            Assert.assertEquals(0, countSpillFiles());
+        }
+        Assert.assertTrue(MAPPING.getColumn("apiName").isDimension());
+        Assert.assertFalse(MAPPING.getColumn("destination").isDimension());
+        Assert.assertEquals("Only the api names are encoded", 19, dictionary.size());
+
+        Collections.sort(expected, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] row1, Object[] row2) {
+                if (row1[0] == null || row2[0] == null) {
+                    int result = row1[0] == null ? (row2[0] == null ? 0 : -1) : (row2[0] == null ? 1 : 0);
+                    if (result != 0) {
+                        return result;
+                    }
+                } else if (!row1[0].equals(row2[0])) {
+                    return ((String) row1[0]).compareTo((String) row2[0]);
+                }
+                return ((String) row1[1]).compareTo((String) row2[1]);
+            }
+        });
+        Assert.assertEquals(expected.size(), output.rows.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertArrayEquals(expected.get(i), output.rows.get(i));
+        }
+    }
+
+    private int countSpillFiles() {
+        return spillDirectory.toFile().listFiles().length;
+    }
+
+    /**
+     * Collects the api name and destination of the sorted rows
+     */
+    private static final class CollectingOutput implements RowAggregator.Output {
+
+        private final DimensionDictionary dictionary;
+        private final int apiName;
+        private final int destination;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        private CollectingOutput(DimensionDictionary dictionary, int apiName, int destination) {
+            this.dictionary = dictionary;
+            this.apiName = apiName;
+            this.destination = destination;
+        }
+
+        @Override
+        public ConvertedBatch newBatch() {
+            return new ConvertedBatch(MAPPING, BATCH_SIZE, dictionary);
+        }
+
+        @Override
+        public void write(ConvertedBatch batch) {
+            for (int row = 0; row < batch.getSize(); row++) {
+                rows.add(new Object[]{batch.getString(apiName, row), batch.getString(destination, row)});
+            }
+        }
+    }
+}
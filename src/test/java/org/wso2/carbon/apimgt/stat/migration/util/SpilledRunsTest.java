@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests that the spilled runs are merged in order while reading no more than the maximum number of runs at a time
+ */
+public class SpilledRunsTest {
+
+    private static final int MAX_FAN_IN = 3;
+    private static final Comparator<Long> ORDER = new Comparator<Long>() {
+        @Override
+        public int compare(Long value1, Long value2) {
+            return value1.compareTo(value2);
+        }
+    };
+
+    private Path spillDirectory;
+    private final CountingCodec codec = new CountingCodec();
+
+    @Before
+    public void createSpillDirectory() throws IOException {
+        spillDirectory = Files.createTempDirectory("stat-migration-test-");
+    }
+
+    @After
+    public void deleteSpillDirectory() throws IOException {
+        for (File file : spillDirectory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(spillDirectory);
+    }
+
+    @Test
+    public void testRunsAreMergedInPasses() throws Exception {
+        Random random = new Random(7);
+        List<Long> expected = new ArrayList<>();
+        SpilledRuns<Long> runs = new SpilledRuns<>("test", ORDER, codec, spillDirectory, MAX_FAN_IN);
+        for (int run = 0; run < 20; run++) {
+            expected.addAll(spill(runs, random, 100));
+        }
+        List<Long> memoryRecords = createRun(random, 50);
+        expected.addAll(memoryRecords);
+        Collections.sort(expected);
+        Assert.assertEquals(20, countSpillFiles());
+
+        CollectingSink sink = new CollectingSink();
+        runs.merge(memoryRecords, sink);
+
+        Assert.assertEquals(expected, sink.records);
+        Assert.assertEquals(20, runs.getSpillCount());
+        Assert.assertTrue(runs.isEmpty());
+        Assert.assertEquals(0, countSpillFiles());
+        Assert.assertTrue("Read " + codec.maxOpenRuns + " runs at a time", codec.maxOpenRuns <= MAX_FAN_IN);
+    }
+
+    @Test
+    public void testRunsAreSpilledAgainAfterMerge() throws Exception {
+        Random random = new Random(11);
+        SpilledRuns<Long> runs = new SpilledRuns<>("test", ORDER, codec, spillDirectory, MAX_FAN_IN);
+        List<Long> first = spill(runs, random, 10);
+        runs.merge(Collections.<Long>emptyList(), new CollectingSink());
+
+        List<Long> second = spill(runs, random, 10);
+        CollectingSink sink = new CollectingSink();
+        runs.merge(Collections.<Long>emptyList(), sink);
+
+        Assert.assertEquals(second, sink.records);
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(2, runs.getSpillCount());
+    }
+
+    @Test
+    public void testCloseDeletesSpillFiles() throws Exception {
+        SpilledRuns<Long> runs = new SpilledRuns<>("test", ORDER, codec, spillDirectory, MAX_FAN_IN);
+        spill(runs, new Random(13), 10);
+        spill(runs, new Random(17), 10);
+        Assert.assertEquals(2, countSpillFiles());
+        runs.close();
+        Assert.assertEquals(0, countSpillFiles());
+    }
+
+    private static List<Long> spill(SpilledRuns<Long> runs, Random random, int size) throws IOException {
+        List<Long> records = createRun(random, size);
+        runs.spill(records);
+        return records;
+    }
+
+    private static List<Long> createRun(Random random, int size) {
+        List<Long> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add((long) random.nextInt(1000));
+        }
+        Collections.sort(records);
+        return records;
+    }
+
+    private int countSpillFiles() {
+        return spillDirectory.toFile().listFiles().length;
+    }
+
+    /**
+     * Counts the spill files which are read from and not yet read to their end
+     */
+    private static final class CountingCodec implements SpilledRuns.Codec<Long> {
+
+        private final Set<DataInputStream> openRuns = new HashSet<>();
+        private int maxOpenRuns = 0;
+
+        @Override
+        public void write(Long record, DataOutputStream out) throws IOException {
+            out.writeLong(record);
+        }
+
+        @Override
+        public Long read(DataInputStream in) throws IOException {
+            try {
+                long record = in.readLong();
+                openRuns.add(in);
+                maxOpenRuns = Math.max(maxOpenRuns, openRuns.size());
+                return record;
+            } catch (EOFException e) {
+                openRuns.remove(in);
+                return null;
+            }
+        }
+    }
+
+    private static final class CollectingSink implements SpilledRuns.Sink<Long> {
+
+        private final List<Long> records = new ArrayList<>();
+
+        @Override
+        public void accept(Long record) {
+            records.add(record);
+        }
+    }
+}
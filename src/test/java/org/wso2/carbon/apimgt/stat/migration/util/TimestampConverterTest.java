@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.IllegalInstantException;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares {@link TimestampConverter} with the Joda based helpers of DBManagerImpl it replaced, which are copied
+ * below unchanged. Both are run in the default time zone, which is switched to zones with daylight saving gaps and
+ * overlaps at different times of the day. A value either converts to the same timestamp or fails with the same
+ * exception and message.
+ */
+public class TimestampConverterTest {
+
+    private static final String[] ZONES = {"UTC", "Asia/Kolkata", "Europe/London", "America/New_York",
+            "America/Sao_Paulo", "Australia/Lord_Howe"};
+    private static final int FIRST_YEAR = 2000;
+    private static final int LAST_YEAR = 2021;
+    private static final int TRANSITION_YEAR = 2018;
+
+    private DateTimeZone defaultZone;
+
+    @Before
+    public void saveDefaultZone() {
+        defaultZone = DateTimeZone.getDefault();
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        DateTimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void testDayTimestamps() {
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            for (int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+                for (int month = 1; month <= 12; month++) {
+                    for (int day = 1; day <= 31; day++) {
+                        assertDay(converter, year, month, day);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHourTimestamps() {
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 31; day++) {
+                    for (int hour = 0; hour < 24; hour++) {
+                        assertHour(converter, TRANSITION_YEAR, month, day, hour);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMinuteTimestampsAndTimes() {
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 31; day++) {
+                    //every minute of the days with a transition, every 7th minute of the other days
+                    int step = isTransitionDay(zone, TRANSITION_YEAR, month, day) ? 1 : 7;
+                    for (int minuteOfDay = 0; minuteOfDay < 24 * 60; minuteOfDay += step) {
+                        int hour = minuteOfDay / 60;
+                        int minute = minuteOfDay % 60;
+                        assertMinute(converter, TRANSITION_YEAR, month, day, hour, minute);
+                        assertTime(converter, String.format("%04d-%02d-%02d %02d:%02d", TRANSITION_YEAR, month,
+                                day, hour, minute));
+                        assertTime(converter, TRANSITION_YEAR + "-" + month + "-" + day + " " + hour + ":" + minute);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDaylightSavingGap() {
+        TimestampConverter converter = useZone("America/New_York");
+        assertMinute(converter, 2018, 3, 11, 2, 30);
+        assertTime(converter, "2018-03-11 02:30");
+        try {
+            converter.parseTime("2018-03-11 02:30");
+            Assert.fail("A local time in the daylight saving gap was converted");
+        } catch (IllegalInstantException e) {
+            //expected, the same as the Joda formatter
+        }
+
+        //the day starts in the gap in Sao Paulo, where the clocks moved from 00:00 to 01:00
+        converter = useZone("America/Sao_Paulo");
+        assertDay(converter, 2016, 10, 16);
+        assertHour(converter, 2016, 10, 16, 0);
+        try {
+            converter.toDayTimestamp(2016, 10, 16);
+            Assert.fail("A day starting in the daylight saving gap was converted");
+        } catch (IllegalInstantException e) {
+            //expected, the same as the Joda formatter
+        }
+    }
+
+    @Test
+    public void testDaylightSavingOverlap() {
+        TimestampConverter converter = useZone("America/New_York");
+        assertMinute(converter, 2018, 11, 4, 1, 30);
+        assertTime(converter, "2018-11-04 01:30");
+        //the earlier of the two offsets, i.e. daylight saving time
+        Assert.assertEquals(new DateTime(2018, 11, 4, 5, 30, DateTimeZone.UTC).getMillis(),
+                converter.parseTime("2018-11-04 01:30"));
+        Assert.assertEquals(new DateTime(2018, 11, 4, 5, 0, DateTimeZone.UTC).getMillis(),
+                converter.toHourTimestamp(2018, 11, 4, 1));
+
+        converter = useZone("Australia/Lord_Howe");
+        assertMinute(converter, 2018, 4, 1, 1, 45);
+        assertTime(converter, "2018-04-01 01:45");
+    }
+
+    @Test
+    public void testRollovers() {
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            assertMinute(converter, 2017, 12, 31, 23, 59);
+            assertMinute(converter, 2018, 1, 1, 0, 0);
+            assertMinute(converter, 2018, 1, 31, 23, 59);
+            assertMinute(converter, 2018, 2, 1, 0, 0);
+            assertTime(converter, "2017-12-31 23:59");
+            assertTime(converter, "2018-01-01 00:00");
+            assertTime(converter, "2018-04-30 23:59");
+            assertTime(converter, "2018-05-01 00:00");
+            assertDay(converter, 1999, 12, 31);
+            assertDay(converter, 2000, 1, 1);
+            assertDay(converter, 2000, 2, 29);
+            assertDay(converter, 1900, 2, 28);
+            assertDay(converter, 2400, 2, 29);
+            assertDay(converter, 1970, 1, 1);
+            assertDay(converter, 1969, 12, 31);
+            assertDay(converter, 1, 1, 1);
+            assertDay(converter, 9999, 12, 31);
+        }
+    }
+
+    @Test
+    public void testInvalidFields() {
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            assertDay(converter, 2018, 2, 29);
+            assertDay(converter, 1900, 2, 29);
+            assertDay(converter, 2018, 4, 31);
+            assertDay(converter, 2018, 13, 1);
+            assertDay(converter, 2018, 0, 1);
+            assertDay(converter, 2018, 1, 0);
+            assertDay(converter, 2018, 1, 32);
+            assertDay(converter, 0, 1, 1);
+            assertDay(converter, -1, 1, 1);
+            assertDay(converter, 10000, 1, 1);
+            assertHour(converter, 2018, 1, 1, 24);
+            assertHour(converter, 2018, 1, 1, -1);
+            assertMinute(converter, 2018, 1, 1, 0, 60);
+            assertMinute(converter, 2018, 1, 1, 0, -1);
+            assertMinute(converter, 2018, 2, 29, 0, 0);
+        }
+    }
+
+    @Test
+    public void testMalformedTimes() {
+        String[] times = {null, "", "2018", "2018-01-01", "2018-01-01 10", "2018-01-01 10:", "2018-01-01 10:00 ",
+                " 2018-01-01 10:00", "2018/01/01 10:00", "2018-01-01T10:00", "2018-01-01  10:00", "2018-001-01 10:00",
+                "2018-01-001 10:00", "2018-01-01 010:00", "2018-01-01 10:000", "18-01-01 10:00", "20180-01-01 10:00",
+                "+2018-01-01 10:00", "-2018-01-01 10:00", "abcd-01-01 10:00", "2018-ab-01 10:00", "2018-01-01 10:00:00",
+                "2018-02-30 10:00", "2018-02-29 10:00", "2018-13-01 10:00", "2018-00-01 10:00", "2018-01-00 10:00",
+                "2018-01-01 24:00", "2018-01-01 10:60", "0000-01-01 10:00", "2018-1-1 1:1", "2018-01-01 -1:00",
+                "2018-\u0661\u0662-01 10:00"};
+        for (String zone : ZONES) {
+            TimestampConverter converter = useZone(zone);
+            for (String time : times) {
+                assertTime(converter, time);
+            }
+        }
+    }
+
+    private static TimestampConverter useZone(String zone) {
+        DateTimeZone.setDefault(DateTimeZone.forID(zone));
+        return new TimestampConverter();
+    }
+
+    private static boolean isTransitionDay(String zone, int year, int month, int day) {
+        DateTimeZone timeZone = DateTimeZone.forID(zone);
+        try {
+            long start = new DateTime(year, month, day, 0, 0, DateTimeZone.UTC).getMillis();
+            return timeZone.nextTransition(start - 24 * 60 * 60 * 1000L) < start + 2 * 24 * 60 * 60 * 1000L;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void assertDay(final TimestampConverter converter, final int year, final int month,
+            final int day) {
+        final String date = year + "-" + month + "-" + day;
+        assertSameResult(date, new Conversion() {
+            @Override
+            public long convert() {
+                return getTimestampOfDay(date);
+            }
+        }, new Conversion() {
+            @Override
+            public long convert() {
+                return converter.toDayTimestamp(year, month, day);
+            }
+        });
+    }
+
+    private static void assertHour(final TimestampConverter converter, final int year, final int month,
+            final int day, final int hour) {
+        final String date = year + "-" + month + "-" + day + " " + hour;
+        assertSameResult(date, new Conversion() {
+            @Override
+            public long convert() {
+                return getTimestampOfHour(date);
+            }
+        }, new Conversion() {
+            @Override
+            public long convert() {
+                return converter.toHourTimestamp(year, month, day, hour);
+            }
+        });
+    }
+
+    private static void assertMinute(final TimestampConverter converter, final int year, final int month,
+            final int day, final int hour, final int minute) {
+        final String date = year + "-" + month + "-" + day + " " + hour + ":" + minute;
+        assertSameResult(date, new Conversion() {
+            @Override
+            public long convert() {
+                return getTimestampOfMinute(date);
+            }
+        }, new Conversion() {
+            @Override
+            public long convert() {
+                return converter.toMinuteTimestamp(year, month, day, hour, minute);
+            }
+        });
+    }
+
+    private static void assertTime(final TimestampConverter converter, final String time) {
+        assertSameResult(time, new Conversion() {
+            @Override
+            public long convert() {
+                return getTimestamp(time);
+            }
+        }, new Conversion() {
+            @Override
+            public long convert() {
+                return converter.parseTime(time);
+            }
+        });
+    }
+
+    private static void assertSameResult(String value, Conversion expected, Conversion actual) {
+        String message = value + " in " + DateTimeZone.getDefault().getID();
+        Assert.assertEquals(message, getResult(expected), getResult(actual));
+    }
+
+    /**
+     * @return the timestamp, or the class and message of the exception thrown by the conversion
+     */
+    private static String getResult(Conversion conversion) {
+        try {
+            return Long.toString(conversion.convert());
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    private interface Conversion {
+
+        long convert();
+    }
+
+    /**
+     * This method returns the date of form yyyy-MM-dd HH:mm as a timestamp
+     *
+     * @param date date as a string
+     * @return the date in milliseconds
+     */
+    private static long getTimestamp(String date) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(date);
+        return dateTime.getMillis();
+    }
+
+    /**
+     * This method returns the date of form yyyy-M-dd as a timestamp
+     *
+     * @param date date as a string
+     * @return the date in milliseconds
+     */
+    private static long getTimestampOfDay(String date) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_DAY_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(date);
+        return dateTime.getMillis();
+    }
+
+    /**
+     * This method returns the date of form yyyy-M-dd HH as a timestamp
+     *
+     * @param date date as a string
+     * @return the date in milliseconds
+     */
+    private static long getTimestampOfHour(String date) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_HOUR_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(date);
+        return dateTime.getMillis();
+    }
+
+    /**
+     * This method returns the date of form yyyy-MM-dd HH:mm as a timestamp
+     *
+     * @param date date as a string
+     * @return the date in milliseconds
+     */
+    private static long getTimestampOfMinute(String date) {
+        DateTimeFormatter formatter = DateTimeFormat.forPattern(APIMStatMigrationConstants.TIMESTAMP_MINUTE_PATTERN);
+        DateTime dateTime = formatter.parseDateTime(date);
+        return dateTime.getMillis();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Tests the upsert statements which are built from the insert statement and the primary key of a target table
+ */
+public class UpsertStatementBuilderTest {
+
+    private static final String INSERT_QUERY = "INSERT INTO ApiPerDestinationAgg_DAYS (apiName, AGG_COUNT, "
+            + "AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, label) VALUES (?,?,?,?,?,'Synapse')";
+
+    private Connection connection;
+
+    @Before
+    public void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:UpsertStatementBuilderTest");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE ApiPerDestinationAgg_DAYS (apiName VARCHAR(254), AGG_COUNT BIGINT, "
+                    + "AGG_TIMESTAMP BIGINT, AGG_EVENT_TIMESTAMP BIGINT, AGG_LAST_EVENT_TIMESTAMP BIGINT, "
+                    + "label VARCHAR(254), PRIMARY KEY (apiName, AGG_TIMESTAMP))");
+        }
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testSqlServerMergeLocksKeyRange() throws Exception {
+        Assert.assertEquals("MERGE INTO ApiPerDestinationAgg_DAYS WITH (HOLDLOCK) t USING "
+                        + "(VALUES (?, ?, ?, ?, ?, 'Synapse')) s (apiName, AGG_COUNT, AGG_TIMESTAMP, "
+                        + "AGG_EVENT_TIMESTAMP, AGG_LAST_EVENT_TIMESTAMP, label) "
+                        + "ON (t.apiName = s.apiName AND t.AGG_TIMESTAMP = s.AGG_TIMESTAMP) "
+                        + "WHEN MATCHED THEN UPDATE SET t.AGG_COUNT = t.AGG_COUNT + s.AGG_COUNT, "
+                        + "t.AGG_EVENT_TIMESTAMP = CASE WHEN s.AGG_EVENT_TIMESTAMP < t.AGG_EVENT_TIMESTAMP "
+                        + "THEN s.AGG_EVENT_TIMESTAMP ELSE t.AGG_EVENT_TIMESTAMP END, "
+                        + "t.AGG_LAST_EVENT_TIMESTAMP = CASE WHEN s.AGG_LAST_EVENT_TIMESTAMP > "
+                        + "t.AGG_LAST_EVENT_TIMESTAMP THEN s.AGG_LAST_EVENT_TIMESTAMP "
+                        + "ELSE t.AGG_LAST_EVENT_TIMESTAMP END "
+                        + "WHEN NOT MATCHED THEN INSERT (apiName, AGG_COUNT, AGG_TIMESTAMP, AGG_EVENT_TIMESTAMP, "
+                        + "AGG_LAST_EVENT_TIMESTAMP, label) VALUES (s.apiName, s.AGG_COUNT, s.AGG_TIMESTAMP, "
+                        + "s.AGG_EVENT_TIMESTAMP, s.AGG_LAST_EVENT_TIMESTAMP, s.label);",
+                UpsertStatementBuilder.build(asSqlServer(connection), INSERT_QUERY));
+    }
+
+    @Test
+    public void testOtherMergesAreNotHinted() throws Exception {
+        String query = UpsertStatementBuilder.build(connection, INSERT_QUERY);
+        Assert.assertTrue(query, query.startsWith("MERGE INTO ApiPerDestinationAgg_DAYS t USING (SELECT "));
+        Assert.assertFalse(query, query.endsWith(";"));
+    }
+
+    /**
+     * @return a connection which delegates to the given one, but whose metadata names Microsoft SQL Server as the
+     * database product
+     */
+    private static Connection asSqlServer(final Connection connection) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        final DatabaseMetaData sqlServerMetaData = (DatabaseMetaData) Proxy.newProxyInstance(
+                UpsertStatementBuilderTest.class.getClassLoader(), new Class<?>[]{DatabaseMetaData.class},
+                new Delegate(metaData) {
+                    @Override
+                    protected Object replace(Method method) {
+                        return "getDatabaseProductName".equals(method.getName()) ? "Microsoft SQL Server" : null;
+                    }
+                });
+        return (Connection) Proxy.newProxyInstance(UpsertStatementBuilderTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Delegate(connection) {
+                    @Override
+                    protected Object replace(Method method) {
+                        return "getMetaData".equals(method.getName()) ? sqlServerMetaData : null;
+                    }
+                });
+    }
+
+    /**
+     * Calls the methods of a JDBC object, apart from those the subclass replaces
+     */
+    private abstract static class Delegate implements InvocationHandler {
+
+        private final Object target;
+
+        private Delegate(Object target) {
+            this.target = target;
+        }
+
+        protected abstract Object replace(Method method);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object replacement = replace(method);
+            if (replacement != null) {
+                return replacement;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
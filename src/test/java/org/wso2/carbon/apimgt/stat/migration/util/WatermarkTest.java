@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.apimgt.stat.migration.util;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that consecutive delta runs migrate every row of a source table once, including the rows which arrive with
+ * the recorded watermark value between two runs
+ */
+public class WatermarkTest {
+
+    private static final TableMapping MAPPING = TableMappings.DESTINATION_SUMMARY;
+
+    private Connection connection;
+    private WatermarkStore store;
+
+    @Before
+    public void createTables() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:WatermarkTest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE " + MAPPING.getSourceTable() + " (id INT, " + MAPPING.getWatermarkField()
+                    + " BIGINT)");
+        }
+        store = new WatermarkStore(dataSource);
+        store.initialize();
+    }
+
+    @After
+    public void dropTables() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testRowsAtWatermarkBetweenRunsAreMigrated() throws Exception {
+        insert(1, null);
+        insert(2, 1000L);
+        insert(3, 2000L);
+        insert(4, 3000L);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), migrate());
+        Assert.assertEquals("3000", store.load(MAPPING).getLowerBound());
+
+        insert(5, 3000L);
+        insert(6, 4000L);
+        Assert.assertEquals(Arrays.asList(4, 5), migrate());
+        Assert.assertEquals("4000", store.load(MAPPING).getLowerBound());
+
+        Assert.assertEquals(Collections.<Integer>emptyList(), migrate());
+        insert(7, 4000L);
+        insert(8, 5000L);
+        Assert.assertEquals(Arrays.asList(6, 7), migrate());
+        Assert.assertEquals("5000", store.load(MAPPING).getLowerBound());
+    }
+
+    private void insert(int id, Long time) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + MAPPING.getSourceTable()
+                + " VALUES (?,?)")) {
+            statement.setInt(1, id);
+            if (time != null) {
+                statement.setLong(2, time);
+            } else {
+                statement.setNull(2, Types.BIGINT);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * This method migrates the rows of the source table the way a delta run does
+     *
+     * @return ids of the migrated rows
+     */
+    private List<Integer> migrate() throws Exception {
+        Watermark watermark = store.load(MAPPING);
+        if (watermark == null) {
+            watermark = Watermark.initial(MAPPING);
+        }
+        watermark = watermark.upTo(getUpperBound(watermark));
+        List<Integer> ids = new ArrayList<>();
+        if (!watermark.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM "
+                    + MAPPING.getSourceTable() + " WHERE " + watermark.getCondition() + " ORDER BY id")) {
+                watermark.bind(statement, 1);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getInt(1));
+                    }
+                }
+            }
+        }
+        store.save(Collections.singletonList(MAPPING), watermark);
+        return ids;
+    }
+
+    private String getUpperBound(Watermark watermark) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(" + watermark.getField() + ") FROM "
+                     + MAPPING.getSourceTable())) {
+            resultSet.next();
+            long value = resultSet.getLong(1);
+            return resultSet.wasNull() ? null : Long.toString(value);
+        }
+    }
+}